@@ -0,0 +1,207 @@
+package edu.northeastern.ccs.im.communications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the bytes received on a connection into frames, each holding one message.
+ * <p>
+ * Bytes are read straight into {@link #buffer()}, which keeps any partial frame left over from earlier
+ * reads; {@link #decode(FrameHandler)} then hands every complete frame to the handler without copying
+ * it. The buffer starts small and grows as needed, but a frame larger than the maximum frame size is a
+ * protocol error, after which nothing more is decoded.
+ * <p>
+ * Text frames are found with a single pass over the new bytes: the scanner remembers how deeply nested
+ * it is and whether it is inside a string, so bytes are never looked at twice however the frame is split
+ * across reads.
+ */
+final class FrameDecoder {
+
+    /**
+     * Receives the frames found by a decoder.
+     */
+    @FunctionalInterface
+    interface FrameHandler {
+        /**
+         * Handle one complete frame. The bytes are only valid during the call.
+         *
+         * @param data   buffer holding the frame
+         * @param offset where the frame starts
+         * @param length number of bytes of the frame
+         */
+        void onFrame(byte[] data, int offset, int length);
+    }
+
+    private final int maxFrameSize;
+
+    /**
+     * Bytes received but not decoded yet, in write mode: they run from 0 to the position.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Framing of the connection; null until the first byte arrives. Replies may be framed by another
+     * thread than the one decoding.
+     */
+    private volatile Framing framing;
+
+    /**
+     * Offset of the next byte the text scanner has not looked at yet.
+     */
+    private int scanned;
+
+    /**
+     * Nesting depth of the text scanner; zero between frames.
+     */
+    private int depth;
+
+    private boolean inString;
+
+    private boolean escaped;
+
+    private boolean broken;
+
+    /**
+     * Create a decoder.
+     *
+     * @param initialCapacity size the buffer starts with
+     * @param maxFrameSize    largest frame accepted, in bytes; at most {@link Framing#LARGEST_FRAME}
+     */
+    FrameDecoder(int initialCapacity, int maxFrameSize) {
+        this.maxFrameSize = Math.min(maxFrameSize, Framing.LARGEST_FRAME);
+        this.buffer = ByteBuffer.allocate(Math.min(initialCapacity, this.maxFrameSize + Framing.PREFIX_SIZE));
+    }
+
+    /**
+     * Get the buffer to read into, growing it first if it is full and a frame is still incomplete.
+     *
+     * @return the buffer, with room for at least one more byte unless the decoder is broken
+     */
+    ByteBuffer buffer() {
+        if (!buffer.hasRemaining() && buffer.capacity() < maxFrameSize + Framing.PREFIX_SIZE) {
+            int capacity = (int) Math.min((long) buffer.capacity() * 2, maxFrameSize + Framing.PREFIX_SIZE);
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        return buffer;
+    }
+
+    /**
+     * Decode bytes that were not read straight into {@link #buffer()}.
+     *
+     * @param bytes   the bytes to decode; all of their remaining bytes are consumed
+     * @param handler receives the frames, in order
+     * @return false if the peer broke the framing, in which case nothing more will be decoded
+     */
+    boolean decode(ByteBuffer bytes, FrameHandler handler) {
+        boolean result = !broken;
+        while (result && bytes.hasRemaining()) {
+            ByteBuffer into = buffer();
+            ByteBuffer chunk = bytes.duplicate();
+            chunk.limit(chunk.position() + Math.min(into.remaining(), chunk.remaining()));
+            into.put(chunk);
+            bytes.position(chunk.position());
+            result = decode(handler);
+        }
+        bytes.position(bytes.limit());
+        return result;
+    }
+
+    /**
+     * Hand every complete frame received so far to the handler, keeping a trailing partial frame.
+     *
+     * @param handler receives the frames, in order
+     * @return false if the peer broke the framing, in which case nothing more will be decoded
+     */
+    boolean decode(FrameHandler handler) {
+        if (broken) {
+            return false;
+        }
+        buffer.flip();
+        if (framing == null && buffer.hasRemaining()) {
+            framing = Framing.select(buffer.get(0));
+        }
+        if (framing == Framing.LENGTH_PREFIXED) {
+            decodeLengthPrefixed(handler);
+        } else if (framing == Framing.TEXT) {
+            decodeText(handler);
+        }
+        if (broken) {
+            buffer.clear();
+            return false;
+        }
+        if (framing == Framing.TEXT) {
+            scanned -= buffer.position();
+        }
+        buffer.compact();
+        return true;
+    }
+
+    /**
+     * Framing of the connection; {@link Framing#TEXT} until the client has said otherwise.
+     *
+     * @return the framing to use for replies
+     */
+    Framing getFraming() {
+        return framing == null ? Framing.TEXT : framing;
+    }
+
+    private void decodeLengthPrefixed(FrameHandler handler) {
+        byte[] data = buffer.array();
+        while (buffer.remaining() >= Framing.PREFIX_SIZE) {
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || length > maxFrameSize) {
+                broken = true;
+                return;
+            }
+            if (buffer.remaining() < Framing.PREFIX_SIZE + length) {
+                return;
+            }
+            int start = buffer.position() + Framing.PREFIX_SIZE;
+            handler.onFrame(data, start, length);
+            buffer.position(start + length);
+        }
+    }
+
+    private void decodeText(FrameHandler handler) {
+        byte[] data = buffer.array();
+        int start = buffer.position();
+        int end = buffer.limit();
+        for (int i = Math.max(scanned, start); i < end; i++) {
+            byte b = data[i];
+            if (depth == 0) {
+                // Between frames: skip separators until the next object starts.
+                if (b == '{') {
+                    depth = 1;
+                } else {
+                    start = i + 1;
+                }
+            } else if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                if (i + 1 - start > maxFrameSize) {
+                    broken = true;
+                    return;
+                }
+                handler.onFrame(data, start, i + 1 - start);
+                start = i + 1;
+            }
+        }
+        scanned = end;
+        buffer.position(start);
+        if (end - start > maxFrameSize) {
+            broken = true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package edu.northeastern.ccs.im.communications;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How the messages on a connection are separated from each other.
+ * <p>
+ * A connection starts out undecided and is fixed by the first byte the client sends: a length prefix
+ * always starts with a zero byte, since frames are smaller than 16 MiB, while a JSON object never does.
+ * Replies use the same framing as the requests.
+ */
+enum Framing {
+    /**
+     * Each frame is one JSON object. Objects may be separated by newlines, as in newline-delimited
+     * JSON, or simply follow each other; replies end with a newline.
+     */
+    TEXT,
+
+    /**
+     * Each frame is a four byte big-endian length followed by that many bytes of JSON.
+     */
+    LENGTH_PREFIXED;
+
+    /**
+     * Size of the length prefix of {@link #LENGTH_PREFIXED} frames.
+     */
+    static final int PREFIX_SIZE = 4;
+
+    /**
+     * Largest frame whose length prefix still starts with a zero byte.
+     */
+    static final int LARGEST_FRAME = 0xFFFFFF;
+
+    private static final ByteBuffer NEWLINE = ByteBuffer.wrap(new byte[]{'\n'}).asReadOnlyBuffer();
+
+    /**
+     * Pick the framing a client asked for with the first byte it sent.
+     *
+     * @param first the first byte received on the connection
+     * @return the framing of the connection
+     */
+    static Framing select(byte first) {
+        return first == 0 ? LENGTH_PREFIXED : TEXT;
+    }
+
+    /**
+     * Put an encoded message into a frame. The body itself is not copied.
+     *
+     * @param body the encoded message
+     * @return the buffers to write, in order
+     */
+    ByteBuffer[] wrap(ByteBuffer body) {
+        if (this == LENGTH_PREFIXED) {
+            ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+            prefix.putInt(0, body.remaining());
+            return new ByteBuffer[]{prefix, body};
+        }
+        return new ByteBuffer[]{body, NEWLINE.duplicate()};
+    }
+}
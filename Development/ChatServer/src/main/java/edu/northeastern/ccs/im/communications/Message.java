@@ -1,10 +1,7 @@
 package edu.northeastern.ccs.im.communications;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,10 +22,16 @@ public class Message {
      * keyword for text
      */
     private static final String TEXT_KEY = "text";
-    private static final String MSG_TYPE_KEY = "msg_type";
-    private static final String SENDER_NAME_KEY = "sender_name";
+    static final String MSG_TYPE_KEY = "msg_type";
+    static final String SENDER_NAME_KEY = "sender_name";
     private static final String SYSTEM = "SYSTEM";
     private static final String PUBLIC_KEY = "PUBLIC_KEY";
+    private static final String TOKEN_KEY = "token";
+    private static final String SEQUENCE_KEY = "seq";
+    public static final String CURSOR_KEY = "cursor";
+    public static final String MESSAGE_ID_KEY = "message_id";
+    public static final String REF_KEY = "ref";
+    private static final String STORED_KEY = "stored";
 
     /**
      * The handle of the message.
@@ -47,6 +50,12 @@ public class Message {
 
     private Map<String, String> msgToInfo;
 
+    /**
+     * The bytes sent over the network for this message, encoded on first use and then shared by every
+     * recipient.
+     */
+    private volatile ByteBuffer encoded;
+
     /**
      * @param handle    Handle for the type of message being created.
      * @param srcName   Name of the individual sending this message
@@ -122,7 +131,7 @@ public class Message {
     }
 
     /**
-     * Create a message for getting the user's queued messages from last logout
+     * Create a message for getting the user's queued messages, the ones not acknowledged yet
      *
      * @param myName    Name of the sender to request message queue
      * @return          Instance of message for getting queue
@@ -133,6 +142,41 @@ public class Message {
         return new Message(MessageType.GET_QUEUE, myName, null, msgInfo);
     }
 
+    /**
+     * Create a message acknowledging that the user got some messages, so they are not queued for it any more
+     *
+     * @param myName     Name of the user acknowledging
+     * @param messageIds ids of the messages got, separated by commas
+     * @return           Instance of message for acknowledging
+     */
+    public static Message makeAckMessage(String myName, String messageIds) {
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(MSG_TYPE_KEY, MessageType.ACK.toString());
+        msgInfo.put(SENDER_NAME_KEY, myName);
+        msgInfo.put(MESSAGE_ID_KEY, messageIds);
+        return new Message(MessageType.ACK, myName, null, msgInfo);
+    }
+
+    /**
+     * Create a message telling the sender of a message whether it was stored, once it was written
+     *
+     * @param messageId id the message was stored under
+     * @param stored    whether the message was stored
+     * @param ref       reference the sender gave the message, or null if it gave none
+     * @return          Instance of message for acknowledging storage
+     */
+    public static Message makeStoredMessage(String messageId, boolean stored, String ref) {
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(MSG_TYPE_KEY, MessageType.ACK.toString());
+        msgInfo.put(SENDER_NAME_KEY, SYSTEM);
+        msgInfo.put(MESSAGE_ID_KEY, messageId);
+        msgInfo.put(STORED_KEY, Boolean.toString(stored));
+        if (ref != null) {
+            msgInfo.put(REF_KEY, ref);
+        }
+        return new Message(MessageType.ACK, SYSTEM, null, msgInfo);
+    }
+
     /**
      * Create a message for getting the user's message history
      *
@@ -142,7 +186,98 @@ public class Message {
     public static Message makeGetHistoryMessage(String myName) {
         Map<String, String> msgInfo = new HashMap<>();
         msgInfo.put(MSG_TYPE_KEY, "GET_HISTORY");
-        return new Message(MessageType.GET_HISTORY, myName, null, msgInfo);
+        return makeGetHistoryMessage(myName, msgInfo);
+    }
+
+    /**
+     * Create a message for getting a page of the user's message history. The page is described by the optional
+     * limit (most messages), since and until (times sent, in milliseconds since the epoch) and cursor (handed out
+     * with the previous page) fields.
+     *
+     * @param myName    Name of the sender to request message history
+     * @param msgToInfo the fields of the request
+     * @return          Instance of message for getting history
+     */
+    public static Message makeGetHistoryMessage(String myName, Map<String, String> msgToInfo) {
+        return new Message(MessageType.GET_HISTORY, myName, null, msgToInfo);
+    }
+
+    /**
+     * Create the message that ends a page of message history.
+     *
+     * @param cursor cursor with which to ask for the next page, or null if this was the last one
+     * @return message
+     */
+    public static Message makeHistoryEndMessage(String cursor) {
+        if (cursor == null) {
+            return makeSystemMessage("All messages sent!");
+        }
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(TEXT_KEY, "More messages, ask again with the cursor.");
+        msgInfo.put(MSG_TYPE_KEY, SYSTEM);
+        msgInfo.put(SENDER_NAME_KEY, SYSTEM);
+        msgInfo.put(CURSOR_KEY, cursor);
+        return new Message(MessageType.SYSTEM, SYSTEM, null, msgInfo);
+    }
+
+    /**
+     * Create a message logging back in with a resume token instead of a password
+     *
+     * @param myName name of the user
+     * @param token  the resume token handed out by an earlier login
+     * @return message
+     */
+    public static Message makeResumeMessage(String myName, String token) {
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(MSG_TYPE_KEY, MessageType.RESUME.toString());
+        msgInfo.put(SENDER_NAME_KEY, myName);
+        msgInfo.put(TOKEN_KEY, token);
+        return new Message(MessageType.RESUME, myName, null, msgInfo);
+    }
+
+    /**
+     * Create the message handing a resume token to a user who just logged in
+     *
+     * @param token     the resume token
+     * @param expiresAt when the token expires, in milliseconds since the epoch
+     * @return message
+     */
+    public static Message makeResumeTokenMessage(String token, long expiresAt) {
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(MSG_TYPE_KEY, MessageType.RESUME.toString());
+        msgInfo.put(SENDER_NAME_KEY, SYSTEM);
+        msgInfo.put(TOKEN_KEY, token);
+        msgInfo.put("expires", Long.toString(expiresAt));
+        return new Message(MessageType.RESUME, SYSTEM, null, msgInfo);
+    }
+
+    /**
+     * Create the ping the server sends to a logged in client
+     *
+     * @param sequence number of the ping, to be sent back in the pong
+     * @return message
+     */
+    public static Message makePingMessage(long sequence) {
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(MSG_TYPE_KEY, MessageType.PING.toString());
+        msgInfo.put(SENDER_NAME_KEY, SYSTEM);
+        msgInfo.put(SEQUENCE_KEY, Long.toString(sequence));
+        return new Message(MessageType.PING, SYSTEM, null, msgInfo);
+    }
+
+    /**
+     * Create the answer of a client to a ping
+     *
+     * @param myName   name of the user
+     * @param sequence number of the ping being answered
+     * @return message
+     */
+    public static Message makePongMessage(String myName, String sequence) {
+        Map<String, String> msgInfo = new HashMap<>();
+        msgInfo.put(MSG_TYPE_KEY, MessageType.PONG.toString());
+        msgInfo.put(SENDER_NAME_KEY, myName);
+        msgInfo.put(SEQUENCE_KEY, sequence);
+        return new Message(MessageType.PONG, myName, null, msgInfo);
     }
 
     /**
@@ -170,76 +305,15 @@ public class Message {
 
     /**
      * Given a handle, name and text, return the appropriate message instance or an
-     * instance from a subclass of message.
-     * <p>
-     * The necessity of using if else does not exist anymore
-     * it will be the first thing to refactor when feature is done.
+     * instance from a subclass of message. The kind of message is looked up by
+     * {@link MessageCodec} from the msg_type of the payload.
      *
      * @param json contains all information that we need.
      * @return Instance of Message (or its subclasses) representing the handle,
      * name, & text.
      */
     protected static Message makeMessage(String json) {
-        HashMap<String, String> payload;
-        try {
-            payload = new ObjectMapper().readValue(json, new TypeReference<HashMap<String, String>>() {
-            });
-        } catch (IOException e) {
-            return null;
-        }
-
-        String msgType = payload.get(MSG_TYPE_KEY);
-        String senderName = payload.get(SENDER_NAME_KEY);
-
-        if (msgType.equals("REGISTER")) {
-            return makeRegisterMessage(senderName, payload.get("pw"), payload.get("public_key"));
-        }
-
-        if (msgType.equals("HLO")) {
-            return makeLoginMessage(senderName, payload.get("pw"));
-        }
-
-        // quit
-        if (msgType.equals("BYE")) {
-            return makeQuitMessage(senderName);
-        }
-
-        if (msgType.equals("TO_GROUP")) {
-            return makeGroupMessage(senderName, null, payload);
-        }
-
-        if (msgType.equals(PUBLIC_KEY)) {
-            return makeGetKeyMessage(senderName, payload);
-        }
-
-        if (msgType.equals("BCT")) {
-            return makeBroadcastMessage(senderName, payload);
-        }
-
-        if (msgType.equals("INVITE")) {
-            return makeInvitationMessage(senderName, null, payload);
-        }
-
-        if (msgType.equals("CRG")) {
-            return makeCreateGroupMessage(senderName, payload);
-        }
-
-        if (msgType.equals(MessageType.TO_USER.toString())) {
-            return makeDirectMessage(senderName, payload.get("text"), payload);
-        }
-
-        if (msgType.equals("GET_QUEUE")) {
-            return makeGetQueueMessage(senderName);
-        }
-
-        if (msgType.equals("GET_HISTORY")) {
-            return makeGetHistoryMessage(senderName);
-        }
-
-        if (msgType.equals(MessageType.DELETE_MSG.toString())) {
-            return makeDeleteMessageMessage(senderName, payload);
-        }
-        return null;
+        return MessageCodec.decode(json);
     }
 
     /**
@@ -281,6 +355,15 @@ public class Message {
         return new Message(MessageType.HELLO, userName, null, msgInfo);
     }
 
+    /**
+     * Return the kind of this message.
+     *
+     * @return the type of the message
+     */
+    public MessageType getMsgType() {
+        return msgType;
+    }
+
     /**
      * Return the name of the sender of this message.
      *
@@ -317,6 +400,33 @@ public class Message {
         return (msgType == MessageType.BROADCAST);
     }
 
+    /**
+     * Determine if this message carries a resume token.
+     *
+     * @return True if the message is a resume message; false otherwise.
+     */
+    public boolean isResumeMessage() {
+        return msgType == MessageType.RESUME;
+    }
+
+    /**
+     * Determine if this message answers a ping.
+     *
+     * @return True if the message is a pong; false otherwise.
+     */
+    public boolean isPongMessage() {
+        return msgType == MessageType.PONG;
+    }
+
+    /**
+     * Determine if this message comes from the server itself rather than from a user.
+     *
+     * @return True if the message is a system message; false otherwise.
+     */
+    public boolean isSystemMessage() {
+        return msgType == MessageType.SYSTEM;
+    }
+
     /**
      * etermine if this message is Register
      *
@@ -353,6 +463,15 @@ public class Message {
         return (msgType == MessageType.GET_HISTORY);
     }
 
+    /**
+     * Determine if the message acknowledges getting messages
+     *
+     * @return True if the message is an acknowledgement
+     */
+    public boolean isAckMessage() {
+        return (msgType == MessageType.ACK);
+    }
+
     /**
      * Determine if this message is broadcasting text to some group.
      *
@@ -409,30 +528,40 @@ public class Message {
     }
 
     /**
-     * Representation of this message as a String. This begins with the message
-     * handle and then contains the length (as an integer) and the value of the next
-     * two arguments.
+     * Representation of this message as a String: the JSON sent over the network, decoded from the bytes
+     * {@link #getEncoded()} keeps, so the message is not encoded again.
      *
      * @return Representation of this message as a String.
      */
     @Override
     public String toString() {
-        return getJSONString(msgToInfo);
+        return StandardCharsets.UTF_8.decode(getEncoded()).toString();
     }
 
+    /**
+     * The bytes to send over the network for this message. The message is encoded only once, however
+     * many clients it is sent to; each caller gets its own read-only view of the same bytes, with its own
+     * position, so recipients may write from it concurrently. Changes made to the message after the
+     * first call are not reflected.
+     *
+     * @return a read-only buffer positioned at the start of the encoded message
+     */
+    public ByteBuffer getEncoded() {
+        ByteBuffer result = encoded;
+        if (result == null) {
+            // Racing callers may each encode once; they produce the same bytes, so either copy will do.
+            result = ByteBuffer.wrap(getEncodedBytes()).asReadOnlyBuffer();
+            encoded = result;
+        }
+        return result.duplicate();
+    }
 
     /**
-     * get payload's json string
+     * Encode the payload of this message, without caching it.
      *
-     * @param payload
-     * @return string of json
+     * @return the UTF-8 bytes of the JSON object
      */
-    @SuppressWarnings("squid:S00112") // True, we could have customized exception, but now there is no need
-    private static String getJSONString(Map<String, String> payload) {
-        try {
-            return new ObjectMapper().writeValueAsString(payload);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Something went wrong when constructing your message.");
-        }
+    private byte[] getEncodedBytes() {
+        return MessageCodec.encode(msgToInfo);
     }
 }
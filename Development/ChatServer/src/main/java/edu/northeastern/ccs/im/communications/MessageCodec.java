@@ -0,0 +1,152 @@
+package edu.northeastern.ccs.im.communications;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Converts messages to and from the JSON objects sent over the network. A message on the wire is a flat
+ * object of string fields, one of which, {@code msg_type}, says which kind of message it is.
+ * <p>
+ * Both directions use the Jackson streaming API on a single shared factory: incoming bytes are parsed
+ * straight into the payload map without first being turned into a String, and outgoing payloads are
+ * written straight to bytes. The kind of message is found with one lookup in a table keyed by
+ * {@code msg_type}.
+ */
+final class MessageCodec {
+
+    /**
+     * Factory shared by all parsers and generators; it is thread-safe.
+     */
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /**
+     * How to build each kind of incoming message from its payload, by msg_type.
+     */
+    private static final Map<String, Function<Map<String, String>, Message>> DECODERS = new HashMap<>();
+
+    static {
+        DECODERS.put("REGISTER", payload -> Message.makeRegisterMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload.get("pw"), payload.get("public_key")));
+        DECODERS.put("HLO", payload -> Message.makeLoginMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload.get("pw")));
+        DECODERS.put("BYE", payload -> Message.makeQuitMessage(payload.get(Message.SENDER_NAME_KEY)));
+        DECODERS.put("TO_GROUP", payload -> Message.makeGroupMessage(
+                payload.get(Message.SENDER_NAME_KEY), null, payload));
+        DECODERS.put("PUBLIC_KEY", payload -> Message.makeGetKeyMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload));
+        DECODERS.put("BCT", payload -> Message.makeBroadcastMessage(payload.get(Message.SENDER_NAME_KEY), payload));
+        DECODERS.put("INVITE", payload -> Message.makeInvitationMessage(
+                payload.get(Message.SENDER_NAME_KEY), null, payload));
+        DECODERS.put("CRG", payload -> Message.makeCreateGroupMessage(payload.get(Message.SENDER_NAME_KEY), payload));
+        DECODERS.put(MessageType.TO_USER.toString(), payload -> Message.makeDirectMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload.get("text"), payload));
+        DECODERS.put("GET_QUEUE", payload -> Message.makeGetQueueMessage(payload.get(Message.SENDER_NAME_KEY)));
+        DECODERS.put("GET_HISTORY", payload -> Message.makeGetHistoryMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload));
+        DECODERS.put(MessageType.ACK.toString(), payload -> Message.makeAckMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload.get(Message.MESSAGE_ID_KEY)));
+        DECODERS.put(MessageType.DELETE_MSG.toString(), payload -> Message.makeDeleteMessageMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload));
+        DECODERS.put(MessageType.RESUME.toString(), payload -> Message.makeResumeMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload.get("token")));
+        DECODERS.put(MessageType.PONG.toString(), payload -> Message.makePongMessage(
+                payload.get(Message.SENDER_NAME_KEY), payload.get("seq")));
+    }
+
+    private MessageCodec() {
+        // static helpers only
+    }
+
+    /**
+     * Build the message encoded in the given bytes.
+     *
+     * @param data   buffer holding the JSON object
+     * @param offset where the object starts
+     * @param length number of bytes of the object
+     * @return the message, or null if the bytes are not a message we know about
+     */
+    static Message decode(byte[] data, int offset, int length) {
+        try (JsonParser parser = FACTORY.createParser(data, offset, length)) {
+            return toMessage(parse(parser));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Build the message encoded in the given JSON text.
+     *
+     * @param json the JSON object
+     * @return the message, or null if the text is not a message we know about
+     */
+    static Message decode(String json) {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return toMessage(parse(parser));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encode the given payload as a JSON object.
+     *
+     * @param payload the fields of the message
+     * @return the UTF-8 bytes of the JSON object
+     */
+    @SuppressWarnings("squid:S00112") // True, we could have customized exception, but now there is no need
+    static byte[] encode(Map<String, String> payload) {
+        try (ByteArrayBuilder bytes = new ByteArrayBuilder()) {
+            try (JsonGenerator generator = FACTORY.createGenerator(bytes, JsonEncoding.UTF8)) {
+                generator.writeStartObject();
+                for (Map.Entry<String, String> field : payload.entrySet()) {
+                    generator.writeStringField(field.getKey(), field.getValue());
+                }
+                generator.writeEndObject();
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Something went wrong when constructing your message.");
+        }
+    }
+
+    /**
+     * Read one flat JSON object of scalar fields.
+     *
+     * @param parser parser positioned before the object
+     * @return the fields, or null if the input is not such an object
+     * @throws IOException if the input is not valid JSON
+     */
+    private static Map<String, String> parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        Map<String, String> payload = new HashMap<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            token = parser.nextToken();
+            if (token == null || !token.isScalarValue()) {
+                return null;
+            }
+            payload.put(name, token == JsonToken.VALUE_NULL ? null : parser.getText());
+        }
+        return token == JsonToken.END_OBJECT ? payload : null;
+    }
+
+    private static Message toMessage(Map<String, String> payload) {
+        if (payload == null) {
+            return null;
+        }
+        Function<Map<String, String>, Message> decoder = DECODERS.get(payload.get(Message.MSG_TYPE_KEY));
+        return decoder == null ? null : decoder.apply(payload);
+    }
+}
@@ -46,7 +46,7 @@ public enum MessageType {
     PUBLIC_KEY("PUBLIC_KEY"),
 
     /**
-     * Message sent by user to get all queued messages since logout
+     * Message sent by user to get the queued messages it has not acknowledged
      */
     GET_QUEUE("GET_QUEUE"),
 
@@ -55,6 +55,12 @@ public enum MessageType {
      */
     GET_HISTORY("GET_HISTORY"),
 
+    /**
+     * Message sent by user to acknowledge getting queued or direct messages, and by the server
+     * to tell the sender of a message that it was stored
+     */
+    ACK("ACK"),
+
     /**
      * Invitation
      */
@@ -63,7 +69,21 @@ public enum MessageType {
     /**
      * Message to delete a message
      */
-    DELETE_MSG("DELETE_MSG");
+    DELETE_MSG("DELETE_MSG"),
+
+    /**
+     * Message sent by user to log back in with a resume token, and by the server to
+     * hand out a new token after a login
+     */
+    RESUME("RESUME"),
+    /**
+     * Message sent by the server to check that a logged in client is still there
+     */
+    PING("PING"),
+    /**
+     * Message sent by the user in answer to a ping
+     */
+    PONG("PONG");
 
     /**
      * Store the short name of this message type.
@@ -5,22 +5,23 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class is similar to the java.io.PrintWriter class, but this class's
- * methods work with our non-blocking Socket classes. This class could easily be
- * made to wait for network output (e.g., be made &quot;non-blocking&quot; in
- * technical parlance), but I have not worried about it yet.
+ * methods work with our non-blocking Socket classes. Output never waits for the
+ * network: whatever the socket does not take straight away is kept in a queue of
+ * pending buffers and written when the channel is writable again.
  * <p>
  * This work is licensed under the Creative Commons Attribution-ShareAlike 4.0
  * International License. To view a copy of this license, visit
@@ -35,19 +36,38 @@ public class NetworkConnection implements Iterable<Message> {
     private static final Logger LOG = LogManager.getLogger(NetworkConnection.class);
 
     /**
-     * The size of the incoming buffer.
+     * The size the incoming buffer starts with; it grows as needed up to the maximum frame size.
      */
     private static final int BUFFER_SIZE = 64 * 1024;
 
     /**
-     * The default character set.
+     * Largest message a client may send, in bytes, set with -Dprattle.max.frame.size. Larger frames
+     * are a protocol error and end the connection.
      */
-    private static final String CHARSET_NAME = "us-ascii";
+    public static final int MAX_FRAME_SIZE = Integer.getInteger("prattle.max.frame.size", 1024 * 1024);
 
     /**
-     * Number of times to try sending a message before we give up in frustration.
+     * Once this many bytes are waiting to be written, the connection asks for no more messages until
+     * it is back under the low watermark; set with -Dprattle.write.high.watermark.
      */
-    private static final int MAXIMUM_TRIES_SENDING = 100;
+    public static final int WRITE_HIGH_WATERMARK = Integer.getInteger("prattle.write.high.watermark", 256 * 1024);
+
+    /**
+     * Number of waiting bytes under which a connection over its high watermark takes messages again;
+     * set with -Dprattle.write.low.watermark.
+     */
+    public static final int WRITE_LOW_WATERMARK = Integer.getInteger("prattle.write.low.watermark", 64 * 1024);
+
+    /**
+     * Most bytes that may be waiting to be written before the client is dropped for not reading
+     * them; set with -Dprattle.write.backlog.limit.
+     */
+    public static final int WRITE_BACKLOG_LIMIT = Integer.getInteger("prattle.write.backlog.limit", 4 * 1024 * 1024);
+
+    /**
+     * Most buffers handed to a single gathering write.
+     */
+    private static final int MAXIMUM_GATHER = 64;
 
     /**
      * Channel over which we will send and receive messages.
@@ -65,17 +85,70 @@ public class NetworkConnection implements Iterable<Message> {
     private SelectionKey key;
 
     /**
-     * Byte buffer to use for incoming messages to this client.
+     * Splits the incoming bytes into messages, keeping any partial message between reads.
      */
-    private ByteBuffer buff;
-
-    private CharsetDecoder decoder;
+    private final FrameDecoder frames;
 
     /**
      * Queue of messages for this client.
      */
     private Queue<Message> messages;
 
+    /**
+     * Guards the outbound state below. A lock rather than the monitor of the connection, since a
+     * blocking write is made while holding it, and a virtual thread blocked inside synchronized would
+     * pin the carrier thread under it for as long as the client does not read.
+     */
+    private final ReentrantLock outbound = new ReentrantLock();
+
+    /**
+     * Buffers waiting to be written, oldest first; the first one may be partly written.
+     */
+    private final Deque<ByteBuffer> pending;
+
+    /**
+     * Number of bytes left in the pending buffers.
+     */
+    private int pendingBytes;
+
+    /**
+     * Scratch array for the buffers of one gathering write.
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[MAXIMUM_GATHER];
+
+    private int lowWatermark;
+
+    private int highWatermark;
+
+    private int backlogLimit;
+
+    /**
+     * Whether the pending bytes went over the high watermark and have not yet come back under the low one.
+     */
+    private boolean writeBlocked;
+
+    /**
+     * Whether a write failed or the backlog limit was exceeded; nothing more is written once it is set.
+     */
+    private volatile boolean writeFailed;
+
+    /**
+     * Whether the peer has closed its end of the connection, or broken the framing so that nothing
+     * more can be read from it.
+     */
+    private volatile boolean endOfStream;
+
+    /**
+     * Whether the channel is in blocking mode, read by a thread of its own with {@link #receive()}.
+     */
+    private final boolean blocking;
+
+    /**
+     * Time at which the write this connection is blocked in began, in milliseconds since the epoch, or 0
+     * when it is not writing. Only kept for blocking channels.
+     */
+    private volatile long writeStart;
+
     /**
      * Creates a new instance of this class. Since, by definition, this class sends
      * output over the network, we need to supply the non-blocking Socket instance
@@ -87,67 +160,319 @@ public class NetworkConnection implements Iterable<Message> {
      *                     connection
      */
     public NetworkConnection(SocketChannel sockChan) {
+        this(sockChan, true);
+    }
+
+    /**
+     * Creates a new instance of this class, optionally without a Selector of its own. Connections
+     * without one are meant to be registered with a selector shared by many clients, which only runs
+     * the client once the channel is ready; reads then go straight to the channel.
+     *
+     * @param sockChan    Non-blocking SocketChannel instance to which we will send all
+     *                    communication.
+     * @param ownSelector true to open a Selector for this connection alone
+     */
+    public NetworkConnection(SocketChannel sockChan, boolean ownSelector) {
+        this(sockChan, ownSelector, MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Creates a new instance of this class that accepts messages of at most the given size.
+     *
+     * @param sockChan     Non-blocking SocketChannel instance to which we will send all
+     *                     communication.
+     * @param ownSelector  true to open a Selector for this connection alone
+     * @param maxFrameSize largest message the client may send, in bytes
+     */
+    public NetworkConnection(SocketChannel sockChan, boolean ownSelector, int maxFrameSize) {
+        this(sockChan, ownSelector, maxFrameSize, false);
+    }
+
+    /**
+     * Creates a new instance of this class, optionally over a blocking channel. A blocking connection is
+     * read by a thread of its own calling {@link #receive()}, and its iterators only hand out what that
+     * thread has received; writes wait until the socket has taken every byte.
+     *
+     * @param sockChan     SocketChannel instance to which we will send all communication.
+     * @param ownSelector  true to open a Selector for this connection alone; not for blocking channels
+     * @param maxFrameSize largest message the client may send, in bytes
+     * @param blocking     true to put the channel in blocking mode
+     */
+    public NetworkConnection(SocketChannel sockChan, boolean ownSelector, int maxFrameSize, boolean blocking) {
+        if (ownSelector && blocking) {
+            throw new IllegalArgumentException("A blocking channel cannot be registered with a selector");
+        }
+        this.blocking = blocking;
         // Create the queue that will hold the messages received from over the network
         messages = new ConcurrentLinkedQueue<>();
         // Allocate the buffer we will use to read data
-        buff = ByteBuffer.allocate(BUFFER_SIZE);
+        frames = new FrameDecoder(BUFFER_SIZE, maxFrameSize);
+        // Nothing is waiting to be written yet
+        pending = new ArrayDeque<>();
+        setWriteLimits(WRITE_LOW_WATERMARK, WRITE_HIGH_WATERMARK, WRITE_BACKLOG_LIMIT);
         // Remember the channel that we will be using.
         // Set up the SocketChannel over which we will communicate.
         channel = sockChan;
         try {
-            channel.configureBlocking(false);
-            // Open the selector to handle our non-blocking I/O
-            selector = Selector.open();
-            // Register our channel to receive alerts to complete the connection
-            key = channel.register(selector, SelectionKey.OP_READ);
+            channel.configureBlocking(blocking);
+            if (ownSelector) {
+                // Open the selector to handle our non-blocking I/O
+                selector = Selector.open();
+                // Register our channel to receive alerts to complete the connection
+                key = channel.register(selector, SelectionKey.OP_READ);
+            }
         } catch (IOException e) {
             // For the moment we are going to simply cover up that there was a problem.
             LOG.error(e.toString());
             throw new AssertionError();
         }
-        decoder = Charset.forName(CHARSET_NAME).newDecoder();
     }
 
     /**
-     * set the decoder
+     * Send a Message over the network. The bytes are the encoding the message shares
+     * with all of its other recipients, framed the way this client frames its own
+     * messages. As much as the socket takes is written straight away and the rest
+     * is queued behind anything already waiting; this never waits for the client.
      *
-     * @param decoder decoder
+     * @param msg Message to be sent out over the network.
+     * @return True unless the connection failed or the client has fallen so far
+     * behind that it should be dropped; false otherwise.
      */
-    public void setDecoder(CharsetDecoder decoder) {
-        this.decoder = decoder;
+    public boolean sendMessage(Message msg) {
+        if (writeFailed) {
+            return false;
+        }
+        ByteBuffer[] frame = frames.getFraming().wrap(msg.getEncoded());
+        int size = 0;
+        for (ByteBuffer part : frame) {
+            size += part.remaining();
+        }
+        outbound.lock();
+        try {
+            if ((long) pendingBytes + size > backlogLimit) {
+                LOG.warn("WARNING: " + pendingBytes + " bytes still waiting to be sent -- dropping this user.");
+                writeFailed = true;
+                return false;
+            }
+            for (ByteBuffer part : frame) {
+                pending.addLast(part);
+            }
+            pendingBytes += size;
+            return flush();
+        } finally {
+            outbound.unlock();
+        }
     }
 
     /**
-     * Send a Message over the network. This method performs its actions by printing
-     * the given Message over the SocketNB instance with which the PrintNetNB was
-     * instantiated. This returns whether our attempt to send the message was
-     * successful.
+     * Write as much of the pending bytes as the socket takes, several buffers at a time.
      *
-     * @param msg Message to be sent out over the network.
-     * @return True if we successfully send this message; false otherwise.
+     * @return False if the connection failed; true otherwise, even if bytes are still waiting.
      */
-    public boolean sendMessage(Message msg) {
-        boolean result = true;
-        String str = msg.toString();
-        ByteBuffer wrapper = ByteBuffer.wrap(str.getBytes());
-        int bytesWritten = 0;
-        int attemptsRemaining = MAXIMUM_TRIES_SENDING;
-        while (result && wrapper.hasRemaining() && (attemptsRemaining > 0)) {
-            try {
-                attemptsRemaining--;
-                bytesWritten += channel.write(wrapper);
-            } catch (IOException e) {
-                // Show that this was unsuccessful
-                result = false;
+    public boolean flush() {
+        outbound.lock();
+        try {
+            return flushLocked();
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Body of {@link #flush()}, run while holding the outbound lock.
+     *
+     * @return False if the connection failed; true otherwise, even if bytes are still waiting.
+     */
+    private boolean flushLocked() {
+        if (writeFailed) {
+            return false;
+        }
+        try {
+            boolean socketFull = false;
+            while (!pending.isEmpty() && !socketFull) {
+                int count = 0;
+                for (Iterator<ByteBuffer> it = pending.iterator(); it.hasNext() && count < MAXIMUM_GATHER; count++) {
+                    gather[count] = it.next();
+                }
+                pendingBytes -= write(count);
+                // The socket is full when it did not take the whole batch; wait until it is writable.
+                socketFull = gather[count - 1].hasRemaining();
+                Arrays.fill(gather, 0, count, null);
+                while (!pending.isEmpty() && !pending.peekFirst().hasRemaining()) {
+                    pending.removeFirst();
+                }
             }
+        } catch (IOException e) {
+            LOG.warn("WARNING: Could not write to client -- dropping this user. " + e.toString());
+            writeFailed = true;
+            return false;
         }
-        // Check to see if we were successful in our attempt to write the message
-        if (result && wrapper.hasRemaining()) {
-            LOG.warn("WARNING: Sent only " + bytesWritten + " out of " + wrapper.limit()
-                    + " bytes -- dropping this user.");
-            result = false;
+        if (pendingBytes >= highWatermark) {
+            writeBlocked = true;
+        } else if (pendingBytes <= lowWatermark) {
+            writeBlocked = false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the first buffers of the scratch array, noting when a blocking write began so that one the
+     * client holds up for too long can be told apart.
+     *
+     * @param count number of buffers to write
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    private long write(int count) throws IOException {
+        if (!blocking) {
+            return channel.write(gather, 0, count);
+        }
+        writeStart = System.currentTimeMillis();
+        try {
+            return channel.write(gather, 0, count);
+        } finally {
+            writeStart = 0;
+        }
+    }
+
+    /**
+     * Time at which the write this connection is blocked in began. A client that stops reading holds a
+     * blocking write up until the connection is closed.
+     *
+     * @return the start of the write in milliseconds since the epoch, or 0 if the connection is not
+     * writing or its channel is not blocking
+     */
+    public long getWriteStart() {
+        return writeStart;
+    }
+
+    /**
+     * Wait for bytes from the client on a blocking channel and queue every message they complete. Meant
+     * for the one thread reading this connection; the messages are handed out by its iterators.
+     *
+     * @return false once the client has closed its end of the connection, broken the framing, or the
+     * connection failed or was closed; nothing more will be received then
+     */
+    public boolean receive() {
+        if (!blocking) {
+            throw new IllegalStateException("Only blocking channels are read by a thread of their own");
+        }
+        try {
+            if (!endOfStream && channel.read(frames.buffer()) < 0) {
+                endOfStream = true;
+            }
+        } catch (IOException e) {
+            // Closing the connection while it is being read ends up here as well.
+            endOfStream = true;
+        }
+        checkFraming(frames.decode(this::addMessage));
+        return !endOfStream;
+    }
+
+    /**
+     * Whether the channel of this connection is still open.
+     *
+     * @return false once the connection has been closed
+     */
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Whether bytes are waiting for the channel to become writable.
+     *
+     * @return true if there are pending bytes
+     */
+    public boolean hasPendingWrites() {
+        outbound.lock();
+        try {
+            return pendingBytes > 0;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Number of bytes waiting for the channel to become writable.
+     *
+     * @return the number of pending bytes
+     */
+    public int getPendingBytes() {
+        outbound.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Whether so much is waiting to be written that no more messages should be sent until the client
+     * catches up. Once set, this stays true until the backlog drops under the low watermark.
+     *
+     * @return true if the connection is over its high watermark
+     */
+    public boolean isWriteBlocked() {
+        outbound.lock();
+        try {
+            return writeBlocked;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Whether writing to the client failed or it fell behind by more than the backlog limit. The
+     * client should be dropped once this is true.
+     *
+     * @return true if nothing more can be written
+     */
+    public boolean isWriteFailed() {
+        return writeFailed;
+    }
+
+    /**
+     * Set the watermarks and the backlog limit of this connection.
+     *
+     * @param low   backlog under which a blocked connection takes messages again
+     * @param high  backlog from which the connection is blocked
+     * @param limit largest backlog before the client is dropped
+     */
+    protected final void setWriteLimits(int low, int high, int limit) {
+        outbound.lock();
+        try {
+            this.lowWatermark = low;
+            this.highWatermark = high;
+            this.backlogLimit = limit;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Queue the message held by a complete frame; frames that are not a message are dropped.
+     *
+     * @param data   buffer holding the frame
+     * @param offset where the frame starts
+     * @param length number of bytes of the frame
+     */
+    private void addMessage(byte[] data, int offset, int length) {
+        Message newMsg = MessageCodec.decode(data, offset, length);
+        if (newMsg != null) {
+            messages.add(newMsg);
+        }
+    }
+
+    /**
+     * Give up on a client that broke the framing; it is treated as if it had closed the connection.
+     *
+     * @param decoded whether the bytes received so far could be decoded
+     */
+    private void checkFraming(boolean decoded) {
+        if (!decoded && !endOfStream) {
+            LOG.warn("WARNING: Frame over the maximum frame size -- dropping this user.");
+            endOfStream = true;
         }
-        return result;
     }
 
     /**
@@ -173,14 +498,43 @@ public class NetworkConnection implements Iterable<Message> {
      */
     public void close() {
         try {
-            selector.close();
+            if (selector != null) {
+                selector.close();
+            }
             channel.close();
+            outbound.lock();
+            try {
+                pending.clear();
+                pendingBytes = 0;
+            } finally {
+                outbound.unlock();
+            }
         } catch (IOException e) {
             LOG.error("Caught exception: " + e.toString());
             throw new AssertionError();
         }
     }
 
+    /**
+     * Whether the peer has closed its end of the connection. Nothing more will ever be read once
+     * this is true.
+     *
+     * @return true if the end of the stream has been reached
+     */
+    public boolean isEndOfStream() {
+        return endOfStream;
+    }
+
+    /**
+     * Number of messages received from the client and decoded, but not handed out by an iterator
+     * yet. Bytes still waiting in the socket are not counted.
+     *
+     * @return the number of messages waiting to be handled
+     */
+    public int getBacklog() {
+        return messages.size();
+    }
+
     /**
      * set messages to process
      *
@@ -229,26 +583,15 @@ public class NetworkConnection implements Iterable<Message> {
                     result = true;
                 }
                 // Otherwise, check if we can read in at least one new message
-                else if (selector.selectNow() != 0) {
-                    assert key.isReadable();
-                    // Read in the next set of commands from the channel.
-                    channel.read(buff);
-                    selector.selectedKeys().remove(key);
-                    buff.flip();
-
-                    CharBuffer charBuffer = decoder.decode(buff);
-                    // get rid of any extra whitespace at the beginning
-                    // Start scanning the buffer for any and all messages.
-                    int start = 0;
-                    // Scan through the entire buffer; check that we have the minimum message size
-                    throughBuffer(charBuffer);
-
-                    // Move any read messages out of the buffer so that we can add to the end.
-                    buff.position(start);
-                    // Move all of the remaining data to the start of the buffer.
-                    buff.compact();
-                    buff.clear();
-                    result = true;
+                else if (isReadable()) {
+                    // Read in the next set of commands from the channel, after any partial frame.
+                    if (channel.read(frames.buffer()) < 0) {
+                        endOfStream = true;
+                    }
+
+                    // Queue every complete message; a trailing partial one waits for the next read.
+                    checkFraming(frames.decode(NetworkConnection.this::addMessage));
+                    result = !messages.isEmpty();
                 }
             } catch (IOException ioe) {
                 // For the moment, we will cover up this exception and hope it never occurs.
@@ -259,16 +602,37 @@ public class NetworkConnection implements Iterable<Message> {
         }
 
         /**
-         * Message will made here
+         * Check whether the channel may have data to read. A connection with a Selector of its own
+         * asks it; one registered with a shared selector is only run once the channel is ready, so
+         * reading straight away is safe (it returns nothing if it was not). A blocking channel is only
+         * read by its own thread, never here.
          *
-         * @param charBuffer charBuffer which contains json string
+         * @return true if the channel should be read
+         * @throws IOException if the selector fails
          */
-        public void throughBuffer(CharBuffer charBuffer) {
-            String json = readArgument(charBuffer);
-            Message newMsg = Message.makeMessage(json);
-            if (newMsg != null) {
-                messages.add(newMsg);
+        private boolean isReadable() throws IOException {
+            if (blocking) {
+                return false;
+            }
+            if (selector == null) {
+                return !endOfStream;
+            }
+            if (selector.selectNow() == 0) {
+                return false;
             }
+            assert key.isReadable();
+            selector.selectedKeys().remove(key);
+            return true;
+        }
+
+        /**
+         * Messages will be made here from bytes received some other way than by reading the channel.
+         * They are framed together with anything received before.
+         *
+         * @param bytes buffer whose remaining bytes continue the stream from the client
+         */
+        public void throughBuffer(ByteBuffer bytes) {
+            checkFraming(frames.decode(bytes, NetworkConnection.this::addMessage));
         }
 
         /**
@@ -282,18 +646,10 @@ public class NetworkConnection implements Iterable<Message> {
                 throw new NoSuchElementException("No next line has been typed in at the keyboard");
             }
             Message msg = messages.remove();
-            LOG.info(msg.toString());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(msg.toString());
+            }
             return msg;
         }
-
-        /**
-         * Read in a new argument from the IM server.
-         *
-         * @param charBuffer Buffer holding text from over the network.
-         * @return String holding the next argument sent over the network.
-         */
-        private String readArgument(CharBuffer charBuffer) {
-            return charBuffer.toString();
-        }
     }
 }
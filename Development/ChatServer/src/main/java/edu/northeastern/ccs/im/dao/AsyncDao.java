@@ -0,0 +1,46 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An AsyncDao is a Data Access Object whose calls return at once, with a future completed once the database has
+ * answered. The calling thread is not held while the query or update runs, so lookups can be chained.
+ *
+ * @param <T> The type of dao (should be a valid type, i.e., a class in the pojo package)
+ */
+public interface AsyncDao<T> {
+
+    /**
+     * Gets a list of T matching some criteria
+     *
+     * @param criteria - a map of attribute names to their values
+     * @return future of the List of T
+     */
+    CompletableFuture<List<T>> get(Map<String, Object> criteria);
+
+    /**
+     * Update a document in the database that T represents, where the given object has the changes needed.
+     *
+     * @param changedVersion the changed version of the object of type T
+     * @return future of true if the update was successful, false otherwise
+     */
+    CompletableFuture<Boolean> set(T changedVersion);
+
+    /**
+     * Creates a new document representing the given object of type T.
+     *
+     * @param object the given object to create a document for in the database
+     * @return future of true if the create was successful, false otherwise
+     */
+    CompletableFuture<Boolean> create(T object);
+
+    /**
+     * Deletes a document in the database that T represents
+     *
+     * @param object the object of type T to delete from database
+     * @return future of true if the delete was successful, false otherwise
+     */
+    CompletableFuture<Boolean> delete(T object);
+}
@@ -26,6 +26,17 @@ public class Constants {
     static final String DB_AUTH_SOURCE = "db.authSource";
     static final String DB_DBNAME_PROP = "db.dbName";
 
+    /**
+     * Connection pool properties from dao.properties, shared by every mode
+     */
+    static final String DB_POOL_MAX_SIZE_PROP = "db.pool.maxSize";
+    static final String DB_POOL_MIN_SIZE_PROP = "db.pool.minSize";
+    static final String DB_POOL_WAIT_QUEUE_MULTIPLE_PROP = "db.pool.waitQueueMultiple";
+    static final String DB_POOL_MAX_WAIT_TIME_PROP = "db.pool.maxWaitTimeMs";
+    static final String DB_POOL_MAX_IDLE_TIME_PROP = "db.pool.maxIdleTimeMs";
+    static final String DB_CONNECT_TIMEOUT_PROP = "db.connectTimeoutMs";
+    static final String DB_SOCKET_TIMEOUT_PROP = "db.socketTimeoutMs";
+
     /**
      * USER Collection Attribute Names
      */
@@ -68,4 +79,8 @@ public class Constants {
     public static final String MESSAGE_RECEIVER_ID_KEY = "receiver_id";
     public static final String MESSAGE_MESSAGE_BODY_KEY = "message_body";
     public static final String MESSAGE_DELETED_KEY = "message_deleted";
+    public static final String MESSAGE_DELIVERED_KEY = "message_delivered";
+    public static final String MESSAGE_GROUP_ID_KEY = "group_id";
+    public static final String MESSAGE_GROUP_NAME_KEY = "group_name";
+    public static final String MESSAGE_PENDING_IDS_KEY = "pending_ids";
 }
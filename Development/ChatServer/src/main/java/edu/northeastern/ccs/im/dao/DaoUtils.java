@@ -2,20 +2,25 @@ package edu.northeastern.ccs.im.dao;
 
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * DaoUtils extracts a lot of the common functionality that exists in every Dao
@@ -28,24 +33,10 @@ public class DaoUtils {
 
     private static Logger logger = LogManager.getLogger();
 
-    /**
-     * For the given collection, creates an index that enforces uniqueness on the given keys. No two documents
-     * in the collection will have the same value for these keys. Does this only if the collection is empty.
-     * @param collectionName the collection's name
-     * @param keys the keys to ensure uniqueness on
-     */
-    static void createIndexInDBIfEmpty(String collectionName, String... keys) {
-        MongoConnector connector = openConnection();
-        MongoCollection<BasicDBObject> mongoCollection = getCollection(connector, collectionName);
-        long collectionSize = mongoCollection.countDocuments();
-        if (collectionSize == 0) {
-            createIndexInDB(mongoCollection, keys);
-        }
-        closeConnection(connector);
-    }
-
     /**
      * Inserts the given database object as a new record into the given collection using the given mongo connection.
+     * The insert is only reported as successful when the server acknowledged it; a failed acknowledged insert raises
+     * a write exception instead.
      * @param collectionName the mongo collection to create the document in
      * @param dbObject the BasicDBObject to insert in the DB
      * @param entityName the entity name of the collection type, needed for logging
@@ -56,19 +47,44 @@ public class DaoUtils {
         MongoConnector connector = openConnection();
         MongoCollection<BasicDBObject> mongoCollection = getCollection(connector, collectionName);
         try {
-            long collectionSize = mongoCollection.countDocuments();
             mongoCollection.insertOne(dbObject);
-            long newCollectionSize = mongoCollection.countDocuments();
-            closeConnection(connector);
-            return newCollectionSize == collectionSize + 1;
+            return mongoCollection.getWriteConcern().isAcknowledged();
         } catch (MongoWriteException e) {
             logger.error("Could not create " + entityName + " in Database");
             logger.error(e.getMessage());
-            closeConnection(connector);
             return false;
         }
     }
 
+    /**
+     * Inserts the given database objects as new records into the given collection with one unordered insertMany, so
+     * a document that cannot be inserted does not keep the others out. As with a single insert, only an acknowledged
+     * insert is reported as successful.
+     * @param collectionName the mongo collection to create the documents in
+     * @param dbObjects the BasicDBObjects to insert in the DB
+     * @param entityName the entity name of the collection type, needed for logging
+     * @return the positions in the list of the documents that were not inserted, empty if all were
+     */
+    static Set<Integer> insertDBObjectsInDB(String collectionName, List<BasicDBObject> dbObjects, String entityName) {
+        MongoConnector connector = openConnection();
+        MongoCollection<BasicDBObject> mongoCollection = getCollection(connector, collectionName);
+        Set<Integer> failed = new HashSet<>();
+        try {
+            mongoCollection.insertMany(dbObjects, new InsertManyOptions().ordered(false));
+            if (!mongoCollection.getWriteConcern().isAcknowledged()) {
+                for (int i = 0; i < dbObjects.size(); i++) {
+                    failed.add(i);
+                }
+            }
+        } catch (MongoBulkWriteException e) {
+            logger.error("Could not create " + e.getWriteErrors().size() + " " + entityName + " in Database");
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(error.getIndex());
+            }
+        }
+        return failed;
+    }
+
     /**
      * For the given collection, return a list of DBObjects matching a certain criteria.
      * @param collectionName the mongo collection to look in
@@ -89,10 +105,54 @@ public class DaoUtils {
                 dbObjects.add(cursor.next());
             }
         }
-        closeConnection(connector);
         return dbObjects;
     }
 
+    /**
+     * For the given collection, return at most the given number of DBObjects matching a filter, in the given order.
+     * Only that many documents are ever read, a batch at a time, however many match.
+     * @param collectionName the mongo collection to look in
+     * @param filter the filter to match each document with
+     * @param sort the order of the documents
+     * @param limit the most documents to return, or 0 for all of them
+     * @return a list of BasicDBObjects with the first matching documents
+     */
+    static List<BasicDBObject> getDBObjectsFromDB(String collectionName, Bson filter, Bson sort, int limit) {
+        MongoConnector connector = openConnection();
+        MongoCollection<BasicDBObject> mongoCollection = getCollection(connector, collectionName);
+
+        List<BasicDBObject> dbObjects = new ArrayList<>();
+        try (MongoCursor<BasicDBObject> cursor = mongoCollection.find(filter).sort(sort).limit(limit)
+                .batchSize(limit).iterator()) {
+            while (cursor.hasNext()) {
+                dbObjects.add(cursor.next());
+            }
+        }
+        return dbObjects;
+    }
+
+    /**
+     * For the given mongo collection, applies the given update to every document matching a filter.
+     * @param collectionName the mongo collection with the documents to update
+     * @param filter the filter to match each document with
+     * @param update the update to apply
+     * @param entityName the entity name of the collection type, needed for logging
+     * @return the number of documents changed, or 0 if the update failed or was not acknowledged
+     */
+    static long updateDBObjectsInDB(String collectionName, Bson filter, Bson update, String entityName) {
+        MongoConnector connector = openConnection();
+        MongoCollection<BasicDBObject> mongoCollection = getCollection(connector, collectionName);
+
+        try {
+            UpdateResult updateResult = mongoCollection.updateMany(filter, update);
+            return updateResult.isModifiedCountAvailable() ? updateResult.getModifiedCount() : 0;
+        } catch (MongoWriteException e) {
+            logger.error("Could not update " + entityName + " in Database");
+            logger.error(e.getMessage());
+            return 0;
+        }
+    }
+
     /**
      * For the given mongo collection, updates the object whose value for the given objectIdKey is the given object id
      * with the updated version of the database object.
@@ -112,12 +172,10 @@ public class DaoUtils {
             UpdateResult updateResult = mongoCollection.replaceOne(
                     new BasicDBObject(dbObjectIdKeyName, dbObjectId),
                     new BasicDBObject(messageAsDBObject));
-            closeConnection(connector);
             return updateResult.isModifiedCountAvailable() && updateResult.getModifiedCount() == 1;
         } catch (MongoWriteException e) {
             logger.error("Could not update " + entityName + " in Database");
             logger.error(e.getMessage());
-            closeConnection(connector);
             return false;
         }
     }
@@ -126,30 +184,14 @@ public class DaoUtils {
      * For the given mongo collection, deletes the given DB object.
      * @param collectionName the mongo collection to delete the object from
      * @param messageAsDBObject the BasicDBObject to delete from the DB
-     * @return true if the delete was successful, false otherwise
+     * @return true if the server acknowledged deleting exactly one document, false otherwise
      */
     static boolean deleteObjectFromDB(String collectionName, BasicDBObject messageAsDBObject) {
         MongoConnector connector = openConnection();
         MongoCollection<BasicDBObject> mongoCollection = getCollection(connector, collectionName);
 
-        long msgCollectionSize = mongoCollection.countDocuments();
-        mongoCollection.findOneAndDelete(messageAsDBObject);
-        long newCollectionSize = mongoCollection.countDocuments();
-
-        closeConnection(connector);
-        return newCollectionSize == msgCollectionSize - 1;
-    }
-
-    /**
-     * For the given collection, creates an index that enforces uniqueness on the given keys. No two documents
-     * in the collection will have the same value for these keys.
-     * @param mongoCollection the mongo collection to create the indexes in
-     * @param keys the key names for each document that must have unique values
-     */
-    private static void createIndexInDB(MongoCollection<BasicDBObject> mongoCollection, String... keys) {
-        for (String key : keys) {
-            mongoCollection.createIndex(new Document(key, 1), new IndexOptions().unique(true));
-        }
+        DeleteResult deleteResult = mongoCollection.deleteOne(messageAsDBObject);
+        return deleteResult.wasAcknowledged() && deleteResult.getDeletedCount() == 1;
     }
 
     /**
@@ -161,22 +203,30 @@ public class DaoUtils {
     }
 
     /**
-     * Gets a new MongoConnector instance, unless a fake has been provided.
-     * @return New MongoConnector, if fake is null. Otherwise, returns fake.
+     * Closes the connection pool shared by every Dao. Meant to be called once, when the server stops.
+     */
+    public static void closeConnections() {
+        MongoConnector.closeSharedConnector();
+    }
+
+    /**
+     * Gets the MongoConnector shared by the whole process, unless a fake has been provided.
+     * @return The shared MongoConnector, if fake is null. Otherwise, returns fake.
      */
     private static MongoConnector openConnection() {
         if (fakeMongoConnector != null) {
             return fakeMongoConnector;
         }
-        return new MongoConnector();
+        return MongoConnector.getSharedConnector();
     }
 
     /**
-     * Closes the connection with Mongo.
-     * @param mongoConnector the MongoConnector representing the MongoConnector
+     * Gets the given collection from the connector shared by every Dao.
+     * @param collectionName the collection's name
+     * @return the collection
      */
-    private static void closeConnection(MongoConnector mongoConnector) {
-        mongoConnector.closeConnection();
+    static MongoCollection<BasicDBObject> getCollection(String collectionName) {
+        return getCollection(openConnection(), collectionName);
     }
 
     private static MongoCollection<BasicDBObject> getCollection(MongoConnector mongoConnector, String collectionName) {
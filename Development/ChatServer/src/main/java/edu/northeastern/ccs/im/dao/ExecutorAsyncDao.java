@@ -0,0 +1,65 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * An AsyncDao running the calls of a Dao on the given executor, so that only the threads of the executor wait
+ * for the database. A call the executor turns away is run by the caller instead, so that a caller running ahead
+ * of the database is slowed down rather than failed.
+ *
+ * @param <T> The type of dao (should be a valid type, i.e., a class in the pojo package)
+ */
+public class ExecutorAsyncDao<T> implements AsyncDao<T> {
+    private final Dao<T> dao;
+    private final Executor executor;
+
+    /**
+     * Creates an AsyncDao over the given Dao
+     *
+     * @param dao      the Dao making the calls
+     * @param executor where the calls are run
+     */
+    public ExecutorAsyncDao(Dao<T> dao, Executor executor) {
+        this.dao = dao;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<List<T>> get(Map<String, Object> criteria) {
+        return call(() -> dao.get(criteria));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> set(T changedVersion) {
+        return call(() -> dao.set(changedVersion));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> create(T object) {
+        return call(() -> dao.create(object));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(T object) {
+        return call(() -> dao.delete(object));
+    }
+
+    private <R> CompletableFuture<R> call(Supplier<R> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException failure) {
+                result.completeExceptionally(failure);
+            }
+            return result;
+        }
+    }
+}
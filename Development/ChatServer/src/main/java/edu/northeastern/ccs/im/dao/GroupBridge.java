@@ -4,12 +4,9 @@ import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.User;
-import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
@@ -30,35 +27,48 @@ class GroupBridge implements Bridge<Group> {
 
     @Override
     public Group toObject(BasicDBObject basicDBObject) {
+        UserLoader userLoader = new UserLoader(userDao);
+        addUserIds(basicDBObject, userLoader);
+        return toObject(basicDBObject, userLoader);
+    }
+
+    private Group toObject(BasicDBObject basicDBObject, UserLoader userLoader) {
         Group group = new Group(
                 basicDBObject.getString(GROUP_GROUP_NAME_KEY),
-                getUsersById((BasicDBList) basicDBObject.get(GROUP_GROUP_ADMINS_KEY)));
+                userLoader.getAll((BasicDBList) basicDBObject.get(GROUP_GROUP_ADMINS_KEY)));
         group.setId(basicDBObject.getObjectId(GROUP_GROUP_ID_KEY));
-        group.setUsers(getUsersById((BasicDBList) basicDBObject.get(GROUP_GROUP_USERS_KEY)));
+        group.setUsers(userLoader.getAll((BasicDBList) basicDBObject.get(GROUP_GROUP_USERS_KEY)));
         return group;
     }
 
-    private User getUserById(ObjectId objectId) {
-        Map<String, Object> criteria = new HashMap<>();
-        criteria.put(Constants.USER_USER_ID_KEY, objectId);
-        List<User> users = userDao.get(criteria);
-        if (users.size() == 1) {
-            return users.get(0);
-        } else {
-            // Log here about no users
-            return null;
-        }
+    private void addUserIds(BasicDBObject basicDBObject, UserLoader userLoader) {
+        userLoader.addAll((BasicDBList) basicDBObject.get(GROUP_GROUP_ADMINS_KEY));
+        userLoader.addAll((BasicDBList) basicDBObject.get(GROUP_GROUP_USERS_KEY));
     }
 
-    private List<User> getUsersById(BasicDBList objectIds) {
-        return objectIds.stream().map(objectId -> getUserById((ObjectId) objectId )).collect(Collectors.toList());
+    /**
+     * Converts database objects to Groups, resolving the administrators and members of all of them with one query.
+     * @param basicDBList the documents in DB
+     * @return the Groups
+     */
+    @Override
+    public List<Group> toObjects(BasicDBList basicDBList) {
+        return toObjects(basicDBList, new UserLoader(userDao));
     }
 
+    /**
+     * Converts database objects to Groups, resolving their users through the given loader together with
+     * any ids already pending in it.
+     * @param basicDBList the documents in DB
+     * @param userLoader the loader of the current request
+     * @return the Groups
+     */
+    List<Group> toObjects(BasicDBList basicDBList, UserLoader userLoader) {
+        basicDBList.forEach(groupDBObject -> addUserIds((BasicDBObject) groupDBObject, userLoader));
+        userLoader.load();
 
-    @Override
-    public List<Group> toObjects(BasicDBList basicDBList) {
         List<Group> groups = new ArrayList<>();
-        basicDBList.forEach(groupDBObject -> groups.add(toObject((BasicDBObject) groupDBObject)));
+        basicDBList.forEach(groupDBObject -> groups.add(toObject((BasicDBObject) groupDBObject, userLoader)));
         return groups;
     }
 
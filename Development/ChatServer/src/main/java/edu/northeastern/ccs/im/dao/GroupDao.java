@@ -1,21 +1,27 @@
 package edu.northeastern.ccs.im.dao;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
 import edu.northeastern.ccs.im.models.Group;
+import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static edu.northeastern.ccs.im.dao.Constants.GROUP_COLLECTION_NAME;
+import static edu.northeastern.ccs.im.dao.Constants.GROUP_GROUP_ADMINS_KEY;
 import static edu.northeastern.ccs.im.dao.Constants.GROUP_GROUP_ID_KEY;
 import static edu.northeastern.ccs.im.dao.Constants.GROUP_GROUP_NAME_KEY;
+import static edu.northeastern.ccs.im.dao.Constants.GROUP_GROUP_USERS_KEY;
 
 /**
  * A GroupDao is a Data Access Object that abstracts the connection to the database pertaining to Group info.
  */
 public class GroupDao implements Dao<Group> {
-    private Bridge<Group> groupBridge;
+    private GroupBridge groupBridge;
 
     public GroupDao() {
         this.groupBridge = new GroupBridge();
@@ -23,12 +29,40 @@ public class GroupDao implements Dao<Group> {
 
     @Override
     public List<Group> get(Map<String, Object> criteria) {
+        return groupBridge.toObjects(getGroupDBList(criteria));
+    }
+
+    /**
+     * Gets the groups matching some criteria, resolving their users through the given loader.
+     * @param criteria a map of attribute names to their values
+     * @param userLoader the loader of the current request, shared with the documents that refer to these groups
+     * @return the matching groups
+     */
+    List<Group> get(Map<String, Object> criteria, UserLoader userLoader) {
+        return groupBridge.toObjects(getGroupDBList(criteria), userLoader);
+    }
+
+    private BasicDBList getGroupDBList(Map<String, Object> criteria) {
         List<BasicDBObject> groupDBObjects = DaoUtils.getDBObjectsFromDBMatchingCriteria(GROUP_COLLECTION_NAME, criteria);
 
-        return groupDBObjects
-                .stream()
-                .map(groupDBObject -> groupBridge.toObject(groupDBObject))
-                .collect(Collectors.toList());
+        BasicDBList groupDBList = new BasicDBList();
+        groupDBList.addAll(groupDBObjects);
+        return groupDBList;
+    }
+
+    /**
+     * Gets the ids of the groups a user is a member or an administrator of, without loading their users.
+     * @param userId the id of the user
+     * @return the ids of the user's groups
+     */
+    public List<ObjectId> getGroupIds(ObjectId userId) {
+        List<BasicDBObject> groupDBObjects = DaoUtils.getDBObjectsFromDB(GROUP_COLLECTION_NAME,
+                Filters.or(Filters.eq(GROUP_GROUP_USERS_KEY, userId), Filters.eq(GROUP_GROUP_ADMINS_KEY, userId)),
+                Sorts.ascending(GROUP_GROUP_ID_KEY), 0);
+
+        List<ObjectId> groupIds = new ArrayList<>();
+        groupDBObjects.forEach(groupDBObject -> groupIds.add(groupDBObject.getObjectId(GROUP_GROUP_ID_KEY)));
+        return groupIds;
     }
 
     @Override
@@ -44,7 +78,6 @@ public class GroupDao implements Dao<Group> {
     public boolean create(Group object) {
         BasicDBObject groupAsDBObject = groupBridge.toDBObject(object);
 
-        DaoUtils.createIndexInDBIfEmpty(GROUP_COLLECTION_NAME, GROUP_GROUP_ID_KEY, GROUP_GROUP_NAME_KEY);
         return DaoUtils.insertDBOjectInDB(GROUP_COLLECTION_NAME, groupAsDBObject, GROUP_COLLECTION_NAME);
     }
 
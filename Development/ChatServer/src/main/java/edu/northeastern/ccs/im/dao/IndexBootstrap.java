@@ -0,0 +1,151 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static edu.northeastern.ccs.im.dao.Constants.*;
+
+/**
+ * IndexBootstrap declares the indexes of every collection and makes sure they exist. It is run once, when the
+ * server starts, so that the Dao write paths never have to look at the indexes themselves.
+ * <p>
+ * Besides the unique indexes on the ids and names, the message collection is indexed for the queries of
+ * GET_QUEUE and GET_HISTORY: the messages of a receiver that are not deleted, the ones among them not delivered
+ * yet, the messages of a group, the group messages a member has not acknowledged, and the messages of a sender,
+ * all in the order they were sent. The indexes read by pages end with the message id, which breaks ties between
+ * messages sent at the same time, so that a page is read straight off the index. The groups are indexed by their
+ * members and administrators, to find the groups of a user.
+ */
+public final class IndexBootstrap {
+
+    private static Logger logger = LogManager.getLogger();
+
+    /**
+     * Every index the collections are expected to have.
+     */
+    private static final List<IndexDeclaration> DECLARED = Collections.unmodifiableList(Arrays.asList(
+            new IndexDeclaration(USER_COLLECTION_NAME, true, USER_USER_ID_KEY),
+            new IndexDeclaration(USER_COLLECTION_NAME, true, USER_USER_NAME_KEY),
+            new IndexDeclaration(GROUP_COLLECTION_NAME, true, GROUP_GROUP_ID_KEY),
+            new IndexDeclaration(GROUP_COLLECTION_NAME, true, GROUP_GROUP_NAME_KEY),
+            new IndexDeclaration(GROUP_COLLECTION_NAME, false, GROUP_GROUP_USERS_KEY),
+            new IndexDeclaration(GROUP_COLLECTION_NAME, false, GROUP_GROUP_ADMINS_KEY),
+            new IndexDeclaration(INVITATION_COLLECTION_NAME, true, INVITATION_INVITATION_ID_KEY),
+            new IndexDeclaration(MESSAGE_COLLECTION_NAME, true, MESSAGE_MESSAGE_ID_KEY),
+            new IndexDeclaration(MESSAGE_COLLECTION_NAME, false,
+                    MESSAGE_RECEIVER_ID_KEY, MESSAGE_DELETED_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY,
+                    MESSAGE_MESSAGE_ID_KEY),
+            new IndexDeclaration(MESSAGE_COLLECTION_NAME, false,
+                    MESSAGE_RECEIVER_ID_KEY, MESSAGE_DELIVERED_KEY, MESSAGE_DELETED_KEY,
+                    MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, MESSAGE_MESSAGE_ID_KEY),
+            new IndexDeclaration(MESSAGE_COLLECTION_NAME, false,
+                    MESSAGE_GROUP_ID_KEY, MESSAGE_DELETED_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY,
+                    MESSAGE_MESSAGE_ID_KEY),
+            new IndexDeclaration(MESSAGE_COLLECTION_NAME, false,
+                    MESSAGE_PENDING_IDS_KEY, MESSAGE_DELETED_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY,
+                    MESSAGE_MESSAGE_ID_KEY),
+            new IndexDeclaration(MESSAGE_COLLECTION_NAME, false,
+                    MESSAGE_SENDER_ID_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY)));
+
+    private IndexBootstrap() {}
+
+    /**
+     * Creates every declared index that does not exist yet, then checks that all of them are in place, so this is
+     * safe to run on every start. An index that cannot be created, say a unique one over documents that already
+     * repeat a value, is logged and left out.
+     * @return true if every declared index is in place, false otherwise
+     * @throws com.mongodb.MongoException if the database cannot be reached
+     */
+    public static boolean createIndexes() {
+        for (IndexDeclaration index : verifyIndexes()) {
+            logger.info("Creating index " + index);
+            try {
+                DaoUtils.getCollection(index.collectionName).createIndex(index.keys(),
+                        new IndexOptions().unique(index.unique));
+            } catch (MongoServerException e) {
+                logger.error("Could not create index " + index + " in Database");
+                logger.error(e.getMessage());
+            }
+        }
+        List<IndexDeclaration> missing = verifyIndexes();
+        for (IndexDeclaration index : missing) {
+            logger.error("Index " + index + " is missing");
+        }
+        return missing.isEmpty();
+    }
+
+    /**
+     * Lists the declared indexes that the collections do not have.
+     * @return the missing indexes, empty if all are in place
+     */
+    static List<IndexDeclaration> verifyIndexes() {
+        List<IndexDeclaration> missing = new ArrayList<>();
+        for (IndexDeclaration index : DECLARED) {
+            if (!exists(DaoUtils.getCollection(index.collectionName), index)) {
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Gets every declared index.
+     * @return the declared indexes
+     */
+    static List<IndexDeclaration> getDeclared() {
+        return DECLARED;
+    }
+
+    private static boolean exists(MongoCollection<BasicDBObject> collection, IndexDeclaration index) {
+        for (Document existing : collection.listIndexes()) {
+            Document keys = existing.get("key", Document.class);
+            if (keys != null && new ArrayList<>(keys.keySet()).equals(index.fields)
+                    && index.unique == existing.getBoolean("unique", false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An ascending index on one or more fields of a collection.
+     */
+    static final class IndexDeclaration {
+        private final String collectionName;
+        private final boolean unique;
+        private final List<String> fields;
+
+        private IndexDeclaration(String collectionName, boolean unique, String... fields) {
+            this.collectionName = collectionName;
+            this.unique = unique;
+            this.fields = Collections.unmodifiableList(Arrays.asList(fields));
+        }
+
+        /**
+         * Gets the index keys, every field in ascending order.
+         * @return the keys document of the index
+         */
+        Document keys() {
+            Document keys = new Document();
+            for (String field : fields) {
+                keys.append(field, 1);
+            }
+            return keys;
+        }
+
+        @Override
+        public String toString() {
+            return collectionName + fields + (unique ? " (unique)" : "");
+        }
+    }
+}
@@ -4,13 +4,14 @@ import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Invitation;
-import edu.northeastern.ccs.im.models.User;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
 
@@ -34,45 +35,66 @@ public class InvitationBridge implements Bridge<Invitation> {
 
     @Override
     public Invitation toObject(BasicDBObject basicDBObject) {
+        BasicDBList invitationDBList = new BasicDBList();
+        invitationDBList.add(basicDBObject);
+        return toObjects(invitationDBList).get(0);
+    }
+
+    private Invitation toObject(BasicDBObject basicDBObject, UserLoader userLoader, Map<ObjectId, Group> groups) {
         Invitation invitation = new Invitation(
-                getUserById(basicDBObject.getObjectId(INVITATION_INVITER_ID_KEY, null)),
-                getUserById(basicDBObject.getObjectId(INVITATION_INVITEE_ID_KEY, null)),
-                getGroupId(basicDBObject.getObjectId(INVITATION_GROUP_ID_KEY, null)),
+                userLoader.get(basicDBObject.getObjectId(INVITATION_INVITER_ID_KEY, null)),
+                userLoader.get(basicDBObject.getObjectId(INVITATION_INVITEE_ID_KEY, null)),
+                groups.get(basicDBObject.getObjectId(INVITATION_GROUP_ID_KEY, null)),
                 basicDBObject.getBoolean(INVITATION_MODERATOR_APPROVAL_NEEDED_KEY),
-                getUserById((basicDBObject.getObjectId(INVITATION_APPROVED_BY_KEY, null))));
+                userLoader.get(basicDBObject.getObjectId(INVITATION_APPROVED_BY_KEY, null)));
         invitation.setId(basicDBObject.getObjectId(INVITATION_INVITATION_ID_KEY));
         return invitation;
     }
 
-    private User getUserById(ObjectId objectId) {
-        Map<String, Object> criteria = new HashMap<>();
-        criteria.put(Constants.USER_USER_ID_KEY, objectId);
-        List<User> users = userDao.get(criteria);
-        if (users.size() == 1) {
-            return users.get(0);
-        } else {
-            // Log here about no users
-            return null;
-        }
-    }
-
-    private Group getGroupId(ObjectId objectId) {
-        Map<String, Object> criteria = new HashMap<>();
-        criteria.put(Constants.GROUP_GROUP_ID_KEY, objectId);
-        List<Group> groups = groupDao.get(criteria);
-        if (groups.size() == 1) {
-            return groups.get(0);
-        } else {
-            // Log here about no users
-
-            return null;
+    /**
+     * Loads the groups referenced by the given invitations with one query. The users of the invitations are
+     * added to the loader first, so that they are resolved by the same query as the group members.
+     * @param basicDBList the invitation documents
+     * @param userLoader the loader of the current request
+     * @return the groups by id
+     */
+    private Map<ObjectId, Group> getGroups(BasicDBList basicDBList, UserLoader userLoader) {
+        Set<ObjectId> groupIds = new LinkedHashSet<>();
+        basicDBList.forEach(invitationDBObject -> {
+            BasicDBObject invitation = (BasicDBObject) invitationDBObject;
+            userLoader.add(invitation.getObjectId(INVITATION_INVITER_ID_KEY, null));
+            userLoader.add(invitation.getObjectId(INVITATION_INVITEE_ID_KEY, null));
+            userLoader.add(invitation.getObjectId(INVITATION_APPROVED_BY_KEY, null));
+            ObjectId groupId = invitation.getObjectId(INVITATION_GROUP_ID_KEY, null);
+            if (groupId != null) {
+                groupIds.add(groupId);
+            }
+        });
+
+        Map<ObjectId, Group> groups = new HashMap<>();
+        if (!groupIds.isEmpty()) {
+            Map<String, Object> criteria = new HashMap<>();
+            criteria.put(Constants.GROUP_GROUP_ID_KEY, new BasicDBObject("$in", new ArrayList<>(groupIds)));
+            groupDao.get(criteria, userLoader).forEach(group -> groups.put(group.getId(), group));
         }
+        return groups;
     }
 
+    /**
+     * Converts database objects to Invitations. The groups of all invitations are loaded with one query, and
+     * the users of the invitations and groups with another.
+     * @param basicDBList the documents in DB
+     * @return the Invitations
+     */
     @Override
     public List<Invitation> toObjects(BasicDBList basicDBList) {
+        UserLoader userLoader = new UserLoader(userDao);
+        Map<ObjectId, Group> groups = getGroups(basicDBList, userLoader);
+        userLoader.load();
+
         List<Invitation> invitations = new ArrayList<>();
-        basicDBList.forEach(invitationDBObject -> invitations.add(toObject((BasicDBObject) invitationDBObject)));
+        basicDBList.forEach(invitationDBObject ->
+                invitations.add(toObject((BasicDBObject) invitationDBObject, userLoader, groups)));
         return invitations;
     }
 
@@ -1,11 +1,11 @@
 package edu.northeastern.ccs.im.dao;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import edu.northeastern.ccs.im.models.Invitation;
 
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static edu.northeastern.ccs.im.dao.Constants.INVITATION_COLLECTION_NAME;
 import static edu.northeastern.ccs.im.dao.Constants.INVITATION_INVITATION_ID_KEY;
@@ -25,10 +25,9 @@ public class InvitationDao implements Dao<Invitation> {
         List<BasicDBObject> invitationDBObjects = DaoUtils.getDBObjectsFromDBMatchingCriteria(
                 INVITATION_COLLECTION_NAME, criteria);
 
-        return invitationDBObjects
-                .stream()
-                .map(invitationDBObject -> invitationBridge.toObject(invitationDBObject))
-                .collect(Collectors.toList());
+        BasicDBList invitationDBList = new BasicDBList();
+        invitationDBList.addAll(invitationDBObjects);
+        return invitationBridge.toObjects(invitationDBList);
     }
 
     @Override
@@ -44,7 +43,6 @@ public class InvitationDao implements Dao<Invitation> {
     public boolean create(Invitation object) {
         BasicDBObject invitationAsDBObject = invitationBridge.toDBObject(object);
 
-        DaoUtils.createIndexInDBIfEmpty(INVITATION_COLLECTION_NAME, INVITATION_INVITATION_ID_KEY);
         return DaoUtils.insertDBOjectInDB(INVITATION_COLLECTION_NAME, invitationAsDBObject, INVITATION_COLLECTION_NAME);
     }
 
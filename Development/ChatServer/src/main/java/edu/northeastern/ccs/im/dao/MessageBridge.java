@@ -2,14 +2,15 @@ package edu.northeastern.ccs.im.dao;
 
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Message;
 import edu.northeastern.ccs.im.models.User;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
 
@@ -29,32 +30,54 @@ public class MessageBridge implements Bridge<Message> {
 
     @Override
     public Message toObject(BasicDBObject basicDBObject) {
+        UserLoader userLoader = new UserLoader(userDao);
+        addUserIds(basicDBObject, userLoader);
+        return toObject(basicDBObject, userLoader);
+    }
+
+    private Message toObject(BasicDBObject basicDBObject, UserLoader userLoader) {
         Message msg = new Message(
                 basicDBObject.getDate(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY),
-                getUserById(basicDBObject.getObjectId(MESSAGE_SENDER_ID_KEY)),
-                getUserById(basicDBObject.getObjectId(MESSAGE_RECEIVER_ID_KEY)),
+                userLoader.get(basicDBObject.getObjectId(MESSAGE_SENDER_ID_KEY)),
+                userLoader.get(basicDBObject.getObjectId(MESSAGE_RECEIVER_ID_KEY)),
                 basicDBObject.getString(MESSAGE_MESSAGE_BODY_KEY),
                 Boolean.valueOf(basicDBObject.getString(MESSAGE_DELETED_KEY)));
         msg.setId(basicDBObject.getObjectId(MESSAGE_MESSAGE_ID_KEY));
+        // Messages stored before delivery was tracked have no such field; they count as delivered.
+        msg.setDelivered(basicDBObject.getBoolean(MESSAGE_DELIVERED_KEY, true));
+        ObjectId groupId = basicDBObject.getObjectId(MESSAGE_GROUP_ID_KEY);
+        if (groupId != null) {
+            Group group = new Group(basicDBObject.getString(MESSAGE_GROUP_NAME_KEY), Collections.emptyList());
+            group.setId(groupId);
+            msg.setGroup(group);
+            List<ObjectId> pendingIds = new ArrayList<>();
+            Collection<?> pending = (Collection<?>) basicDBObject.get(MESSAGE_PENDING_IDS_KEY);
+            if (pending != null) {
+                pending.forEach(id -> pendingIds.add((ObjectId) id));
+            }
+            msg.setPendingIds(pendingIds);
+        }
         return msg;
     }
 
-    private User getUserById(ObjectId objectId) {
-        Map<String, Object> criteria = new HashMap<>();
-        criteria.put(Constants.USER_USER_ID_KEY, objectId);
-        List<User> users = userDao.get(criteria);
-        if (users.size() == 1) {
-            return users.get(0);
-        } else {
-            // Log here about no users
-            return null;
-        }
+    private void addUserIds(BasicDBObject basicDBObject, UserLoader userLoader) {
+        userLoader.add(basicDBObject.getObjectId(MESSAGE_SENDER_ID_KEY));
+        userLoader.add(basicDBObject.getObjectId(MESSAGE_RECEIVER_ID_KEY));
     }
 
+    /**
+     * Converts database objects to Messages, resolving the senders and receivers of all of them with one query.
+     * @param basicDBList the documents in DB
+     * @return the Messages
+     */
     @Override
     public List<Message> toObjects(BasicDBList basicDBList) {
+        UserLoader userLoader = new UserLoader(userDao);
+        basicDBList.forEach(messageDBObject -> addUserIds((BasicDBObject) messageDBObject, userLoader));
+        userLoader.load();
+
         List<Message> messages = new ArrayList<>();
-        basicDBList.forEach(messageDBObject -> messages.add(toObject((BasicDBObject) messageDBObject)));
+        basicDBList.forEach(messageDBObject -> messages.add(toObject((BasicDBObject) messageDBObject, userLoader)));
         return messages;
     }
 
@@ -66,12 +89,22 @@ public class MessageBridge implements Bridge<Message> {
         if (receiver != null) {
             receiverId = receiver.getId();
         }
-        return new BasicDBObject(MESSAGE_MESSAGE_ID_KEY, object.getId())
+        BasicDBObject messageDBObject = new BasicDBObject(MESSAGE_MESSAGE_ID_KEY, object.getId())
                 .append(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, object.getTimestampSent())
                 .append(MESSAGE_SENDER_ID_KEY, object.getSender().getId())
                 .append(MESSAGE_RECEIVER_ID_KEY, receiverId)
                 .append(MESSAGE_MESSAGE_BODY_KEY, object.getMessageBody())
-                .append(MESSAGE_DELETED_KEY, object.isDeleted());
+                .append(MESSAGE_DELETED_KEY, object.isDeleted())
+                .append(MESSAGE_DELIVERED_KEY, object.isDelivered());
+        Group group = object.getGroup();
+        if (group != null) {
+            BasicDBList pendingIds = new BasicDBList();
+            pendingIds.addAll(object.getPendingIds());
+            messageDBObject.append(MESSAGE_GROUP_ID_KEY, group.getId())
+                    .append(MESSAGE_GROUP_NAME_KEY, group.getGroupName())
+                    .append(MESSAGE_PENDING_IDS_KEY, pendingIds);
+        }
+        return messageDBObject;
     }
 
     /**
@@ -1,11 +1,19 @@
 package edu.northeastern.ccs.im.dao;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
 import edu.northeastern.ccs.im.models.Message;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
 
@@ -23,10 +31,101 @@ public class MessageDao implements Dao<Message>{
         List<BasicDBObject> messageDBObjects = DaoUtils.getDBObjectsFromDBMatchingCriteria(
                 MESSAGE_COLLECTION_NAME, criteria);
 
-        return messageDBObjects
-                .stream()
-                .map(messageDbObject -> messageBridge.toObject(messageDbObject))
-                .collect(Collectors.toList());
+        BasicDBList messageDBList = new BasicDBList();
+        messageDBList.addAll(messageDBObjects);
+        return messageBridge.toObjects(messageDBList);
+    }
+
+    /**
+     * Gets one page of the messages received by a user that are not deleted, newest first, the ones sent to the user
+     * and the ones sent to the given groups merged in one order. Messages sent at the same time are ordered by id, so
+     * that every message has its own place in the order and pages never overlap.
+     * @param receiverId the id of the receiver
+     * @param groupIds the ids of the groups of the receiver
+     * @param since the earliest time sent to include, or null for no limit
+     * @param until the latest time sent to include, or null for no limit
+     * @param after the last message of the previous page, of which only the id and time sent are used; null for the
+     *              first page
+     * @param limit the most messages to get
+     * @return the messages of the page
+     */
+    public List<Message> getReceivedPage(ObjectId receiverId, Collection<ObjectId> groupIds, Date since, Date until,
+                                         Message after, int limit) {
+        List<Bson> filters = new ArrayList<>();
+        if (groupIds.isEmpty()) {
+            filters.add(Filters.eq(MESSAGE_RECEIVER_ID_KEY, receiverId));
+        } else {
+            filters.add(Filters.or(Filters.eq(MESSAGE_RECEIVER_ID_KEY, receiverId),
+                    Filters.in(MESSAGE_GROUP_ID_KEY, groupIds)));
+        }
+        filters.add(Filters.eq(MESSAGE_DELETED_KEY, false));
+        if (since != null) {
+            filters.add(Filters.gte(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, since));
+        }
+        if (until != null) {
+            filters.add(Filters.lte(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, until));
+        }
+        if (after != null) {
+            filters.add(Filters.or(
+                    Filters.lt(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, after.getTimestampSent()),
+                    Filters.and(Filters.eq(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, after.getTimestampSent()),
+                            Filters.lt(MESSAGE_MESSAGE_ID_KEY, after.getId()))));
+        }
+        List<BasicDBObject> messageDBObjects = DaoUtils.getDBObjectsFromDB(MESSAGE_COLLECTION_NAME,
+                Filters.and(filters), Sorts.descending(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, MESSAGE_MESSAGE_ID_KEY),
+                limit);
+
+        BasicDBList messageDBList = new BasicDBList();
+        messageDBList.addAll(messageDBObjects);
+        return messageBridge.toObjects(messageDBList);
+    }
+
+    /**
+     * Gets the oldest messages received by a user that are neither delivered nor deleted, in the order they were
+     * sent, the ones sent to the user and the ones sent to its groups merged in one order. Only those messages are
+     * read, however long the user's history is.
+     * @param receiverId the id of the receiver
+     * @param limit the most messages to get
+     * @return the undelivered messages
+     */
+    public List<Message> getUndelivered(ObjectId receiverId, int limit) {
+        Bson filter = Filters.and(
+                Filters.or(
+                        Filters.and(Filters.eq(MESSAGE_RECEIVER_ID_KEY, receiverId),
+                                Filters.eq(MESSAGE_DELIVERED_KEY, false)),
+                        Filters.eq(MESSAGE_PENDING_IDS_KEY, receiverId)),
+                Filters.eq(MESSAGE_DELETED_KEY, false));
+        List<BasicDBObject> messageDBObjects = DaoUtils.getDBObjectsFromDB(MESSAGE_COLLECTION_NAME, filter,
+                Sorts.ascending(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, MESSAGE_MESSAGE_ID_KEY), limit);
+
+        BasicDBList messageDBList = new BasicDBList();
+        messageDBList.addAll(messageDBObjects);
+        return messageBridge.toObjects(messageDBList);
+    }
+
+    /**
+     * Marks the given messages of a user as delivered. Messages sent to the user are flagged delivered in one update;
+     * the user is taken off the pending members of group messages in a second one, only needed when some ids were
+     * not direct messages. Ids of messages the user did not receive are left alone.
+     * @param receiverId the id of the receiver
+     * @param messageIds the ids of the messages the receiver got
+     * @return the number of messages that were not marked delivered before
+     */
+    public long markDelivered(ObjectId receiverId, List<ObjectId> messageIds) {
+        Bson filter = Filters.and(
+                Filters.eq(MESSAGE_RECEIVER_ID_KEY, receiverId),
+                Filters.in(MESSAGE_MESSAGE_ID_KEY, messageIds),
+                Filters.eq(MESSAGE_DELIVERED_KEY, false));
+        long delivered = DaoUtils.updateDBObjectsInDB(MESSAGE_COLLECTION_NAME, filter,
+                Updates.set(MESSAGE_DELIVERED_KEY, true), MESSAGE_COLLECTION_NAME);
+        if (delivered < messageIds.size()) {
+            Bson groupFilter = Filters.and(
+                    Filters.eq(MESSAGE_PENDING_IDS_KEY, receiverId),
+                    Filters.in(MESSAGE_MESSAGE_ID_KEY, messageIds));
+            delivered += DaoUtils.updateDBObjectsInDB(MESSAGE_COLLECTION_NAME, groupFilter,
+                    Updates.pull(MESSAGE_PENDING_IDS_KEY, receiverId), MESSAGE_COLLECTION_NAME);
+        }
+        return delivered;
     }
 
     @Override
@@ -42,10 +141,26 @@ public class MessageDao implements Dao<Message>{
     public boolean create(Message object) {
         BasicDBObject messageAsDBObject = messageBridge.toDBObject(object);
 
-        DaoUtils.createIndexInDBIfEmpty(MESSAGE_COLLECTION_NAME, MESSAGE_MESSAGE_ID_KEY);
         return DaoUtils.insertDBOjectInDB(MESSAGE_COLLECTION_NAME, messageAsDBObject, MESSAGE_COLLECTION_NAME);
     }
 
+    /**
+     * Stores the given messages with one round trip to the database.
+     * @param messages the messages to store
+     * @return the messages that could not be stored, empty if all were
+     */
+    public List<Message> createAll(List<Message> messages) {
+        List<BasicDBObject> messageDBObjects = new ArrayList<>(messages.size());
+        messages.forEach(message -> messageDBObjects.add(messageBridge.toDBObject(message)));
+
+        List<Message> failed = new ArrayList<>();
+        for (int index : DaoUtils.insertDBObjectsInDB(MESSAGE_COLLECTION_NAME, messageDBObjects,
+                MESSAGE_COLLECTION_NAME)) {
+            failed.add(messages.get(index));
+        }
+        return failed;
+    }
+
     @Override
     public boolean delete(Message object) {
         BasicDBObject messageAsDBObject = messageBridge.toDBObject(object);
@@ -13,15 +13,33 @@ import java.util.Properties;
  * MongoConnector wraps the functionality of MongoClient, and allows us to provide a default configuration based
  * on properties file, which we use connect to the appropriate MongoInstance. The Dao layer will use this object
  * to connect to Mongo.
+ * <p>
+ * A MongoClient is a thread safe pool of connections, so the Dao layer shares a single connector for the whole
+ * process (see {@link #getSharedConnector()}) rather than opening one per operation. The size of the pool, its
+ * wait queue and its timeouts are set by the db.pool.* properties in dao.properties.
  */
 class MongoConnector {
 
     private static Logger logger = LogManager.getLogger();
+
+    /**
+     * The connector shared by every Dao in this process, created on first use.
+     */
+    private static volatile MongoConnector sharedConnector;
+
+    /**
+     * Whether the shared connector was closed. It is never opened again, so that a late call after the server
+     * stopped fails instead of opening a pool that nobody closes.
+     */
+    private static volatile boolean sharedClosed;
+
     private MongoClient mongo = null;
     private MongoDatabase mongoDatabase = null;
 
     private boolean fakeProvided;
 
+    private volatile boolean closed;
+
     MongoConnector() {
         fakeProvided = false;
         setUp();
@@ -42,15 +60,50 @@ class MongoConnector {
      * The only method accessible outside is this - we can get the appropriate Database to connect to with either
      * default or faked properties.
      * @return the MongoDatabase object
+     * @throws IllegalStateException if the connection was closed
      */
     MongoDatabase getMongoDatabase() {
-        if (mongo == null) {
-            loadProperties();
-            setUp();
+        if (closed) {
+            throw new IllegalStateException("The connection to Mongo is closed");
         }
         return mongoDatabase;
     }
 
+    /**
+     * Gets the connector shared by the whole process, connecting to Mongo the first time it is asked for.
+     * @return the shared MongoConnector
+     * @throws IllegalStateException if the shared connector was closed
+     */
+    static MongoConnector getSharedConnector() {
+        MongoConnector connector = sharedConnector;
+        if (connector == null) {
+            synchronized (MongoConnector.class) {
+                if (sharedClosed) {
+                    throw new IllegalStateException("The connection to Mongo is closed");
+                }
+                connector = sharedConnector;
+                if (connector == null) {
+                    connector = new MongoConnector();
+                    sharedConnector = connector;
+                }
+            }
+        }
+        return connector;
+    }
+
+    /**
+     * Closes the shared connector and its connection pool, if it was ever opened. From then on the Dao layer
+     * fails with an IllegalStateException rather than connecting again.
+     */
+    static void closeSharedConnector() {
+        synchronized (MongoConnector.class) {
+            sharedClosed = true;
+            if (sharedConnector != null) {
+                sharedConnector.closeConnection();
+            }
+        }
+    }
+
     private Properties loadProperties() {
         try {
             Properties properties = new Properties();
@@ -63,9 +116,8 @@ class MongoConnector {
         }
     }
 
-    private MongoClientURI getMongoClientURI() {
-        Properties properties = loadProperties();
-        Objects.requireNonNull(properties);
+    private MongoClientURI getMongoClientURI(Properties properties) {
+        MongoClientOptions.Builder options = getPoolOptions(properties);
 
         // In production, our machine will have the mode as 'prod' in the system environment variable.
         String dbConnectionMode = System.getenv("PRATTLE_RUNTIME_ENV");
@@ -89,7 +141,7 @@ class MongoConnector {
             Objects.requireNonNull(replicaSet);
             Objects.requireNonNull(authSource);
 
-            return new MongoClientURI(String.format(dbUrl, dbUser, dbPassword, hosts, replicaSet, authSource));
+            return new MongoClientURI(String.format(dbUrl, dbUser, dbPassword, hosts, replicaSet, authSource), options);
         } else if (dbConnectionMode.equals(Constants.LOCAL)) {
             String dbUrl = properties.getProperty(dbConnectionMode + "." + Constants.DB_URL_PROP);
             String hosts = properties.getProperty(dbConnectionMode + "." + Constants.DB_HOSTS_PROP);
@@ -97,7 +149,7 @@ class MongoConnector {
             Objects.requireNonNull(dbUrl);
             Objects.requireNonNull(hosts);
 
-            return new MongoClientURI(String.format(dbUrl, hosts));
+            return new MongoClientURI(String.format(dbUrl, hosts), options);
         } else {
             logger.warn("Unknown option for connection mode specified in " + Constants.MODE_PROP + ". Assuming local" +
                     "mongo exists.");
@@ -108,14 +160,49 @@ class MongoConnector {
             Objects.requireNonNull(dbUrl);
             Objects.requireNonNull(hosts);
 
-            return new MongoClientURI(String.format(dbUrl, hosts));
+            return new MongoClientURI(String.format(dbUrl, hosts), options);
         }
     }
 
-    private String getDatabaseName() {
-        Properties properties = loadProperties();
-        Objects.requireNonNull(properties);
+    /**
+     * Reads the settings of the connection pool. Anything left out of the properties keeps the driver's default.
+     * @param properties the loaded dao.properties
+     * @return options to build the MongoClient with
+     */
+    private MongoClientOptions.Builder getPoolOptions(Properties properties) {
+        MongoClientOptions defaults = MongoClientOptions.builder().build();
+        return MongoClientOptions.builder()
+                .connectionsPerHost(getIntProperty(properties, Constants.DB_POOL_MAX_SIZE_PROP,
+                        defaults.getConnectionsPerHost()))
+                .minConnectionsPerHost(getIntProperty(properties, Constants.DB_POOL_MIN_SIZE_PROP,
+                        defaults.getMinConnectionsPerHost()))
+                .threadsAllowedToBlockForConnectionMultiplier(getIntProperty(properties,
+                        Constants.DB_POOL_WAIT_QUEUE_MULTIPLE_PROP,
+                        defaults.getThreadsAllowedToBlockForConnectionMultiplier()))
+                .maxWaitTime(getIntProperty(properties, Constants.DB_POOL_MAX_WAIT_TIME_PROP,
+                        defaults.getMaxWaitTime()))
+                .maxConnectionIdleTime(getIntProperty(properties, Constants.DB_POOL_MAX_IDLE_TIME_PROP,
+                        defaults.getMaxConnectionIdleTime()))
+                .connectTimeout(getIntProperty(properties, Constants.DB_CONNECT_TIMEOUT_PROP,
+                        defaults.getConnectTimeout()))
+                .socketTimeout(getIntProperty(properties, Constants.DB_SOCKET_TIMEOUT_PROP,
+                        defaults.getSocketTimeout()));
+    }
 
+    private int getIntProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid value '" + value + "' for " + name);
+            return defaultValue;
+        }
+    }
+
+    private String getDatabaseName(Properties properties) {
         String dbConnectionMode = System.getenv("PRATTLE_RUNTIME_ENV");
 
         if (dbConnectionMode == null) {
@@ -139,15 +226,20 @@ class MongoConnector {
     }
 
     private void setUp() {
-        mongo = new MongoClient(getMongoClientURI());
-        mongoDatabase = mongo.getDatabase(getDatabaseName());
+        Properties properties = loadProperties();
+        Objects.requireNonNull(properties);
+
+        mongo = new MongoClient(getMongoClientURI(properties));
+        mongoDatabase = mongo.getDatabase(getDatabaseName(properties));
     }
 
     /**
-     * Allows for the mongo connection to be closed whenever needed. (Best practice is to close after every transaction)
+     * Allows for the mongo connection to be closed whenever needed. Closing shuts the whole connection pool down,
+     * so this is only done when the server stops, never after a single transaction.
      */
     void closeConnection() {
         if (mongo != null && !fakeProvided) {
+            closed = true;
             mongo.close();
             mongo = null;
         }
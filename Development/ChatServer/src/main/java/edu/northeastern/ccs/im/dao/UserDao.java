@@ -45,7 +45,6 @@ public class UserDao implements Dao<User> {
     public boolean create(User object) {
         BasicDBObject userAsDBOject = userBridge.toDBObject(object);
 
-        DaoUtils.createIndexInDBIfEmpty(USER_COLLECTION_NAME, USER_USER_ID_KEY, USER_USER_NAME_KEY);
         return DaoUtils.insertDBOjectInDB(USER_COLLECTION_NAME, userAsDBOject, USER_COLLECTION_NAME);
     }
 
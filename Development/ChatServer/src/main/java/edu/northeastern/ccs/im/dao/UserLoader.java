@@ -0,0 +1,101 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.BasicDBObject;
+import edu.northeastern.ccs.im.models.User;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static edu.northeastern.ccs.im.dao.Constants.USER_USER_ID_KEY;
+
+/**
+ * Resolves the user ids referenced by the documents of one request. Ids are collected first and then
+ * resolved together with a single {@code $in} query, and each user is materialized only once, so
+ * converting a whole result set costs one user query instead of one per reference.
+ * <p>
+ * A loader is meant to live for one conversion only; it does not see later changes to the users.
+ */
+class UserLoader {
+    private final UserDao userDao;
+
+    /**
+     * Users already resolved, by id. Ids that matched no user are kept with a null value.
+     */
+    private final Map<ObjectId, User> users;
+
+    /**
+     * Ids collected but not resolved yet.
+     */
+    private final Set<ObjectId> pending;
+
+    UserLoader(UserDao userDao) {
+        this.userDao = userDao;
+        this.users = new HashMap<>();
+        this.pending = new LinkedHashSet<>();
+    }
+
+    /**
+     * Remember the given id so that it gets resolved by the next load.
+     * @param objectId the user id, ignored if null
+     */
+    void add(ObjectId objectId) {
+        if (objectId != null && !users.containsKey(objectId)) {
+            pending.add(objectId);
+        }
+    }
+
+    /**
+     * Remember all of the given ids so that they get resolved by the next load.
+     * @param objectIds the user ids
+     */
+    void addAll(Collection<?> objectIds) {
+        objectIds.forEach(objectId -> add((ObjectId) objectId));
+    }
+
+    /**
+     * Resolve every pending id with one query.
+     */
+    void load() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", new ArrayList<>(pending)));
+        userDao.get(criteria).forEach(user -> users.put(user.getId(), user));
+        pending.forEach(objectId -> users.putIfAbsent(objectId, null));
+        pending.clear();
+    }
+
+    /**
+     * Get the user with the given id, loading it along with any other pending ids if needed.
+     * @param objectId the user id
+     * @return the user, or null if there is no user with this id
+     */
+    User get(ObjectId objectId) {
+        if (objectId == null) {
+            return null;
+        }
+        add(objectId);
+        load();
+        return users.get(objectId);
+    }
+
+    /**
+     * Get the users with the given ids, in order, loading them with one query if needed.
+     * @param objectIds the user ids
+     * @return the users; ids that match no user give null entries
+     */
+    List<User> getAll(Collection<?> objectIds) {
+        addAll(objectIds);
+        load();
+        List<User> result = new ArrayList<>(objectIds.size());
+        objectIds.forEach(objectId -> result.add(users.get(objectId)));
+        return result;
+    }
+}
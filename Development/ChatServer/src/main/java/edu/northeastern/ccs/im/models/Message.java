@@ -2,7 +2,9 @@ package edu.northeastern.ccs.im.models;
 
 import org.bson.types.ObjectId;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Message model
@@ -34,6 +36,23 @@ public class Message {
      */
     private boolean isDeleted;
 
+    /**
+     * Whether or not the receiver has acknowledged getting the message. Undelivered messages are sent again when
+     * the receiver asks for its queue.
+     */
+    private boolean isDelivered;
+
+    /**
+     * Group the message was sent to, or null if it was not sent to a group. A group message is stored once for all
+     * the members; only the id and name of its group are kept with it.
+     */
+    private Group group;
+
+    /**
+     * Ids of the members of the group who have not acknowledged getting a group message yet
+     */
+    private List<ObjectId> pendingIds = Collections.emptyList();
+
     /**
      * Creates new Message along with its corresponding fields
      * @param timestampSent The time that the message is sent out from server
@@ -128,6 +147,50 @@ public class Message {
         this.isDeleted = isDeleted;
     }
 
+    /**
+     * Whether or not the receiver has acknowledged getting the message.
+     * @return true if the message has been delivered, false otherwise
+     */
+    public boolean isDelivered() {
+        return isDelivered;
+    }
+
+    /**
+     * Sets whether or not the receiver has acknowledged getting the message.
+     * @param isDelivered is delivered or not
+     */
+    public void setDelivered(boolean isDelivered) {
+        this.isDelivered = isDelivered;
+    }
+
+    /**
+     * @return group the message was sent to, or null if it was not sent to a group
+     */
+    public Group getGroup() {
+        return group;
+    }
+
+    /**
+     * sets group the message was sent to
+     */
+    public void setGroup(Group group) {
+        this.group = group;
+    }
+
+    /**
+     * @return ids of the members of the group who have not acknowledged getting the message
+     */
+    public List<ObjectId> getPendingIds() {
+        return pendingIds;
+    }
+
+    /**
+     * sets ids of the members of the group who have not acknowledged getting the message
+     */
+    public void setPendingIds(List<ObjectId> pendingIds) {
+        this.pendingIds = pendingIds;
+    }
+
     /**
      * @return fields of message as a string
      */
@@ -0,0 +1,175 @@
+package edu.northeastern.ccs.im.server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which connections the server takes on. There are caps on the number of connections, on the
+ * number of them that have not logged in yet, and on the number coming from one address.
+ * <p>
+ * Reaching either of the first two caps makes the server stop accepting until it is back under a low
+ * watermark, so that further connections wait in the backlog of the listening socket, and are refused
+ * by the operating system once it is full, instead of each costing a client and its buffers. A
+ * connection over the cap of its address is closed as soon as it is accepted.
+ * <p>
+ * Connections are admitted by the thread accepting them, and released by the threads running them.
+ */
+class AdmissionControl {
+    private final int maxConnections;
+    private final int maxPerAddress;
+    private final int maxPreLogin;
+
+    private final AtomicInteger connections;
+    private final AtomicInteger preLogin;
+    private final Map<InetAddress, Integer> perAddress;
+
+    /**
+     * Number of connections closed as soon as they were accepted.
+     */
+    private final LongAdder rejected;
+
+    /**
+     * Create an admission control with nothing admitted yet.
+     *
+     * @param maxConnections most connections at once
+     * @param maxPerAddress  most connections at once from one address
+     * @param maxPreLogin    most connections at once that have not logged in yet
+     */
+    AdmissionControl(int maxConnections, int maxPerAddress, int maxPreLogin) {
+        this.maxConnections = maxConnections;
+        this.maxPerAddress = maxPerAddress;
+        this.maxPreLogin = maxPreLogin;
+        this.connections = new AtomicInteger();
+        this.preLogin = new AtomicInteger();
+        this.perAddress = new ConcurrentHashMap<>();
+        this.rejected = new LongAdder();
+    }
+
+    /**
+     * Whether the server has as many connections, or connections not logged in yet, as it takes on.
+     *
+     * @return true if accepting should stop
+     */
+    boolean isSaturated() {
+        return connections.get() >= maxConnections || preLogin.get() >= maxPreLogin;
+    }
+
+    /**
+     * Whether the server is far enough under its caps to start accepting again after it stopped. The
+     * gap keeps it from flapping between the two on every connection.
+     *
+     * @return true if accepting may resume
+     */
+    boolean hasRoom() {
+        return connections.get() <= lowWatermark(maxConnections) && preLogin.get() <= lowWatermark(maxPreLogin);
+    }
+
+    /**
+     * Take on a newly accepted connection.
+     *
+     * @param address where the connection comes from, or null if it is not known
+     * @return the ticket to hand back when the connection is logged in and when it is gone, or null if
+     * the connection should be closed
+     */
+    Ticket admit(InetAddress address) {
+        if (isSaturated()) {
+            rejected.increment();
+            return null;
+        }
+        if (address != null && perAddress.merge(address, 1, Integer::sum) > maxPerAddress) {
+            releaseAddress(address);
+            rejected.increment();
+            return null;
+        }
+        connections.incrementAndGet();
+        preLogin.incrementAndGet();
+        return new Ticket(address);
+    }
+
+    /**
+     * Number of connections admitted and not released yet.
+     *
+     * @return the number of connections
+     */
+    int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Number of connections admitted that have not logged in yet.
+     *
+     * @return the number of connections not logged in
+     */
+    int getPreLogin() {
+        return preLogin.get();
+    }
+
+    /**
+     * Number of connections from the given address.
+     *
+     * @param address the address
+     * @return the number of connections
+     */
+    int getConnections(InetAddress address) {
+        return perAddress.getOrDefault(address, 0);
+    }
+
+    /**
+     * Number of connections closed as soon as they were accepted.
+     *
+     * @return the number of rejected connections
+     */
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    private void releaseAddress(InetAddress address) {
+        perAddress.computeIfPresent(address, (a, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static int lowWatermark(int cap) {
+        return cap - Math.max(1, cap / 10);
+    }
+
+    /**
+     * The admission of one connection.
+     */
+    final class Ticket {
+        private final InetAddress address;
+        private final AtomicBoolean loggedIn = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Ticket(InetAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * The connection has logged in, so it no longer counts against the cap of connections that
+         * have not. Only the first call counts.
+         */
+        void loggedIn() {
+            if (!released.get() && loggedIn.compareAndSet(false, true)) {
+                preLogin.decrementAndGet();
+            }
+        }
+
+        /**
+         * The connection is gone. Only the first call counts.
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                if (loggedIn.compareAndSet(false, true)) {
+                    preLogin.decrementAndGet();
+                }
+                connections.decrementAndGet();
+                if (address != null) {
+                    releaseAddress(address);
+                }
+            }
+        }
+    }
+}
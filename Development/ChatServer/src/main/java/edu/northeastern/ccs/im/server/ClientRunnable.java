@@ -6,6 +6,7 @@ import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Invitation;
 import edu.northeastern.ccs.im.models.InvitationStatus;
 import edu.northeastern.ccs.im.models.User;
+import edu.northeastern.ccs.im.services.AsyncUserService;
 import edu.northeastern.ccs.im.services.GroupService;
 import edu.northeastern.ccs.im.services.InvitationService;
 import edu.northeastern.ccs.im.services.MessageService;
@@ -17,9 +18,15 @@ import org.bson.types.ObjectId;
 
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
 
@@ -27,8 +34,8 @@ import static edu.northeastern.ccs.im.dao.Constants.*;
  * Instances of this class handle all of the incoming communication from a
  * single IM client. Instances are created when the client signs-on with the
  * server. After instantiation, it is executed periodically on one of the
- * threads from the thread pool and will stop being run only when the client
- * signs off.
+ * threads from the thread pool, or by a {@link Reactor} whenever its channel is
+ * ready, and will stop being run only when the client signs off.
  * <p>
  * This work is licensed under the Creative Commons Attribution-ShareAlike 4.0
  * International License. To view a copy of this license, visit
@@ -83,6 +90,11 @@ public class ClientRunnable implements Runnable {
      */
     private ClientTimer timer;
 
+    /**
+     * The pings that check that a logged in client is still there.
+     */
+    private Heartbeat heartbeat;
+
     /**
      * The future that is used to schedule the client for execution in the thread
      * pool.
@@ -90,15 +102,86 @@ public class ClientRunnable implements Runnable {
     private ScheduledFuture<?> runnableMe;
 
     /**
-     * Collection of messages queued up to be sent to this client.
+     * Collection of messages queued up to be sent to this client; bounded, so that
+     * a client that stops reading cannot hold on to ever more of them.
+     */
+    private OutboundQueue waitingList;
+
+    /**
+     * Most incoming messages handled in one run; the rest wait for the next run.
+     */
+    private int inboundBudget;
+
+    /**
+     * Stage on which passwords are hashed, away from the threads that run the clients.
+     */
+    private Executor authExecutor;
+
+    /**
+     * Stage on which the handlers that use the database are run, away from the threads that run the
+     * clients.
      */
-    private Queue<Message> waitingList;
+    private Executor databaseExecutor;
+
+    /**
+     * Whether work of this client is being done on another stage. No further message is taken from
+     * the client until it is done, so its messages are handled in order, and a client waiting for the
+     * database holds back only its own messages.
+     */
+    private volatile boolean offloaded;
+
+    /**
+     * Reply to the offloaded work, set by the other stage once it is done and run by this client.
+     */
+    private volatile Runnable stageResult;
+
+    /**
+     * Issues and checks the tokens with which users log back in without their password.
+     */
+    private ResumeTokens resumeTokens;
+
+    /**
+     * The resume token last handed to this client, revoked if the user logs out.
+     */
+    private String resumeToken;
+
+    /**
+     * The admission of this connection, handed back once it logs in and once it is gone; null if the
+     * connection was not admitted through the admission control.
+     */
+    private AdmissionControl.Ticket admission;
+
+    /**
+     * Limits how fast the user may send each kind of request.
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * Stores the messages the user sends behind their delivery.
+     */
+    private MessagePersister persister;
+
+    /**
+     * Number of requests of this client that were throttled.
+     */
+    private long throttled;
+
+    /**
+     * Called whenever a message is enqueued, so that a reactor can ask for write interest on the
+     * channel of this client. Null when the client is polled by the thread pool instead.
+     */
+    private Runnable wakeup;
 
     /**
      * User Dao
      */
     private UserService userService;
 
+    /**
+     * Looks users up without holding a thread while the database answers
+     */
+    private AsyncUserService asyncUserService;
+
     /**
      * Group Service
      */
@@ -120,11 +203,19 @@ public class ClientRunnable implements Runnable {
         // Mark that we are not terminated
         terminate = false;
         // Create the queue of messages to be sent
-        waitingList = new ConcurrentLinkedQueue<>();
+        waitingList = new OutboundQueue(ServerConstants.OUTBOUND_CAPACITY, ServerConstants.OUTBOUND_OVERFLOW);
         // Mark that the client is active now and start the timer until we
         // terminate for inactivity.
         timer = new ClientTimer();
+        heartbeat = new Heartbeat(ServerConstants.HEARTBEAT_INTERVAL, ServerConstants.HEARTBEAT_MISSED);
+        inboundBudget = ServerConstants.INBOUND_BUDGET;
+        authExecutor = Stage.auth();
+        databaseExecutor = Stage.database();
+        resumeTokens = ResumeTokens.shared();
+        rateLimiter = RateLimiter.shared();
+        persister = MessagePersister.shared();
         userService = new UserService();
+        asyncUserService = new AsyncUserService(databaseExecutor);
         groupService = new GroupService();
         msgService = new MessageService();
         //Emma
@@ -141,7 +232,17 @@ public class ClientRunnable implements Runnable {
      * @param concurrentLinkedQueue the waiting list to use
      */
     void setWaitingList(ConcurrentLinkedQueue<Message> concurrentLinkedQueue) {
-        this.waitingList = concurrentLinkedQueue;
+        this.waitingList = new OutboundQueue(concurrentLinkedQueue, ServerConstants.OUTBOUND_CAPACITY,
+                ServerConstants.OUTBOUND_OVERFLOW);
+    }
+
+    /**
+     * Use the given waiting list
+     *
+     * @param waitingList the waiting list to use
+     */
+    void setWaitingList(OutboundQueue waitingList) {
+        this.waitingList = waitingList;
     }
 
     /**
@@ -153,11 +254,92 @@ public class ClientRunnable implements Runnable {
         this.userService = service;
     }
 
+    /**
+     * Set the service looking users up without holding a thread.
+     *
+     * @param service the service to use
+     */
+    void setAsyncUserService(AsyncUserService service) {
+        this.asyncUserService = service;
+    }
+
 
     public void setTimer(ClientTimer timer) {
         this.timer = timer;
     }
 
+    /**
+     * Set the heartbeat with which the client is pinged once logged in.
+     *
+     * @param heartbeat the heartbeat to use
+     */
+    void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * Set the stage on which passwords are hashed.
+     *
+     * @param authExecutor the stage to use
+     */
+    void setAuthExecutor(Executor authExecutor) {
+        this.authExecutor = authExecutor;
+    }
+
+    /**
+     * Set the stage on which the handlers that use the database are run.
+     *
+     * @param databaseExecutor the stage to use
+     */
+    void setDatabaseExecutor(Executor databaseExecutor) {
+        this.databaseExecutor = databaseExecutor;
+    }
+
+    /**
+     * Set the admission of this connection.
+     *
+     * @param admission the ticket of the connection
+     */
+    void setAdmission(AdmissionControl.Ticket admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Set the limiter of how fast the user may send each kind of request.
+     *
+     * @param rateLimiter the limiter to use
+     */
+    void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Set the persister storing the messages the user sends.
+     *
+     * @param persister the persister to use
+     */
+    void setPersister(MessagePersister persister) {
+        this.persister = persister;
+    }
+
+    /**
+     * Set the tokens with which users log back in without their password.
+     *
+     * @param resumeTokens the tokens to use
+     */
+    void setResumeTokens(ResumeTokens resumeTokens) {
+        this.resumeTokens = resumeTokens;
+    }
+
+    /**
+     * Set the most incoming messages handled in one run.
+     *
+     * @param inboundBudget the number of messages
+     */
+    void setInboundBudget(int inboundBudget) {
+        this.inboundBudget = inboundBudget;
+    }
+
     /**
      * user dao setter
      *
@@ -186,81 +368,143 @@ public class ClientRunnable implements Runnable {
     }
 
     /**
-     * Sends the requesting user the queue of messages sent from their last logout
+     * Sends the requesting user the oldest messages he or she has not acknowledged getting, in the order they were
+     * sent. Whatever the client does not acknowledge is sent again on the next request, so nothing is lost when a
+     * session ends without logging out.
      */
     private void sendMessageQueue() {
         Message systemMsg = Message.makeSystemMessage("Getting queued messages...");
         sendMessage(systemMsg);
         User receiver = this.getUser();
 
-        List<Date> logouts = receiver.getLogouts();
-
-        Map<String, Object> map = new HashMap<>();
-        map.put(MESSAGE_RECEIVER_ID_KEY, receiver.getId());
-        List<edu.northeastern.ccs.im.models.Message> receiverMessages = msgService.getMessagesByMap(map);
-
-        if (logouts == null) {
-            for (int i = 0; i < receiverMessages.size(); i++) {
-                edu.northeastern.ccs.im.models.Message msg = receiverMessages.get(i);
-                if (!msg.isDeleted()) {
-                    sendMessageList(msg, receiver);
-                }
+        onDatabase(() -> msgService.getUndeliveredMessages(receiver, ServerConstants.QUEUE_PAGE_SIZE), queued -> {
+            if (queued == null) {
+                sendMessage(Message.makeSystemMessage("Could not get queued messages."));
+                return;
             }
-        } else {
-            Date lastLogout = logouts.get(logouts.size() - 1);
+            for (edu.northeastern.ccs.im.models.Message msg : queued) {
+                sendMessage(toResentMessage(msg, receiver));
+            }
+            if (queued.size() < ServerConstants.QUEUE_PAGE_SIZE) {
+                sendMessage(Message.makeSystemMessage("All queued messages sent!"));
+            } else {
+                sendMessage(Message.makeSystemMessage("More queued messages, acknowledge these and ask again."));
+            }
+        });
+    }
 
-            for (int i = 0; i < receiverMessages.size(); i++) {
-                edu.northeastern.ccs.im.models.Message msg = receiverMessages.get(i);
-                if (msg.getTimestampSent().compareTo(lastLogout) > 0 && !msg.isDeleted()) {
-                    sendMessageList(msg, receiver);
+    /**
+     * Records that the requesting user got the messages whose ids the client sent back.
+     *
+     * @param info the fields of the acknowledgement
+     */
+    private void acknowledgeMessages(Map<String, String> info) {
+        String ids = info == null ? null : info.get(Message.MESSAGE_ID_KEY);
+        List<ObjectId> messageIds = new ArrayList<>();
+        try {
+            for (String id : ids == null ? new String[0] : ids.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    messageIds.add(new ObjectId(id.trim()));
                 }
             }
+        } catch (IllegalArgumentException e) {
+            sendMessage(Message.makeSystemMessage("Invalid message id: " + ids));
+            return;
         }
-        Message allSentMsg = Message.makeSystemMessage("All queued messages sent!");
-        sendMessage(allSentMsg);
+        User receiver = this.getUser();
+        onDatabase(() -> {
+            msgService.markDelivered(receiver, messageIds);
+            return null;
+        }, done -> {
+        });
     }
 
     /**
-     * Sends the requesting user his or her message history
+     * Sends the requesting user one page of his or her message history, newest first, followed by the cursor of the
+     * next page if there is one. The request may set the size of the page (limit), the range of times sent (since
+     * and until, in milliseconds since the epoch) and the cursor handed out with the previous page.
+     *
+     * @param info the fields of the request
      */
-    private void sendMessageHistory() {
-        Message systemMsg = Message.makeSystemMessage("Getting message history...");
-        sendMessage(systemMsg);
+    private void sendMessageHistory(Map<String, String> info) {
         User receiver = this.getUser();
-
-        Map<String, Object> map = new HashMap<>();
-        map.put(MESSAGE_RECEIVER_ID_KEY, receiver.getId());
-        List<edu.northeastern.ccs.im.models.Message> receiverMessages = msgService.getMessagesByMap(map);
-
-        for (int i = 0; i < receiverMessages.size(); i++) {
-            edu.northeastern.ccs.im.models.Message msg = receiverMessages.get(i);
-            if (!msg.isDeleted()) {
-                sendMessageList(msg, receiver);
+        int pageSize;
+        long since;
+        long until;
+        try {
+            pageSize = (int) Math.min(parseHistoryField(info, "limit", ServerConstants.HISTORY_PAGE_SIZE),
+                    ServerConstants.HISTORY_MAX_PAGE_SIZE);
+            since = parseHistoryField(info, "since", -1);
+            until = parseHistoryField(info, "until", -1);
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("Page size must be positive");
             }
+        } catch (IllegalArgumentException e) {
+            sendMessage(Message.makeSystemMessage("Invalid history request: " + e.getMessage()));
+            return;
         }
+        String cursor = info == null ? null : info.get(Message.CURSOR_KEY);
+
+        onDatabase(() -> {
+            try {
+                return msgService.getHistoryPage(receiver, groupService.getGroupIds(receiver),
+                        since < 0 ? null : new Date(since), until < 0 ? null : new Date(until), cursor, pageSize);
+            } catch (IllegalArgumentException e) {
+                // The cursor is only read by the query; one that cannot be read gets no page.
+                return null;
+            }
+        }, page -> {
+            if (page == null) {
+                sendMessage(Message.makeSystemMessage("Could not get message history."));
+                return;
+            }
+            Message systemMsg = Message.makeSystemMessage("Getting message history...");
+            sendMessage(systemMsg);
+            for (edu.northeastern.ccs.im.models.Message msg : page.getMessages()) {
+                sendMessage(toResentMessage(msg, receiver));
+            }
+            sendMessage(Message.makeHistoryEndMessage(page.getNextCursor()));
+        });
+    }
 
-        Message allSentMsg = Message.makeSystemMessage("All messages sent!");
-        sendMessage(allSentMsg);
-        try {
-            TimeUnit.MILLISECONDS.sleep(100);
-        } catch (InterruptedException e) {
-            LOG.info(e);
-            Thread.currentThread().interrupt();
-        }
+    /**
+     * Read a numeric field of a history request.
+     *
+     * @param info         the fields of the request
+     * @param key          the field to read
+     * @param defaultValue the value when the field is not set
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not a number
+     */
+    private static long parseHistoryField(Map<String, String> info, String key, long defaultValue) {
+        String value = info == null ? null : info.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
     }
 
-    private void sendMessageList(edu.northeastern.ccs.im.models.Message msg, User receiver) {
+    /**
+     * Make the message with which a stored message is sent to its receiver again: a group message if it was sent to
+     * a group, a direct message otherwise.
+     *
+     * @param msg      the stored message
+     * @param receiver the receiver of the message
+     * @return the message to send
+     */
+    private Message toResentMessage(edu.northeastern.ccs.im.models.Message msg, User receiver) {
         String sentText = "(" + msg.getId() + ") " + msg.getMessageBody();
 
         Map<String, String> receiverMap = new HashMap<>();
-        receiverMap.put(MSG_TYPE, "USER");
         receiverMap.put(SENDER_NAME, msg.getSender().getUsername());
         receiverMap.put(TEXT, sentText);
+        receiverMap.put(Message.MESSAGE_ID_KEY, msg.getId().toHexString());
+        if (msg.getGroup() != null) {
+            receiverMap.put(MSG_TYPE, "TO_GROUP");
+            receiverMap.put(GROUP_NAME, msg.getGroup().getGroupName());
+            return Message.makeGroupMessage(msg.getSender().getUsername(), sentText, receiverMap);
+        }
+        receiverMap.put(MSG_TYPE, "USER");
         receiverMap.put(RECIPIENT_NAME, receiver.getUsername());
 
-        Message queuedMsg = Message.makeDirectMessage(msg.getSender().getUsername(), sentText, receiverMap);
-
-        sendIncomingDirectMessage(queuedMsg);
+        return Message.makeDirectMessage(msg.getSender().getUsername(), sentText, receiverMap);
     }
 
     /**
@@ -279,6 +523,8 @@ public class ClientRunnable implements Runnable {
 
             if (msg.isRegisterMessage()) {
                 registerNewUser(map);
+            } else if (msg.isResumeMessage()) {
+                resume(map);
             } else {
                 login(map);
             }
@@ -286,34 +532,84 @@ public class ClientRunnable implements Runnable {
     }
 
     /**
-     * Handle login, if success, there is no need to initialize
+     * Handle login, if success, there is no need to initialize. The password is checked
+     * on the auth pool and the reply is sent once it is done.
      */
     private void login(Map<String, String> info) {
         String pw = info.get("pw");
         String userName = info.get(USER_NAME);
-        User userTologin = getUser(userName);
+        onDatabase(() -> getUser(userName), userTologin -> {
+            if (userTologin == null) {
+                Message msg = Message.makeSystemMessage("Login failed! There is no such user!");
+                sendMessage(msg);
+                return;
+            }
 
-        if (userTologin == null) {
-            Message msg = Message.makeSystemMessage("Login failed! There is no such user!");
-            sendMessage(msg);
-            return;
-        }
+            authenticate(() -> tryLogin(userTologin, pw), verified -> {
+                if (verified) {
+                    completeLogin(userTologin);
+                } else {
+                    sendMessage(Message.makeSystemMessage("Login failed! Password is incorrect!"));
+                }
+            });
+        });
+    }
 
-        if (!tryLogin(userTologin, pw)) {
-            Message msg = Message.makeSystemMessage("Login failed! Password is incorrect!");
-            sendMessage(msg);
+    /**
+     * Log back in with a resume token. The token is checked with an HMAC on this thread, as it is cheap,
+     * and is used up right there, before the user is looked up, so that it gets only one connection in; a
+     * new one comes with the reply. Only the user is looked up on the database stage.
+     *
+     * @param info has the token field
+     */
+    private void resume(Map<String, String> info) {
+        String token = info.get("token");
+        ObjectId userId = resumeTokens.verify(token);
+        if (userId == null) {
+            sendMessage(Message.makeSystemMessage("Resume failed! Please log in again."));
             return;
         }
+        onDatabase(() -> {
+            Map<String, Object> criteria = new HashMap<>();
+            criteria.put(USER_USER_ID_KEY, userId);
+            List<User> users = userService.getUsersByMap(criteria);
+            return users.isEmpty() ? null : users.get(0);
+        }, userToResume -> {
+            if (userToResume == null) {
+                sendMessage(Message.makeSystemMessage("Resume failed! Please log in again."));
+                return;
+            }
+            completeLogin(userToResume);
+        });
+    }
 
+    /**
+     * Log in the user whose password or resume token was verified, and hand out a resume token for
+     * the next connection.
+     *
+     * @param userTologin the user
+     */
+    private void completeLogin(User userTologin) {
         timer.updateAfterInitialization();
+        heartbeat.start(System.currentTimeMillis());
+        if (admission != null) {
+            admission.loggedIn();
+        }
         initialized = true;
         user = userTologin;
+        Prattle.registerSession(this);
         Message msg = Message.makeSystemMessage("Login Success!");
         sendMessage(msg);
+        if (user.getId() != null) {
+            resumeToken = resumeTokens.issue(user.getId());
+            sendMessage(Message.makeResumeTokenMessage(resumeToken, resumeTokens.expiresAt(resumeToken)));
+        }
 
         //add login time to user database
         this.user.addLogin(new Date());
-        userService.updateUser(this.user);
+        User loggedIn = this.user;
+        onDatabase(() -> userService.updateUser(loggedIn), updated -> {
+        });
     }
 
     /**
@@ -355,57 +651,126 @@ public class ClientRunnable implements Runnable {
         String pw = info.get("pw");
         String userName = info.get(USER_NAME);
         String publicKey = info.get("public_key");
-        boolean result = userService.createUser(userName, pw, publicKey);
-        if (result) {
-            // confirm register success
-            Message msg = Message.makeSystemMessage("Register Success!");
-            sendMessage(msg);
-        } else {
-            // register failed
-            Message msg = Message.makeSystemMessage("Register Failed, use another user name");
-            connection.sendMessage(msg);
+        // The password is hashed as the user is created, so all of it is done on the auth pool.
+        authenticate(() -> Boolean.TRUE.equals(userService.createUser(userName, pw, publicKey)), result -> {
+            if (result) {
+                // confirm register success
+                Message msg = Message.makeSystemMessage("Register Success!");
+                sendMessage(msg);
+            } else {
+                // register failed
+                Message msg = Message.makeSystemMessage("Register Failed, use another user name");
+                connection.sendMessage(msg);
+            }
+        });
+    }
+
+    /**
+     * Hash on the auth stage, then reply on this client's own thread. A login that finds the stage full
+     * is told to come back later.
+     *
+     * @param check the work involving the password
+     * @param reply what to do with its outcome
+     */
+    private void authenticate(BooleanSupplier check, Consumer<Boolean> reply) {
+        try {
+            offload(authExecutor, check::getAsBoolean, outcome -> reply.accept(Boolean.TRUE.equals(outcome)));
+        } catch (RejectedExecutionException e) {
+            sendMessage(Message.makeSystemMessage("Server is busy, please try again later."));
         }
     }
 
     /**
-     * Check if the message is properly formed. At the moment, this means checking
-     * that the identifier is set properly.
+     * Query or update the database on the database stage, then reply on this client's own thread. When
+     * the stage is full the work is done right here instead, so that a client running ahead of the
+     * database is slowed down rather than turned away.
      *
-     * @param msg Message to be checked
-     * @return True if message is correct; false otherwise
+     * @param work  the work involving the database
+     * @param reply what to do with its outcome
+     * @param <T>   the kind of outcome
      */
-    private boolean messageChecks(Message msg) {
-        return (msg.getName() != null) && (msg.getName().compareToIgnoreCase(getName()) == 0);
+    private <T> void onDatabase(Supplier<T> work, Consumer<T> reply) {
+        try {
+            offload(databaseExecutor, work, reply);
+        } catch (RejectedExecutionException e) {
+            reply.accept(work.get());
+        }
     }
 
     /**
-     * Method for storing messages, used when sending messages
+     * Hand work over to another stage. The stage only leaves the reply behind and wakes the client up,
+     * so that the state of the client is only ever changed by the thread running it.
      *
-     * @param recipientName username of recipient
-     * @param msgText       message text
-     * @return Success status of message storage on database
+     * @param stage where to do the work
+     * @param work  the work
+     * @param reply what to do with its outcome, which is null if the work failed
+     * @param <T>   the kind of outcome
+     * @throws RejectedExecutionException if the stage is full
      */
-    public boolean storeMessage(String recipientName, String msgText) {
-        Map<String, Object> search = new HashMap<>();
-        search.put(USER_USER_NAME_KEY, recipientName);
+    private <T> void offload(Executor stage, Supplier<T> work, Consumer<T> reply) {
+        offloaded = true;
+        try {
+            stage.execute(() -> {
+                T result = null;
+                try {
+                    result = work.get();
+                } finally {
+                    T outcome = result;
+                    stageResult = () -> reply.accept(outcome);
+                    if (wakeup != null) {
+                        wakeup.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            offloaded = false;
+            throw e;
+        }
+    }
 
-        List<User> recipients = userService.getUsersByMap(search);
+    /**
+     * Wait for work already under way elsewhere without holding a thread, then reply on this client's own
+     * thread. As with work handed over to a stage, no further message is taken from the client until then.
+     *
+     * @param work  the work under way
+     * @param reply what to do with its outcome, or with why it failed when that is not null
+     * @param <T>   the kind of outcome
+     */
+    private <T> void whenDone(CompletableFuture<T> work, BiConsumer<T, Throwable> reply) {
+        offloaded = true;
+        work.whenComplete((result, failure) -> {
+            if (failure != null) {
+                LOG.error("Caught exception waiting for the database: " + failure.toString());
+            }
+            stageResult = () -> reply.accept(result, failure);
+            if (wakeup != null) {
+                wakeup.run();
+            }
+        });
+    }
 
-        if (!recipients.isEmpty()) {
-            return msgService.createMessage(new Date(), this.getUser(), recipients.get(0), msgText);
-        } else {
-            return false;
+    /**
+     * Run the replies to the work other stages are done with. A reply may hand more work over, and
+     * stages that ran it straight away have their replies run as well.
+     */
+    private void completeOffloaded() {
+        Runnable reply;
+        while ((reply = stageResult) != null) {
+            stageResult = null;
+            offloaded = false;
+            reply.run();
         }
     }
 
     /**
-     * Method for storing broadcast messages with recipient as null
+     * Check if the message is properly formed. At the moment, this means checking
+     * that the identifier is set properly.
      *
-     * @param msgText message text
-     * @return Success status of message storage on database
+     * @param msg Message to be checked
+     * @return True if message is correct; false otherwise
      */
-    public boolean storeBroadcastMessage(String msgText) {
-        return msgService.createMessage(new Date(), this.getUser(), null, msgText);
+    private boolean messageChecks(Message msg) {
+        return (msg.getName() != null) && (msg.getName().compareToIgnoreCase(getName()) == 0);
     }
 
     /**
@@ -416,18 +781,140 @@ public class ClientRunnable implements Runnable {
      * @return True if we sent the message successfully; false otherwise.
      */
     private boolean sendMessage(Message message) {
-        LOG.info("\t" + message);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("\t" + message);
+        }
         return connection.sendMessage(message);
     }
 
     /**
      * Add the given message to this client to the queue of message to be sent to
-     * the client.
+     * the client. When the queue is full its overflow policy decides what is
+     * dropped, or whether the client is disconnected instead.
      *
      * @param message Complete message to be sent.
      */
     public void enqueueMessage(Message message) {
-        waitingList.add(message);
+        if (!waitingList.add(message)) {
+            LOG.warn("Outgoing queue of " + name + " is full -- dropping this user.");
+        }
+        if (wakeup != null) {
+            wakeup.run();
+        }
+    }
+
+    /**
+     * Set the callback run whenever a message is enqueued for this client.
+     *
+     * @param wakeup callback that asks for this client to be run
+     */
+    void setWakeup(Runnable wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    /**
+     * Whether there are messages waiting to be sent to this client, or bytes waiting for its channel
+     * to become writable.
+     *
+     * @return true if the client should be run once its channel is writable
+     */
+    boolean hasPendingOutbound() {
+        return !waitingList.isEmpty() || connection.hasPendingWrites();
+    }
+
+    /**
+     * Number of messages received from this client that are still waiting to be handled, because the
+     * last run used up its budget.
+     *
+     * @return the number of messages left over
+     */
+    public int getInboundBacklog() {
+        return connection.getBacklog();
+    }
+
+    /**
+     * Whether messages received from this client are waiting to be handled, or the reply to work done
+     * on another stage is ready. Messages wait while such work is being done.
+     *
+     * @return true if the client should be run again without waiting for its channel
+     */
+    boolean hasPendingInbound() {
+        return stageResult != null || (!offloaded && getInboundBacklog() > 0);
+    }
+
+    /**
+     * Whether work of this client is being done on another stage and its reply is not ready yet. The
+     * client reads nothing meanwhile, so there is no point in waiting for its channel to become readable.
+     *
+     * @return true if the client waits for another stage to hand back its work
+     */
+    boolean isAwaitingStage() {
+        return offloaded && stageResult == null;
+    }
+
+    /**
+     * Number of messages waiting to be sent to this client.
+     *
+     * @return the depth of the outgoing queue
+     */
+    public int getOutboundDepth() {
+        return waitingList.size();
+    }
+
+    /**
+     * Largest number of messages that have waited to be sent to this client at once.
+     *
+     * @return the peak depth of the outgoing queue
+     */
+    public int getOutboundPeakDepth() {
+        return waitingList.getPeakDepth();
+    }
+
+    /**
+     * Number of messages for this client that were dropped because its outgoing queue was full.
+     *
+     * @return the number of dropped messages
+     */
+    public long getOutboundDropped() {
+        return waitingList.getDropped();
+    }
+
+    /**
+     * Time at which this client next has to be run even if it receives nothing: to be pinged, or to
+     * be terminated for inactivity.
+     *
+     * @return the deadline in milliseconds since the epoch
+     */
+    long getNextDeadline() {
+        return Math.min(timer.getDeadline(), heartbeat.getNextPingAt());
+    }
+
+    /**
+     * Whether this client left its last ping unanswered, so that it may be gone without its connection
+     * having been closed. Such a client is skipped when messages are fanned out.
+     *
+     * @return true if the client missed a pong
+     */
+    public boolean isUnresponsive() {
+        return heartbeat.getMissed() > 0;
+    }
+
+    /**
+     * Number of requests of this client that were throttled for going over a rate limit.
+     *
+     * @return the number of throttled requests
+     */
+    public long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * Round-trip times of the pings this client answered.
+     *
+     * @return the histogram of round-trip times
+     */
+    RttHistogram getRoundTripTimes() {
+        return heartbeat.getRoundTripTimes();
     }
 
     /**
@@ -465,10 +952,15 @@ public class ClientRunnable implements Runnable {
      */
     public void run() {
         // The client must be initialized before we can do anything else
+        completeOffloaded();
         if (!initialized) {
-            checkForInitialization();
+            if (!offloaded) {
+                checkForInitialization();
+            }
+            completeOffloaded();
         } else {
             handleIncomingMessages();
+            checkHeartbeat();
             handleOutgoingMessages();
         }
         // Finally, check if this client have been inactive for too long and,
@@ -477,6 +969,11 @@ public class ClientRunnable implements Runnable {
             LOG.error("Timing out or forcing off a user " + name);
             terminate = true;
         }
+        // A client that has closed its end of the connection will never send anything again, and one
+        // that does not read what we send would only make us hold on to more of it.
+        if (connection.isEndOfStream() || connection.isWriteFailed() || waitingList.isOverflowed()) {
+            terminate = true;
+        }
         if (terminate) {
             terminateClient();
         }
@@ -484,31 +981,83 @@ public class ClientRunnable implements Runnable {
 
     /**
      * Checks incoming messages and performs appropriate actions based on the type
-     * of message.
+     * of message. Every message that has arrived is handled, up to the budget of a
+     * single run, so that a burst is not spread over many runs while one chatty
+     * client still cannot hold on to a thread.
      * <p>
      * <p>
      * Distinguish different message for toGroup, Broadcast or toUser
      */
     protected void handleIncomingMessages() {
         Iterator<Message> messageIter = connection.iterator();
-        if (messageIter.hasNext()) {
-            Message msg = messageIter.next();
-            if (msg.terminate()) {
-                terminate = true;
+        int handled = 0;
+        while (handled < inboundBudget && !terminate && !offloaded && messageIter.hasNext()) {
+            handled++;
+            handleIncomingMessage(messageIter.next());
+            completeOffloaded();
+        }
+        if (handled == inboundBudget && LOG.isDebugEnabled()) {
+            LOG.debug("Budget used up, " + getInboundBacklog() + " messages left for " + name);
+        }
+    }
+
+    /**
+     * Perform the action asked for by one incoming message.
+     *
+     * @param msg the message from the client
+     */
+    private void handleIncomingMessage(Message msg) {
+        if (msg.terminate()) {
+            terminate = true;
+            // Logging out on purpose ends the session for good.
+            if (resumeToken != null) {
+                resumeTokens.revoke(resumeToken);
+            }
 
-                enqueueMessage(Message.makeQuitMessage(name));
-                String myName = this.getName();
+            enqueueMessage(Message.makeQuitMessage(name));
+            String myName = this.getName();
 
-                Map<String, String> broadcastMap = new HashMap<>();
-                broadcastMap.put(MSG_TYPE, "BCT");
-                broadcastMap.put(SENDER_NAME, myName);
-                broadcastMap.put("text", "User " + myName + " has left the server.");
+            Map<String, String> broadcastMap = new HashMap<>();
+            broadcastMap.put(MSG_TYPE, "BCT");
+            broadcastMap.put(SENDER_NAME, myName);
+            broadcastMap.put("text", "User " + myName + " has left the server.");
 
-                Message quitMsg = Message.makeBroadcastMessage(myName, broadcastMap);
-                sendMessage(quitMsg);
-            } else {
-                sendIncomingMessage(msg);
-            }
+            Message quitMsg = Message.makeBroadcastMessage(myName, broadcastMap);
+            sendMessage(quitMsg);
+        } else if (msg.isPongMessage()) {
+            handlePong(msg.getMsgToInfo().get("seq"));
+        } else {
+            sendIncomingMessage(msg);
+        }
+    }
+
+    /**
+     * Take in the answer of the client to a ping.
+     *
+     * @param sequence the number of the ping being answered
+     */
+    private void handlePong(String sequence) {
+        try {
+            heartbeat.pong(Long.parseLong(sequence), System.nanoTime());
+        } catch (NumberFormatException e) {
+            LOG.warn("Pong without a valid number from " + name);
+        }
+    }
+
+    /**
+     * Ping the client when it is time to, or end the session when it left too many pings unanswered.
+     */
+    private void checkHeartbeat() {
+        long now = System.currentTimeMillis();
+        if (terminate || !heartbeat.isDue(now)) {
+            return;
+        }
+        long sequence = heartbeat.ping(now, System.nanoTime());
+        if (heartbeat.isDead()) {
+            LOG.warn("No answer to " + heartbeat.getMissed() + " pings -- dropping " + name);
+            terminate = true;
+        } else {
+            enqueueMessage(Message.makePingMessage(sequence));
         }
     }
 
@@ -516,20 +1065,38 @@ public class ClientRunnable implements Runnable {
      * @param msg Message to handle by Prattle
      */
     private void sendIncomingMessage(Message msg) {
-        if (messageChecks(msg)) {
+        if (messageChecks(msg) && withinRate(msg)) {
             sendValidIncomingMessage(msg);
         }
     }
 
     /**
-     * message is valid, send for broadcast ot group
+     * Check the message against the rate limit of its kind for this user. A message over the limit is
+     * answered with a system message rather than handled, so it never reaches the database.
+     *
+     * @param msg incoming message
+     * @return true if the message may be handled
+     */
+    private boolean withinRate(Message msg) {
+        if (rateLimiter.tryAcquire(getName(), msg.getMsgType(), System.nanoTime())) {
+            return true;
+        }
+        throttled++;
+        sendMessage(Message.makeSystemMessage("Too many " + msg.getMsgType() + " requests, please slow down."));
+        return false;
+    }
+
+    /**
+     * message is valid, send for broadcast ot group. Only the queries of the database are done on the
+     * database stage; the replies are made and sent on this client's own thread.
      *
      * @param msg incoming message
      */
     private void sendValidIncomingMessage(Message msg) {
 
         if (msg.isBroadcastMessage()) {
-            storeBroadcastMessage(msg.getText());
+            persist(new edu.northeastern.ccs.im.models.Message(new Date(), this.getUser(), null, msg.getText(),
+                    false), msg);
             Prattle.broadcastMessage(msg);
         } else if (msg.isToGroup()) {
             sendIncomingGroupMessage(msg);
@@ -538,10 +1105,13 @@ public class ClientRunnable implements Runnable {
         } else if (msg.isGetQueueMessage()) {
             sendMessageQueue();
         } else if (msg.isGetMessageHistory()) {
-            sendMessageHistory();
+            sendMessageHistory(msg.getMsgToInfo());
+        } else if (msg.isAckMessage()) {
+            acknowledgeMessages(msg.getMsgToInfo());
         } else if (msg.isInvitation()) {
             processInvitationMessage(msg);
         } else if (msg.isToUser()) {
+            // Chained on the lookup of the recipient, so no thread waits for the database.
             sendIncomingDirectMessage(msg);
         } else if (msg.isDeleteMessage()) {
             sendDeleteMessage(msg);
@@ -573,12 +1143,14 @@ public class ClientRunnable implements Runnable {
      */
     private void sendGetPublicKeyMessage(Map<String, String> map) {
         String userName = map.get(RECIPIENT_NAME);
-        User receiver = getUser(userName);
-        if (receiver == null) {
-            sendMessage(Message.makeSystemMessage("The user you want to have private conversation does not exist!"));
-        } else {
-            sendMessage(Message.makeReturnKeyMessage(receiver.getUsername(), receiver.getPublicKey()));
-        }
+        onDatabase(() -> getUser(userName), receiver -> {
+            if (receiver == null) {
+                sendMessage(Message.makeSystemMessage(
+                        "The user you want to have private conversation does not exist!"));
+            } else {
+                sendMessage(Message.makeReturnKeyMessage(receiver.getUsername(), receiver.getPublicKey()));
+            }
+        });
     }
 
     /**
@@ -614,14 +1186,28 @@ public class ClientRunnable implements Runnable {
     private void sendInviteToAdmin(Message msg) {
         // pre condition checking
         String groupName = msg.getMsgToInfo().get(GROUP_NAME);
-        Group group = groupService.getGroupByName(groupName);
-        if (group == null) {
-            enqueueMessage(Message.makeSystemMessage("There is no such group: " + groupName));
-            return;
-        }
-
         String invitor = msg.getMsgToInfo().get("invitor");
-        User inviteeUser = userService.getUserByName(msg.getMsgToInfo().get("invitee"));
+        String inviteeName = msg.getMsgToInfo().get("invitee");
+        onDatabase(() -> groupService.getGroupByName(groupName), group -> {
+            if (group == null) {
+                enqueueMessage(Message.makeSystemMessage("There is no such group: " + groupName));
+                return;
+            }
+            onDatabase(() -> userService.getUserByName(inviteeName),
+                    inviteeUser -> inviteToGroup(group, groupName, inviteeUser, invitor));
+        });
+    }
+
+    /**
+     * Create the invitation of a user to a group that were both looked up, once it is checked that the
+     * user may be invited.
+     *
+     * @param group       the group the invitee will be join in
+     * @param groupName   the name of the group as the request gave it
+     * @param inviteeUser the invitee user, null if there is none
+     * @param invitor     the name of invitor, null if the invitee asked to join
+     */
+    private void inviteToGroup(Group group, String groupName, User inviteeUser, String invitor) {
         if (inviteeUser == null) {
             enqueueMessage(Message.makeSystemMessage("There is no invitee"));
             return;
@@ -641,12 +1227,26 @@ public class ClientRunnable implements Runnable {
         }
 
         // get invitation id
-        String inviteID = createInvitation(inviteeUser, invitor, group);
-        if (inviteID == null) {
-          enqueueMessage(Message.makeSystemMessage("The invitation is not created successfully."));
-          return;
-        }
+        onDatabase(() -> createInvitation(inviteeUser, invitor, group), inviteID -> {
+            if (inviteID == null) {
+              enqueueMessage(Message.makeSystemMessage("The invitation is not created successfully."));
+              return;
+            }
+            notifyAdminsOfInvitation(group, groupName, inviteeUser, invitor, inviteID);
+        });
+    }
 
+    /**
+     * Notify the admins of a group about an invitation that was created.
+     *
+     * @param group       the group the invitee will be join in
+     * @param groupName   the name of the group as the request gave it
+     * @param inviteeUser the invitee user
+     * @param invitor     the name of invitor, null if the invitee asked to join
+     * @param inviteID    the id of the invitation
+     */
+    private void notifyAdminsOfInvitation(Group group, String groupName, User inviteeUser, String invitor,
+                                          String inviteID) {
         // notify admin of group about invitation
         List<User> adminList = groupService.getAdmin(group);
         for (User admin : adminList) {
@@ -686,31 +1286,32 @@ public class ClientRunnable implements Runnable {
      */
     private void processInvitationDecision(Message msg, InvitationStatus status) {
         // current invitation
-        Invitation currInvite = inviteService.getInvitationByID(msg.getMsgToInfo().get("invite_id"));
-
-        if (currInvite == null) {
-          // other admin may has already processed invitation
-          enqueueMessage(Message.makeSystemMessage("Invitation doesn't exist anymore. " +
-                  "This invitation either has already been processed, or not exist."));
-          return;
-        }
+        String inviteId = msg.getMsgToInfo().get("invite_id");
+        onDatabase(() -> inviteService.getInvitationByID(inviteId), currInvite -> {
+            if (currInvite == null) {
+              // other admin may has already processed invitation
+              enqueueMessage(Message.makeSystemMessage("Invitation doesn't exist anymore. " +
+                      "This invitation either has already been processed, or not exist."));
+              return;
+            }
 
-        Group group = currInvite.getGroup();
-        if (group == null) {
-            return;
-        }
+            Group group = currInvite.getGroup();
+            if (group == null) {
+                return;
+            }
 
-        List<User> groupAdmins = group.getAdministrators();
+            List<User> groupAdmins = group.getAdministrators();
 
-        // sanity check. check whether current user is indeed the admin of the group
-        if (!groupAdmins.contains(user)) {
-            enqueueMessage(Message.makeSystemMessage("Current user is not the admin of group "
-                    + group.getGroupName()));
-            return;
-        }
+            // sanity check. check whether current user is indeed the admin of the group
+            if (!groupAdmins.contains(user)) {
+                enqueueMessage(Message.makeSystemMessage("Current user is not the admin of group "
+                        + group.getGroupName()));
+                return;
+            }
 
-        // update the invitation status and send message
-        updateInvitationBasedOnDecision(currInvite, status, group, groupAdmins);
+            // update the invitation status and send message
+            updateInvitationBasedOnDecision(currInvite, status, group, groupAdmins);
+        });
     }
 
     /**
@@ -727,9 +1328,24 @@ public class ClientRunnable implements Runnable {
                                                  Group group, List<User> groupAdmin) {
 
 
-        // update the status of invitation and add the user if need
-        inviteService.updateInvitationToNewStatus(currInvite, status);
+        // update the status of invitation and add the user if need, then delete the invitation
+        onDatabase(() -> {
+            inviteService.updateInvitationToNewStatus(currInvite, status);
+            inviteService.deleteInvitation(currInvite);
+            return null;
+        }, done -> notifyInvitationDecision(currInvite, status, group, groupAdmin));
+    }
 
+    /**
+     * Notify the group admin, invitee and inviter about a decision made on an invitation.
+     *
+     * @param currInvite the invitation
+     * @param status the updated status for the invitation
+     * @param group the group the invitee will be joined in
+     * @param groupAdmin the list of admin of that group
+     */
+    private void notifyInvitationDecision(Invitation currInvite, InvitationStatus status, Group group,
+                                          List<User> groupAdmin) {
         List<User> notifyUser = new ArrayList<>(groupAdmin);
         User invitee = currInvite.getInvitee();
         notifyUser.add(invitee);
@@ -738,9 +1354,6 @@ public class ClientRunnable implements Runnable {
           notifyUser.add(invitor);
         }
 
-        // delete the invitation after update
-        inviteService.deleteInvitation(currInvite);
-
         // notify the group admin, invitee, inviter about the invitation decision
         for (User oneUser : notifyUser) {
             Map<String, String> map = new HashMap<>();
@@ -777,22 +1390,41 @@ public class ClientRunnable implements Runnable {
 
         Map<String, Object> map = new HashMap<>();
         map.put(GROUP_GROUP_NAME_KEY, groupName);
-        List<Group> groups = groupService.getGroupsByMap(map);
-        if (groups.isEmpty()) {
-            enqueueMessage(Message.makeSystemMessage("There is no such group: " + groupName));
-            return;
-        }
+        onDatabase(() -> groupService.getGroupsByMap(map), groups -> {
+            if (groups == null || groups.isEmpty()) {
+                enqueueMessage(Message.makeSystemMessage("There is no such group: " + groupName));
+                return;
+            }
 
-        Group group = groups.get(0);
-        if (groupService.containsUser(group, user)) {
-            if (group != null && group.getUsers() != null) {
-                for (User recipient : group.getUsers()) {
-                    storeMessage(recipient.getUsername(), msg.getText());
-                }
+            Group group = groups.get(0);
+            if (groupService.containsUser(group, user)) {
+                // Stored once for the whole group; the members acknowledge it by its id.
+                edu.northeastern.ccs.im.models.Message stored =
+                        msgService.makeGroupMessage(new Date(), this.getUser(), group, msg.getText());
+                persist(stored, msg);
+                Map<String, String> forwarded = new HashMap<>(msg.getMsgToInfo());
+                forwarded.put(Message.MESSAGE_ID_KEY, stored.getId().toHexString());
+                Prattle.sendToGroup(Message.makeGroupMessage(msg.getName(), msg.getText(), forwarded), group);
+            } else {
+                enqueueMessage(Message.makeSystemMessage("user is not in " + groupName));
             }
-            Prattle.sendToGroup(msg, group);
-        } else {
-            enqueueMessage(Message.makeSystemMessage("user is not in " + groupName));
+        });
+    }
+
+    /**
+     * Store a message the user sent, behind its delivery. The user is told with an ACK once it is written; a
+     * message the persister turns away is stored on the database stage, which holds up only this user.
+     *
+     * @param stored the message to store
+     * @param msg    the message as the user sent it, with the reference the user gave it if any
+     */
+    private void persist(edu.northeastern.ccs.im.models.Message stored, Message msg) {
+        String ref = msg.getMsgToInfo() == null ? null : msg.getMsgToInfo().get(Message.REF_KEY);
+        Consumer<Boolean> onStored = isStored ->
+                enqueueMessage(Message.makeStoredMessage(stored.getId().toHexString(), isStored, ref));
+        if (!persister.submit(stored, onStored)) {
+            onDatabase(() -> msgService.createMessage(stored),
+                    isStored -> onStored.accept(Boolean.TRUE.equals(isStored)));
         }
     }
 
@@ -803,17 +1435,33 @@ public class ClientRunnable implements Runnable {
      */
     private void sendIncomingDirectMessage(Message msg) {
         String recipientName = msg.getMsgToInfo().get(RECIPIENT_NAME);
+        whenDone(asyncUserService.getUserByName(recipientName), (recipient, failure) -> {
+            if (failure != null) {
+                enqueueMessage(Message.makeSystemMessage("Server error, could not send the message to "
+                        + recipientName + ". Please try again later."));
+            } else if (recipient == null) {
+                enqueueMessage(Message.makeSystemMessage("There is no such user: " + recipientName));
+            } else {
+                sendDirectMessage(msg, recipient);
+            }
+        });
+    }
 
-        Map<String, Object> map = new HashMap<>();
-        map.put(USER_USER_NAME_KEY, recipientName);
-        List<User> users = userService.getUsersByMap(map);
-        if (users.isEmpty()) {
-            enqueueMessage(Message.makeSystemMessage("There is no such user: " + recipientName));
-            return;
-        }
-
-        storeMessage(recipientName, msg.getText());
-        Prattle.sendToUser(msg, users.get(0));
+    /**
+     * store and forward a message to a user that was looked up
+     *
+     * @param msg       msg
+     * @param recipient the user it is sent to
+     */
+    private void sendDirectMessage(Message msg, User recipient) {
+        edu.northeastern.ccs.im.models.Message stored =
+                new edu.northeastern.ccs.im.models.Message(new Date(), this.getUser(), recipient, msg.getText(), false);
+        persist(stored, msg);
+
+        // The recipient acknowledges the message by its id, as it would a queued one.
+        Map<String, String> forwarded = new HashMap<>(msg.getMsgToInfo());
+        forwarded.put(Message.MESSAGE_ID_KEY, stored.getId().toHexString());
+        Prattle.sendToUser(Message.makeDirectMessage(msg.getName(), msg.getText(), forwarded), recipient);
     }
 
     /**
@@ -824,21 +1472,30 @@ public class ClientRunnable implements Runnable {
     private void sendDeleteMessage(Message msg) {
         Map<String, String> msgToInfo = msg.getMsgToInfo();
         String objectIdString = msgToInfo.get("message_id");
-        ObjectId objectId = new ObjectId(objectIdString);
+        ObjectId objectId;
+        try {
+            objectId = new ObjectId(objectIdString);
+        } catch (IllegalArgumentException e) {
+            enqueueMessage(Message.makeSystemMessage("Invalid message id: " + objectIdString));
+            return;
+        }
 
         Map<String, Object> map = new HashMap<>();
         map.put(MESSAGE_MESSAGE_ID_KEY, objectId);
 
-        List<edu.northeastern.ccs.im.models.Message> messages = msgService.getMessagesByMap(map);
-        if (messages.isEmpty()) {
-            enqueueMessage(Message.makeSystemMessage("There is no such message: " + objectIdString));
-        } else {
-            if (msgService.deleteMessage(messages.get(0))) {
-                enqueueMessage(Message.makeSystemMessage("Deleted message: " + objectIdString));
-            } else {
-                enqueueMessage(Message.makeSystemMessage("Could not delete message: " + objectIdString));
+        onDatabase(() -> msgService.getMessagesByMap(map), messages -> {
+            if (messages == null || messages.isEmpty()) {
+                enqueueMessage(Message.makeSystemMessage("There is no such message: " + objectIdString));
+                return;
             }
-        }
+            onDatabase(() -> msgService.deleteMessage(messages.get(0)), deleted -> {
+                if (Boolean.TRUE.equals(deleted)) {
+                    enqueueMessage(Message.makeSystemMessage("Deleted message: " + objectIdString));
+                } else {
+                    enqueueMessage(Message.makeSystemMessage("Could not delete message: " + objectIdString));
+                }
+            });
+        });
     }
 
     /**
@@ -852,25 +1509,28 @@ public class ClientRunnable implements Runnable {
         List<User> admins = new ArrayList<>();
         admins.add(user);
 
-        if (groupService.createGroup(groupName, admins)) {
-            enqueueMessage(Message.makeSystemMessage("Group was successfully created: " + groupName));
-        } else {
-            enqueueMessage(Message.makeSystemMessage("Could not create group: " + groupName));
-        }
+        onDatabase(() -> groupService.createGroup(groupName, admins), created -> {
+            if (Boolean.TRUE.equals(created)) {
+                enqueueMessage(Message.makeSystemMessage("Group was successfully created: " + groupName));
+            } else {
+                enqueueMessage(Message.makeSystemMessage("Could not create group: " + groupName));
+            }
+        });
     }
 
     /**
-     * Sends the enqueued messages to the printer and makes sure they were sent out.
+     * Writes what the connection still holds from earlier runs, then hands it the enqueued messages
+     * until none are left or the client has too much it has not read yet.
      * <p>
      * Message is in Queue and it need to implement strategy and visitor pattern
      */
     protected void handleOutgoingMessages() {
         // Check to make sure we have a client to send to.
-        boolean keepAlive = true;
-        if (!waitingList.isEmpty()) {
+        boolean keepAlive = !connection.hasPendingWrites() || connection.flush();
+        if (keepAlive && !waitingList.isEmpty() && !connection.isWriteBlocked()) {
             keepAlive = false;
-            // Send out all of the message that have been added to the
-            // queue.
+            // Send out the messages that have been added to the queue, leaving
+            // the rest there while the client is behind.
             do {
                 Message msg = waitingList.remove();
                 boolean sentGood = sendMessage(msg);
@@ -878,7 +1538,7 @@ public class ClientRunnable implements Runnable {
                 // Update the time until we terminate the client for inactivity.
                 timer.updateAfterActivity();
 
-            } while (!waitingList.isEmpty());
+            } while (!waitingList.isEmpty() && !connection.isWriteBlocked());
         }
         terminate |= !keepAlive;
     }
@@ -922,14 +1582,24 @@ public class ClientRunnable implements Runnable {
         //Add logout time to database on terminate
         if (deadUser != null) {
             deadUser.addLogout(new Date());
-            userService.updateUser(deadUser);
+            try {
+                databaseExecutor.execute(() -> userService.updateUser(deadUser));
+            } catch (RejectedExecutionException e) {
+                userService.updateUser(deadUser);
+            }
         }
 
         // Once the communication is done, close this connection.
         connection.close();
+        if (admission != null) {
+            admission.release();
+        }
         // Remove the client from our client listing.
         Prattle.removeClient(this);
-        // And remove the client from our client pool.
-        runnableMe.cancel(false);
+        // And remove the client from our client pool. Clients run by a reactor have no future; closing
+        // the connection already removed them from its selector.
+        if (runnableMe != null) {
+            runnableMe.cancel(false);
+        }
     }
 }
\ No newline at end of file
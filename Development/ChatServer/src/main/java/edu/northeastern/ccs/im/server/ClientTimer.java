@@ -1,9 +1,7 @@
 package edu.northeastern.ccs.im.server;
 
-import java.util.GregorianCalendar;
-
 /**
- * Class that represents the calendar used by the ClientRunnable.
+ * Class that represents the inactivity deadline of a ClientRunnable.
  *
  * @author Riya Nadkarni
  * @version 12-27-2018
@@ -22,16 +20,17 @@ public class ClientTimer {
     private static final long TERMINATE_AFTER_INACTIVE_INITIAL_IN_MS = 600000;
 
     /**
-     * Time at which the client should be terminated due to lack of activity.
+     * Time at which the client should be terminated due to lack of activity, in milliseconds since the
+     * epoch. It is read by the reactor that times the client out while workers move it on activity.
      */
-    private GregorianCalendar calendar;
+    private volatile long deadline;
 
     /**
      * Constructor for the timer.
      */
     public ClientTimer() {
-        calendar = new GregorianCalendar();
-        calendar.setTimeInMillis(calendar.getTimeInMillis() + TERMINATE_AFTER_INACTIVE_INITIAL_IN_MS);
+        // A connection that has not logged in yet only gets a short while to do so.
+        deadline = System.currentTimeMillis() + ServerConstants.PRE_LOGIN_TIMEOUT;
     }
 
     /**
@@ -39,8 +38,7 @@ public class ClientTimer {
      * terminated for inactivity.
      */
     public void updateAfterInitialization() {
-        calendar.setTimeInMillis(
-                new GregorianCalendar().getTimeInMillis() + TERMINATE_AFTER_INACTIVE_INITIAL_IN_MS);
+        deadline = System.currentTimeMillis() + TERMINATE_AFTER_INACTIVE_INITIAL_IN_MS;
     }
 
     /**
@@ -48,30 +46,31 @@ public class ClientTimer {
      * terminated for inactivity.
      */
     public void updateAfterActivity() {
-        calendar.setTimeInMillis(
-                new GregorianCalendar().getTimeInMillis() + TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS);
+        deadline = System.currentTimeMillis() + TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS;
     }
 
     /**
-     * Checks whether the calendar represents a time before the current time.
+     * Checks whether the deadline is before the current time.
      *
-     * @return true if the time passed in is later than the current value of calendar, false otherwise.
+     * @return true if the deadline has passed, false otherwise.
      */
     public boolean isBehind() {
-        return calendar.before(new GregorianCalendar());
+        return deadline < System.currentTimeMillis();
     }
 
     /**
-     * Gets the calendar property for testing purposes
+     * Gets the time at which the client is terminated for inactivity.
+     *
+     * @return the deadline in milliseconds since the epoch
      */
-    public GregorianCalendar getCalendar() {
-        return this.calendar;
+    public long getDeadline() {
+        return deadline;
     }
 
     /**
-     * Sets the calendar property for testing purposes
+     * Sets the deadline for testing purposes
      */
-    public void setCalendar(GregorianCalendar calendar){
-        this.calendar = calendar;
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
     }
 }
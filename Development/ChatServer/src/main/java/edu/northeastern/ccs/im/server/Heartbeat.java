@@ -0,0 +1,155 @@
+package edu.northeastern.ccs.im.server;
+
+/**
+ * Application-level liveness check of one logged in client. Every interval the server sends the client a
+ * numbered ping, which the client answers with a pong carrying the same number. A connection that went
+ * away without being closed leaves the pings unanswered, and after a number of missed pongs the session
+ * is ended. The time between a ping and its pong is recorded as the round-trip time of the client.
+ * <p>
+ * Pings are sent and pongs taken in by the thread running the client; the time of the next ping and
+ * whether the client answered the last one are also read by the reactor and by senders.
+ */
+class Heartbeat {
+
+    /**
+     * Time between two pings in milliseconds; not positive if no pings are sent.
+     */
+    private final long intervalMillis;
+
+    /**
+     * Number of pings in a row that may go unanswered before the session is ended.
+     */
+    private final int maxMissed;
+
+    private final RttHistogram rtt;
+
+    /**
+     * Time at which the next ping is due, in milliseconds since the epoch.
+     */
+    private volatile long nextPingAt;
+
+    /**
+     * Number of pings in a row that went unanswered.
+     */
+    private volatile int missed;
+
+    /**
+     * Number of the last ping sent.
+     */
+    private long sequence;
+
+    /**
+     * Whether the last ping is still waiting for its pong.
+     */
+    private boolean awaitingPong;
+
+    /**
+     * Time at which the last ping was sent, from {@link System#nanoTime()}.
+     */
+    private long sentAtNanos;
+
+    /**
+     * Create a heartbeat that sends no pings until it is started.
+     *
+     * @param intervalMillis time between two pings in milliseconds; not positive to never send any
+     * @param maxMissed      number of pings in a row that may go unanswered, at least one
+     */
+    Heartbeat(long intervalMillis, int maxMissed) {
+        this.intervalMillis = intervalMillis;
+        this.maxMissed = Math.max(1, maxMissed);
+        this.rtt = new RttHistogram();
+        this.nextPingAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * Start sending pings, the first one an interval from now.
+     *
+     * @param now the current time in milliseconds
+     */
+    void start(long now) {
+        if (intervalMillis > 0) {
+            nextPingAt = now + intervalMillis;
+        }
+    }
+
+    /**
+     * Whether the next ping should be sent.
+     *
+     * @param now the current time in milliseconds
+     * @return true if a ping is due
+     */
+    boolean isDue(long now) {
+        return now >= nextPingAt;
+    }
+
+    /**
+     * Time at which the next ping is due.
+     *
+     * @return the time in milliseconds since the epoch, or Long.MAX_VALUE if no ping will be sent
+     */
+    long getNextPingAt() {
+        return nextPingAt;
+    }
+
+    /**
+     * Send the next ping. The last one counts as missed if it has not been answered.
+     *
+     * @param now   the current time in milliseconds
+     * @param nanos the current time from {@link System#nanoTime()}
+     * @return the number of the new ping
+     */
+    long ping(long now, long nanos) {
+        if (awaitingPong) {
+            missed++;
+        }
+        sequence++;
+        awaitingPong = true;
+        sentAtNanos = nanos;
+        nextPingAt = now + intervalMillis;
+        return sequence;
+    }
+
+    /**
+     * Take in a pong. Only the answer to the last ping counts; a late answer to an earlier one is ignored.
+     *
+     * @param answered the number carried by the pong
+     * @param nanos    the current time from {@link System#nanoTime()}
+     * @return true if the pong answered the last ping
+     */
+    boolean pong(long answered, long nanos) {
+        if (!awaitingPong || answered != sequence) {
+            return false;
+        }
+        awaitingPong = false;
+        missed = 0;
+        rtt.record(nanos - sentAtNanos);
+        return true;
+    }
+
+    /**
+     * Number of pings in a row that went unanswered, not counting the one still in flight.
+     *
+     * @return the number of missed pongs
+     */
+    int getMissed() {
+        return missed;
+    }
+
+    /**
+     * Whether the client missed too many pongs and its session should be ended.
+     *
+     * @return true if the client is gone
+     */
+    boolean isDead() {
+        return missed >= maxMissed;
+    }
+
+    /**
+     * Round-trip times of the pings answered so far.
+     *
+     * @return the histogram of round-trip times
+     */
+    RttHistogram getRoundTripTimes() {
+        return rtt;
+    }
+}
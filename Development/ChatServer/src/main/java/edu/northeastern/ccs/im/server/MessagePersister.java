@@ -0,0 +1,256 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.models.Message;
+import edu.northeastern.ccs.im.services.MessageService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Stores the messages of all clients behind their delivery. A message is handed over once it is made and
+ * delivered straight away; a thread of its own gathers the messages into batches of up to
+ * {@link ServerConstants#PERSIST_BATCH_SIZE}, waiting at most {@link ServerConstants#PERSIST_MAX_DELAY}
+ * milliseconds for a batch to fill, and stores each batch with one unordered write. Once a batch is written,
+ * whoever handed over a message is told whether it was stored.
+ * <p>
+ * The messages waiting to be stored are bounded. A message that finds the queue full, or the persister not
+ * running, is turned away and the caller stores it itself, which slows down only the clients sending faster
+ * than the database keeps up.
+ */
+class MessagePersister {
+    private static final Logger LOG = LogManager.getLogger(MessagePersister.class);
+
+    /**
+     * Most milliseconds the thread waits for a message before looking whether it was shut down.
+     */
+    private static final long IDLE_POLL = 100;
+
+    private final MessageService msgService;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue;
+    private final AtomicLong stored;
+    private final AtomicLong failed;
+    private final AtomicLong batches;
+    private final AtomicLong rejected;
+    private volatile Thread flusher;
+    private volatile boolean running;
+
+    /**
+     * Create a persister; it takes no messages until it is started.
+     *
+     * @param msgService    the service storing the messages
+     * @param batchSize     most messages stored with one write
+     * @param maxDelay      milliseconds a message may wait for its batch to fill
+     * @param queueCapacity most messages that may wait to be stored
+     */
+    MessagePersister(MessageService msgService, int batchSize, long maxDelay, int queueCapacity) {
+        this.msgService = msgService;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.stored = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.batches = new AtomicLong();
+        this.rejected = new AtomicLong();
+    }
+
+    /**
+     * The persister storing the messages of all clients, sized by {@link ServerConstants#PERSIST_BATCH_SIZE},
+     * {@link ServerConstants#PERSIST_MAX_DELAY} and {@link ServerConstants#PERSIST_QUEUE_CAPACITY}. It only
+     * takes messages once the server has started it.
+     *
+     * @return the shared persister
+     */
+    static MessagePersister shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Start the thread storing the batches.
+     */
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::run, "prattle-persister");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stop taking messages and store those still waiting before returning.
+     *
+     * @throws InterruptedException if interrupted while waiting for the last batch
+     */
+    void shutdown() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = flusher;
+            flusher = null;
+        }
+        if (thread != null) {
+            // The thread is not interrupted, which would break off a write under way; it sees running is false
+            // within IDLE_POLL.
+            thread.join();
+        }
+        // A message handed over as the thread stopped is still stored.
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        while (!rest.isEmpty()) {
+            List<Pending> batch = rest.subList(0, Math.min(batchSize, rest.size()));
+            flush(new ArrayList<>(batch));
+            batch.clear();
+        }
+    }
+
+    /**
+     * Hand over a message to be stored in a later batch.
+     *
+     * @param msg      the message to store
+     * @param onStored told on the persister thread whether the message was stored
+     * @return true if the message will be stored, false if it was turned away and the caller has to store it
+     */
+    boolean submit(Message msg, Consumer<Boolean> onStored) {
+        if (running && queue.offer(new Pending(msg, onStored))) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Number of messages waiting to be stored.
+     *
+     * @return the length of the queue
+     */
+    int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Number of messages that were stored.
+     *
+     * @return the number of stored messages
+     */
+    long getStored() {
+        return stored.get();
+    }
+
+    /**
+     * Number of messages that could not be stored.
+     *
+     * @return the number of messages lost
+     */
+    long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of writes made to the database.
+     *
+     * @return the number of batches
+     */
+    long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Number of messages turned away to be stored by the caller.
+     *
+     * @return the number of rejected messages
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Pending first = queue.poll(IDLE_POLL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(IDLE_POLL)),
+                            TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                running = false;
+                Thread.currentThread().interrupt();
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        batch.forEach(pending -> messages.add(pending.msg));
+        Set<Message> lost = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            lost.addAll(msgService.createMessages(messages));
+        } catch (RuntimeException e) {
+            // Whatever went wrong, the batch is reported lost and the thread goes on with the next one.
+            LOG.error("Could not store " + messages.size() + " messages: " + e.toString());
+            lost.addAll(messages);
+        }
+        batches.incrementAndGet();
+        failed.addAndGet(lost.size());
+        stored.addAndGet((long) batch.size() - lost.size());
+        for (Pending pending : batch) {
+            try {
+                pending.onStored.accept(!lost.contains(pending.msg));
+            } catch (RuntimeException e) {
+                LOG.error("Caught exception telling a sender its message was stored: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * A message waiting to be stored, with whom to tell once it is.
+     */
+    private static final class Pending {
+        private final Message msg;
+        private final Consumer<Boolean> onStored;
+
+        private Pending(Message msg, Consumer<Boolean> onStored) {
+            this.msg = msg;
+            this.onStored = onStored;
+        }
+    }
+
+    /**
+     * Creates the shared persister the first time it is asked for.
+     */
+    private static class Holder {
+        private static final MessagePersister INSTANCE = new MessagePersister(new MessageService(),
+                ServerConstants.PERSIST_BATCH_SIZE, ServerConstants.PERSIST_MAX_DELAY,
+                ServerConstants.PERSIST_QUEUE_CAPACITY);
+    }
+}
@@ -0,0 +1,269 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.Message;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * The messages waiting to be sent to one client. The queue holds at most a fixed number of messages;
+ * what happens to a message that arrives when it is full is decided by its {@link OverflowPolicy}, so
+ * that a client that stopped reading can only ever hold on to a bounded amount of memory.
+ * <p>
+ * Every operation locks the queue. Messages are added by the threads of the senders and taken by the
+ * thread running the client, so the lock is rarely contended.
+ */
+class OutboundQueue {
+    private static final Logger LOG = LogManager.getLogger(OutboundQueue.class);
+
+    /**
+     * What to do with a message for a client whose queue is full.
+     */
+    enum OverflowPolicy {
+        /**
+         * Drop the oldest waiting message to make room.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Give way to system messages: a new chat message is dropped, while a new system message takes
+         * the place of the oldest chat message (or of the oldest message if only system messages wait).
+         */
+        DROP_NON_SYSTEM,
+
+        /**
+         * Fold the waiting system notifications into a single one, one line each, and drop the oldest
+         * message only if that frees no room.
+         */
+        COALESCE_SYSTEM,
+
+        /**
+         * Refuse the message; the client is disconnected on its next run.
+         */
+        DISCONNECT;
+
+        /**
+         * Read a policy from its name, whatever its case. A name that is no policy is logged and
+         * {@link #DROP_OLDEST} is used, so that a misspelled setting cannot keep the server from starting.
+         *
+         * @param name the name of the policy
+         * @return the policy, or DROP_OLDEST if there is none by that name
+         */
+        static OverflowPolicy parse(String name) {
+            if (name != null) {
+                try {
+                    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    // logged below
+                }
+            }
+            LOG.warn("Unknown outbound overflow policy " + name + ", using " + DROP_OLDEST);
+            return DROP_OLDEST;
+        }
+    }
+
+    private final Queue<Message> messages;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    /**
+     * Number of messages dropped, or folded into others, because the queue was full.
+     */
+    private long dropped;
+
+    /**
+     * Largest number of messages that have waited at once.
+     */
+    private int peakDepth;
+
+    /**
+     * Whether a message was refused under {@link OverflowPolicy#DISCONNECT}.
+     */
+    private boolean overflowed;
+
+    /**
+     * Create an empty queue.
+     *
+     * @param capacity most messages that may wait at once
+     * @param policy   what to do with a message when the queue is full
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(new ArrayDeque<>(), capacity, policy);
+    }
+
+    /**
+     * Create a queue keeping its messages in the given queue.
+     *
+     * @param messages where to keep the messages
+     * @param capacity most messages that may wait at once
+     * @param policy   what to do with a message when the queue is full
+     */
+    OutboundQueue(Queue<Message> messages, int capacity, OverflowPolicy policy) {
+        this.messages = messages;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add a message to be sent, making room for it first if the queue is full.
+     *
+     * @param message the message to send
+     * @return false if the message was refused and the client should be disconnected
+     */
+    synchronized boolean add(Message message) {
+        if (messages.size() >= capacity && !makeRoom(message)) {
+            return !overflowed;
+        }
+        messages.add(message);
+        peakDepth = Math.max(peakDepth, messages.size());
+        return true;
+    }
+
+    /**
+     * Take the oldest message.
+     *
+     * @return the message
+     * @throws java.util.NoSuchElementException if the queue is empty
+     */
+    synchronized Message remove() {
+        return messages.remove();
+    }
+
+    synchronized boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * Number of messages waiting to be sent.
+     *
+     * @return the current depth of the queue
+     */
+    synchronized int size() {
+        return messages.size();
+    }
+
+    /**
+     * Largest number of messages that have waited at once.
+     *
+     * @return the peak depth of the queue
+     */
+    synchronized int getPeakDepth() {
+        return peakDepth;
+    }
+
+    /**
+     * Number of messages dropped, or folded into others, because the queue was full.
+     *
+     * @return the number of messages lost to overflow
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Whether a message was refused and the client should be disconnected.
+     *
+     * @return true if the queue overflowed under {@link OverflowPolicy#DISCONNECT}
+     */
+    synchronized boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Apply the overflow policy to a full queue.
+     *
+     * @param incoming the message that does not fit
+     * @return true if there is now room for the message, false if it must not be added
+     */
+    private boolean makeRoom(Message incoming) {
+        switch (policy) {
+            case DROP_NON_SYSTEM:
+                if (!incoming.isSystemMessage()) {
+                    dropped++;
+                    return false;
+                }
+                if (!removeFirstChat()) {
+                    dropOldest();
+                }
+                return true;
+            case COALESCE_SYSTEM:
+                if (!coalesceSystem()) {
+                    dropOldest();
+                }
+                return true;
+            case DISCONNECT:
+                overflowed = true;
+                dropped++;
+                return false;
+            default:
+                dropOldest();
+                return true;
+        }
+    }
+
+    private void dropOldest() {
+        messages.remove();
+        dropped++;
+    }
+
+    /**
+     * Drop the oldest message that does not come from the server.
+     *
+     * @return true if one was found
+     */
+    private boolean removeFirstChat() {
+        for (Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+            if (!it.next().isSystemMessage()) {
+                it.remove();
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace every waiting system notification by a single one, in the place of the first.
+     *
+     * @return true if that freed any room
+     */
+    private boolean coalesceSystem() {
+        StringBuilder text = new StringBuilder();
+        int folded = 0;
+        for (Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+            Message message = it.next();
+            if (isNotification(message)) {
+                text.append(folded == 0 ? "" : "\n").append(message.getText());
+                folded++;
+            }
+        }
+        if (folded < 2) {
+            return false;
+        }
+        Queue<Message> kept = new ArrayDeque<>(messages.size() - folded + 1);
+        boolean first = true;
+        for (Message message : messages) {
+            if (!isNotification(message)) {
+                kept.add(message);
+            } else if (first) {
+                kept.add(Message.makeSystemMessage(text.toString()));
+                first = false;
+            }
+        }
+        messages.clear();
+        messages.addAll(kept);
+        dropped += folded - 1;
+        return true;
+    }
+
+    /**
+     * System messages made of text alone can be folded together; others, such as public keys, cannot.
+     */
+    private static boolean isNotification(Message message) {
+        return message.isSystemMessage() && message.getText() != null;
+    }
+}
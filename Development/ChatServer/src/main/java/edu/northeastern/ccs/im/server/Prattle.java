@@ -1,25 +1,29 @@
 package edu.northeastern.ccs.im.server;
 
+import com.mongodb.MongoException;
 import edu.northeastern.ccs.im.communications.Message;
 import edu.northeastern.ccs.im.communications.NetworkConnection;
+import edu.northeastern.ccs.im.dao.DaoUtils;
+import edu.northeastern.ccs.im.dao.IndexBootstrap;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.User;
-import edu.northeastern.ccs.im.services.GroupService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
 
 /**
  * A network server that communicates with IM clients that connect to it. This
@@ -48,38 +52,76 @@ public abstract class Prattle {
     private static boolean isReady = false;
 
     /**
-     * service related with group in DB
+     * Collection of threads that are currently being used.
      */
-    private static GroupService groupService;
+    private static Set<ClientRunnable> active;
 
     /**
-     * Collection of threads that are currently being used.
+     * Sessions of the logged in users, used to route messages to their recipients.
+     */
+    private static SessionRegistry sessions;
+
+    /**
+     * Reactors running the clients when the server is in reactor mode; null in polling mode.
      */
-    private static ConcurrentLinkedQueue<ClientRunnable> active;
+    private static ReactorGroup reactors;
+
+    /**
+     * Threads running the clients when the server is in thread mode; null in the other modes.
+     */
+    private static ThreadPerConnection clientThreads;
+
+    /**
+     * Logs the metrics of the stages every {@link ServerConstants#STAGE_REPORT_INTERVAL} milliseconds.
+     */
+    private static ScheduledExecutorService stageReports;
+
+    /**
+     * Caps on the connections the server takes on.
+     */
+    private static AdmissionControl admission = new AdmissionControl(ServerConstants.MAX_CONNECTIONS,
+            ServerConstants.MAX_CONNECTIONS_PER_ADDRESS, ServerConstants.MAX_PRE_LOGIN);
 
     /**
      * All of the static initialization occurs in this "method" */
     static {
-        // Create the new queue of active threads.
-        active = new ConcurrentLinkedQueue<>();
-        groupService = new GroupService();
+        // Create the new set of active threads.
+        active = ConcurrentHashMap.newKeySet();
+        sessions = new SessionRegistry();
     }
 
     /**
-     * set active runnables
+     * set active runnables; the initialized ones are registered as the sessions of their users
      * @param active list of runnables
      */
-    @SuppressWarnings("squid:S1319") // type of legacy code, do not change before testing it will work
-    public static void setActive(ConcurrentLinkedQueue<ClientRunnable> active) {
-        Prattle.active = active;
+    public static void setActive(Collection<ClientRunnable> active) {
+        Prattle.active = ConcurrentHashMap.newKeySet();
+        Prattle.active.addAll(active);
+        sessions.clear();
+        for (ClientRunnable tt : active) {
+            if (tt.getUser() != null && tt.isInitialized()) {
+                registerSession(tt);
+            }
+        }
     }
 
     /**
-     * set group service
-     * @param groupService groupService
+     * Use the given admission control (used for testing)
+     *
+     * @param admissionControl the caps on connections to use
+     */
+    static void setAdmissionControl(AdmissionControl admissionControl) {
+        admission = admissionControl;
+    }
+
+    /**
+     * Register the client as a session of the user it has logged in as, so that messages to that user
+     * reach it.
+     *
+     * @param client a client that has just logged in
      */
-    public static void setGroupService(GroupService groupService) {
-        Prattle.groupService = groupService;
+    public static void registerSession(ClientRunnable client) {
+        sessions.register(client, client.getUser());
     }
 
     /**
@@ -91,42 +133,42 @@ public abstract class Prattle {
     public static void broadcastMessage(Message message) {
         // Loop through all of our active threads
         for (ClientRunnable tt : active) {
-            // Do not send the message to any clients that are not ready to receive it.
-            if (tt.isInitialized()) {
+            // Do not send the message to any clients that are not ready to receive it,
+            // or that stopped answering pings.
+            if (tt.isInitialized() && !tt.isUnresponsive()) {
                 tt.enqueueMessage(message);
             }
         }
     }
 
     /**
-     * It is a send to group msg, it will use group id to check all users in that group
-     * for now only online users will be delivered
-     * <p>
-     * Use HashTable to check user of the client
+     * Send the message to every session of the members and administrators of the group.
+     * For now only online users will be delivered
      *
      * @param message the message to send
+     * @param group   the group to send to
      */
     public static void sendToGroup(Message message, Group group) {
-        for (ClientRunnable tt : active) {
-            if (!tt.isInitialized()) {
-                continue;
-            }
-            User user = tt.getUser();
-            if (groupService.containsUser(group, user)) {
-                tt.enqueueMessage(message);
-            }
+        if (group == null) {
+            return;
+        }
+        Set<ClientRunnable> recipients = new HashSet<>();
+        addSessions(recipients, group.getUsers());
+        addSessions(recipients, group.getAdministrators());
+        for (ClientRunnable tt : recipients) {
+            enqueueIfResponsive(tt, message);
         }
     }
 
+    /**
+     * Send the message to every session of the given user.
+     *
+     * @param message the message to send
+     * @param user    the receiver
+     */
     public static void sendToUser(Message message, User user) {
-        for (ClientRunnable tt : active) {
-            if (!tt.isInitialized()) {
-                continue;
-            }
-            User activeUser = tt.getUser();
-            if (user.getUsername().equals(activeUser.getUsername())) {
-                tt.enqueueMessage(message);
-            }
+        for (ClientRunnable tt : sessions.sessionsOf(user)) {
+            enqueueIfResponsive(tt, message);
         }
     }
 
@@ -137,14 +179,39 @@ public abstract class Prattle {
      */
     //Emma
     public static void sendToAListOfPPL(List<User> users, Message msg) {
-        List<String> usersName = users
-                .stream()
-                .map(User::getUsername)
-                .collect(Collectors.toList());
+        Set<ClientRunnable> recipients = new HashSet<>();
+        addSessions(recipients, users);
+        for (ClientRunnable tt : recipients) {
+            enqueueIfResponsive(tt, msg);
+        }
+    }
 
-        for (ClientRunnable tt : active) {
-            if (usersName.contains(tt.getName())) {
-                tt.enqueueMessage(msg);
+    /**
+     * Hand a message to a session unless it left its last ping unanswered; a connection that went away
+     * without being closed would only hold on to it until the session is ended.
+     *
+     * @param client  the session to deliver to
+     * @param message the message to deliver
+     */
+    private static void enqueueIfResponsive(ClientRunnable client, Message message) {
+        if (!client.isUnresponsive()) {
+            client.enqueueMessage(message);
+        }
+    }
+
+    /**
+     * Collect the sessions of the given users, so that a user listed twice still gets the message once.
+     *
+     * @param recipients the sessions collected so far
+     * @param users      the users whose sessions to add
+     */
+    private static void addSessions(Set<ClientRunnable> recipients, List<User> users) {
+        if (users == null) {
+            return;
+        }
+        for (User user : users) {
+            if (user != null) {
+                recipients.addAll(sessions.sessionsOf(user));
             }
         }
     }
@@ -156,6 +223,7 @@ public abstract class Prattle {
      *             since quit.
      */
     public static void removeClient(ClientRunnable dead) {
+        sessions.unregister(dead);
         if (!active.remove(dead)) {
             LOG.info("Could not find a thread that I tried to remove!\n");
         }
@@ -166,6 +234,27 @@ public abstract class Prattle {
      */
     public static void stopServer() {
         isReady = false;
+        if (reactors != null) {
+            reactors.shutdown();
+            reactors = null;
+        }
+        if (clientThreads != null) {
+            clientThreads.shutdown();
+            clientThreads = null;
+        }
+        if (stageReports != null) {
+            stageReports.shutdownNow();
+            stageReports = null;
+        }
+        // Store the messages still waiting before the database goes away.
+        try {
+            MessagePersister.shared().shutdown();
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while storing the last messages");
+            Thread.currentThread().interrupt();
+        }
+        // Release the connection pool shared by the Dao layer.
+        DaoUtils.closeConnections();
     }
 
     /**
@@ -183,8 +272,8 @@ public abstract class Prattle {
      * Start up the threaded talk server. This class accepts incoming connections on
      * a specific port specified on the command-line. Whenever it receives a new
      * connection, it will spawn a thread to perform all of the I/O with that
-     * client. This class relies on the server not receiving too many requests -- it
-     * does not include any code to limit the number of extant threads.
+     * client. The number of clients is capped by the {@link AdmissionControl}: past
+     * its caps the server stops accepting, and connections wait in the backlog.
      *
      * @param args String arguments to the server from the command line. At present
      *             the only legal (and required) argument is the port on which this
@@ -201,23 +290,125 @@ public abstract class Prattle {
             Selector selector = SelectorProvider.provider().openSelector();
             // Register to receive any incoming connection messages.
             serverSocket.register(selector, SelectionKey.OP_ACCEPT);
-            // Create our pool of threads on which we will execute.
-            ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(ServerConstants.THREAD_POOL_SIZE);
+            // Make sure the collections are indexed before any client reads or writes them.
+            bootstrapIndexes();
+            // Store the messages clients send behind their delivery.
+            MessagePersister.shared().start();
             // If we get this far than the server is initialized correctly
             isReady = true;
 
             LOG.info("Server is now running on port 4545!");
 
-            // Now listen on this port as long as the server is ready
-            runLoop(selector, serverSocket, threadPool);
+            if (ServerConstants.REACTOR_MODE.equals(ServerConstants.SERVER_MODE)) {
+                // Spread the clients over reactors that run them on a shared pool of workers.
+                // A client is queued for a worker at most once, so the queue never holds more of them
+                // than there are connections.
+                Stage io = new Stage("io", ServerConstants.THREAD_POOL_SIZE, ServerConstants.MAX_CONNECTIONS);
+                reactors = new ReactorGroup(ServerConstants.REACTOR_THREADS, io);
+                reactors.start();
+                LOG.info("Running " + reactors.size() + " reactor threads");
+                reportStages(io, Stage.auth(), Stage.database());
+                runLoop(selector, serverSocket, reactors);
+            } else if (ServerConstants.THREAD_MODE.equals(ServerConstants.SERVER_MODE)) {
+                // Give every client threads of its own that block on its connection.
+                clientThreads = new ThreadPerConnection();
+                clientThreads.start();
+                LOG.info("Running every client on " + (clientThreads.isVirtual() ? "virtual" : "platform") + " threads");
+                reportStages(Stage.auth(), Stage.database());
+                runLoop(selector, serverSocket, clientThreads);
+            } else {
+                if (!ServerConstants.POLLING_MODE.equals(ServerConstants.SERVER_MODE)) {
+                    LOG.warn("Unknown server mode " + ServerConstants.SERVER_MODE + ", polling the clients instead");
+                }
+                // Create our pool of threads on which we will execute.
+                ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(ServerConstants.THREAD_POOL_SIZE);
+                reportStages(Stage.auth(), Stage.database());
+                // Now listen on this port as long as the server is ready
+                runLoop(selector, serverSocket, threadPool);
+            }
         } catch (IOException ex) {
             LOG.error("Fatal error: " + ex.getMessage());
             throw new IllegalStateException(ex.getMessage());
         }
     }
 
+    /**
+     * Log the queue length and service times of the given stages on a timer, so that a stage falling behind
+     * shows up in the server log.
+     *
+     * @param stages the stages to report on
+     */
+    private static void reportStages(Stage... stages) {
+        if (ServerConstants.STAGE_REPORT_INTERVAL <= 0) {
+            return;
+        }
+        stageReports = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "prattle-stage-reports");
+            thread.setDaemon(true);
+            return thread;
+        });
+        stageReports.scheduleAtFixedRate(() -> {
+            for (Stage stage : stages) {
+                LOG.info(stage.report());
+            }
+        }, ServerConstants.STAGE_REPORT_INTERVAL, ServerConstants.STAGE_REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create the indexes of the database, once, before the server takes clients. The server still starts if some
+     * are missing or the database cannot be reached; queries are only slower without them.
+     */
+    private static void bootstrapIndexes() {
+        try {
+            if (IndexBootstrap.createIndexes()) {
+                LOG.info("Database indexes are in place");
+            } else {
+                LOG.error("Some database indexes are missing");
+            }
+        } catch (MongoException e) {
+            LOG.error("Could not check the database indexes: " + e.getMessage());
+        }
+    }
+
     protected static void runLoop(Selector selector, ServerSocketChannel serverSocket, ScheduledExecutorService threadPool) throws IOException {
+        acceptLoop(selector, serverSocket, () -> createClientThread(serverSocket, threadPool));
+    }
+
+    /**
+     * Accept clients as long as the server is ready and hand each one to a reactor.
+     *
+     * @param selector     The selector on which the server socket is registered.
+     * @param serverSocket The channel to accept clients on.
+     * @param reactorGroup The reactors to spread the clients over.
+     * @throws IOException if the selector fails
+     */
+    protected static void runLoop(Selector selector, ServerSocketChannel serverSocket, ReactorGroup reactorGroup) throws IOException {
+        acceptLoop(selector, serverSocket, () -> registerClient(serverSocket, reactorGroup));
+    }
+
+    /**
+     * Accept clients as long as the server is ready and start threads of their own for each one.
+     *
+     * @param selector      The selector on which the server socket is registered.
+     * @param serverSocket  The channel to accept clients on.
+     * @param clientThreads The threads the clients are run on.
+     * @throws IOException if the selector fails
+     */
+    protected static void runLoop(Selector selector, ServerSocketChannel serverSocket, ThreadPerConnection clientThreads) throws IOException {
+        acceptLoop(selector, serverSocket, () -> startClientThreads(serverSocket, clientThreads));
+    }
+
+    /**
+     * Wait for incoming connections as long as the server is ready.
+     *
+     * @param selector     The selector on which the server socket is registered.
+     * @param serverSocket The channel to accept clients on.
+     * @param onAccept     What to do each time a connection is waiting to be accepted.
+     * @throws IOException if the selector fails
+     */
+    private static void acceptLoop(Selector selector, ServerSocketChannel serverSocket, Runnable onAccept) throws IOException {
         while (isReady) {
+            throttleAccepts(selector, serverSocket);
             // Check if we have a valid incoming request, but limit the time we may wait.
             while (selector.select(ServerConstants.DELAY_IN_MS) != 0) {
                 // Get the list of keys that have arrived since our last check
@@ -237,13 +428,55 @@ public abstract class Prattle {
                     if (key.channel() != serverSocket) {
                         throw new AssertionError();
                     }
-                    // Create new thread to handle client for which we just received request.
-                    createClientThread(serverSocket, threadPool);
+                    // Handle the client for which we just received request.
+                    onAccept.run();
+                    throttleAccepts(selector, serverSocket);
                 }
             }
         }
     }
 
+    /**
+     * Stop accepting while the server has as many connections as it takes on, and start again once
+     * enough of them are gone. In between, new connections wait in the backlog of the listening socket.
+     *
+     * @param selector     The selector on which the server socket is registered.
+     * @param serverSocket The channel to accept clients on.
+     */
+    private static void throttleAccepts(Selector selector, ServerSocketChannel serverSocket) {
+        SelectionKey key = serverSocket.keyFor(selector);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        boolean deferred = key.interestOps() == 0;
+        if (!deferred && admission.isSaturated()) {
+            key.interestOps(0);
+            LOG.warn("Deferring accepts with " + admission.getConnections() + " connections, "
+                    + admission.getPreLogin() + " of them not logged in");
+        } else if (deferred && admission.hasRoom()) {
+            key.interestOps(SelectionKey.OP_ACCEPT);
+            LOG.info("Accepting again with " + admission.getConnections() + " connections");
+        }
+    }
+
+    /**
+     * Admit a client that has just been accepted, or close its connection if it is over a cap.
+     *
+     * @param socket the accepted connection
+     * @return the admission of the connection, or null if it was closed
+     * @throws IOException if the address of the connection cannot be found
+     */
+    private static AdmissionControl.Ticket admit(SocketChannel socket) throws IOException {
+        SocketAddress remote = socket.getRemoteAddress();
+        AdmissionControl.Ticket ticket = admission.admit(
+                remote instanceof InetSocketAddress ? ((InetSocketAddress) remote).getAddress() : null);
+        if (ticket == null) {
+            LOG.debug("Rejected connection from " + remote);
+            socket.close();
+        }
+        return ticket;
+    }
+
     /**
      * Create a new thread to handle the client for which a request is received.
      *
@@ -255,9 +488,11 @@ public abstract class Prattle {
             // Accept the connection and create a new thread to handle this client.
             SocketChannel socket = serverSocket.accept();
             // Make sure we have a connection to work with.
-            if (socket != null) {
+            AdmissionControl.Ticket ticket = socket == null ? null : admit(socket);
+            if (ticket != null) {
                 NetworkConnection connection = new NetworkConnection(socket);
                 ClientRunnable tt = new ClientRunnable(connection);
+                tt.setAdmission(ticket);
                 // Add the thread to the queue of active threads
                 active.add(tt);
                 // Have the client executed by our pool of threads.
@@ -271,4 +506,54 @@ public abstract class Prattle {
             LOG.error("Caught Exception: " + e.toString());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Accept a client and register it with one of the reactors, which will run it whenever its
+     * channel is ready.
+     *
+     * @param serverSocket The channel to use.
+     * @param reactorGroup The reactors to spread the clients over.
+     */
+    private static void registerClient(ServerSocketChannel serverSocket, ReactorGroup reactorGroup) {
+        try {
+            SocketChannel socket = serverSocket.accept();
+            AdmissionControl.Ticket ticket = socket == null ? null : admit(socket);
+            if (ticket != null) {
+                NetworkConnection connection = new NetworkConnection(socket, false);
+                ClientRunnable tt = new ClientRunnable(connection);
+                tt.setAdmission(ticket);
+                active.add(tt);
+                reactorGroup.register(socket, tt);
+            }
+        } catch (AssertionError ae) {
+            LOG.error("Caught Assertion: " + ae.toString());
+        } catch (IOException e) {
+            LOG.error("Caught Exception: " + e.toString());
+        }
+    }
+
+    /**
+     * Accept a client and start the threads that read its connection and run it.
+     *
+     * @param serverSocket  The channel to use.
+     * @param clientThreads The threads the clients are run on.
+     */
+    private static void startClientThreads(ServerSocketChannel serverSocket, ThreadPerConnection clientThreads) {
+        try {
+            SocketChannel socket = serverSocket.accept();
+            AdmissionControl.Ticket ticket = socket == null ? null : admit(socket);
+            if (ticket != null) {
+                NetworkConnection connection = new NetworkConnection(socket, false,
+                        NetworkConnection.MAX_FRAME_SIZE, true);
+                ClientRunnable tt = new ClientRunnable(connection);
+                tt.setAdmission(ticket);
+                active.add(tt);
+                clientThreads.register(connection, tt);
+            }
+        } catch (AssertionError ae) {
+            LOG.error("Caught Assertion: " + ae.toString());
+        } catch (IOException e) {
+            LOG.error("Caught Exception: " + e.toString());
+        }
+    }
+}
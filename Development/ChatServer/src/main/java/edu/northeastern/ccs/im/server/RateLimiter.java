@@ -0,0 +1,203 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.MessageType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how fast each user may send each kind of request, so that one user cannot keep the database
+ * busy for everyone else. Every user has a {@link TokenBucket} per limited message type, shared by all
+ * of the user's sessions; a request that finds its bucket empty is throttled. Message types without a
+ * limit are never throttled.
+ * <p>
+ * Taking a token never locks, and the buckets of a user are made on the user's first request. Once all
+ * of them have refilled, they are no different from new ones and are dropped by the next sweep, so only
+ * the users who sent something lately are kept.
+ */
+class RateLimiter {
+
+    /**
+     * Limits used unless set with -Dprattle.rate.&lt;type&gt;=&lt;per second&gt;/&lt;burst&gt;, where
+     * the type is the abbreviation sent over the wire; a rate of 0 lifts the limit. ACKs have no limit:
+     * a client acknowledges what it receives, and a dropped ACK only gets the message sent again.
+     */
+    private static final Map<MessageType, String> DEFAULT_LIMITS = new EnumMap<>(MessageType.class);
+
+    static {
+        DEFAULT_LIMITS.put(MessageType.BROADCAST, "2/10");
+        DEFAULT_LIMITS.put(MessageType.TO_GROUP, "10/30");
+        DEFAULT_LIMITS.put(MessageType.TO_USER, "10/30");
+        // Both reads are paged, so a client catching up or scrolling back asks for one page after another.
+        DEFAULT_LIMITS.put(MessageType.GET_HISTORY, "2/20");
+        DEFAULT_LIMITS.put(MessageType.GET_QUEUE, "1/10");
+        DEFAULT_LIMITS.put(MessageType.INVITE, "1/10");
+        DEFAULT_LIMITS.put(MessageType.CREATE_GROUP, "0.5/5");
+        DEFAULT_LIMITS.put(MessageType.DELETE_MSG, "2/10");
+        DEFAULT_LIMITS.put(MessageType.PUBLIC_KEY, "5/20");
+    }
+
+    /**
+     * Nanoseconds between two sweeps of the buckets that have refilled.
+     */
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Refill rate, in tokens per second, of each message type; 0 for no limit.
+     */
+    private final double[] perSecond;
+
+    /**
+     * Burst of each message type.
+     */
+    private final int[] burst;
+
+    /**
+     * Buckets of each user, by the ordinal of the message type; null where there is no limit.
+     */
+    private final Map<String, TokenBucket[]> buckets;
+
+    /**
+     * Number of requests throttled, by the ordinal of the message type.
+     */
+    private final LongAdder[] throttled;
+
+    /**
+     * When the buckets are swept next, from {@link System#nanoTime()}.
+     */
+    private final AtomicLong nextSweep;
+
+    /**
+     * Create a limiter with the given limits.
+     *
+     * @param limits "per second/burst" of each limited message type
+     */
+    RateLimiter(Map<MessageType, String> limits) {
+        int types = MessageType.values().length;
+        this.perSecond = new double[types];
+        this.burst = new int[types];
+        this.buckets = new ConcurrentHashMap<>();
+        this.throttled = new LongAdder[types];
+        this.nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+        for (int i = 0; i < types; i++) {
+            throttled[i] = new LongAdder();
+        }
+        for (Map.Entry<MessageType, String> limit : limits.entrySet()) {
+            String[] parts = limit.getValue().split("/");
+            int type = limit.getKey().ordinal();
+            perSecond[type] = Double.parseDouble(parts[0].trim());
+            burst[type] = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+        }
+    }
+
+    /**
+     * The limiter shared by all clients, with the default limits overridden by system properties.
+     *
+     * @return the shared limiter
+     */
+    static RateLimiter shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Take a token for a request of the given user, or count the request as throttled.
+     *
+     * @param user  name of the user sending the request
+     * @param type  kind of request
+     * @param nanos the current time from {@link System#nanoTime()}
+     * @return true if the request may go ahead, false if it is throttled
+     */
+    boolean tryAcquire(String user, MessageType type, long nanos) {
+        if (user == null || type == null || perSecond[type.ordinal()] <= 0) {
+            return true;
+        }
+        long due = nextSweep.get();
+        if (nanos - due >= 0 && nextSweep.compareAndSet(due, nanos + SWEEP_INTERVAL)) {
+            sweep(nanos);
+        }
+        TokenBucket bucket = buckets.computeIfAbsent(user, name -> newBuckets(nanos))[type.ordinal()];
+        if (bucket.tryAcquire(nanos)) {
+            return true;
+        }
+        throttled[type.ordinal()].increment();
+        return false;
+    }
+
+    /**
+     * Number of requests of the given kind that were throttled.
+     *
+     * @param type kind of request
+     * @return the number of throttled requests
+     */
+    long getThrottled(MessageType type) {
+        return throttled[type.ordinal()].sum();
+    }
+
+    /**
+     * Number of requests of any kind that were throttled.
+     *
+     * @return the number of throttled requests
+     */
+    long getThrottled() {
+        long total = 0;
+        for (LongAdder count : throttled) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Drop the buckets of the users whose buckets have all refilled. A request racing with the sweep may
+     * take its token from buckets that are being dropped, which lets that user have one request more.
+     *
+     * @param nanos the current time from {@link System#nanoTime()}
+     */
+    void sweep(long nanos) {
+        buckets.values().removeIf(userBuckets -> {
+            for (TokenBucket bucket : userBuckets) {
+                if (bucket != null && !bucket.isFull(nanos)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Number of users whose buckets are kept.
+     *
+     * @return the number of users with buckets
+     */
+    int getUserCount() {
+        return buckets.size();
+    }
+
+    private TokenBucket[] newBuckets(long nanos) {
+        TokenBucket[] result = new TokenBucket[perSecond.length];
+        for (int i = 0; i < result.length; i++) {
+            if (perSecond[i] > 0) {
+                result[i] = new TokenBucket(perSecond[i], burst[i], nanos);
+            }
+        }
+        return result;
+    }
+
+    private static class Holder {
+        private static final RateLimiter INSTANCE = new RateLimiter(configured());
+
+        private static Map<MessageType, String> configured() {
+            Map<MessageType, String> limits = new EnumMap<>(MessageType.class);
+            for (MessageType type : MessageType.values()) {
+                String limit = System.getProperty("prattle.rate." + type, DEFAULT_LIMITS.get(type));
+                if (limit != null) {
+                    limits.put(type, limit);
+                }
+            }
+            return limits;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package edu.northeastern.ccs.im.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single event loop of the readiness-driven server mode. A reactor owns one Selector with which the
+ * channels of many clients are registered. A client is handed to the worker pool only when its channel
+ * is readable, or writable while it has messages waiting to be sent, instead of being polled every
+ * {@link ServerConstants#CLIENT_CHECK_DELAY} milliseconds.
+ * <p>
+ * While a client is being run its interest set is cleared, so the same client is never run by two
+ * workers at once. All changes to selection keys happen on the reactor thread itself; other threads
+ * hand them over through a task queue and wake the selector up.
+ */
+class Reactor implements Runnable {
+    private static final Logger LOG = LogManager.getLogger(Reactor.class);
+
+    /**
+     * Selector shared by all of the clients of this reactor.
+     */
+    private final Selector selector;
+
+    /**
+     * Pool on which the clients are run once their channel is ready.
+     */
+    private final Executor workers;
+
+    /**
+     * Work handed over to the reactor thread by other threads.
+     */
+    private final Queue<Runnable> tasks;
+
+    /**
+     * Whether the event loop should keep running.
+     */
+    private volatile boolean running;
+
+    /**
+     * Deadlines of the clients, for pings and for inactivity, advanced once per sweep interval; only touched on the
+     * reactor thread.
+     */
+    private final TimingWheel<ClientHandle> idle;
+
+    /**
+     * Create a reactor with a selector of its own.
+     *
+     * @param workers pool on which the clients are run
+     * @throws IOException if the selector cannot be opened
+     */
+    Reactor(Executor workers) throws IOException {
+        this(Selector.open(), workers);
+    }
+
+    /**
+     * Create a reactor on the given selector.
+     *
+     * @param selector selector to wait on
+     * @param workers  pool on which the clients are run
+     */
+    Reactor(Selector selector, Executor workers) {
+        this.selector = selector;
+        this.workers = workers;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.running = true;
+        this.idle = new TimingWheel<>(ServerConstants.REACTOR_SWEEP_INTERVAL, ServerConstants.REACTOR_WHEEL_SIZE,
+                handle -> handle.client.getNextDeadline(), System.currentTimeMillis());
+    }
+
+    /**
+     * Register a newly accepted channel and the client handling it with this reactor.
+     *
+     * @param channel the non-blocking channel of the client
+     * @param client  the client to run whenever the channel is ready
+     */
+    void register(SocketChannel channel, ClientRunnable client) {
+        submit(() -> {
+            try {
+                ClientHandle handle = new ClientHandle(client);
+                handle.key = channel.register(selector, SelectionKey.OP_READ, handle);
+                handle.idleTimeout = idle.schedule(handle);
+                client.setWakeup(() -> requestWrite(handle));
+                if (client.hasPendingOutbound()) {
+                    handle.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (ClosedChannelException e) {
+                LOG.error("Could not register client: " + e.toString());
+                client.terminateClient();
+            }
+        });
+    }
+
+    /**
+     * Stop the event loop. The selector is closed by the reactor thread once it notices.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Number of channels currently registered with this reactor.
+     *
+     * @return the number of registered channels
+     */
+    int size() {
+        return selector.keys().size();
+    }
+
+    /**
+     * Run the event loop until {@link #shutdown()} is called.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(ServerConstants.REACTOR_SWEEP_INTERVAL);
+                runTasks();
+                dispatchSelected();
+                sweepDeadlines();
+            } catch (IOException e) {
+                LOG.error("Reactor stopped: " + e.toString());
+                running = false;
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.error("Caught exception: " + e.toString());
+        }
+    }
+
+    /**
+     * Run the work handed over by other threads.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Hand every client whose channel is ready over to the worker pool.
+     */
+    private void dispatchSelected() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (key.isValid()) {
+                dispatch((ClientHandle) key.attachment());
+            }
+        }
+    }
+
+    /**
+     * Run the clients that are due for a ping or have been silent for too long, so that they can be
+     * pinged or time out. Only the clients whose deadline falls in the sweep intervals that have gone by
+     * are looked at; the ones being run right now are left on the wheel for the next sweep, and the ones
+     * whose channel is gone are dropped.
+     */
+    private void sweepDeadlines() {
+        for (ClientHandle handle : idle.expire(System.currentTimeMillis())) {
+            if (!handle.key.isValid()) {
+                idle.cancel(handle.idleTimeout);
+            } else if (!handle.inFlight) {
+                dispatch(handle);
+            }
+        }
+    }
+
+    /**
+     * Run the client on the worker pool. Its interest set stays empty until the run completes.
+     *
+     * @param handle the client to run
+     */
+    private void dispatch(ClientHandle handle) {
+        handle.inFlight = true;
+        handle.key.interestOps(0);
+        try {
+            workers.execute(() -> process(handle));
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Worker pool rejected client: " + e.toString());
+            handle.inFlight = false;
+            restoreInterest(handle);
+        }
+    }
+
+    /**
+     * Body of a worker run; hands the client back to the reactor when it is done.
+     *
+     * @param handle the client to run
+     */
+    private void process(ClientHandle handle) {
+        try {
+            handle.client.run();
+        } catch (RuntimeException e) {
+            LOG.error("Caught exception while running client: " + e.toString());
+        } finally {
+            submit(() -> rearm(handle));
+        }
+    }
+
+    /**
+     * Restore the interest set of a client after it has been run. Write interest is only asked for
+     * while messages are waiting to be sent. A client that used up its budget with messages already
+     * received is run again straight away, behind the clients queued since, as its channel may never
+     * become readable again.
+     *
+     * @param handle the client that was run
+     */
+    private void rearm(ClientHandle handle) {
+        handle.inFlight = false;
+        if (!handle.key.isValid()) {
+            idle.cancel(handle.idleTimeout);
+            return;
+        }
+        // The run may have brought the next deadline forward, for instance by logging in.
+        idle.reschedule(handle.idleTimeout);
+        if (handle.client.hasPendingInbound()) {
+            dispatch(handle);
+        } else {
+            restoreInterest(handle);
+        }
+    }
+
+    /**
+     * Wait for the channel of a client again: for reads, and for writes while messages are waiting. A
+     * client whose work is on another stage reads nothing until the stage is done, and the selector would
+     * keep handing it back while bytes are left unread, so only writes are waited for; the wakeup of the
+     * stage gets the client run once it is done, and reads are waited for again after that run.
+     *
+     * @param handle the client to wait for
+     */
+    private void restoreInterest(ClientHandle handle) {
+        if (handle.key.isValid()) {
+            int ops = handle.client.isAwaitingStage() ? 0 : SelectionKey.OP_READ;
+            if (handle.client.hasPendingOutbound()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            handle.key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Ask for write interest on behalf of a client that has just been handed a message, or whose work
+     * another stage has handed back; either gets the client run once its channel is writable. Repeated
+     * requests made before the reactor gets to the first one are folded together.
+     *
+     * @param handle the client with messages to send
+     */
+    private void requestWrite(ClientHandle handle) {
+        if (handle.writeRequested.compareAndSet(false, true)) {
+            submit(() -> {
+                handle.writeRequested.set(false);
+                if (!handle.inFlight && handle.key.isValid()) {
+                    handle.key.interestOps(handle.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queue work for the reactor thread and wake it up.
+     *
+     * @param task the work to do on the reactor thread
+     */
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Per-channel state kept as the attachment of the selection key.
+     */
+    private static class ClientHandle {
+        private final ClientRunnable client;
+        private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+        private SelectionKey key;
+        private TimingWheel.Timeout<ClientHandle> idleTimeout;
+
+        /**
+         * Whether the client is currently being run by a worker; only touched on the reactor thread.
+         */
+        private boolean inFlight;
+
+        ClientHandle(ClientRunnable client) {
+            this.client = client;
+        }
+    }
+}
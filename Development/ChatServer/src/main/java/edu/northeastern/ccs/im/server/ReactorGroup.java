@@ -0,0 +1,83 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of reactors used by the readiness-driven server mode. Accepted channels are spread across
+ * the reactors round-robin, and every reactor hands ready clients to the same pool of workers.
+ */
+class ReactorGroup {
+
+    /**
+     * The event loops of this group.
+     */
+    private final Reactor[] reactors;
+
+    /**
+     * Pool shared by all reactors to run the ready clients.
+     */
+    private final Stage workers;
+
+    /**
+     * Index of the reactor that gets the next channel.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * Create a group of reactors, each with a selector of its own.
+     *
+     * @param size    number of reactors
+     * @param workers stage on which the ready clients are run
+     * @throws IOException if a selector cannot be opened
+     */
+    ReactorGroup(int size, Stage workers) throws IOException {
+        this.reactors = new Reactor[size];
+        for (int i = 0; i < size; i++) {
+            reactors[i] = new Reactor(workers);
+        }
+        this.workers = workers;
+        this.next = new AtomicInteger();
+    }
+
+    /**
+     * Start one thread for each reactor.
+     */
+    void start() {
+        for (int i = 0; i < reactors.length; i++) {
+            Thread thread = new Thread(reactors[i], "prattle-reactor-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Register a newly accepted channel with the next reactor.
+     *
+     * @param channel the non-blocking channel of the client
+     * @param client  the client to run whenever the channel is ready
+     */
+    void register(SocketChannel channel, ClientRunnable client) {
+        reactors[Math.floorMod(next.getAndIncrement(), reactors.length)].register(channel, client);
+    }
+
+    /**
+     * Stop all reactors and the worker pool.
+     */
+    void shutdown() {
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Number of reactors in this group.
+     *
+     * @return the number of reactors
+     */
+    int size() {
+        return reactors.length;
+    }
+}
@@ -0,0 +1,235 @@
+package edu.northeastern.ccs.im.server;
+
+import org.bson.types.ObjectId;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues and checks the tokens with which a user who logged in with a password can log back in on a
+ * later connection without hashing the password again.
+ * <p>
+ * A token holds the id of the user, its expiry and a random nonce, followed by an HMAC-SHA256 of them
+ * under the server's secret; checking it costs one HMAC and a constant-time comparison. Tokens are
+ * single use: the one presented is used up as it is checked and a new one is handed out. Used up and
+ * revoked tokens are remembered by their nonce only until they would have expired anyway; the expired
+ * ones are swept out once every {@link #SWEEP_INTERVAL} milliseconds, which keeps the revocation set
+ * small without scanning it on every resume.
+ */
+class ResumeTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int ID_SIZE = 12;
+    private static final int PAYLOAD_SIZE = ID_SIZE + Long.BYTES + Long.BYTES;
+    private static final int MAC_SIZE = 32;
+
+    /**
+     * Milliseconds between two sweeps of the expired nonces.
+     */
+    static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final byte[] secret;
+    private final long ttlMillis;
+    private final SecureRandom random;
+
+    /**
+     * HMAC of each thread, keyed with the secret.
+     */
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * Nonces of the revoked tokens, with the time at which they expire.
+     */
+    private final Map<Long, Long> revoked;
+
+    /**
+     * When the expired nonces are swept out next, in milliseconds since the epoch.
+     */
+    private final AtomicLong nextSweep;
+
+    /**
+     * Create the tokens of a server.
+     *
+     * @param secret    key of the HMAC; servers sharing it accept each other's tokens
+     * @param ttlMillis how long a token is valid, in milliseconds
+     */
+    ResumeTokens(byte[] secret, long ttlMillis) {
+        this.secret = secret.clone();
+        this.ttlMillis = ttlMillis;
+        this.random = new SecureRandom();
+        this.revoked = new ConcurrentHashMap<>();
+        this.nextSweep = new AtomicLong(System.currentTimeMillis() + SWEEP_INTERVAL);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac hmac = Mac.getInstance(ALGORITHM);
+                hmac.init(new SecretKeySpec(this.secret, ALGORITHM));
+                return hmac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC is not available", e);
+            }
+        });
+    }
+
+    /**
+     * The tokens shared by all clients. The secret is read from -Dprattle.resume.secret (base64) so that
+     * tokens survive a restart; without it a random secret is made up. Tokens are valid for
+     * -Dprattle.resume.ttl.minutes, 12 hours by default.
+     *
+     * @return the shared tokens
+     */
+    static ResumeTokens shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Issue a token for the given user.
+     *
+     * @param userId id of the user who logged in
+     * @return the token
+     */
+    String issue(ObjectId userId) {
+        ByteBuffer token = ByteBuffer.allocate(PAYLOAD_SIZE + MAC_SIZE);
+        token.put(userId.toByteArray());
+        token.putLong(System.currentTimeMillis() + ttlMillis);
+        token.putLong(random.nextLong());
+        token.put(sign(token.array()));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    /**
+     * Check a token and use it up, so that of the connections presenting the same token only one gets
+     * in, even when they do so at the same time.
+     *
+     * @param token the token presented by a client
+     * @return the id of the user it was issued for, or null if it is forged, expired, revoked or was
+     * used already
+     */
+    ObjectId verify(String token) {
+        ByteBuffer bytes = decode(token);
+        if (bytes == null) {
+            return null;
+        }
+        byte[] id = new byte[ID_SIZE];
+        bytes.get(id);
+        long expiresAt = bytes.getLong();
+        long nonce = bytes.getLong();
+        long now = System.currentTimeMillis();
+        if (expiresAt < now || revoked.putIfAbsent(nonce, expiresAt) != null) {
+            return null;
+        }
+        sweepIfDue(now);
+        return new ObjectId(id);
+    }
+
+    /**
+     * When a token expires.
+     *
+     * @param token a token issued by this server
+     * @return the expiry in milliseconds since the epoch, or 0 if the token is not valid
+     */
+    long expiresAt(String token) {
+        ByteBuffer bytes = decode(token);
+        return bytes == null ? 0 : bytes.getLong(ID_SIZE);
+    }
+
+    /**
+     * Revoke a token, so that it can no longer be used.
+     *
+     * @param token the token to revoke
+     */
+    void revoke(String token) {
+        ByteBuffer bytes = decode(token);
+        if (bytes == null) {
+            return;
+        }
+        revoked.put(bytes.getLong(ID_SIZE + Long.BYTES), bytes.getLong(ID_SIZE));
+        sweepIfDue(System.currentTimeMillis());
+    }
+
+    /**
+     * Forget the used up and revoked tokens that have expired.
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        revoked.values().removeIf(expiresAt -> expiresAt < now);
+    }
+
+    /**
+     * Sweep the expired tokens if the last sweep is long enough ago. Of the threads finding it due, only
+     * one sweeps.
+     *
+     * @param now the current time in milliseconds since the epoch
+     */
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now >= due && nextSweep.compareAndSet(due, now + SWEEP_INTERVAL)) {
+            sweep();
+        }
+    }
+
+    /**
+     * Number of revoked tokens that have not expired yet.
+     *
+     * @return the size of the revocation set
+     */
+    int revokedCount() {
+        return revoked.size();
+    }
+
+    /**
+     * Decode a token and check its signature.
+     *
+     * @param token the token
+     * @return the payload of the token, or null if it is malformed or not signed by this server
+     */
+    private ByteBuffer decode(String token) {
+        if (token == null) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length != PAYLOAD_SIZE + MAC_SIZE) {
+            return null;
+        }
+        byte[] expected = sign(bytes);
+        byte[] presented = new byte[MAC_SIZE];
+        System.arraycopy(bytes, PAYLOAD_SIZE, presented, 0, MAC_SIZE);
+        return MessageDigest.isEqual(expected, presented) ? ByteBuffer.wrap(bytes, 0, PAYLOAD_SIZE) : null;
+    }
+
+    private byte[] sign(byte[] token) {
+        Mac hmac = mac.get();
+        hmac.update(token, 0, PAYLOAD_SIZE);
+        return hmac.doFinal();
+    }
+
+    /**
+     * Creates the shared tokens the first time they are asked for.
+     */
+    private static class Holder {
+        private static final ResumeTokens INSTANCE = new ResumeTokens(secret(),
+                TimeUnit.MINUTES.toMillis(Long.getLong("prattle.resume.ttl.minutes", 12 * 60L)));
+
+        private static byte[] secret() {
+            String configured = System.getProperty("prattle.resume.secret");
+            if (configured != null) {
+                return Base64.getDecoder().decode(configured);
+            }
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            return secret;
+        }
+    }
+}
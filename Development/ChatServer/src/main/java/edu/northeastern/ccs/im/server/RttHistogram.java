@@ -0,0 +1,99 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip times of the pings sent to one client. Times are counted in buckets that double in width,
+ * from under a microsecond to over half an hour, so the histogram takes a fixed, small amount of memory
+ * however many times it records and still gives percentiles to within a factor of two.
+ * <p>
+ * Times are recorded by the thread running the client and read by whoever looks at the metrics, so
+ * every operation locks the histogram.
+ */
+class RttHistogram {
+
+    /**
+     * Number of buckets; bucket i counts the times of at least 2^(i-1) and under 2^i microseconds, and
+     * the last one every longer time.
+     */
+    private static final int BUCKETS = 32;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalMicros;
+    private long maxMicros;
+    private long lastMicros;
+
+    /**
+     * Record one round trip.
+     *
+     * @param nanos the round-trip time in nanoseconds
+     */
+    synchronized void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        counts[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+        count++;
+        totalMicros += micros;
+        maxMicros = Math.max(maxMicros, micros);
+        lastMicros = micros;
+    }
+
+    /**
+     * Number of round trips recorded.
+     *
+     * @return the number of round trips
+     */
+    synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Mean round-trip time.
+     *
+     * @return the mean in microseconds, or 0 if nothing has been recorded
+     */
+    synchronized long getMeanMicros() {
+        return count == 0 ? 0 : totalMicros / count;
+    }
+
+    /**
+     * Longest round-trip time.
+     *
+     * @return the longest time in microseconds
+     */
+    synchronized long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * Most recent round-trip time.
+     *
+     * @return the last time recorded in microseconds
+     */
+    synchronized long getLastMicros() {
+        return lastMicros;
+    }
+
+    /**
+     * Round-trip time under which the given share of the round trips fall, rounded up to the end of its
+     * bucket but never past the longest time recorded.
+     *
+     * @param quantile the share of round trips, between 0 and 1
+     * @return the time in microseconds, or 0 if nothing has been recorded
+     */
+    synchronized long getPercentileMicros(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && i < BUCKETS - 1) {
+                return Math.min(maxMicros, (1L << i) - 1);
+            }
+        }
+        // Only the open-ended last bucket is left.
+        return maxMicros;
+    }
+}
@@ -28,6 +28,94 @@ public class ServerConstants {
 	/** Delay between times the thread pool runs the client check. */
 	protected static final int CLIENT_CHECK_DELAY = 200;
 
+	/** Name of the server mode that runs every client on the thread pool every CLIENT_CHECK_DELAY. */
+	protected static final String POLLING_MODE = "polling";
+
+	/** Name of the server mode that only runs a client when its channel is ready. */
+	protected static final String REACTOR_MODE = "reactor";
+
+	/** Name of the server mode that runs every client on threads of its own, reading with blocking I/O. */
+	protected static final String THREAD_MODE = "thread";
+
+	/** Server mode to start in, set with -Dprattle.server.mode; polling unless another mode is asked for. */
+	protected static final String SERVER_MODE = System.getProperty("prattle.server.mode", POLLING_MODE);
+
+	/** Number of reactor threads in reactor mode; defaults to the number of cores. */
+	protected static final int REACTOR_THREADS =
+			Integer.getInteger("prattle.reactor.threads", Runtime.getRuntime().availableProcessors());
+
+	/** Longest time a reactor waits before checking its idle clients for expiry. */
+	protected static final int REACTOR_SWEEP_INTERVAL = 1000;
+
+	/** Number of slots of the wheel on which a reactor times its idle clients out, one per sweep interval. */
+	protected static final int REACTOR_WHEEL_SIZE = 512;
+
+	/** Longest a blocking write may wait for a client to read before it is dropped, in thread mode. */
+	protected static final int WRITE_TIMEOUT = Integer.getInteger("prattle.write.timeout", 30000);
+
+	/** Number of messages in a page of history when the client does not say, set with -Dprattle.history.page. */
+	protected static final int HISTORY_PAGE_SIZE = Integer.getInteger("prattle.history.page", 50);
+
+	/** Most messages in a page of history, set with -Dprattle.history.page.max. */
+	protected static final int HISTORY_MAX_PAGE_SIZE = Integer.getInteger("prattle.history.page.max", 500);
+
+	/** Most queued messages sent for one GET_QUEUE, set with -Dprattle.queue.page. */
+	protected static final int QUEUE_PAGE_SIZE = Integer.getInteger("prattle.queue.page", 500);
+
+	/** Most messages a client may have handled in one run, set with -Dprattle.inbound.budget. */
+	protected static final int INBOUND_BUDGET = Integer.getInteger("prattle.inbound.budget", 64);
+
+	/** Most messages that may wait to be sent to one client, set with -Dprattle.outbound.capacity. */
+	protected static final int OUTBOUND_CAPACITY = Integer.getInteger("prattle.outbound.capacity", 1024);
+
+	/** What to do with a message for a client whose queue is full, set with -Dprattle.outbound.overflow. */
+	protected static final OutboundQueue.OverflowPolicy OUTBOUND_OVERFLOW =
+			OutboundQueue.OverflowPolicy.parse(System.getProperty("prattle.outbound.overflow", "DROP_OLDEST"));
+
+	/** Number of threads hashing passwords, set with -Dprattle.auth.threads; defaults to half the cores. */
+	protected static final int AUTH_THREADS =
+			Integer.getInteger("prattle.auth.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+	/** Most logins and registrations that may wait for a hashing thread, set with -Dprattle.auth.queue. */
+	protected static final int AUTH_QUEUE_CAPACITY = Integer.getInteger("prattle.auth.queue", 256);
+
+	/** Milliseconds between two pings to a logged in client, set with -Dprattle.heartbeat.interval; 0 sends none. */
+	protected static final int HEARTBEAT_INTERVAL = Integer.getInteger("prattle.heartbeat.interval", 30000);
+
+	/** Pings in a row a client may leave unanswered before it is dropped, set with -Dprattle.heartbeat.missed. */
+	protected static final int HEARTBEAT_MISSED = Integer.getInteger("prattle.heartbeat.missed", 3);
+
+	/** Number of threads running database work, set with -Dprattle.database.threads. */
+	protected static final int DATABASE_THREADS = Integer.getInteger("prattle.database.threads", 32);
+
+	/** Most database requests that may wait for a thread, set with -Dprattle.database.queue. */
+	protected static final int DATABASE_QUEUE_CAPACITY = Integer.getInteger("prattle.database.queue", 1024);
+
+	/** Milliseconds between two logs of the stage metrics, set with -Dprattle.stage.report.interval; 0 logs none. */
+	protected static final int STAGE_REPORT_INTERVAL = Integer.getInteger("prattle.stage.report.interval", 60000);
+
+	/** Most connections the server takes on, set with -Dprattle.max.connections. */
+	protected static final int MAX_CONNECTIONS = Integer.getInteger("prattle.max.connections", 50000);
+
+	/** Most connections from one address, set with -Dprattle.max.connections.per.address. */
+	protected static final int MAX_CONNECTIONS_PER_ADDRESS =
+			Integer.getInteger("prattle.max.connections.per.address", 64);
+
+	/** Most connections that have not logged in yet, set with -Dprattle.max.prelogin. */
+	protected static final int MAX_PRE_LOGIN = Integer.getInteger("prattle.max.prelogin", 2048);
+
+	/** Milliseconds a connection has to log in before it is dropped, set with -Dprattle.prelogin.timeout. */
+	protected static final int PRE_LOGIN_TIMEOUT = Integer.getInteger("prattle.prelogin.timeout", 30000);
+
+	/** Most messages stored with one write, set with -Dprattle.persist.batch. */
+	protected static final int PERSIST_BATCH_SIZE = Integer.getInteger("prattle.persist.batch", 256);
+
+	/** Milliseconds a message may wait for its batch to fill before it is stored, set with -Dprattle.persist.delay. */
+	protected static final int PERSIST_MAX_DELAY = Integer.getInteger("prattle.persist.delay", 5);
+
+	/** Most messages that may wait to be stored, set with -Dprattle.persist.queue. */
+	protected static final int PERSIST_QUEUE_CAPACITY = Integer.getInteger("prattle.persist.queue", 16384);
+
 	/** Name of the private user who broadcasts interesting responses. */
 	protected static final String SERVER_NAME = "Prattle";
 
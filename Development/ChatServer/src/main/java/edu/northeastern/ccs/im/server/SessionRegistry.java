@@ -0,0 +1,124 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.models.User;
+import org.bson.types.ObjectId;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The sessions of the logged in users, indexed by user id and by username. A user may be logged in
+ * from several clients at once, so each key maps to the set of its sessions.
+ * <p>
+ * Registering and unregistering a session and finding the sessions of a user take constant time, so
+ * routing a message costs time proportional to its recipients rather than to the number of clients
+ * online. Each key is updated atomically, and a key is dropped as soon as its last session leaves.
+ */
+class SessionRegistry {
+
+    /**
+     * Sessions by the id of their user; users without an id are only indexed by username.
+     */
+    private final Map<ObjectId, Set<ClientRunnable>> byUserId;
+
+    /**
+     * Sessions by the username of their user.
+     */
+    private final Map<String, Set<ClientRunnable>> byUsername;
+
+    /**
+     * The user each session was registered for, so that it can be unregistered under the same keys
+     * even if the client changed since.
+     */
+    private final Map<ClientRunnable, User> users;
+
+    SessionRegistry() {
+        this.byUserId = new ConcurrentHashMap<>();
+        this.byUsername = new ConcurrentHashMap<>();
+        this.users = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Register a session of the given user, replacing any earlier registration of the same client.
+     *
+     * @param client the client the user is logged in on
+     * @param user   the logged in user
+     */
+    void register(ClientRunnable client, User user) {
+        User previous = users.put(client, user);
+        if (previous != null) {
+            removeKeys(client, previous);
+        }
+        if (user.getId() != null) {
+            add(byUserId, user.getId(), client);
+        }
+        add(byUsername, user.getUsername(), client);
+    }
+
+    /**
+     * Unregister the session of the given client, if it has one.
+     *
+     * @param client the client that is logged out or gone
+     */
+    void unregister(ClientRunnable client) {
+        User user = users.remove(client);
+        if (user != null) {
+            removeKeys(client, user);
+        }
+    }
+
+    /**
+     * Get the sessions of the given user; by id when the user has one, otherwise by username.
+     *
+     * @param user the user to look for
+     * @return a live view of the sessions of the user, empty if the user is not logged in
+     */
+    Set<ClientRunnable> sessionsOf(User user) {
+        Set<ClientRunnable> sessions = user.getId() != null
+                ? byUserId.get(user.getId())
+                : byUsername.get(user.getUsername());
+        return sessions == null ? Collections.emptySet() : sessions;
+    }
+
+    /**
+     * Number of registered sessions.
+     *
+     * @return the number of sessions
+     */
+    int size() {
+        return users.size();
+    }
+
+    /**
+     * Drop every session.
+     */
+    void clear() {
+        users.clear();
+        byUserId.clear();
+        byUsername.clear();
+    }
+
+    private void removeKeys(ClientRunnable client, User user) {
+        if (user.getId() != null) {
+            remove(byUserId, user.getId(), client);
+        }
+        remove(byUsername, user.getUsername(), client);
+    }
+
+    private static <K> void add(Map<K, Set<ClientRunnable>> index, K key, ClientRunnable client) {
+        index.compute(key, (k, sessions) -> {
+            Set<ClientRunnable> result = sessions == null ? ConcurrentHashMap.newKeySet() : sessions;
+            result.add(client);
+            return result;
+        });
+    }
+
+    private static <K> void remove(Map<K, Set<ClientRunnable>> index, K key, ClientRunnable client) {
+        index.computeIfPresent(key, (k, sessions) -> {
+            sessions.remove(client);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
@@ -0,0 +1,199 @@
+package edu.northeastern.ccs.im.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the server: a pool of threads given one kind of work, with a fixed number of threads and
+ * a bounded queue. The server runs in three stages:
+ * <ul>
+ * <li>{@code io} runs the clients: it reads, decodes and writes, and handles what needs no database;</li>
+ * <li>{@code auth} hashes and checks passwords, which takes tens of milliseconds on purpose;</li>
+ * <li>{@code database} runs the handlers that query or update the database.</li>
+ * </ul>
+ * Keeping slow work in stages of its own means that a burst of logins or a slow query only holds up
+ * the clients waiting for it, while the others keep chatting. Work that finds the queue full is turned
+ * away straight away; the caller decides whether to give up or do it itself. Each stage counts the work
+ * it ran, turned away and how long it took, and the server logs these counts with {@link #report()}.
+ */
+class Stage implements Executor {
+    private static final Logger LOG = LogManager.getLogger(Stage.class);
+
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong completed;
+    private final AtomicLong rejected;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+
+    /**
+     * Create a stage.
+     *
+     * @param name          name of the stage, used for its threads
+     * @param threads       number of threads working at once
+     * @param queueCapacity most requests that may wait for a thread
+     */
+    Stage(String name, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        this.name = name;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "prattle-" + name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.completed = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.totalNanos = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+    }
+
+    /**
+     * The stage hashing passwords for all clients, sized by {@link ServerConstants#AUTH_THREADS} and
+     * {@link ServerConstants#AUTH_QUEUE_CAPACITY}.
+     *
+     * @return the shared auth stage
+     */
+    static Stage auth() {
+        return AuthHolder.INSTANCE;
+    }
+
+    /**
+     * The stage running the database work of all clients, sized by
+     * {@link ServerConstants#DATABASE_THREADS} and {@link ServerConstants#DATABASE_QUEUE_CAPACITY}.
+     *
+     * @return the shared database stage
+     */
+    static Stage database() {
+        return DatabaseHolder.INSTANCE;
+    }
+
+    /**
+     * Name of the stage.
+     *
+     * @return the name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Run the given work on the pool, timing it.
+     *
+     * @param task the work to run
+     * @throws RejectedExecutionException if the queue is full
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            pool.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Caught exception in the " + name + " stage: " + e.toString());
+                } finally {
+                    record(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of requests waiting for a thread.
+     *
+     * @return the length of the queue
+     */
+    int getQueueLength() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Number of requests that have been run.
+     *
+     * @return the number of completed requests
+     */
+    long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Number of requests turned away because the queue was full.
+     *
+     * @return the number of rejected requests
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Mean time a request took once it got a thread.
+     *
+     * @return the mean service time in nanoseconds, or 0 if nothing was run yet
+     */
+    long getAverageNanos() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalNanos.get() / count;
+    }
+
+    /**
+     * Longest time a request took once it got a thread.
+     *
+     * @return the longest service time in nanoseconds
+     */
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * One line with the metrics of the stage, as the server logs it.
+     *
+     * @return the queue length, completed and rejected counts, and mean and longest service times
+     */
+    String report() {
+        return String.format(Locale.ROOT, "Stage %s: %d queued, %d completed, %d rejected, %.1f ms mean, %.1f ms max",
+                name, getQueueLength(), getCompleted(), getRejected(),
+                getAverageNanos() / 1e6, getMaxNanos() / 1e6);
+    }
+
+    /**
+     * Stop taking requests; those already queued are still run.
+     */
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    private void record(long nanos) {
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        completed.incrementAndGet();
+    }
+
+    /**
+     * Creates the shared auth stage the first time it is asked for.
+     */
+    private static class AuthHolder {
+        private static final Stage INSTANCE =
+                new Stage("auth", ServerConstants.AUTH_THREADS, ServerConstants.AUTH_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates the shared database stage the first time it is asked for.
+     */
+    private static class DatabaseHolder {
+        private static final Stage INSTANCE =
+                new Stage("database", ServerConstants.DATABASE_THREADS, ServerConstants.DATABASE_QUEUE_CAPACITY);
+    }
+}
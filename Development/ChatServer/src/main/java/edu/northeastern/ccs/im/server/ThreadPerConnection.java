@@ -0,0 +1,246 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.NetworkConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread-per-connection server mode. Every client gets two threads of its own: one blocks reading
+ * its channel, the other runs the client whenever something was read, a message was enqueued for it,
+ * or its next deadline is reached, and otherwise sleeps. There is no selector and no polling, and the
+ * blocking calls the client makes into the database only hold up its own thread.
+ * <p>
+ * The threads are virtual threads when the runtime has them (Java 21 and later), so that idle
+ * connections cost little more than their buffers; on older runtimes they are platform threads, and
+ * this mode is only worth using for a modest number of connections.
+ * <p>
+ * Writes block until the client has read enough of what is sent. A client that stops reading would
+ * hold its writer up for good, so a watchdog closes connections whose write has waited longer than
+ * {@link ServerConstants#WRITE_TIMEOUT}.
+ */
+final class ThreadPerConnection {
+    private static final Logger LOG = LogManager.getLogger(ThreadPerConnection.class);
+
+    /**
+     * Makes the threads of the clients.
+     */
+    private final ThreadFactory threads;
+
+    /**
+     * Whether the threads of the clients are virtual threads.
+     */
+    private final boolean virtual;
+
+    /**
+     * Longest a write may block, in milliseconds.
+     */
+    private final long writeTimeout;
+
+    /**
+     * The clients being run.
+     */
+    private final Set<ClientThreads> clients;
+
+    /**
+     * Looks for writes that have blocked for too long.
+     */
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * Whether the clients should keep being run.
+     */
+    private volatile boolean running;
+
+    /**
+     * Run the clients on virtual threads if the runtime has them, and on platform threads otherwise.
+     */
+    ThreadPerConnection() {
+        this(virtualThreadFactory("prattle-client-"), ServerConstants.WRITE_TIMEOUT);
+    }
+
+    /**
+     * Run the clients on threads made by the given factory.
+     *
+     * @param threads      makes the threads of the clients; null for daemon platform threads
+     * @param writeTimeout longest a write may block before the connection is closed, in milliseconds
+     */
+    ThreadPerConnection(ThreadFactory threads, long writeTimeout) {
+        this.virtual = threads != null;
+        this.threads = threads != null ? threads : platformThreadFactory("prattle-client-");
+        this.writeTimeout = writeTimeout;
+        this.clients = ConcurrentHashMap.newKeySet();
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(platformThreadFactory("prattle-watchdog-"));
+        this.running = true;
+    }
+
+    /**
+     * Start looking for writes that have blocked for too long, once per sweep interval.
+     */
+    void start() {
+        watchdog.scheduleWithFixedDelay(this::closeStalled, ServerConstants.REACTOR_SWEEP_INTERVAL,
+                ServerConstants.REACTOR_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start the threads of a newly accepted client.
+     *
+     * @param connection the blocking connection of the client
+     * @param client     the client to run
+     */
+    void register(NetworkConnection connection, ClientRunnable client) {
+        ClientThreads handle = new ClientThreads(connection, client);
+        clients.add(handle);
+        client.setWakeup(handle::signal);
+        threads.newThread(handle::read).start();
+        threads.newThread(handle::run).start();
+    }
+
+    /**
+     * Stop running the clients and close their connections, which also ends the threads reading them.
+     */
+    void shutdown() {
+        running = false;
+        watchdog.shutdownNow();
+        for (ClientThreads handle : clients) {
+            handle.connection.close();
+            handle.signal();
+        }
+    }
+
+    /**
+     * Number of clients being run.
+     *
+     * @return the number of clients
+     */
+    int size() {
+        return clients.size();
+    }
+
+    /**
+     * Whether the clients are run on virtual threads.
+     *
+     * @return true if the threads are virtual
+     */
+    boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Close the connections whose write has blocked for longer than the write timeout. The write then
+     * fails and the client is terminated by its own thread.
+     */
+    void closeStalled() {
+        long now = System.currentTimeMillis();
+        for (ClientThreads handle : clients) {
+            long start = handle.connection.getWriteStart();
+            if (start != 0 && now - start > writeTimeout) {
+                LOG.warn("WARNING: Write blocked for " + (now - start) + " ms -- dropping this user.");
+                handle.connection.close();
+            }
+        }
+    }
+
+    /**
+     * Make a factory of virtual threads, looked up by reflection since the code is built for Java 8.
+     *
+     * @param prefix start of the name of every thread, followed by its number
+     * @return the factory, or null if the runtime has no virtual threads
+     */
+    static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Make a factory of numbered daemon platform threads.
+     *
+     * @param prefix start of the name of every thread, followed by its number
+     * @return the factory
+     */
+    private static ThreadFactory platformThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The two threads of one client.
+     */
+    private final class ClientThreads {
+        private final NetworkConnection connection;
+        private final ClientRunnable client;
+
+        /**
+         * Permits handed out to wake the client up; one is enough, any more only cost an extra run.
+         */
+        private final Semaphore signals = new Semaphore(0);
+
+        private ClientThreads(NetworkConnection connection, ClientRunnable client) {
+            this.connection = connection;
+            this.client = client;
+        }
+
+        /**
+         * Ask for the client to be run.
+         */
+        void signal() {
+            if (signals.availablePermits() == 0) {
+                signals.release();
+            }
+        }
+
+        /**
+         * Read the channel until the client goes away, waking the client up after every read.
+         */
+        void read() {
+            while (running && connection.receive()) {
+                signal();
+            }
+            // The client is run once more to see that the stream ended.
+            signal();
+        }
+
+        /**
+         * Run the client until its connection is closed, sleeping in between until it is woken up or
+         * its next deadline comes.
+         */
+        void run() {
+            try {
+                while (running && connection.isOpen()) {
+                    client.run();
+                    if (!client.hasPendingInbound()) {
+                        long wait = client.getNextDeadline() - System.currentTimeMillis();
+                        if (wait > 0 && signals.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                            signals.drainPermits();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOG.error("Client stopped: " + e.toString());
+                client.terminateClient();
+            } finally {
+                clients.remove(this);
+            }
+        }
+    }
+}
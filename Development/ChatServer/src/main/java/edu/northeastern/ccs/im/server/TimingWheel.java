@@ -0,0 +1,245 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * A hashed timing wheel of deadlines. Time is cut into ticks, and each item is filed in the slot of the
+ * tick its deadline falls in; a slot holds the items of every tick that maps to it, so deadlines further
+ * away than one turn of the wheel simply wait for a later turn. Filing and cancelling an item take
+ * constant time, and advancing the wheel only looks at the slots of the ticks that have gone by.
+ * <p>
+ * Deadlines are not handed to the wheel but read from the items when their slot comes up, so moving a
+ * deadline later is free: the item is found early, seen to be still in time, and filed again under its
+ * new deadline. A deadline moved earlier is only noticed at the time the item was filed for, unless the
+ * item is {@link #reschedule(Timeout) rescheduled}.
+ * <p>
+ * The wheel is not thread-safe; it is meant to be driven by a single thread, such as an event loop.
+ *
+ * @param <T> the kind of item with a deadline
+ */
+final class TimingWheel<T> {
+
+    /**
+     * Length of a tick in milliseconds.
+     */
+    private final long tickMillis;
+
+    /**
+     * Slots of the wheel, each the head of a doubly linked list of timeouts; the length is a power of two.
+     */
+    private final Timeout<T>[] slots;
+
+    /**
+     * Reads the deadline of an item, in milliseconds since the epoch.
+     */
+    private final ToLongFunction<T> deadlineOf;
+
+    /**
+     * Last tick whose slot has been looked at.
+     */
+    private long currentTick;
+
+    /**
+     * Number of items on the wheel.
+     */
+    private int size;
+
+    /**
+     * Create an empty wheel.
+     *
+     * @param tickMillis length of a tick in milliseconds
+     * @param wheelSize  number of slots, rounded up to a power of two
+     * @param deadlineOf reads the deadline of an item, in milliseconds since the epoch
+     * @param now        the current time in milliseconds
+     */
+    TimingWheel(long tickMillis, int wheelSize, ToLongFunction<T> deadlineOf, long now) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        this.tickMillis = tickMillis;
+        int length = 1;
+        while (length < wheelSize) {
+            length <<= 1;
+        }
+        this.slots = newSlots(length);
+        this.deadlineOf = deadlineOf;
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Put an item on the wheel under its current deadline.
+     *
+     * @param item the item to time out
+     * @return the handle with which the item is taken off the wheel again
+     */
+    Timeout<T> schedule(T item) {
+        Timeout<T> timeout = new Timeout<>(item);
+        file(timeout, deadlineOf.applyAsLong(item));
+        size++;
+        return timeout;
+    }
+
+    /**
+     * File an item again under its current deadline, which may have moved earlier.
+     *
+     * @param timeout the handle of the item
+     */
+    void reschedule(Timeout<T> timeout) {
+        if (timeout.slot >= 0) {
+            unlink(timeout);
+            file(timeout, deadlineOf.applyAsLong(timeout.item));
+        }
+    }
+
+    /**
+     * Take an item off the wheel. Cancelling an item twice does nothing.
+     *
+     * @param timeout the handle of the item
+     */
+    void cancel(Timeout<T> timeout) {
+        if (timeout.slot >= 0) {
+            unlink(timeout);
+            timeout.slot = -1;
+            size--;
+        }
+    }
+
+    /**
+     * Advance the wheel to the given time and collect the items whose deadline has passed. An expired
+     * item stays on the wheel and, until it is cancelled or its deadline moves, is handed out again on
+     * every later tick, so the caller may leave an item it cannot deal with yet for the next time.
+     *
+     * @param now the current time in milliseconds
+     * @return the expired items, in no particular order
+     */
+    List<T> expire(long now) {
+        long nowTick = now / tickMillis;
+        if (nowTick <= currentTick) {
+            return Collections.emptyList();
+        }
+        List<T> expired = new ArrayList<>();
+        // Going round more than once would only look at the same slots again.
+        long from = Math.max(currentTick + 1, nowTick - slots.length + 1);
+        currentTick = nowTick;
+        for (long tick = from; tick <= nowTick; tick++) {
+            Timeout<T> timeout = slots[index(tick)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.tick <= nowTick) {
+                    long deadline = deadlineOf.applyAsLong(timeout.item);
+                    unlink(timeout);
+                    if (deadline <= now) {
+                        expired.add(timeout.item);
+                        file(timeout, now + tickMillis);
+                    } else {
+                        file(timeout, deadline);
+                    }
+                }
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Number of items on the wheel.
+     *
+     * @return the number of items
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Link a timeout into the slot of the tick its deadline falls in. A deadline that has already passed
+     * goes to the next tick, which is the first one still to be looked at.
+     */
+    private void file(Timeout<T> timeout, long deadline) {
+        long tick = Math.max(deadline / tickMillis, currentTick + 1);
+        int index = index(tick);
+        timeout.tick = tick;
+        timeout.slot = index;
+        timeout.prev = null;
+        timeout.next = slots[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[index] = timeout;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    private int index(long tick) {
+        return (int) (tick & (slots.length - 1));
+    }
+
+    /**
+     * Make the empty slots of a wheel. An array of a generic type can only be made unchecked; it never
+     * holds anything but the timeouts of this wheel.
+     *
+     * @param length number of slots
+     * @param <T>    the kind of item timed out
+     * @return the slots
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Timeout<T>[] newSlots(int length) {
+        return (Timeout<T>[]) new Timeout<?>[length];
+    }
+
+    /**
+     * An item on the wheel.
+     *
+     * @param <T> the kind of item
+     */
+    static final class Timeout<T> {
+        private final T item;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        /**
+         * Tick the item is filed for.
+         */
+        private long tick;
+
+        /**
+         * Slot the item is linked into, or -1 once it has been cancelled.
+         */
+        private int slot = -1;
+
+        private Timeout(T item) {
+            this.item = item;
+        }
+
+        /**
+         * Get the item this handle is for.
+         *
+         * @return the item
+         */
+        T getItem() {
+            return item;
+        }
+
+        /**
+         * Whether the item has been taken off the wheel.
+         *
+         * @return true once the item has been cancelled
+         */
+        boolean isCancelled() {
+            return slot < 0;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that refills at a steady rate up to a burst. Rather than counting tokens and topping
+ * them up, the bucket keeps the time at which it would be full again (the generic cell rate algorithm):
+ * taking a token pushes that time one interval further, and is refused if it would push it further than
+ * a burst ahead of now. The whole state is that one time, so taking a token is a single compare-and-set
+ * and never blocks, and refilling costs nothing.
+ */
+final class TokenBucket {
+
+    /**
+     * Time it takes to refill one token, in nanoseconds.
+     */
+    private final long intervalNanos;
+
+    /**
+     * How far ahead of now the full time may be pushed, in nanoseconds.
+     */
+    private final long toleranceNanos;
+
+    /**
+     * Time, from {@link System#nanoTime()}, at which the bucket is full again.
+     */
+    private final AtomicLong fullAt;
+
+    /**
+     * Create a full bucket.
+     *
+     * @param perSecond tokens refilled per second; must be positive
+     * @param burst     most tokens the bucket holds, at least one
+     * @param nanos     the current time from {@link System#nanoTime()}
+     */
+    TokenBucket(double perSecond, int burst, long nanos) {
+        if (perSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.fullAt = new AtomicLong(nanos);
+    }
+
+    /**
+     * Take a token if there is one.
+     *
+     * @param nanos the current time from {@link System#nanoTime()}
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    boolean tryAcquire(long nanos) {
+        while (true) {
+            long current = fullAt.get();
+            // A bucket that has been full for a while is simply full now.
+            long start = current - nanos > 0 ? current : nanos;
+            if (start - nanos > toleranceNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Whether the bucket has refilled up to its burst, and so is no different from a new one.
+     *
+     * @param nanos the current time from {@link System#nanoTime()}
+     * @return true if the bucket is full
+     */
+    boolean isFull(long nanos) {
+        return fullAt.get() - nanos <= 0;
+    }
+}
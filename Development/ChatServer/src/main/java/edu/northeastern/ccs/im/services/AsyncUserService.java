@@ -0,0 +1,86 @@
+package edu.northeastern.ccs.im.services;
+
+import edu.northeastern.ccs.im.dao.AsyncDao;
+import edu.northeastern.ccs.im.dao.ExecutorAsyncDao;
+import edu.northeastern.ccs.im.dao.UserDao;
+import edu.northeastern.ccs.im.models.User;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static edu.northeastern.ccs.im.dao.Constants.USER_USER_NAME_KEY;
+
+/**
+ * Service for performing database operations on users without waiting for them, the asynchronous counterpart of
+ * {@link UserService}. Every call returns at once with a future of what UserService would return.
+ */
+public class AsyncUserService {
+    /**
+     * Associated asynchronous User DAO for performing database operations
+     */
+    AsyncDao<User> userDao;
+
+    /**
+     * Creates a new asynchronous User DAO on the service
+     *
+     * @param executor where the calls to the database are run
+     */
+    public AsyncUserService(Executor executor) {
+        userDao = new ExecutorAsyncDao<>(new UserDao(), executor);
+    }
+
+    /**
+     * Sets associated DAO
+     *
+     * @param userDao asynchronous User DAO for performing database operations
+     */
+    public void setUserDao(AsyncDao<User> userDao) {
+        this.userDao = userDao;
+    }
+
+    /**
+     * Gets users on the database based on a map of (<Search criteria key>, <value
+     * to search by>)
+     *
+     * @param searchMap Search criteria as a key, value pair
+     * @return future of all users matching the criteria given by searchMap
+     */
+    public CompletableFuture<List<User>> getUsersByMap(Map<String, Object> searchMap) {
+        return userDao.get(searchMap);
+    }
+
+    /**
+     * Updates User with the same ID as updatedUser.
+     *
+     * @param updatedUser Updated User
+     * @return future of the success status of user update by user DAO
+     */
+    public CompletableFuture<Boolean> updateUser(User updatedUser) {
+        return userDao.set(updatedUser);
+    }
+
+    /**
+     * Deletes User from database
+     *
+     * @param user User to be deleted
+     * @return future of the success status of user deletion by user DAO
+     */
+    public CompletableFuture<Boolean> deleteUser(User user) {
+        return userDao.delete(user);
+    }
+
+    /**
+     * Retrieve a user by its name.
+     *
+     * @param userName the given input for user name
+     * @return future of the user that has the given name, or of null if there is none
+     */
+    public CompletableFuture<User> getUserByName(String userName) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(USER_USER_NAME_KEY, userName);
+        return getUsersByMap(map).thenApply(userList -> userList.isEmpty() ? null : userList.get(0));
+    }
+}
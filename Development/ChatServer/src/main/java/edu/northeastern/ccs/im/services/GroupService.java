@@ -4,6 +4,7 @@ import edu.northeastern.ccs.im.dao.Dao;
 import edu.northeastern.ccs.im.dao.GroupDao;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.User;
+import org.bson.types.ObjectId;
 
 import java.util.HashMap;
 import java.util.List;
@@ -22,11 +23,17 @@ public class GroupService {
      */
     Dao<Group> groupDao;
 
+    /**
+     * Group DAO finding the groups of a user by their ids alone, without loading the groups
+     */
+    GroupDao groupIdsDao;
+
     /**
      * Creates a new Group DAO on the service
      */
     public GroupService() {
         groupDao = new GroupDao();
+        groupIdsDao = new GroupDao();
     }
 
     /**
@@ -38,6 +45,15 @@ public class GroupService {
         this.groupDao = groupDao;
     }
 
+    /**
+     * Sets the DAO finding the ids of the groups of a user
+     *
+     * @param groupIdsDao Group DAO for looking up group ids
+     */
+    public void setGroupIdsDao(GroupDao groupIdsDao) {
+        this.groupIdsDao = groupIdsDao;
+    }
+
     /**
      * Creates Group on the database
      *
@@ -135,4 +151,14 @@ public class GroupService {
         }
         return groups.get(0);
     }
+
+    /**
+     * Gets the ids of the groups a user is a member or an administrator of
+     *
+     * @param user the user
+     * @return ids of the user's groups
+     */
+    public List<ObjectId> getGroupIds(User user) {
+        return groupIdsDao.getGroupIds(user.getId());
+    }
 }
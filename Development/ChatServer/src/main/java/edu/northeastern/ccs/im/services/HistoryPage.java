@@ -0,0 +1,74 @@
+package edu.northeastern.ccs.im.services;
+
+import edu.northeastern.ccs.im.models.Message;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One page of a user's message history, newest first, along with the cursor with which the next page is asked for.
+ * <p>
+ * The cursor is opaque to clients. It holds the time sent and the id of the last message of the page, so the next
+ * page starts right after it whatever was sent or deleted in between.
+ */
+public final class HistoryPage {
+    private final List<Message> messages;
+    private final String nextCursor;
+
+    /**
+     * Makes a page of history
+     * @param messages the messages of the page, newest first
+     * @param nextCursor the cursor of the next page, or null if this is the last page
+     */
+    public HistoryPage(List<Message> messages, String nextCursor) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the messages of this page, newest first
+     * @return the messages
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the cursor of the next page
+     * @return the cursor, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Makes the cursor of the page that starts after the given message
+     * @param last the last message of a page
+     * @return the cursor
+     */
+    static String encodeCursor(Message last) {
+        String position = last.getTimestampSent().getTime() + ":" + last.getId().toHexString();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a cursor back into the position it stands for
+     * @param cursor a cursor made by {@link #encodeCursor(Message)}
+     * @return a message holding only the time sent and the id of the last message of the previous page
+     * @throws IllegalArgumentException if the cursor was not made by {@link #encodeCursor(Message)}
+     */
+    static Message decodeCursor(String cursor) {
+        String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int colon = position.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Not a history cursor: " + cursor);
+        }
+        Message last = new Message(new Date(Long.parseLong(position.substring(0, colon))), null, null, null, false);
+        last.setId(new ObjectId(position.substring(colon + 1)));
+        return last;
+    }
+}
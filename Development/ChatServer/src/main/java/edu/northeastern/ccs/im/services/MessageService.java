@@ -1,14 +1,19 @@
 package edu.northeastern.ccs.im.services;
 
-import edu.northeastern.ccs.im.dao.Dao;
 import edu.northeastern.ccs.im.dao.MessageDao;
+import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Message;
 import edu.northeastern.ccs.im.models.User;
+import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static edu.northeastern.ccs.im.dao.Constants.MESSAGE_DELETED_KEY;
 
@@ -19,7 +24,7 @@ public class MessageService {
     /**
      * DAO associated with this service
      */
-    Dao<Message> messageDao;
+    MessageDao messageDao;
 
     /**
      * Sets new DAO for this service
@@ -30,7 +35,7 @@ public class MessageService {
     /**
      * Sets DAO for this service
      */
-    public void setMessageDao(Dao<Message> messageDao) {
+    public void setMessageDao(MessageDao messageDao) {
         this.messageDao = messageDao;
     }
 
@@ -47,6 +52,64 @@ public class MessageService {
         return messageDao.create(msg);
     }
 
+    /**
+     * Stores a message sent to a group once, for all of its members. Every member and administrator but the sender
+     * is pending until he or she acknowledges getting it.
+     * @param timestampSent The time that the message is sent out from server
+     * @param sender User who sent this message
+     * @param group Group to receive this message
+     * @param messageBody Text of message
+     * @return The stored message, or null if it could not be stored
+     */
+    public Message createGroupMessage(Date timestampSent, User sender, Group group, String messageBody) {
+        Message msg = makeGroupMessage(timestampSent, sender, group, messageBody);
+        return messageDao.create(msg) ? msg : null;
+    }
+
+    /**
+     * Makes the message sent to a group without storing it, with every member and administrator but the sender
+     * pending, as {@link #createGroupMessage(Date, User, Group, String)} stores it.
+     * @param timestampSent The time that the message is sent out from server
+     * @param sender User who sent this message
+     * @param group Group to receive this message
+     * @param messageBody Text of message
+     * @return The message to store
+     */
+    public Message makeGroupMessage(Date timestampSent, User sender, Group group, String messageBody) {
+        Message msg = new Message(timestampSent, sender, null, messageBody, false);
+        msg.setGroup(group);
+        Set<ObjectId> pendingIds = new LinkedHashSet<>();
+        addIds(pendingIds, group.getUsers());
+        addIds(pendingIds, group.getAdministrators());
+        pendingIds.remove(sender.getId());
+        msg.setPendingIds(new ArrayList<>(pendingIds));
+        return msg;
+    }
+
+    private static void addIds(Set<ObjectId> ids, List<User> users) {
+        if (users != null) {
+            users.forEach(user -> ids.add(user.getId()));
+        }
+    }
+
+    /**
+     * Stores the given message, keeping the id it was made with
+     * @param msg The message to store
+     * @return True if message was created on database. False otherwise.
+     */
+    public boolean createMessage(Message msg) {
+        return messageDao.create(msg);
+    }
+
+    /**
+     * Stores the given messages together, keeping the ids they were made with
+     * @param messages The messages to store
+     * @return The messages that could not be stored, empty if all were
+     */
+    public List<Message> createMessages(List<Message> messages) {
+        return messageDao.createAll(messages);
+    }
+
     /**
      * Gets all (visible, not deleted) messages
      * @return All messages in database
@@ -68,6 +131,55 @@ public class MessageService {
         return messageDao.get(searchMap);
     }
 
+    /**
+     * Gets one page of the (visible, not deleted) messages received by a user, newest first, the messages sent to the
+     * user and to its groups together. Only the messages of the page are read from the database, however long the
+     * history is.
+     * @param receiver User whose history to get
+     * @param groupIds Ids of the groups of the user
+     * @param since The earliest time sent to include, or null for no limit
+     * @param until The latest time sent to include, or null for no limit
+     * @param cursor The cursor handed out with the previous page, or null for the first page
+     * @param pageSize The most messages on the page
+     * @return The page, with the cursor of the next one if there are more messages
+     * @throws IllegalArgumentException if the cursor was not handed out with a page
+     */
+    public HistoryPage getHistoryPage(User receiver, Collection<ObjectId> groupIds, Date since, Date until,
+                                      String cursor, int pageSize) {
+        Message after = cursor == null ? null : HistoryPage.decodeCursor(cursor);
+        // One more message than fits tells whether there is a next page.
+        List<Message> messages = messageDao.getReceivedPage(receiver.getId(), groupIds, since, until, after,
+                pageSize + 1);
+        if (messages.size() <= pageSize) {
+            return new HistoryPage(messages, null);
+        }
+        messages = messages.subList(0, pageSize);
+        return new HistoryPage(messages, HistoryPage.encodeCursor(messages.get(pageSize - 1)));
+    }
+
+    /**
+     * Gets the oldest messages a user has not acknowledged getting yet, in the order they were sent
+     * @param receiver User whose queue to get
+     * @param limit The most messages to get
+     * @return The undelivered (and not deleted) messages
+     */
+    public List<Message> getUndeliveredMessages(User receiver, int limit) {
+        return messageDao.getUndelivered(receiver.getId(), limit);
+    }
+
+    /**
+     * Records that a user got the given messages, so they are no longer queued for it
+     * @param receiver User who got the messages
+     * @param messageIds Ids of the messages; ids of messages sent to someone else are ignored
+     * @return The number of messages newly marked delivered
+     */
+    public long markDelivered(User receiver, List<ObjectId> messageIds) {
+        if (messageIds.isEmpty()) {
+            return 0;
+        }
+        return messageDao.markDelivered(receiver.getId(), messageIds);
+    }
+
     /**
      * Updates message according to its id
      * @param updatedMessage updated message with the same id as its old counterpart
@@ -4,6 +4,7 @@ import org.apache.commons.codec.binary.Base64;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
@@ -15,6 +16,26 @@ import java.security.spec.KeySpec;
 // we could have a InternalError to hide interiror error but for now there is no need
 @SuppressWarnings("squid:S00112")
 public class PasswordHelper {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int ITERATIONS = 65536;
+    private static final int KEY_LENGTH = 128;
+
+    /**
+     * Shared source of salts; SecureRandom is thread-safe and expensive to seed.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Key factory of each thread, so that it is only looked up once per thread.
+     */
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error when generate pw hash");
+        }
+    });
+
     private PasswordHelper() {
     }
 
@@ -24,9 +45,8 @@ public class PasswordHelper {
      * @return 16 bytes random salt generated by SecureRandom
      */
     public static byte[] getSalt() {
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.nextBytes(salt);
 
         return salt;
     }
@@ -53,14 +73,7 @@ public class PasswordHelper {
      * @return hash String
      */
     public static String getPasswordHashString(String pw, byte[] salt) {
-        KeySpec spec = new PBEKeySpec(pw.toCharArray(), salt, 65536, 128);
-        try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            byte[] hash = factory.generateSecret(spec).getEncoded();
-            return convertByteToString(hash);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new RuntimeException("Error when generate pw hash");
-        }
+        return convertByteToString(hash(pw, salt));
     }
 
     /**
@@ -70,14 +83,16 @@ public class PasswordHelper {
      * @return true if password is right, else false
      */
     public static boolean verifyPassword(String pw, String salt, String hash) {
-        KeySpec spec = new PBEKeySpec(pw.toCharArray(), convertStringToByte(salt), 65536, 128);
-        byte[] hashes;
+        byte[] hashes = hash(pw, convertStringToByte(salt));
+        return MessageDigest.isEqual(convertStringToByte(hash), hashes);
+    }
+
+    private static byte[] hash(String pw, byte[] salt) {
+        KeySpec spec = new PBEKeySpec(pw.toCharArray(), salt, ITERATIONS, KEY_LENGTH);
         try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hashes = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException e) {
             throw new RuntimeException("Error when generate pw hash");
         }
-        return hash.equals(convertByteToString(hashes));
     }
 }
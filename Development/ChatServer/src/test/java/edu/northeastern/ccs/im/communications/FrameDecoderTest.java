@@ -0,0 +1,139 @@
+package edu.northeastern.ccs.im.communications;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class FrameDecoderTest {
+    private List<String> frames;
+    private FrameDecoder.FrameHandler handler;
+
+    @Before
+    public void setUp() {
+        frames = new ArrayList<>();
+        handler = (data, offset, length) -> frames.add(new String(data, offset, length, StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer prefixed(String text) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Framing.PREFIX_SIZE + body.length);
+        frame.putInt(body.length).put(body).flip();
+        return frame;
+    }
+
+    /**
+     * several objects in one read are all found, with or without newlines between them
+     */
+    @Test
+    public void test_decode_pipelinedText_everyFrame() {
+        FrameDecoder decoder = new FrameDecoder(64, 1024);
+
+        assertTrue(decoder.decode(bytes("{\"a\":\"1\"}\n{\"b\":\"}\"}{\"c\":[{\"d\":\"\\\"{\"}]}\n"), handler));
+
+        assertEquals(3, frames.size());
+        assertEquals("{\"a\":\"1\"}", frames.get(0));
+        assertEquals("{\"b\":\"}\"}", frames.get(1));
+        assertEquals("{\"c\":[{\"d\":\"\\\"{\"}]}", frames.get(2));
+        assertEquals(Framing.TEXT, decoder.getFraming());
+    }
+
+    /**
+     * a frame split across reads, larger than the initial buffer, is put back together
+     */
+    @Test
+    public void test_decode_splitText_joined() {
+        FrameDecoder decoder = new FrameDecoder(4, 1024);
+        String json = "{\"text\":\"café and a \\\"quote\\\"\"}";
+        byte[] all = (json + "\n" + json).getBytes(StandardCharsets.UTF_8);
+
+        for (byte b : all) {
+            ByteBuffer into = decoder.buffer();
+            into.put(b);
+            assertTrue(decoder.decode(handler));
+        }
+
+        assertEquals(2, frames.size());
+        assertEquals(json, frames.get(0));
+        assertEquals(json, frames.get(1));
+    }
+
+    /**
+     * a text frame over the maximum breaks the decoder, even before it is complete
+     */
+    @Test
+    public void test_decode_textTooLarge_broken() {
+        FrameDecoder decoder = new FrameDecoder(8, 16);
+
+        assertTrue(decoder.decode(bytes("{\"a\":\"1\"}"), handler));
+        assertFalse(decoder.decode(bytes("{\"a\":\"0123456789abcdef"), handler));
+        assertFalse(decoder.decode(bytes("{}"), handler));
+
+        assertEquals(1, frames.size());
+    }
+
+    /**
+     * a leading zero byte selects length prefixes, which may be pipelined and split
+     */
+    @Test
+    public void test_decode_lengthPrefixed_everyFrame() {
+        FrameDecoder decoder = new FrameDecoder(8, 1024);
+        ByteBuffer stream = ByteBuffer.allocate(64);
+        stream.put(prefixed("{\"a\":\"1\"}")).put(prefixed("{\"b\":\"2\"}")).flip();
+
+        ByteBuffer first = stream.duplicate();
+        first.limit(15);
+        stream.position(15);
+        assertTrue(decoder.decode(first, handler));
+        assertEquals(1, frames.size());
+        assertTrue(decoder.decode(stream, handler));
+
+        assertEquals(2, frames.size());
+        assertEquals("{\"b\":\"2\"}", frames.get(1));
+        assertEquals(Framing.LENGTH_PREFIXED, decoder.getFraming());
+    }
+
+    /**
+     * a length prefix over the maximum breaks the decoder straight away
+     */
+    @Test
+    public void test_decode_lengthTooLarge_broken() {
+        FrameDecoder decoder = new FrameDecoder(8, 16);
+        ByteBuffer prefix = ByteBuffer.allocate(Framing.PREFIX_SIZE);
+        prefix.putInt(17).flip();
+
+        assertFalse(decoder.decode(prefix, handler));
+        assertTrue(frames.isEmpty());
+    }
+
+    /**
+     * replies are framed like the requests without copying the body
+     */
+    @Test
+    public void test_wrap_eachFraming() {
+        ByteBuffer body = bytes("{}");
+
+        ByteBuffer[] text = Framing.TEXT.wrap(body);
+        ByteBuffer[] prefixed = Framing.LENGTH_PREFIXED.wrap(body);
+
+        assertEquals(2, text.length);
+        assertTrue(body == text[0]);
+        assertEquals('\n', text[1].get(0));
+        assertEquals(2, prefixed[0].getInt(0));
+        assertTrue(body == prefixed[1]);
+        assertArrayEquals(new byte[]{0, 0, 0, 2}, prefixed[0].array());
+    }
+}
@@ -0,0 +1,118 @@
+package edu.northeastern.ccs.im.communications;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding and encoding one message of each type.
+ * <p>
+ * The legacy benchmarks do what {@link NetworkConnection} and {@link Message} used to do: decode the
+ * bytes into a String, then build a new mapper to read it into a map; and build a new mapper to write
+ * the map into a String before copying it into bytes. Run with {@code mvn test-compile exec:java
+ * -Dexec.classpathScope=test -Dexec.mainClass=edu.northeastern.ccs.im.communications.MessageCodecBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+
+    /**
+     * The msg_type of the message on the wire.
+     */
+    @Param({"REGISTER", "HLO", "BYE", "TO_GROUP", "PUBLIC_KEY", "BCT", "INVITE", "CRG", "USER",
+            "GET_QUEUE", "GET_HISTORY", "DELETE_MSG"})
+    public String type;
+
+    private byte[] wire;
+
+    private Map<String, String> payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = new HashMap<>();
+        payload.put("msg_type", type);
+        payload.put("sender_name", "alice");
+        switch (type) {
+            case "REGISTER":
+                payload.put("pw", "correct horse battery staple");
+                payload.put("public_key", "MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAu1SU1LfVLPHCozMxH2Mo");
+                break;
+            case "HLO":
+                payload.put("pw", "correct horse battery staple");
+                break;
+            case "BYE":
+            case "GET_QUEUE":
+            case "GET_HISTORY":
+                break;
+            case "TO_GROUP":
+                payload.put("group_name", "team-205");
+                payload.put("text", "The quick brown fox jumps over the lazy dog.");
+                break;
+            case "PUBLIC_KEY":
+                payload.put("user_name", "bob");
+                break;
+            case "INVITE":
+                payload.put("invitee", "bob");
+                payload.put("group_name", "team-205");
+                break;
+            case "CRG":
+                payload.put("group_name", "team-205");
+                break;
+            case "DELETE_MSG":
+                payload.put("msg_id", "5c9a4a2f1c9d440000a1b2c3");
+                break;
+            default:
+                payload.put("receiver", "bob");
+                payload.put("text", "The quick brown fox jumps over the lazy dog.");
+        }
+        wire = new ObjectMapper().writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public Message decode() {
+        return MessageCodec.decode(wire, 0, wire.length);
+    }
+
+    @Benchmark
+    public Map<?, ?> decodeLegacy() throws IOException {
+        String json = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(wire)).toString();
+        return new ObjectMapper().readValue(json, HashMap.class);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return MessageCodec.encode(payload);
+    }
+
+    @Benchmark
+    public byte[] encodeLegacy() throws IOException {
+        return new ObjectMapper().writeValueAsString(payload).getBytes();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package edu.northeastern.ccs.im.communications;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class MessageCodecTest {
+
+    private static Message decode(String json) {
+        byte[] bytes = ("xx" + json).getBytes(StandardCharsets.UTF_8);
+        return MessageCodec.decode(bytes, 2, bytes.length - 2);
+    }
+
+    /**
+     * each known msg_type is built into the matching kind of message
+     */
+    @Test
+    public void test_decode_eachType_matchingMessage() {
+        assertTrue(decode("{\"msg_type\":\"REGISTER\",\"sender_name\":\"a\",\"pw\":\"p\"}").isRegisterMessage());
+        assertEquals("p", decode("{\"msg_type\":\"HLO\",\"sender_name\":\"a\",\"pw\":\"p\"}").getMsgToInfo().get("pw"));
+        assertTrue(decode("{\"msg_type\":\"BYE\",\"sender_name\":\"a\"}").terminate());
+        assertTrue(decode("{\"msg_type\":\"TO_GROUP\",\"sender_name\":\"a\"}").isToGroup());
+        assertTrue(decode("{\"msg_type\":\"PUBLIC_KEY\",\"sender_name\":\"a\"}").isGetPublicKey());
+        assertTrue(decode("{\"msg_type\":\"BCT\",\"sender_name\":\"a\"}").isBroadcastMessage());
+        assertTrue(decode("{\"msg_type\":\"INVITE\",\"sender_name\":\"a\"}").isInvitation());
+        assertTrue(decode("{\"msg_type\":\"CRG\",\"sender_name\":\"a\"}").isCreateGroupMessage());
+        assertTrue(decode("{\"msg_type\":\"USER\",\"sender_name\":\"a\",\"text\":\"t\"}").isToUser());
+        assertTrue(decode("{\"msg_type\":\"GET_QUEUE\",\"sender_name\":\"a\"}").isGetQueueMessage());
+        assertTrue(decode("{\"msg_type\":\"GET_HISTORY\",\"sender_name\":\"a\"}").isGetMessageHistory());
+        assertTrue(decode("{\"msg_type\":\"" + MessageType.DELETE_MSG + "\",\"sender_name\":\"a\"}").isDeleteMessage());
+        assertEquals("t", decode("{\"msg_type\":\"RESUME\",\"sender_name\":\"a\",\"token\":\"t\"}").getMsgToInfo().get("token"));
+        assertEquals("7", decode("{\"msg_type\":\"PONG\",\"sender_name\":\"a\",\"seq\":\"7\"}").getMsgToInfo().get("seq"));
+        assertTrue(decode("{\"msg_type\":\"ACK\",\"sender_name\":\"a\",\"message_id\":\"x\"}").isAckMessage());
+    }
+
+    /**
+     * scalar values keep their text and the fields reach the message
+     */
+    @Test
+    public void test_decode_fields_kept() {
+        Message message = MessageCodec.decode("{\"msg_type\":\"BCT\",\"sender_name\":\"a\",\"text\":\"hi \\u00e9\",\"n\":3}");
+
+        assertEquals("a", message.getName());
+        assertEquals("hi \u00e9", message.getText());
+        assertEquals("3", message.getMsgToInfo().get("n"));
+    }
+
+    /**
+     * anything that is not a flat object with a known msg_type is dropped
+     */
+    @Test
+    public void test_decode_notAMessage_null() {
+        assertNull(decode("not json"));
+        assertNull(decode("[1, 2]"));
+        assertNull(decode("{\"msg_type\":\"BCT\""));
+        assertNull(decode("{\"msg_type\":\"BCT\",\"text\":{\"nested\":\"x\"}}"));
+        assertNull(decode("{\"msg_type\":\"NOPE\",\"sender_name\":\"a\"}"));
+        assertNull(decode("{\"sender_name\":\"a\"}"));
+        assertNull(decode(""));
+    }
+
+    /**
+     * encoded payloads decode back to the same fields
+     */
+    @Test
+    public void test_encode_roundTrip() {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("msg_type", "BCT");
+        payload.put("sender_name", "a");
+        payload.put("text", "quote \" and \u00e9");
+
+        byte[] bytes = MessageCodec.encode(payload);
+        Message message = MessageCodec.decode(bytes, 0, bytes.length);
+
+        assertEquals(payload, message.getMsgToInfo());
+    }
+}
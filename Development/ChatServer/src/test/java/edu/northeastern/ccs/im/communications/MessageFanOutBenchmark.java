@@ -0,0 +1,94 @@
+package edu.northeastern.ccs.im.communications;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of delivering one broadcast to many recipients, each of which copies the bytes of the message
+ * into its socket buffer.
+ * <p>
+ * {@code encodePerRecipient} is what every recipient used to do in {@link NetworkConnection#sendMessage}:
+ * build a mapper, encode the message and copy the string into bytes. {@code encodeOnce} writes from the
+ * encoding shared by all recipients. Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=edu.northeastern.ccs.im.communications.MessageFanOutBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageFanOutBenchmark {
+
+    /**
+     * Number of clients the message is delivered to.
+     */
+    @Param({"100", "1000", "10000"})
+    public int recipients;
+
+    private Map<String, String> payload;
+
+    /**
+     * Stands in for the socket buffer of each recipient.
+     */
+    private ByteBuffer socketBuffer;
+
+    @Setup
+    public void setUp() {
+        payload = new HashMap<>();
+        payload.put("msg_type", "BCT");
+        payload.put("sender_name", "alice");
+        payload.put("text", "The quick brown fox jumps over the lazy dog, again and again, for everyone online.");
+        socketBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    }
+
+    @Benchmark
+    public long encodePerRecipient() throws JsonProcessingException {
+        Message message = Message.makeBroadcastMessage("alice", payload);
+        long written = 0;
+        for (int i = 0; i < recipients; i++) {
+            String str = new ObjectMapper().writeValueAsString(message.getMsgToInfo());
+            written += write(ByteBuffer.wrap(str.getBytes()));
+        }
+        return written;
+    }
+
+    @Benchmark
+    public long encodeOnce() {
+        Message message = Message.makeBroadcastMessage("alice", payload);
+        long written = 0;
+        for (int i = 0; i < recipients; i++) {
+            written += write(message.getEncoded());
+        }
+        return written;
+    }
+
+    private int write(ByteBuffer bytes) {
+        socketBuffer.clear();
+        socketBuffer.put(bytes);
+        return socketBuffer.position();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageFanOutBenchmark.class.getSimpleName()).build()).run();
+    }
+}
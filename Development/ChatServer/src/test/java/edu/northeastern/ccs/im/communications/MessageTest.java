@@ -2,6 +2,8 @@ package edu.northeastern.ccs.im.communications;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -212,4 +214,37 @@ public class MessageTest {
 
         assertTrue(message.isGetPublicKey());
     }
+
+    /**
+     * every caller gets its own view of the same encoded bytes
+     */
+    @Test
+    public void test_getEncoded_sharedReadOnlyViews() {
+        Map<String, String> map = new HashMap<>();
+        map.put("text", "bar");
+        Message message = Message.makeBroadcastMessage("foo", map);
+
+        ByteBuffer first = message.getEncoded();
+        ByteBuffer second = message.getEncoded();
+        first.position(first.limit());
+
+        assertTrue(first.isReadOnly());
+        assertEquals(0, second.position());
+        assertEquals(message.toString(), StandardCharsets.UTF_8.decode(second).toString());
+    }
+
+    /**
+     * the string of a message is read from its encoded bytes, so logging it does not encode it again
+     */
+    @Test
+    public void test_toString_usesEncodedBytes() {
+        Map<String, String> map = new HashMap<>();
+        map.put("text", "bar");
+        Message message = Message.makeBroadcastMessage("foo", map);
+        message.getEncoded();
+
+        map.put("text", "changed");
+
+        assertEquals("{\"text\":\"bar\"}", message.toString());
+    }
 }
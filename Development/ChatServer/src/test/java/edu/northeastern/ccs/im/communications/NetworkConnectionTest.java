@@ -8,11 +8,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.CharsetDecoder;
 import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -21,8 +19,8 @@ import java.util.Queue;
 import static edu.northeastern.ccs.im.TestConstants.SRC_NAME;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.*;
 
 /**
@@ -114,17 +112,19 @@ public class NetworkConnectionTest {
     }
 
     /**
-     * test for wrapper remains
+     * test for wrapper remains: what the socket does not take waits, without retrying
      */
     @Test
     public void test_sendMessage_withMsg_success() throws IOException {
         // Arrange
 
         // Act
-        connection.sendMessage(Message.makeQuitMessage(SRC_NAME));
+        boolean result = connection.sendMessage(Message.makeQuitMessage(SRC_NAME));
 
         // Assert
-        verify(mockChannel, times(100)).write((ByteBuffer) any());
+        assertTrue(result);
+        assertTrue(connection.hasPendingWrites());
+        verify(mockChannel, times(1)).write(any(ByteBuffer[].class), eq(0), eq(2));
     }
 
     /**
@@ -133,13 +133,15 @@ public class NetworkConnectionTest {
     @Test
     public void test_sendMessage_withIOException_resultIsFalse() throws IOException {
         // Arrange
-        when(mockChannel.write((ByteBuffer) any())).thenThrow(new IOException("foo"));
+        when(mockChannel.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenThrow(new IOException("foo"));
 
         // Act
         boolean result = connection.sendMessage(Message.makeQuitMessage(SRC_NAME));
 
         // Assert
         assertFalse(result);
+        assertTrue(connection.isWriteFailed());
+        assertFalse(connection.flush());
     }
 
     /**
@@ -172,17 +174,17 @@ public class NetworkConnectionTest {
         Selector mockedSelector = mock(Selector.class);
         when(mockedSelector.selectNow()).thenReturn(1);
 
-        CharsetDecoder decoder = mock(CharsetDecoder.class);
-
-        when(decoder.decode(any())).
-                thenReturn(CharBuffer.wrap("{\"pw\":\"name\",\"msg_type\":\"HLO\",\"sender_name\":\"user\"}".toCharArray()));
+        byte[] json = "{\"pw\":\"name\",\"msg_type\":\"HLO\",\"sender_name\":\"user\"}".getBytes();
+        when(mockChannel.read((ByteBuffer) any())).thenAnswer(invocation -> {
+            ((ByteBuffer) invocation.getArgument(0)).put(json);
+            return json.length;
+        });
 
         SelectionKey mockedKey = mock(SelectionKey.class);
         when(mockedKey.isReadable()).thenReturn(true);
 
         connection.setSelector(mockedSelector);
         connection.setSelectionKey(mockedKey);
-        connection.setDecoder(decoder);
 
         // Act
         boolean result = messageIterator.hasNext();
@@ -219,30 +221,21 @@ public class NetworkConnectionTest {
     }
 
     /**
-     * throw buffer two times, get a HLO
-     *
-     * @throws IOException
+     * the message is parsed straight from the bytes left in the buffer
      */
     @Test
-    public void test_throughBuffer_success() throws IOException {
+    public void test_throughBuffer_success() {
         NetworkConnection.MessageIterator messageIterator = (NetworkConnection.MessageIterator) connection.iterator();
-        Selector mockedSelector = mock(Selector.class);
-        when(mockedSelector.selectNow()).thenReturn(1);
-
-        SelectionKey mockedKey = mock(SelectionKey.class);
-        when(mockedKey.isReadable()).thenReturn(true);
-
-        CharBuffer buffer = mock(CharBuffer.class);
-        when(buffer.subSequence(anyInt(), anyInt())).thenReturn(buffer);
-        given(buffer.limit()).willReturn(100).willReturn(10).willReturn(1);
-
-        when(buffer.position()).thenReturn(0);
-        when(buffer.get(0)).thenReturn('1');
-        when(buffer.toString()).thenReturn("{\"pw\":\"name\",\"msg_type\":\"HLO\",\"sender_name\":\"user\"}");
-
-        connection.setMessages(new ArrayDeque<>());
+        Queue<Message> messages = new ArrayDeque<>();
+        connection.setMessages(messages);
 
+        ByteBuffer buffer = ByteBuffer.wrap("  {\"pw\":\"name\",\"msg_type\":\"HLO\",\"sender_name\":\"user\"}".getBytes());
+        buffer.position(2);
         messageIterator.throughBuffer(buffer);
+        messageIterator.throughBuffer(ByteBuffer.wrap("not json".getBytes()));
+
+        assertEquals(1, messages.size());
+        assertEquals("user", messages.peek().getName());
     }
 
     /**
@@ -310,4 +303,233 @@ public class NetworkConnectionTest {
 
         assertTrue(result);
     }
+
+    /**
+     * without a selector of its own, the channel is not registered anywhere
+     */
+    @Test
+    public void test_networkConnection_withoutOwnSelector_notRegistered() throws IOException {
+        SocketChannel channel = mock(SocketChannel.class);
+
+        NetworkConnection shared = new NetworkConnection(channel, false);
+        shared.close();
+
+        verify(channel).configureBlocking(false);
+        verify(channel, never()).register(any(), anyInt());
+        verify(channel).close();
+    }
+
+    /**
+     * without a selector of its own the channel is read straight away, and end of stream is remembered
+     */
+    @Test
+    public void test_iterator_withoutOwnSelector_endOfStream() throws IOException {
+        SocketChannel channel = mock(SocketChannel.class);
+        when(channel.read((ByteBuffer) any())).thenReturn(-1);
+        NetworkConnection shared = new NetworkConnection(channel, false);
+
+        assertFalse(shared.iterator().hasNext());
+        assertTrue(shared.isEndOfStream());
+        // nothing more is read once the peer is gone
+        assertFalse(shared.iterator().hasNext());
+        verify(channel, times(1)).read((ByteBuffer) any());
+    }
+
+    /**
+     * a blocking connection is read by its own thread, and its iterator only hands out what was received
+     */
+    @Test
+    public void test_receive_blocking_queuesUntilEndOfStream() throws IOException {
+        SocketChannel channel = mock(SocketChannel.class);
+        String hello = "{\"pw\":\"name\",\"msg_type\":\"HLO\",\"sender_name\":\"user\"}\n";
+        when(channel.read((ByteBuffer) any())).thenAnswer(invocation -> {
+            ((ByteBuffer) invocation.getArgument(0)).put(hello.getBytes());
+            return hello.length();
+        }).thenReturn(-1);
+        NetworkConnection blocking = new NetworkConnection(channel, false, NetworkConnection.MAX_FRAME_SIZE, true);
+        verify(channel).configureBlocking(true);
+        Iterator<Message> messageIterator = blocking.iterator();
+
+        assertFalse(messageIterator.hasNext());
+        verify(channel, never()).read((ByteBuffer) any());
+
+        assertTrue(blocking.receive());
+        assertTrue(messageIterator.hasNext());
+        assertEquals("user", messageIterator.next().getName());
+
+        assertFalse(blocking.receive());
+        assertTrue(blocking.isEndOfStream());
+        assertEquals(0, blocking.getWriteStart());
+    }
+
+    /**
+     * a failed or closed blocking connection receives nothing more
+     */
+    @Test
+    public void test_receive_readFails_endOfStream() throws IOException {
+        SocketChannel channel = mock(SocketChannel.class);
+        when(channel.read((ByteBuffer) any())).thenThrow(new IOException("closed"));
+        NetworkConnection blocking = new NetworkConnection(channel, false, NetworkConnection.MAX_FRAME_SIZE, true);
+
+        assertFalse(blocking.receive());
+        assertTrue(blocking.isEndOfStream());
+    }
+
+    /**
+     * only blocking connections are read by a thread of their own, and they have no selector
+     */
+    @Test
+    public void test_receive_notBlocking_refused() {
+        try {
+            connection.receive();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            new NetworkConnection(mock(SocketChannel.class), true, NetworkConnection.MAX_FRAME_SIZE, true);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * two messages in one read and one split across reads are all delivered, and replies are framed
+     */
+    @Test
+    public void test_iterator_pipelinedAndSplit_everyMessage() throws IOException {
+        SocketChannel channel = mock(SocketChannel.class);
+        String hello = "{\"pw\":\"name\",\"msg_type\":\"HLO\",\"sender_name\":\"user\"}";
+        byte[][] reads = {(hello + "\n" + hello + "\n" + hello.substring(0, 10)).getBytes(),
+                (hello.substring(10) + "\n").getBytes()};
+        int[] next = {0};
+        when(channel.read((ByteBuffer) any())).thenAnswer(invocation -> {
+            byte[] read = reads[next[0]++];
+            ((ByteBuffer) invocation.getArgument(0)).put(read);
+            return read.length;
+        });
+        when(channel.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(invocation -> write(invocation.getArgument(0),
+                invocation.getArgument(2), Integer.MAX_VALUE));
+        NetworkConnection shared = new NetworkConnection(channel, false);
+        Iterator<Message> messageIterator = shared.iterator();
+
+        assertTrue(messageIterator.hasNext());
+        messageIterator.next();
+        assertTrue(messageIterator.hasNext());
+        messageIterator.next();
+        assertTrue(messageIterator.hasNext());
+        assertEquals(1, shared.getBacklog());
+        assertEquals("user", messageIterator.next().getName());
+        assertEquals(0, shared.getBacklog());
+        assertFalse(shared.isEndOfStream());
+
+        assertTrue(shared.sendMessage(Message.makeQuitMessage("user")));
+        assertFalse(shared.hasPendingWrites());
+    }
+
+    /**
+     * a message over the maximum frame size ends the connection
+     */
+    @Test
+    public void test_iterator_frameTooLarge_endOfStream() throws IOException {
+        SocketChannel channel = mock(SocketChannel.class);
+        byte[] read = "{\"text\":\"far too long for this connection\"}".getBytes();
+        when(channel.read((ByteBuffer) any())).thenAnswer(invocation -> {
+            ByteBuffer into = invocation.getArgument(0);
+            int length = Math.min(16, into.remaining());
+            into.put(read, 0, length);
+            return length;
+        });
+        NetworkConnection shared = new NetworkConnection(channel, false, 16);
+
+        assertFalse(shared.iterator().hasNext());
+        assertFalse(shared.iterator().hasNext());
+
+        assertTrue(shared.isEndOfStream());
+        assertFalse(shared.iterator().hasNext());
+        verify(channel, times(2)).read((ByteBuffer) any());
+    }
+
+    /**
+     * Stands in for a socket that takes at most the given number of bytes.
+     */
+    private static long write(ByteBuffer[] buffers, int count, int room) {
+        long written = 0;
+        for (int i = 0; i < count; i++) {
+            int length = (int) Math.min(buffers[i].remaining(), room - written);
+            buffers[i].position(buffers[i].position() + length);
+            written += length;
+        }
+        return written;
+    }
+
+    /**
+     * pending bytes are written by later flushes, several messages at a time
+     */
+    @Test
+    public void test_flush_partialWrites_sentInOrder() throws IOException {
+        int[] room = {10};
+        when(mockChannel.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(invocation -> {
+            long written = write(invocation.getArgument(0), invocation.getArgument(2), room[0]);
+            room[0] -= written;
+            return written;
+        });
+
+        assertTrue(connection.sendMessage(Message.makeQuitMessage(SRC_NAME)));
+        assertTrue(connection.sendMessage(Message.makeQuitMessage(SRC_NAME)));
+        int frame = Message.makeQuitMessage(SRC_NAME).getEncoded().remaining() + 1;
+        assertEquals(2 * frame - 10, connection.getPendingBytes());
+
+        room[0] = Integer.MAX_VALUE;
+        assertTrue(connection.flush());
+
+        assertFalse(connection.hasPendingWrites());
+        verify(mockChannel, times(2)).write(any(ByteBuffer[].class), eq(0), eq(4));
+    }
+
+    /**
+     * over the high watermark the connection is blocked until it is back under the low one
+     */
+    @Test
+    public void test_isWriteBlocked_watermarks() throws IOException {
+        int frame = Message.makeQuitMessage(SRC_NAME).getEncoded().remaining() + 1;
+        connection.setWriteLimits(frame, 2 * frame, 10 * frame);
+        int[] room = {0};
+        when(mockChannel.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(invocation -> {
+            long written = write(invocation.getArgument(0), invocation.getArgument(2), room[0]);
+            room[0] -= written;
+            return written;
+        });
+
+        connection.sendMessage(Message.makeQuitMessage(SRC_NAME));
+        assertFalse(connection.isWriteBlocked());
+        connection.sendMessage(Message.makeQuitMessage(SRC_NAME));
+        assertTrue(connection.isWriteBlocked());
+
+        room[0] = 1;
+        connection.flush();
+        assertTrue(connection.isWriteBlocked());
+        room[0] = frame;
+        connection.flush();
+        assertFalse(connection.isWriteBlocked());
+    }
+
+    /**
+     * a client is only dropped once its backlog would go over the limit
+     */
+    @Test
+    public void test_sendMessage_overBacklogLimit_failed() {
+        int frame = Message.makeQuitMessage(SRC_NAME).getEncoded().remaining() + 1;
+        connection.setWriteLimits(frame, 2 * frame, 3 * frame);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(connection.sendMessage(Message.makeQuitMessage(SRC_NAME)));
+        }
+        assertFalse(connection.isWriteFailed());
+        assertFalse(connection.sendMessage(Message.makeQuitMessage(SRC_NAME)));
+
+        assertTrue(connection.isWriteFailed());
+        assertEquals(3 * frame, connection.getPendingBytes());
+    }
 }
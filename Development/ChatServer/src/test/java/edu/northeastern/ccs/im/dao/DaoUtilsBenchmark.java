@@ -0,0 +1,129 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the DaoUtils insert and delete paths against the embedded mongo-java-server.
+ * <p>
+ * The {@code counted} benchmarks repeat what these paths used to do, bracketing every write with a
+ * {@code countDocuments} on each side, so the two can be compared on the same collection sizes.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=edu.northeastern.ccs.im.dao.DaoUtilsBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DaoUtilsBenchmark {
+    private static final String COLLECTION_NAME = "benchmark";
+
+    /**
+     * Number of documents in the collection before measuring.
+     */
+    @Param({"100", "10000"})
+    public int collectionSize;
+
+    private MongoServer internalMongoServer;
+    private MongoClient internalMongoClient;
+    private MongoCollection<BasicDBObject> collection;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        internalMongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress serverAddress = internalMongoServer.bind();
+        internalMongoClient = new MongoClient(new ServerAddress(serverAddress));
+
+        MongoConnector mongoConnector = new MongoConnector(internalMongoClient,
+                internalMongoClient.getDatabase("benchmarkDB"));
+        DaoUtils.setFakeMongoConnector(mongoConnector);
+        collection = mongoConnector.getMongoDatabase().getCollection(COLLECTION_NAME, BasicDBObject.class);
+
+        List<BasicDBObject> documents = new ArrayList<>(collectionSize);
+        for (int i = 0; i < collectionSize; i++) {
+            documents.add(newDocument());
+        }
+        collection.insertMany(documents);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DaoUtils.setFakeMongoConnector(null);
+        internalMongoClient.close();
+        internalMongoServer.shutdownNow();
+    }
+
+    /**
+     * A document inserted before each delete invocation so that there is always one to remove.
+     */
+    @State(Scope.Thread)
+    public static class Victim {
+        BasicDBObject document;
+
+        @Setup(Level.Invocation)
+        public void insert(DaoUtilsBenchmark benchmark) {
+            document = benchmark.newDocument();
+            benchmark.collection.insertOne(document);
+        }
+    }
+
+    @Benchmark
+    public boolean insert() {
+        return DaoUtils.insertDBOjectInDB(COLLECTION_NAME, newDocument(), "benchmark");
+    }
+
+    @Benchmark
+    public boolean insertCounted() {
+        long size = collection.countDocuments();
+        collection.insertOne(newDocument());
+        return collection.countDocuments() == size + 1;
+    }
+
+    @Benchmark
+    public boolean delete(Victim victim) {
+        return DaoUtils.deleteObjectFromDB(COLLECTION_NAME, victim.document);
+    }
+
+    @Benchmark
+    public boolean deleteCounted(Victim victim) {
+        long size = collection.countDocuments();
+        collection.findOneAndDelete(victim.document);
+        return collection.countDocuments() == size - 1;
+    }
+
+    private BasicDBObject newDocument() {
+        return new BasicDBObject("benchmarkId", nextId++).append("text", "hello");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DaoUtilsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,100 @@
+package edu.northeastern.ccs.im.dao;
+
+import edu.northeastern.ccs.im.models.User;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests ExecutorAsyncDao
+ */
+public class ExecutorAsyncDaoTest {
+    private Dao<User> userDao;
+    private User alice;
+
+    /**
+     * Sets up a mocked Dao
+     */
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        userDao = mock(Dao.class);
+        alice = new User("alice", null, null, null, null, null);
+    }
+
+    /**
+     * Tests that the calls are only made once the executor runs them
+     */
+    @Test
+    public void testCallsRunOnExecutor() throws InterruptedException, ExecutionException {
+        AtomicReference<Runnable> pending = new AtomicReference<>();
+        AsyncDao<User> asyncDao = new ExecutorAsyncDao<>(userDao, pending::set);
+        when(userDao.create(alice)).thenReturn(true);
+
+        CompletableFuture<Boolean> created = asyncDao.create(alice);
+
+        Assert.assertFalse(created.isDone());
+        verify(userDao, never()).create(alice);
+        pending.get().run();
+        Assert.assertTrue(created.get());
+    }
+
+    /**
+     * Tests that every call is handed to the Dao
+     */
+    @Test
+    public void testDelegates() throws InterruptedException, ExecutionException {
+        AsyncDao<User> asyncDao = new ExecutorAsyncDao<>(userDao, Runnable::run);
+        List<User> users = Collections.singletonList(alice);
+        when(userDao.get(null)).thenReturn(users);
+        when(userDao.set(alice)).thenReturn(true);
+        when(userDao.delete(alice)).thenReturn(false);
+
+        Assert.assertEquals(users, asyncDao.get(null).get());
+        Assert.assertTrue(asyncDao.set(alice).get());
+        Assert.assertFalse(asyncDao.delete(alice).get());
+    }
+
+    /**
+     * Tests that a call the executor turns away is made by the caller
+     */
+    @Test
+    public void testRejectedRunByCaller() throws InterruptedException, ExecutionException {
+        Executor full = task -> {
+            throw new RejectedExecutionException("full");
+        };
+        AsyncDao<User> asyncDao = new ExecutorAsyncDao<>(userDao, full);
+        when(userDao.create(alice)).thenReturn(true);
+
+        CompletableFuture<Boolean> created = asyncDao.create(alice);
+
+        Assert.assertTrue(created.isDone());
+        Assert.assertTrue(created.get());
+    }
+
+    /**
+     * Tests that a failing call completes its future exceptionally
+     */
+    @Test
+    public void testFailure() {
+        AsyncDao<User> asyncDao = new ExecutorAsyncDao<>(userDao, Runnable::run);
+        when(userDao.create(alice)).thenThrow(new IllegalStateException("down"));
+
+        CompletableFuture<Boolean> created = asyncDao.create(alice);
+
+        Assert.assertTrue(created.isCompletedExceptionally());
+    }
+}
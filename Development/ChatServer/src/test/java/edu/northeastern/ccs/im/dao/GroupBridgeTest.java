@@ -10,12 +10,16 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -71,23 +75,20 @@ public class GroupBridgeTest {
         //// We need to do this to ensure that GroupBridge can properly construct
         ////  admin list with users
         // First creates search criteria for each id
+        // All of the ids are resolved together with a single $in query
         Map<String, Object> criteria = new HashMap<>();
-        criteria.put(USER_USER_ID_KEY, userObjectId);
-        Map<String, Object> criteria2 = new HashMap<>();
-        criteria2.put(USER_USER_ID_KEY, userObjectId2);
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(userObjectId, userObjectId2)));
 
-        // Mocks the result of calling UserService find user by Id
-        List<User> userResult1 = new ArrayList<>();
-        userResult1.add(user1);
-        List<User> userResult2 = new ArrayList<>();
-        userResult2.add(user2);
+        // Mocks the result of calling UserService find users by Id
+        List<User> userResult = new ArrayList<>();
+        userResult.add(user1);
+        userResult.add(user2);
 
         // Mocks action when UserService attempts to find by id
-
-        when(this.userDao.get(criteria)).thenReturn(userResult1);
-        when(this.userDao.get(criteria2)).thenReturn(userResult2);
+        when(this.userDao.get(criteria)).thenReturn(userResult);
 
         Assert.assertEquals(group.toString(), groupBridge.toObject(groupDBObject).toString());
+        verify(this.userDao, times(1)).get(any());
     }
 
     @Test
@@ -156,23 +157,20 @@ public class GroupBridgeTest {
         //// We need to do this to ensure that GroupBridge can properly construct
         ////  admin list with users
         // First creates search criteria for each id
+        // All of the ids are resolved together with a single $in query
         Map<String, Object> criteria = new HashMap<>();
-        criteria.put(USER_USER_ID_KEY, userObjectId);
-        Map<String, Object> criteria2 = new HashMap<>();
-        criteria2.put(USER_USER_ID_KEY, userObjectId2);
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(userObjectId, userObjectId2)));
 
-        // Mocks the result of calling UserService find user by Id
-        List<User> userResult1 = new ArrayList<>();
-        userResult1.add(user1);
-        List<User> userResult2 = new ArrayList<>();
-        userResult2.add(user2);
+        // Mocks the result of calling UserService find users by Id
+        List<User> userResult = new ArrayList<>();
+        userResult.add(user1);
+        userResult.add(user2);
 
         // Mocks action when UserService attempts to find by id
-
-        when(this.userDao.get(criteria)).thenReturn(userResult1);
-        when(this.userDao.get(criteria2)).thenReturn(userResult2);
+        when(this.userDao.get(criteria)).thenReturn(userResult);
 
         Assert.assertEquals(groups.toString(), groupBridge.toObjects(groupDBList).toString());
+        verify(this.userDao, times(1)).get(any());
     }
 
     @Test
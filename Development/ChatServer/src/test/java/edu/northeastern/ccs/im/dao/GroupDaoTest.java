@@ -2,7 +2,10 @@ package edu.northeastern.ccs.im.dao;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoWriteException;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.result.UpdateResult;
@@ -10,6 +13,8 @@ import de.bwaldvogel.mongo.MongoServer;
 import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.User;
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -17,10 +22,12 @@ import org.junit.Test;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static edu.northeastern.ccs.im.dao.Constants.GROUP_COLLECTION_NAME;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -41,10 +48,36 @@ public class GroupDaoTest {
 
         mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
         DaoUtils.setFakeMongoConnector(mongoConnector);
+        IndexBootstrap.createIndexes();
         userDao = new UserDao();
         groupDao = new GroupDao();
     }
 
+    /**
+     * Tests that the groups of a user are found whether it is a member or an administrator
+     */
+    @Test
+    public void testGetGroupIds() {
+        User alice = new User("alice", null, null, null, null, null);
+        User bob = new User("bob", null, null, null, null, null);
+        User carol = new User("carol", null, null, null, null, null);
+
+        Group adminGroup = new Group("Admins", new ArrayList<>());
+        adminGroup.getAdministrators().add(alice);
+        Group memberGroup = new Group("Members", new ArrayList<>());
+        memberGroup.addUser(alice);
+        memberGroup.addUser(bob);
+        Assert.assertTrue(groupDao.create(adminGroup));
+        Assert.assertTrue(groupDao.create(memberGroup));
+
+        List<ObjectId> aliceGroups = groupDao.getGroupIds(alice.getId());
+        Assert.assertEquals(2, aliceGroups.size());
+        Assert.assertTrue(aliceGroups.contains(adminGroup.getId()));
+        Assert.assertTrue(aliceGroups.contains(memberGroup.getId()));
+        Assert.assertEquals(Collections.singletonList(memberGroup.getId()), groupDao.getGroupIds(bob.getId()));
+        Assert.assertTrue(groupDao.getGroupIds(carol.getId()).isEmpty());
+    }
+
     @Test
     public void testGroupCRUD() {
         User user = new User("alice", null, null, null, null, null);
@@ -134,13 +167,18 @@ public class GroupDaoTest {
         when(mockMongoConnector.getMongoDatabase()).thenReturn(mockMongoDatabase);
         when(mockMongoDatabase.getCollection(GROUP_COLLECTION_NAME, BasicDBObject.class)).thenReturn(mockMongoCollection);
 
-        // Case 1 - False Path (no WriteException, for some reason count not updated)
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0));
+        // Case 1 - False Path (no WriteException, but the write was not acknowledged)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.UNACKNOWLEDGED);
         Assert.assertFalse(createGroupDao.create(group));
 
-        // Case 2- True Path (no WriteException, )
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0)).thenReturn(new Long(1));
+        // Case 2- True Path (no WriteException, acknowledged write)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.ACKNOWLEDGED);
         Assert.assertTrue(createGroupDao.create(group));
+
+        // Case 3 - False Path (WriteException)
+        doThrow(new MongoWriteException(new WriteError(11000, "duplicate key", new BsonDocument()), new ServerAddress()))
+                .when(mockMongoCollection).insertOne(any());
+        Assert.assertFalse(createGroupDao.create(group));
     }
 
     @Test
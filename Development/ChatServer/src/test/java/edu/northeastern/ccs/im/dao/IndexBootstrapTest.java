@@ -0,0 +1,76 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static edu.northeastern.ccs.im.dao.Constants.*;
+
+/**
+ * Tests IndexBootstrap
+ */
+public class IndexBootstrapTest {
+    private MongoConnector mongoConnector;
+
+    private MongoClient internalMongoClient;
+    private MongoServer internalMongoServer;
+
+    /**
+     * Sets up connection
+     */
+    @Before
+    public void setUp() {
+        internalMongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress serverAddress = internalMongoServer.bind();
+        internalMongoClient = new MongoClient(new ServerAddress(serverAddress));
+        mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
+        DaoUtils.setFakeMongoConnector(mongoConnector);
+    }
+
+    /**
+     * Tests that every declared index is created, and that running again creates nothing more
+     */
+    @Test
+    public void testCreateIndexes() {
+        Assert.assertEquals(IndexBootstrap.getDeclared().size(), IndexBootstrap.verifyIndexes().size());
+
+        Assert.assertTrue(IndexBootstrap.createIndexes());
+        Assert.assertTrue(IndexBootstrap.verifyIndexes().isEmpty());
+        Assert.assertTrue(IndexBootstrap.createIndexes());
+
+        List<List<String>> messageIndexes = new ArrayList<>();
+        for (Document index : DaoUtils.getCollection(MESSAGE_COLLECTION_NAME).listIndexes()) {
+            messageIndexes.add(new ArrayList<>(index.get("key", Document.class).keySet()));
+        }
+        Assert.assertEquals(7, messageIndexes.size());
+        Assert.assertTrue(messageIndexes.contains(Arrays.asList(
+                MESSAGE_RECEIVER_ID_KEY, MESSAGE_DELETED_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, MESSAGE_MESSAGE_ID_KEY)));
+        Assert.assertTrue(messageIndexes.contains(Arrays.asList(MESSAGE_RECEIVER_ID_KEY, MESSAGE_DELIVERED_KEY,
+                MESSAGE_DELETED_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, MESSAGE_MESSAGE_ID_KEY)));
+        Assert.assertTrue(messageIndexes.contains(Arrays.asList(MESSAGE_PENDING_IDS_KEY,
+                MESSAGE_DELETED_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, MESSAGE_MESSAGE_ID_KEY)));
+        Assert.assertTrue(messageIndexes.contains(Arrays.asList(MESSAGE_SENDER_ID_KEY, MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY)));
+    }
+
+    /**
+     * Closes connection for this test
+     */
+    @After
+    public void tearDown() {
+        this.mongoConnector.closeConnection();
+        this.internalMongoClient.close();
+        this.internalMongoServer.shutdownNow();
+        this.internalMongoServer.shutdown();
+    }
+}
@@ -11,12 +11,17 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -78,30 +83,28 @@ public class InvitationBridgeTest {
         Invitation invitation = new Invitation(user1, user2, group, true, user1);
         invitation.setId(invitationObjectId);
 
+        // All of the ids are resolved together with a single $in query
         Map<String, Object> criteria = new HashMap<>();
-        criteria.put(USER_USER_ID_KEY, userObjectId);
-        Map<String, Object> criteria2 = new HashMap<>();
-        criteria2.put(USER_USER_ID_KEY, userObjectId2);
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(userObjectId, userObjectId2)));
 
-        // Mocks the result of calling UserService find user by Id
-        List<User> userResult1 = new ArrayList<>();
-        userResult1.add(user1);
-        List<User> userResult2 = new ArrayList<>();
-        userResult2.add(user2);
+        // Mocks the result of calling UserService find users by Id
+        List<User> userResult = new ArrayList<>();
+        userResult.add(user1);
+        userResult.add(user2);
 
         Map<String, Object> groupCriteria = new HashMap<>();
-        groupCriteria.put(GROUP_GROUP_ID_KEY, groupObjectId);
+        groupCriteria.put(GROUP_GROUP_ID_KEY, new BasicDBObject("$in", Arrays.asList(groupObjectId)));
 
         List<Group> groupResult = new ArrayList<>();
         groupResult.add(group);
 
         // Mocks action when UserService attempts to find by id
-
-        when(this.userDao.get(criteria)).thenReturn(userResult1);
-        when(this.userDao.get(criteria2)).thenReturn(userResult2);
-        when(this.groupDao.get(groupCriteria)).thenReturn(groupResult);
+        when(this.userDao.get(criteria)).thenReturn(userResult);
+        when(this.groupDao.get(eq(groupCriteria), any(UserLoader.class))).thenReturn(groupResult);
 
         Assert.assertEquals(invitation.toString(), invitationBridge.toObject(inviteDBObject).toString());
+        verify(this.userDao, times(1)).get(any());
+        verify(this.groupDao, times(1)).get(any(), any(UserLoader.class));
     }
 
     @Test
@@ -178,35 +181,29 @@ public class InvitationBridgeTest {
         invitations.add(invitation);
         invitations.add(invitation2);
 
+        // All of the ids are resolved together with a single $in query
         Map<String, Object> criteria = new HashMap<>();
-        criteria.put(USER_USER_ID_KEY, userObjectId);
-        Map<String, Object> criteria2 = new HashMap<>();
-        criteria2.put(USER_USER_ID_KEY, userObjectId2);
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(userObjectId, userObjectId2)));
 
-        // Mocks the result of calling UserService find user by Id
-        List<User> userResult1 = new ArrayList<>();
-        userResult1.add(user1);
-        List<User> userResult2 = new ArrayList<>();
-        userResult2.add(user2);
+        // Mocks the result of calling UserService find users by Id
+        List<User> userResult = new ArrayList<>();
+        userResult.add(user1);
+        userResult.add(user2);
 
         Map<String, Object> groupCriteria = new HashMap<>();
-        groupCriteria.put(GROUP_GROUP_ID_KEY, groupObjectId);
-        Map<String, Object> groupCriteria2 = new HashMap<>();
-        groupCriteria2.put(GROUP_GROUP_ID_KEY, groupObjectId2);
+        groupCriteria.put(GROUP_GROUP_ID_KEY, new BasicDBObject("$in", Arrays.asList(groupObjectId, groupObjectId2)));
 
         List<Group> groupResult = new ArrayList<>();
         groupResult.add(group);
-        List<Group> groupResult2 = new ArrayList<>();
-        groupResult2.add(group2);
+        groupResult.add(group2);
 
         // Mocks action when UserService attempts to find by id
-
-        when(this.userDao.get(criteria)).thenReturn(userResult1);
-        when(this.userDao.get(criteria2)).thenReturn(userResult2);
-        when(this.groupDao.get(groupCriteria)).thenReturn(groupResult);
-        when(this.groupDao.get(groupCriteria2)).thenReturn(groupResult2);
+        when(this.userDao.get(criteria)).thenReturn(userResult);
+        when(this.groupDao.get(eq(groupCriteria), any(UserLoader.class))).thenReturn(groupResult);
 
         Assert.assertEquals(invitations.toString(), invitationBridge.toObjects(inviteDBList).toString());
+        verify(this.userDao, times(1)).get(any());
+        verify(this.groupDao, times(1)).get(any(), any(UserLoader.class));
     }
 
     @Test
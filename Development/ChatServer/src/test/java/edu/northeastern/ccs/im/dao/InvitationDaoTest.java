@@ -2,7 +2,10 @@ package edu.northeastern.ccs.im.dao;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoWriteException;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.result.UpdateResult;
@@ -11,6 +14,7 @@ import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Invitation;
 import edu.northeastern.ccs.im.models.User;
+import org.bson.BsonDocument;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -25,6 +29,7 @@ import java.util.Map;
 import static edu.northeastern.ccs.im.dao.Constants.INVITATION_COLLECTION_NAME;
 import static edu.northeastern.ccs.im.dao.Constants.INVITATION_INVITATION_ID_KEY;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -46,6 +51,7 @@ public class InvitationDaoTest {
 
         mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
         DaoUtils.setFakeMongoConnector(mongoConnector);
+        IndexBootstrap.createIndexes();
         userDao = new UserDao();
         groupDao = new GroupDao();
         invitationDao = new InvitationDao();
@@ -131,13 +137,18 @@ public class InvitationDaoTest {
         when(mockMongoConnector.getMongoDatabase()).thenReturn(mockMongoDatabase);
         when(mockMongoDatabase.getCollection(INVITATION_COLLECTION_NAME, BasicDBObject.class)).thenReturn(mockMongoCollection);
 
-        // Case 1 - False Path (no WriteException, for some reason count not updated)
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0));
+        // Case 1 - False Path (no WriteException, but the write was not acknowledged)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.UNACKNOWLEDGED);
         Assert.assertFalse(createInvitationDao.create(invitation));
 
-        // Case 2- True Path (no WriteException, )
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0)).thenReturn(new Long(1));
+        // Case 2- True Path (no WriteException, acknowledged write)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.ACKNOWLEDGED);
         Assert.assertTrue(createInvitationDao.create(invitation));
+
+        // Case 3 - False Path (WriteException)
+        doThrow(new MongoWriteException(new WriteError(11000, "duplicate key", new BsonDocument()), new ServerAddress()))
+                .when(mockMongoCollection).insertOne(any());
+        Assert.assertFalse(createInvitationDao.create(invitation));
     }
 
     /**
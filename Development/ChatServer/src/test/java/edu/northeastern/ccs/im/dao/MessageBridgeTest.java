@@ -12,7 +12,10 @@ import org.junit.Test;
 import java.util.*;
 
 import static edu.northeastern.ccs.im.dao.Constants.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class MessageBridgeTest {
@@ -47,11 +50,13 @@ public class MessageBridgeTest {
 
         List<User> users = new ArrayList<>();
         users.add(user);
+        // sender and receiver share the id, so it is only looked up once
         Map<String, Object> criteria = new HashMap<>();
-        criteria.put(USER_USER_ID_KEY, id);
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(id)));
         when(this.userDao.get(criteria)).thenReturn(users);
 
         Assert.assertEquals(msg.toString(), msgBridge.toObject(msgDBObject).toString());
+        verify(this.userDao, times(1)).get(any());
 
         List<User> empty = new ArrayList<>();
         when(this.userDao.get(criteria)).thenReturn(empty);
@@ -90,7 +95,7 @@ public class MessageBridgeTest {
         Message msg = new Message(new Date(), user, charlie, "hello", false);
         msg.setId(id);
         User user2 = new User("bob", null, null, null, null, null);
-        user2.setId(id);
+        user2.setId(id2);
         Message msg2 = new Message(new Date(), user2, charlie, "goodbye", false);
         msg2.setId(id2);
 
@@ -100,17 +105,15 @@ public class MessageBridgeTest {
 
         List<User> users = new ArrayList<>();
         users.add(user);
-        List<User> users2 = new ArrayList<>();
-        users2.add(user2);
+        users.add(user2);
 
+        // the users of every message are resolved together with a single $in query
         Map<String, Object> criteria = new HashMap<>();
-        Map<String, Object> criteria2 = new HashMap<>();
-        criteria.put(USER_USER_ID_KEY, id);
-        criteria2.put(USER_USER_ID_KEY, id2);
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(id, id2)));
         when(this.userDao.get(criteria)).thenReturn(users);
-        when(this.userDao.get(criteria2)).thenReturn(users2);
 
         Assert.assertEquals(messages.toString(), msgBridge.toObjects(msgDBList).toString());
+        verify(this.userDao, times(1)).get(any());
     }
 
     /**
@@ -126,6 +129,7 @@ public class MessageBridgeTest {
         msgDBObject.append(MESSAGE_RECEIVER_ID_KEY, id);
         msgDBObject.append(MESSAGE_MESSAGE_BODY_KEY, "hello");
         msgDBObject.append(MESSAGE_DELETED_KEY, false);
+        msgDBObject.append(MESSAGE_DELIVERED_KEY, false);
 
         User user = new User("alice", null, null, null, null, null);
         user.setId(id);
@@ -152,6 +156,7 @@ public class MessageBridgeTest {
         msgDBObject.append(MESSAGE_RECEIVER_ID_KEY, id2);
         msgDBObject.append(MESSAGE_MESSAGE_BODY_KEY, "hello");
         msgDBObject.append(MESSAGE_DELETED_KEY, false);
+        msgDBObject.append(MESSAGE_DELIVERED_KEY, false);
 
         BasicDBObject msgDBObject2 = new BasicDBObject(MESSAGE_MESSAGE_ID_KEY, id2);
         msgDBObject2.append(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, date);
@@ -159,6 +164,7 @@ public class MessageBridgeTest {
         msgDBObject2.append(MESSAGE_RECEIVER_ID_KEY, id);
         msgDBObject2.append(MESSAGE_MESSAGE_BODY_KEY, "goodbye");
         msgDBObject2.append(MESSAGE_DELETED_KEY, false);
+        msgDBObject2.append(MESSAGE_DELIVERED_KEY, false);
 
         BasicDBList msgDBList = new BasicDBList();
         msgDBList.add(msgDBObject);
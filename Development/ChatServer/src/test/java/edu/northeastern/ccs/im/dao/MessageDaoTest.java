@@ -2,25 +2,34 @@ package edu.northeastern.ccs.im.dao;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoWriteException;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.result.UpdateResult;
 import de.bwaldvogel.mongo.MongoServer;
 import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Message;
 import edu.northeastern.ccs.im.models.User;
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
-import static edu.northeastern.ccs.im.dao.Constants.MESSAGE_COLLECTION_NAME;
+import static edu.northeastern.ccs.im.dao.Constants.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -46,6 +55,7 @@ public class MessageDaoTest {
         internalMongoClient = new MongoClient(new ServerAddress(serverAddress));
         mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
         DaoUtils.setFakeMongoConnector(mongoConnector);
+        IndexBootstrap.createIndexes();
         userDao = new UserDao();
         msgDao = new MessageDao();
     }
@@ -91,9 +101,153 @@ public class MessageDaoTest {
         Assert.assertEquals(0, messages.size());
     }
 
+    /**
+     * Tests that received messages are paged newest first, with ties on the time sent broken by the id
+     */
+    @Test
+    public void testGetReceivedPage() {
+        User alice = new User("alice", null, null, null, null, null);
+        User bob = new User("bob", null, null, null, null, null);
+        userDao.create(alice);
+        userDao.create(bob);
+        Message oldest = new Message(new Date(1000), alice, bob, "first", false);
+        Message tied1 = new Message(new Date(2000), alice, bob, "second", false);
+        Message tied2 = new Message(new Date(2000), alice, bob, "third", false);
+        Message deleted = new Message(new Date(3000), alice, bob, "deleted", true);
+        Message sent = new Message(new Date(4000), bob, alice, "to alice", false);
+        for (Message msg : new Message[]{oldest, tied1, tied2, deleted, sent}) {
+            Assert.assertTrue(msgDao.create(msg));
+        }
+        Message higher = tied1.getId().compareTo(tied2.getId()) > 0 ? tied1 : tied2;
+        Message lower = higher == tied1 ? tied2 : tied1;
+
+        List<Message> page = msgDao.getReceivedPage(bob.getId(), Collections.emptyList(), null, null, null, 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(higher.getId(), page.get(0).getId());
+        Assert.assertEquals(lower.getId(), page.get(1).getId());
+        Assert.assertEquals("alice", page.get(0).getSender().getUsername());
+
+        page = msgDao.getReceivedPage(bob.getId(), Collections.emptyList(), null, null, page.get(0), 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(lower.getId(), page.get(0).getId());
+        Assert.assertEquals(oldest.getId(), page.get(1).getId());
+
+        page = msgDao.getReceivedPage(bob.getId(), Collections.emptyList(), null, null, oldest, 2);
+        Assert.assertTrue(page.isEmpty());
+
+        page = msgDao.getReceivedPage(bob.getId(), Collections.emptyList(), new Date(1500), new Date(2000), null, 10);
+        Assert.assertEquals(2, page.size());
+    }
+
+    /**
+     * Tests that only undelivered messages are queued, oldest first, until they are marked delivered
+     */
+    @Test
+    public void testUndelivered() {
+        User alice = new User("alice", null, null, null, null, null);
+        User bob = new User("bob", null, null, null, null, null);
+        userDao.create(alice);
+        userDao.create(bob);
+        Message later = new Message(new Date(2000), alice, bob, "later", false);
+        Message earlier = new Message(new Date(1000), alice, bob, "earlier", false);
+        Message deleted = new Message(new Date(1500), alice, bob, "deleted", true);
+        Message toAlice = new Message(new Date(1200), bob, alice, "to alice", false);
+        for (Message msg : new Message[]{later, earlier, deleted, toAlice}) {
+            Assert.assertTrue(msgDao.create(msg));
+        }
+        // Stored before delivery was tracked, so it counts as delivered
+        DaoUtils.getCollection(MESSAGE_COLLECTION_NAME).insertOne(new BasicDBObject(MESSAGE_MESSAGE_ID_KEY, new ObjectId())
+                .append(MESSAGE_MESSAGE_TIMESTAMP_SENT_KEY, new Date(500))
+                .append(MESSAGE_SENDER_ID_KEY, alice.getId())
+                .append(MESSAGE_RECEIVER_ID_KEY, bob.getId())
+                .append(MESSAGE_DELETED_KEY, false));
+
+        List<Message> queued = msgDao.getUndelivered(bob.getId(), 10);
+        Assert.assertEquals(2, queued.size());
+        Assert.assertEquals(earlier.getId(), queued.get(0).getId());
+        Assert.assertEquals(later.getId(), queued.get(1).getId());
+        Assert.assertFalse(queued.get(0).isDelivered());
+        Assert.assertEquals(1, msgDao.getUndelivered(bob.getId(), 1).size());
+
+        // Alice's message is not Bob's to acknowledge
+        Assert.assertEquals(1, msgDao.markDelivered(bob.getId(), Arrays.asList(earlier.getId(), toAlice.getId())));
+        Assert.assertEquals(0, msgDao.markDelivered(bob.getId(), Collections.singletonList(earlier.getId())));
+        queued = msgDao.getUndelivered(bob.getId(), 10);
+        Assert.assertEquals(1, queued.size());
+        Assert.assertEquals(later.getId(), queued.get(0).getId());
+        Assert.assertEquals(1, msgDao.getUndelivered(alice.getId(), 10).size());
+    }
+
+    /**
+     * Tests that a group message is stored once, merged with direct messages, and pending per member
+     */
+    @Test
+    public void testGroupMessages() {
+        User alice = new User("alice", null, null, null, null, null);
+        User bob = new User("bob", null, null, null, null, null);
+        User carol = new User("carol", null, null, null, null, null);
+        userDao.create(alice);
+        userDao.create(bob);
+        userDao.create(carol);
+        Group group = new Group("friends", Arrays.asList(alice, bob, carol));
+        Message direct = new Message(new Date(1000), alice, bob, "direct", false);
+        Message toGroup = new Message(new Date(2000), alice, null, "to group", false);
+        toGroup.setGroup(group);
+        toGroup.setPendingIds(Arrays.asList(bob.getId(), carol.getId()));
+        Assert.assertTrue(msgDao.create(direct));
+        Assert.assertTrue(msgDao.create(toGroup));
+        Assert.assertEquals(1, DaoUtils.getCollection(MESSAGE_COLLECTION_NAME)
+                .countDocuments(new BasicDBObject(MESSAGE_GROUP_ID_KEY, group.getId())));
+
+        List<Message> queued = msgDao.getUndelivered(bob.getId(), 10);
+        Assert.assertEquals(2, queued.size());
+        Assert.assertEquals(direct.getId(), queued.get(0).getId());
+        Assert.assertEquals(toGroup.getId(), queued.get(1).getId());
+        Assert.assertEquals("friends", queued.get(1).getGroup().getGroupName());
+        Assert.assertEquals(group.getId(), queued.get(1).getGroup().getId());
+
+        Assert.assertEquals(2, msgDao.markDelivered(bob.getId(), Arrays.asList(direct.getId(), toGroup.getId())));
+        Assert.assertTrue(msgDao.getUndelivered(bob.getId(), 10).isEmpty());
+        queued = msgDao.getUndelivered(carol.getId(), 10);
+        Assert.assertEquals(1, queued.size());
+        Assert.assertEquals(Collections.singletonList(carol.getId()), queued.get(0).getPendingIds());
+        Assert.assertTrue(msgDao.getUndelivered(alice.getId(), 10).isEmpty());
+
+        List<Message> page = msgDao.getReceivedPage(bob.getId(), Collections.singletonList(group.getId()),
+                null, null, null, 10);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(toGroup.getId(), page.get(0).getId());
+        Assert.assertEquals(direct.getId(), page.get(1).getId());
+        // Without the group, only direct messages are in the history
+        Assert.assertTrue(msgDao.getReceivedPage(carol.getId(), Collections.emptyList(), null, null, null, 10)
+                .isEmpty());
+    }
+
     /**
      * Tests message creation
      */
+    /**
+     * Tests storing messages together, where one that cannot be stored does not keep the others out
+     */
+    @Test
+    public void testCreateAll() {
+        Assert.assertTrue(IndexBootstrap.createIndexes());
+        User alice = new User("alice", null, null, null, null, null);
+        User bob = new User("bob", null, null, null, null, null);
+        Message first = new Message(new Date(1000), alice, bob, "first", false);
+        Message second = new Message(new Date(2000), alice, bob, "second", false);
+        Assert.assertTrue(msgDao.create(second));
+        Message third = new Message(new Date(3000), bob, alice, "third", false);
+
+        List<Message> failed = msgDao.createAll(Arrays.asList(first, second, third));
+
+        Assert.assertEquals(Collections.singletonList(second), failed);
+        Assert.assertEquals(2, msgDao.getUndelivered(bob.getId(), 10).size());
+        Assert.assertEquals(1, msgDao.getUndelivered(alice.getId(), 10).size());
+        Assert.assertTrue(msgDao.createAll(Collections.singletonList(new Message(new Date(), alice, bob, "", false)))
+                .isEmpty());
+    }
+
     @Test
     public void testCreateMessageMock() {
         MongoConnector mockMongoConnector = mock(MongoConnector.class);
@@ -110,13 +264,18 @@ public class MessageDaoTest {
         when(mockMongoConnector.getMongoDatabase()).thenReturn(mockMongoDatabase);
         when(mockMongoDatabase.getCollection(MESSAGE_COLLECTION_NAME, BasicDBObject.class)).thenReturn(mockMongoCollection);
 
-        // Case 1 - False Path (no WriteException, for some reason count not updated)
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0));
+        // Case 1 - False Path (no WriteException, but the write was not acknowledged)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.UNACKNOWLEDGED);
         Assert.assertFalse(createMessageDao.create(msg));
 
-        // Case 2- True Path (no WriteException, )
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0)).thenReturn(new Long(1));
+        // Case 2- True Path (no WriteException, acknowledged write)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.ACKNOWLEDGED);
         Assert.assertTrue(createMessageDao.create(msg));
+
+        // Case 3 - False Path (WriteException)
+        doThrow(new MongoWriteException(new WriteError(11000, "duplicate key", new BsonDocument()), new ServerAddress()))
+                .when(mockMongoCollection).insertOne(any());
+        Assert.assertFalse(createMessageDao.create(msg));
     }
 
     /**
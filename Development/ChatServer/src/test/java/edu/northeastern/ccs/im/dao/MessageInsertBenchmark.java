@@ -0,0 +1,114 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import edu.northeastern.ccs.im.models.Message;
+import edu.northeastern.ccs.im.models.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages stored per second when they are written one at a time or gathered into batches of a few sizes,
+ * as the server stores them behind delivery. Every operation stores {@link #MESSAGES} messages.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=edu.northeastern.ccs.im.dao.MessageInsertBenchmark}, against the in-memory server by
+ * default, or against a real one with {@code -Dbenchmark.mongo.host=localhost}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageInsertBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    /**
+     * Messages stored with one write; 1 stores them one at a time.
+     */
+    @Param({"1", "16", "256"})
+    public int batchSize;
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoConnector connector;
+    private MessageDao msgDao;
+    private User alice;
+    private User bob;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String host = System.getProperty("benchmark.mongo.host");
+        if (host == null) {
+            server = new MongoServer(new MemoryBackend());
+            InetSocketAddress address = server.bind();
+            client = new MongoClient(new ServerAddress(address));
+        } else {
+            client = new MongoClient(host);
+        }
+        connector = new MongoConnector(client, client.getDatabase("benchmarkDB"));
+        DaoUtils.setFakeMongoConnector(connector);
+        IndexBootstrap.createIndexes();
+        msgDao = new MessageDao();
+        alice = new User("alice", null, null, null, null, null);
+        bob = new User("bob", null, null, null, null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.getDatabase("benchmarkDB").drop();
+        connector.closeConnection();
+        client.close();
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public int store() {
+        int failed = 0;
+        List<Message> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < MESSAGES; i++) {
+            batch.add(new Message(new Date(), alice, bob, "The quick brown fox jumps over the lazy dog.", false));
+            if (batch.size() == batchSize) {
+                if (batchSize == 1) {
+                    failed += msgDao.create(batch.get(0)) ? 0 : 1;
+                } else {
+                    failed += msgDao.createAll(batch).size();
+                }
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        return failed;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageInsertBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,72 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+public class MongoConnectorTest {
+    private MongoClient internalMongoClient;
+    private MongoServer internalMongoServer;
+
+    @Before
+    public void setUp() {
+        internalMongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress serverAddress = internalMongoServer.bind();
+        internalMongoClient = new MongoClient(new ServerAddress(serverAddress));
+    }
+
+    @Test
+    public void testFakeConnectorIsNotClosed() {
+        MongoConnector mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
+
+        mongoConnector.closeConnection();
+
+        // The client belongs to whoever provided the fake, so it is still usable
+        mongoConnector.getMongoDatabase().getCollection("test", BasicDBObject.class).insertOne(new BasicDBObject("a", 1));
+        Assert.assertEquals(1, mongoConnector.getMongoDatabase().getCollection("test").countDocuments());
+    }
+
+    @Test
+    public void testFakeConnectorIsUsedForEveryOperation() {
+        MongoConnector mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
+        DaoUtils.setFakeMongoConnector(mongoConnector);
+
+        Assert.assertTrue(DaoUtils.insertDBOjectInDB("test", new BasicDBObject("a", 1), "test"));
+        Assert.assertTrue(DaoUtils.insertDBOjectInDB("test", new BasicDBObject("a", 2), "test"));
+        Assert.assertEquals(2, DaoUtils.getDBObjectsFromDBMatchingCriteria("test", null).size());
+    }
+
+    @Test
+    public void testCloseSharedConnectorWhenNeverOpened() {
+        // Stopping the server before any Dao was used must not open a connection just to close it
+        DaoUtils.closeConnections();
+        DaoUtils.closeConnections();
+    }
+
+    @Test
+    public void testSharedConnectorNotReopenedAfterClose() {
+        // A Dao call made after the server stopped fails instead of opening a pool nobody closes
+        DaoUtils.setFakeMongoConnector(null);
+        DaoUtils.closeConnections();
+        try {
+            DaoUtils.getCollection("test");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("The connection to Mongo is closed", e.getMessage());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.internalMongoClient.close();
+        this.internalMongoServer.shutdownNow();
+    }
+}
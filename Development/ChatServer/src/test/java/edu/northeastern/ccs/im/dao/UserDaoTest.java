@@ -2,13 +2,17 @@ package edu.northeastern.ccs.im.dao;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoWriteException;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.result.UpdateResult;
 import de.bwaldvogel.mongo.MongoServer;
 import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
 import edu.northeastern.ccs.im.models.User;
+import org.bson.BsonDocument;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -19,6 +23,7 @@ import java.util.List;
 
 import static edu.northeastern.ccs.im.dao.Constants.USER_COLLECTION_NAME;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +43,7 @@ public class UserDaoTest {
 
         mongoConnector = new MongoConnector(internalMongoClient, internalMongoClient.getDatabase("testDB"));
         DaoUtils.setFakeMongoConnector(mongoConnector);
+        IndexBootstrap.createIndexes();
         userDao = new UserDao();
     }
 
@@ -97,13 +103,18 @@ public class UserDaoTest {
         when(mockMongoConnector.getMongoDatabase()).thenReturn(mockMongoDatabase);
         when(mockMongoDatabase.getCollection(USER_COLLECTION_NAME, BasicDBObject.class)).thenReturn(mockMongoCollection);
 
-        // Case 1 - False Path (no WriteException, for some reason count not updated)
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0));
+        // Case 1 - False Path (no WriteException, but the write was not acknowledged)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.UNACKNOWLEDGED);
         Assert.assertFalse(createUserDao.create(user));
 
-        // Case 2- True Path (no WriteException, )
-        when(mockMongoCollection.countDocuments()).thenReturn(new Long(0)).thenReturn(new Long(0)).thenReturn(new Long(1));
+        // Case 2- True Path (no WriteException, acknowledged write)
+        when(mockMongoCollection.getWriteConcern()).thenReturn(WriteConcern.ACKNOWLEDGED);
         Assert.assertTrue(createUserDao.create(user));
+
+        // Case 3 - False Path (WriteException)
+        doThrow(new MongoWriteException(new WriteError(11000, "duplicate key", new BsonDocument()), new ServerAddress()))
+                .when(mockMongoCollection).insertOne(any());
+        Assert.assertFalse(createUserDao.create(user));
     }
 
     @Test
@@ -0,0 +1,104 @@
+package edu.northeastern.ccs.im.dao;
+
+import com.mongodb.BasicDBObject;
+import edu.northeastern.ccs.im.models.User;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static edu.northeastern.ccs.im.dao.Constants.USER_USER_ID_KEY;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that ensure UserLoader resolves ids in batches and materializes each user once
+ */
+public class UserLoaderTest {
+    private UserDao userDao = mock(UserDao.class);
+    private UserLoader userLoader;
+
+    private ObjectId aliceId = new ObjectId(1000, 1);
+    private ObjectId bobId = new ObjectId(1000, 2);
+    private ObjectId missingId = new ObjectId(1000, 3);
+    private User alice;
+    private User bob;
+
+    @Before
+    public void initialize() {
+        userLoader = new UserLoader(userDao);
+
+        alice = new User("alice", null, null, null, null, null);
+        alice.setId(aliceId);
+        bob = new User("bob", null, null, null, null, null);
+        bob.setId(bobId);
+    }
+
+    private Map<String, Object> inCriteria(ObjectId... ids) {
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put(USER_USER_ID_KEY, new BasicDBObject("$in", Arrays.asList(ids)));
+        return criteria;
+    }
+
+    /**
+     * Tests that all pending ids are resolved by one query
+     */
+    @Test
+    public void testLoadBatchesIds() {
+        List<User> users = new ArrayList<>();
+        users.add(alice);
+        users.add(bob);
+        when(userDao.get(inCriteria(aliceId, bobId, missingId))).thenReturn(users);
+
+        userLoader.add(aliceId);
+        userLoader.add(bobId);
+        userLoader.add(aliceId);
+        userLoader.add(missingId);
+        userLoader.add(null);
+        userLoader.load();
+
+        Assert.assertSame(alice, userLoader.get(aliceId));
+        Assert.assertSame(bob, userLoader.get(bobId));
+        Assert.assertNull(userLoader.get(missingId));
+        Assert.assertNull(userLoader.get(null));
+        verify(userDao, times(1)).get(any());
+    }
+
+    /**
+     * Tests that a user is materialized once, however often it is referenced
+     */
+    @Test
+    public void testGetAllUsesIdentityMap() {
+        List<User> users = new ArrayList<>();
+        users.add(alice);
+        when(userDao.get(inCriteria(aliceId))).thenReturn(users);
+
+        List<User> result = userLoader.getAll(Arrays.asList(aliceId, aliceId));
+        List<User> again = userLoader.getAll(Arrays.asList(aliceId));
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertSame(result.get(0), result.get(1));
+        Assert.assertSame(result.get(0), again.get(0));
+        verify(userDao, times(1)).get(any());
+    }
+
+    /**
+     * Tests that loading with nothing pending does not query
+     */
+    @Test
+    public void testLoadNothingPending() {
+        userLoader.load();
+        Assert.assertTrue(userLoader.getAll(new ArrayList<>()).isEmpty());
+        verify(userDao, never()).get(any());
+    }
+}
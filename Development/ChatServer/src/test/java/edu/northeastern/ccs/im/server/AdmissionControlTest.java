@@ -0,0 +1,88 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class AdmissionControlTest {
+    private InetAddress first;
+    private InetAddress second;
+
+    @Before
+    public void setUp() throws UnknownHostException {
+        first = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+        second = InetAddress.getByAddress(new byte[]{10, 0, 0, 2});
+    }
+
+    /**
+     * one address cannot take more than its share, and its connections are counted back
+     */
+    @Test
+    public void test_admit_overAddressCap_rejected() {
+        AdmissionControl admission = new AdmissionControl(100, 2, 100);
+
+        AdmissionControl.Ticket ticket = admission.admit(first);
+        assertNotNull(admission.admit(first));
+        assertNull(admission.admit(first));
+        assertNotNull(admission.admit(second));
+        assertEquals(2, admission.getConnections(first));
+        assertEquals(1, admission.getRejected());
+
+        ticket.release();
+        ticket.release();
+        assertEquals(1, admission.getConnections(first));
+        assertEquals(2, admission.getConnections());
+        assertNotNull(admission.admit(first));
+    }
+
+    /**
+     * too many connections not logged in saturate the server until enough of them log in or leave
+     */
+    @Test
+    public void test_isSaturated_preLogin_untilLowWatermark() {
+        AdmissionControl admission = new AdmissionControl(100, 100, 20);
+        AdmissionControl.Ticket[] tickets = new AdmissionControl.Ticket[20];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = admission.admit(null);
+        }
+        assertTrue(admission.isSaturated());
+        assertNull(admission.admit(null));
+
+        tickets[0].loggedIn();
+        tickets[0].loggedIn();
+        assertFalse(admission.isSaturated());
+        assertFalse(admission.hasRoom());
+
+        tickets[1].release();
+        assertEquals(18, admission.getPreLogin());
+        assertEquals(19, admission.getConnections());
+        assertTrue(admission.hasRoom());
+    }
+
+    /**
+     * a connection released after logging in is only counted out once
+     */
+    @Test
+    public void test_release_afterLogin_countedOnce() {
+        AdmissionControl admission = new AdmissionControl(1, 1, 1);
+        AdmissionControl.Ticket ticket = admission.admit(first);
+        assertTrue(admission.isSaturated());
+
+        ticket.loggedIn();
+        ticket.release();
+        ticket.loggedIn();
+
+        assertEquals(0, admission.getConnections());
+        assertEquals(0, admission.getPreLogin());
+        assertEquals(0, admission.getConnections(first));
+    }
+}
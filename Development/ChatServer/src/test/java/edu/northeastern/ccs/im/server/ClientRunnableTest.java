@@ -2,11 +2,14 @@ package edu.northeastern.ccs.im.server;
 
 import edu.northeastern.ccs.im.LogAppenderResource;
 import edu.northeastern.ccs.im.communications.Message;
+import edu.northeastern.ccs.im.communications.MessageType;
 import edu.northeastern.ccs.im.communications.NetworkConnection;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Invitation;
 import edu.northeastern.ccs.im.models.User;
+import edu.northeastern.ccs.im.services.AsyncUserService;
 import edu.northeastern.ccs.im.services.GroupService;
+import edu.northeastern.ccs.im.services.HistoryPage;
 import edu.northeastern.ccs.im.services.InvitationService;
 import edu.northeastern.ccs.im.services.MessageService;
 import edu.northeastern.ccs.im.services.UserService;
@@ -15,9 +18,12 @@ import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 
 import static edu.northeastern.ccs.im.TestConstants.SRC_NAME;
@@ -35,6 +41,7 @@ public class ClientRunnableTest {
     private ClientRunnable clientRunnable;
     private GroupService mockedGroupService;
     private UserService mockedUserService;
+    private AsyncUserService mockedAsyncUserService;
     private MessageService mockedMessageService;
     //Emma
     private InvitationService mockedInvitationService;
@@ -58,13 +65,18 @@ public class ClientRunnableTest {
 
         mockedGroupService = mock(GroupService.class);
         mockedUserService = mock(UserService.class);
+        mockedAsyncUserService = mock(AsyncUserService.class);
         mockedMessageService = mock(MessageService.class);
         mockedInvitationService = mock(InvitationService.class);
 
         clientRunnable.setUserService(mockedUserService);
+        clientRunnable.setAsyncUserService(mockedAsyncUserService);
         clientRunnable.setGroupService(mockedGroupService);
         clientRunnable.setMsgService(mockedMessageService);
         clientRunnable.setInviteService(mockedInvitationService);
+        clientRunnable.setAuthExecutor(Runnable::run);
+        clientRunnable.setDatabaseExecutor(Runnable::run);
+        clientRunnable.setRateLimiter(new RateLimiter(Collections.emptyMap()));
     }
 
     /**
@@ -195,6 +207,138 @@ public class ClientRunnableTest {
         assertEquals(SRC_NAME, clientRunnable.getName());
     }
 
+    /**
+     * the password is checked on the auth pool; no further message is taken until the reply is sent
+     */
+    @Test
+    public void test_run_login_repliesOnceAuthPoolIsDone() {
+        List<Runnable> authTasks = new ArrayList<>();
+        clientRunnable.setAuthExecutor(authTasks::add);
+        Iterator<Message> iterator = getMockedIteratorForInitialize();
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeLoginMessage("srcName", "pw1"));
+        List<User> users = new ArrayList<>();
+        users.add(new User("srcName", "RQbC9TFqYMkG8VUIuf8hEA==", "sLZYheXbMxK8DG7+JR3xnQ==", null, null, null));
+        when(mockedUserService.getUsersByMap(anyMap())).thenReturn(users);
+        Runnable wakeup = mock(Runnable.class);
+        clientRunnable.setWakeup(wakeup);
+
+        clientRunnable.run();
+        clientRunnable.run();
+
+        assertFalse(clientRunnable.isInitialized());
+        assertFalse(clientRunnable.hasPendingInbound());
+        assertEquals(1, authTasks.size());
+        verify(iterator, times(1)).next();
+
+        authTasks.get(0).run();
+        // once for looking the user up, once for checking the password
+        verify(wakeup, times(2)).run();
+        assertTrue(clientRunnable.hasPendingInbound());
+        clientRunnable.run();
+
+        assertTrue(clientRunnable.isInitialized());
+        verify(connection).sendMessage(argThat(msg -> "Login Success!".equals(msg.getText())));
+    }
+
+    /**
+     * a resume token logs the user back in without hashing, and is swapped for a new one
+     */
+    @Test
+    public void test_run_resume_validToken_initialize() {
+        clientRunnable.setAuthExecutor(task -> fail());
+        ResumeTokens tokens = new ResumeTokens(new byte[32], 60000);
+        clientRunnable.setResumeTokens(tokens);
+        User user = new User("srcName", null, null, null, null, null);
+        String token = tokens.issue(user.getId());
+        Iterator<Message> iterator = getMockedIteratorForInitialize();
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeResumeMessage("srcName", token));
+        when(mockedUserService.getUsersByMap(anyMap())).thenReturn(Collections.singletonList(user));
+
+        clientRunnable.run();
+
+        assertTrue(clientRunnable.isInitialized());
+        assertEquals(SRC_NAME, clientRunnable.getName());
+        assertNull(tokens.verify(token));
+        ArgumentCaptor<Message> sent = ArgumentCaptor.forClass(Message.class);
+        verify(connection, atLeastOnce()).sendMessage(sent.capture());
+        String newToken = sent.getAllValues().stream().filter(Message::isResumeMessage)
+                .map(msg -> msg.getMsgToInfo().get("token")).findFirst().orElse(null);
+        assertEquals(user.getId(), tokens.verify(newToken));
+    }
+
+    /**
+     * two connections resuming with the same token at the same time do not both get in, even while the
+     * user of the first is still being looked up
+     */
+    @Test
+    public void test_run_resume_sameTokenTwice_onlyOneLooksUp() {
+        ResumeTokens tokens = new ResumeTokens(new byte[32], 60000);
+        User user = new User("srcName", null, null, null, null, null);
+        String token = tokens.issue(user.getId());
+        List<Runnable> databaseTasks = new ArrayList<>();
+        clientRunnable.setResumeTokens(tokens);
+        clientRunnable.setDatabaseExecutor(databaseTasks::add);
+        Iterator<Message> iterator = getMockedIteratorForInitialize();
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeResumeMessage("srcName", token));
+
+        NetworkConnection otherConnection = mock(NetworkConnection.class);
+        ClientRunnable other = new ClientRunnable(otherConnection);
+        other.setFuture(future);
+        other.setUserService(mockedUserService);
+        other.setResumeTokens(tokens);
+        other.setDatabaseExecutor(databaseTasks::add);
+        Iterator<Message> otherIterator = getMockedIteratorForInitialize();
+        when(otherConnection.iterator()).thenReturn(otherIterator);
+        when(otherIterator.next()).thenReturn(Message.makeResumeMessage("srcName", token));
+
+        clientRunnable.run();
+        other.run();
+
+        assertEquals(1, databaseTasks.size());
+        verify(otherConnection).sendMessage(argThat(msg -> msg.getText().startsWith("Resume failed")));
+        assertFalse(other.isInitialized());
+    }
+
+    /**
+     * an unknown token does not log anyone in
+     */
+    @Test
+    public void test_run_resume_badToken_notInitialize() {
+        Iterator<Message> iterator = getMockedIteratorForInitialize();
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeResumeMessage("srcName", "forged"));
+
+        clientRunnable.run();
+
+        assertFalse(clientRunnable.isInitialized());
+        verify(mockedUserService, never()).getUsersByMap(anyMap());
+        verify(connection).sendMessage(argThat(msg -> msg.getText().startsWith("Resume failed")));
+    }
+
+    /**
+     * a login that finds the auth pool full is told to come back later
+     */
+    @Test
+    public void test_run_login_authPoolFull_busy() {
+        clientRunnable.setAuthExecutor(task -> {
+            throw new RejectedExecutionException("full");
+        });
+        Iterator<Message> iterator = getMockedIteratorForInitialize();
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeLoginMessage("srcName", "pw1"));
+        List<User> users = new ArrayList<>();
+        users.add(new User("srcName", "RQbC9TFqYMkG8VUIuf8hEA==", "sLZYheXbMxK8DG7+JR3xnQ==", null, null, null));
+        when(mockedUserService.getUsersByMap(anyMap())).thenReturn(users);
+
+        clientRunnable.run();
+
+        assertFalse(clientRunnable.isInitialized());
+        verify(connection).sendMessage(argThat(msg -> msg.getText().startsWith("Server is busy")));
+    }
+
     /**
      * test for valid message, not initialize with wrong pw
      */
@@ -239,6 +383,164 @@ public class ClientRunnableTest {
         assertFalse(clientRunnable.isInitialized());
     }
 
+    /**
+     * a handler using the database runs on the database stage; the next message waits for it
+     */
+    @Test
+    public void test_run_databaseHandler_offloadedInOrder() {
+        List<Runnable> databaseTasks = new ArrayList<>();
+        clientRunnable.setDatabaseExecutor(databaseTasks::add);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true);
+        when(iterator.next()).thenReturn(Message.makeGetQueueMessage(SRC_NAME));
+        when(connection.iterator()).thenReturn(iterator);
+        when(connection.getBacklog()).thenReturn(1);
+        when(mockedUserService.getUsersByMap(anyMap())).thenReturn(Collections.emptyList());
+        Runnable wakeup = mock(Runnable.class);
+        clientRunnable.setWakeup(wakeup);
+
+        clientRunnable.run();
+        clientRunnable.run();
+
+        assertEquals(1, databaseTasks.size());
+        verify(iterator, times(1)).next();
+        verify(mockedMessageService, never()).getUndeliveredMessages(any(), anyInt());
+        assertFalse(clientRunnable.hasPendingInbound());
+
+        databaseTasks.get(0).run();
+        verify(mockedMessageService).getUndeliveredMessages(any(), anyInt());
+        verify(wakeup).run();
+        assertTrue(clientRunnable.hasPendingInbound());
+
+        clientRunnable.run();
+        verify(iterator, times(2)).next();
+        assertEquals(2, databaseTasks.size());
+    }
+
+    /**
+     * only the query runs on the database stage; the reply is sent once the client runs again
+     */
+    @Test
+    public void test_run_databaseHandler_replySentByClient() {
+        List<Runnable> databaseTasks = new ArrayList<>();
+        clientRunnable.setDatabaseExecutor(databaseTasks::add);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true, false);
+        when(iterator.next()).thenReturn(Message.makeGetQueueMessage(SRC_NAME));
+        when(connection.iterator()).thenReturn(iterator);
+        when(mockedMessageService.getUndeliveredMessages(any(), anyInt())).thenReturn(Collections.emptyList());
+
+        clientRunnable.run();
+        verify(connection, times(1)).sendMessage(any());
+
+        databaseTasks.get(0).run();
+        verify(mockedMessageService).getUndeliveredMessages(any(), anyInt());
+        verify(connection, times(1)).sendMessage(any());
+
+        clientRunnable.run();
+        verify(connection).sendMessage(argThat(msg -> "All queued messages sent!".equals(msg.getText())));
+    }
+
+    /**
+     * a full database stage does not turn the message away; the handler runs on the client's thread
+     */
+    @Test
+    public void test_run_databaseStageFull_runsHere() {
+        clientRunnable.setDatabaseExecutor(task -> {
+            throw new RejectedExecutionException();
+        });
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true, false);
+        when(iterator.next()).thenReturn(Message.makeGetQueueMessage(SRC_NAME));
+        when(connection.iterator()).thenReturn(iterator);
+
+        clientRunnable.run();
+
+        verify(mockedMessageService).getUndeliveredMessages(any(), anyInt());
+        assertFalse(clientRunnable.hasPendingInbound());
+    }
+
+    /**
+     * a request over the rate limit gets a throttle reply instead of a database hit
+     */
+    @Test
+    public void test_run_overRateLimit_throttled() {
+        clientRunnable.setRateLimiter(new RateLimiter(
+                Collections.singletonMap(MessageType.GET_HISTORY, "0.001/2")));
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true, true, true, false);
+        when(iterator.next()).thenReturn(Message.makeGetHistoryMessage(SRC_NAME));
+        when(connection.iterator()).thenReturn(iterator);
+        when(mockedMessageService.getHistoryPage(any(), any(), any(), any(), any(), anyInt()))
+                .thenReturn(new HistoryPage(Collections.emptyList(), null));
+
+        clientRunnable.run();
+
+        assertEquals(1, clientRunnable.getThrottled());
+        verify(mockedMessageService, times(2)).getHistoryPage(any(), any(), any(), any(), any(), anyInt());
+        verify(connection).sendMessage(argThat(msg -> msg.getText() != null && msg.getText().startsWith("Too many")));
+    }
+
+    /**
+     * a due heartbeat pings the client, and the pong is timed
+     */
+    @Test
+    public void test_run_heartbeatDue_pingSentAndPongTimed() {
+        Heartbeat heartbeat = new Heartbeat(60000, 3);
+        heartbeat.start(0);
+        clientRunnable.setHeartbeat(heartbeat);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        when(connection.sendMessage(any())).thenReturn(true);
+        Iterator<Message> iterator = getMockedIterator();
+        when(connection.iterator()).thenReturn(iterator);
+
+        clientRunnable.run();
+        verify(connection).sendMessage(argThat(msg -> "1".equals(msg.getMsgToInfo().get("seq"))));
+
+        when(iterator.hasNext()).thenReturn(true).thenReturn(false);
+        when(iterator.next()).thenReturn(Message.makePongMessage("srcName", "1"));
+        clientRunnable.run();
+
+        assertEquals(1, clientRunnable.getRoundTripTimes().getCount());
+        assertFalse(clientRunnable.isUnresponsive());
+        assertTrue(clientRunnable.getNextDeadline() > System.currentTimeMillis());
+        verify(future, never()).cancel(false);
+    }
+
+    /**
+     * a client that leaves its pings unanswered is first skipped, then dropped
+     */
+    @Test
+    public void test_run_pongsMissed_terminate() {
+        Heartbeat heartbeat = new Heartbeat(60000, 2);
+        clientRunnable.setHeartbeat(heartbeat);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        when(connection.sendMessage(any())).thenReturn(true);
+        when(connection.iterator()).thenReturn(getMockedIterator());
+
+        heartbeat.start(0);
+        clientRunnable.run();
+        heartbeat.start(0);
+        clientRunnable.run();
+        assertTrue(clientRunnable.isUnresponsive());
+        verify(future, never()).cancel(false);
+
+        heartbeat.start(0);
+        clientRunnable.run();
+        verify(connection, times(2)).sendMessage(argThat(msg -> msg.getMsgToInfo().containsKey("seq")));
+        verify(future).cancel(false);
+    }
+
     /**
      * if it is initialized, it should handle message.
      */
@@ -464,15 +766,60 @@ public class ClientRunnableTest {
         groups.add(null);
         when(mockedGroupService.getGroupsByMap(anyMap())).thenReturn(groups);
         when(mockedGroupService.containsUser(any(), any())).thenReturn(true);
+        when(mockedMessageService.makeGroupMessage(any(), eq(user), any(), any())).thenReturn(
+                new edu.northeastern.ccs.im.models.Message(new Date(), user, null, "hi", false));
 
         // Act
         clientRunnable.run();
 
         // Assert
         verify(mockedGroupService, times(1)).containsUser(any(), any());
+        verify(mockedMessageService, times(1)).makeGroupMessage(any(), eq(user), any(), any());
+        verify(mockedMessageService, times(1)).createMessage(any(edu.northeastern.ccs.im.models.Message.class));
+        verify(mockedUserService, never()).getUsersByMap(anyMap());
     }
 
 
+    /**
+     * a direct message is stored and forwarded once its recipient is looked up, and the messages after it wait
+     * for the lookup without a thread waiting on the database
+     */
+    @Test
+    public void test_run_sendDirectMessage_lookupPending_nextMessageWaits() {
+        User sender = new User(SRC_NAME, null, null, null, null, null);
+        User receiver = new User("srcName2", null, null, null, null, null);
+        CompletableFuture<User> lookup = new CompletableFuture<>();
+        when(mockedAsyncUserService.getUserByName("srcName2")).thenReturn(lookup);
+        when(connection.sendMessage(any())).thenReturn(true);
+        Map<String, String> payload = new HashMap<>();
+        payload.put("msg_type", MessageType.TO_USER.toString());
+        payload.put("sender_name", SRC_NAME);
+        payload.put("recipient_name", "srcName2");
+        payload.put("text", "hi");
+        Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true);
+        when(iteratorForIncomingMessage.next())
+                .thenReturn(Message.makeDirectMessage(SRC_NAME, "hi", payload))
+                .thenReturn(Message.makeBroadcastMessage(SRC_NAME, getBroadCastMsgInfo()));
+        when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(sender);
+
+        clientRunnable.run();
+
+        verify(iteratorForIncomingMessage, times(1)).next();
+        verify(mockedMessageService, never()).createMessage(any(edu.northeastern.ccs.im.models.Message.class));
+
+        lookup.complete(receiver);
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true, false);
+        clientRunnable.run();
+
+        verify(mockedMessageService).createMessage(argThat((edu.northeastern.ccs.im.models.Message stored) ->
+                stored != null && receiver.equals(stored.getReceiver())));
+        verify(iteratorForIncomingMessage, times(2)).next();
+        verify(mockedUserService, never()).getUsersByMap(anyMap());
+    }
+
     @Test
     public void test_run_sendDirectMessage_noSuchUser() {
         // Arrange
@@ -504,8 +851,7 @@ public class ClientRunnableTest {
         Message errorMsg = Message.makeSystemMessage("There is no such user: srcName2");
 
         // no user with the username exists
-        List<User> userList = new ArrayList<>();
-        when(mockedUserService.getUsersByMap(anyMap())).thenReturn(userList);
+        when(mockedAsyncUserService.getUserByName("srcName2")).thenReturn(CompletableFuture.completedFuture(null));
 
         // Verify that client runnable enqueues a no such user message
         // this message will get added to waitingList and in handleOutgoingMessage
@@ -520,6 +866,35 @@ public class ClientRunnableTest {
         verify(mockedWaitingList, times(1)).remove();
     }
 
+    /**
+     * a lookup of the recipient that fails is reported as a server error, not as a missing user
+     */
+    @Test
+    public void test_run_sendDirectMessage_lookupFailed_serverError() {
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true).thenReturn(false);
+        when(connection.iterator()).thenReturn(iterator);
+        Map<String, String> map = new HashMap<>();
+        map.put("msg_type", "USER");
+        map.put("sender_name", SRC_NAME);
+        map.put("recipient_name", "srcName2");
+        map.put("text", "hello");
+        when(iterator.next()).thenReturn(Message.makeDirectMessage(SRC_NAME, "hello", map));
+        CompletableFuture<User> lookup = new CompletableFuture<>();
+        lookup.completeExceptionally(new IllegalStateException("database down"));
+        when(mockedAsyncUserService.getUserByName("srcName2")).thenReturn(lookup);
+
+        clientRunnable.run();
+
+        verify(connection).sendMessage(argThat(msg -> msg.getText() != null
+                && msg.getText().startsWith("Server error")));
+        verify(connection, never()).sendMessage(argThat(msg -> msg.getText() != null
+                && msg.getText().startsWith("There is no such user")));
+        verify(mockedMessageService, never()).createMessage(any());
+    }
+
     @Test
     public void test_run_createGroup() {
         ConcurrentLinkedQueue<Message> mockedWaitingList = mock(ConcurrentLinkedQueue.class);
@@ -841,11 +1216,129 @@ public class ClientRunnableTest {
         verify(mockedWaitingList, times(1)).remove();
     }
 
+    /**
+     * every message that has arrived is handled in one run
+     */
+    @Test
+    public void test_run_severalMessages_allHandled() {
+        Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true, true, true, false);
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeBroadcastMessage(SRC_NAME, getBroadCastMsgInfo()));
+        when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User(SRC_NAME, null, null, null, null, null));
+
+        clientRunnable.run();
+
+        verify(iteratorForIncomingMessage, times(3)).next();
+        verify(mockedMessageService, times(3)).createMessage(any(edu.northeastern.ccs.im.models.Message.class));
+    }
+
+    /**
+     * a message sent while the persister runs is stored in a batch, and the sender is told once it is
+     */
+    @Test
+    public void test_run_persisterRunning_storedInBatchAndAcked() throws InterruptedException {
+        MessagePersister persister = new MessagePersister(mockedMessageService, 16, 1, 16);
+        persister.start();
+        clientRunnable.setPersister(persister);
+        when(mockedMessageService.createMessages(anyList())).thenReturn(Collections.emptyList());
+        when(connection.sendMessage(any())).thenReturn(true);
+        Map<String, String> payload = getBroadCastMsgInfo();
+        payload.put(Message.REF_KEY, "m1");
+        Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true, false);
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeBroadcastMessage(SRC_NAME, payload));
+        when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User(SRC_NAME, null, null, null, null, null));
+
+        clientRunnable.run();
+        verify(mockedMessageService, timeout(2000)).createMessages(argThat(messages -> messages.size() == 1));
+        persister.shutdown();
+        clientRunnable.run();
+
+        verify(mockedMessageService, never()).createMessage(any(edu.northeastern.ccs.im.models.Message.class));
+        verify(connection).sendMessage(argThat(msg -> msg.isAckMessage()
+                && "true".equals(msg.getMsgToInfo().get("stored")) && "m1".equals(msg.getMsgToInfo().get("ref"))));
+        assertEquals(1, persister.getStored());
+    }
+
+    /**
+     * a run stops at its budget, and what is left is reported as backlog
+     */
+    @Test
+    public void test_run_overBudget_leavesBacklog() {
+        Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true);
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeBroadcastMessage(SRC_NAME, getBroadCastMsgInfo()));
+        when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
+        when(connection.getBacklog()).thenReturn(5);
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User(SRC_NAME, null, null, null, null, null));
+        clientRunnable.setInboundBudget(2);
+
+        clientRunnable.run();
+
+        verify(iteratorForIncomingMessage, times(2)).next();
+        assertEquals(5, clientRunnable.getInboundBacklog());
+        assertTrue(clientRunnable.hasPendingInbound());
+    }
+
+    /**
+     * messages stay queued while the client is behind, and one that fell too far behind is dropped
+     */
+    @Test
+    public void test_run_writeBlocked_keepsMessagesQueued() {
+        when(connection.iterator()).thenReturn(getMockedIterator());
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User(SRC_NAME, null, null, null, null, null));
+        clientRunnable.enqueueMessage(Message.makeSystemMessage("first"));
+        clientRunnable.enqueueMessage(Message.makeSystemMessage("second"));
+        when(connection.sendMessage(any())).thenReturn(true);
+        when(connection.isWriteBlocked()).thenReturn(false, true);
+
+        clientRunnable.run();
+
+        verify(connection, times(1)).sendMessage(any());
+        assertTrue(clientRunnable.hasPendingOutbound());
+        verify(connection, never()).close();
+
+        when(connection.hasPendingWrites()).thenReturn(true);
+        when(connection.isWriteFailed()).thenReturn(true);
+        clientRunnable.run();
+
+        verify(connection).flush();
+        verify(connection).close();
+    }
+
+    /**
+     * a client whose full queue refuses messages is disconnected on its next run
+     */
+    @Test
+    public void test_enqueueMessage_queueOverflowed_terminates() {
+        when(connection.iterator()).thenReturn(getMockedIterator());
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User(SRC_NAME, null, null, null, null, null));
+        clientRunnable.setWaitingList(new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT));
+        when(connection.isWriteBlocked()).thenReturn(true);
+
+        clientRunnable.enqueueMessage(Message.makeSystemMessage("first"));
+        clientRunnable.enqueueMessage(Message.makeSystemMessage("second"));
+        assertEquals(1, clientRunnable.getOutboundDepth());
+        assertEquals(1, clientRunnable.getOutboundPeakDepth());
+        assertEquals(1, clientRunnable.getOutboundDropped());
+
+        clientRunnable.run();
+
+        verify(connection).close();
+    }
+
     @Test
     public void test_request_to_join_send_msg() {
         // Arrange
         Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
-        when(iteratorForIncomingMessage.hasNext()).thenReturn(true).thenReturn(true).thenReturn(false);
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true).thenReturn(false);
         //when(connection.iterator()).thenReturn(iteratorForInitialize).thenReturn(iteratorForIncomingMessage);
         when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
         clientRunnable.setInitialized(true);
@@ -1008,52 +1501,53 @@ public class ClientRunnableTest {
     }
 
     /**
-     * Tests whether message is correctly stored upon message sending
+     * a direct message is stored from the sender to the recipient, and the sender is told when it could not be
      */
     @Test
-    public void testStoreMessage() {
-        assertFalse(clientRunnable.storeMessage("barUser", "sending"));
-        List<User> users = new ArrayList<>();
-        User sender = new User("fooUser", null, null, null, null, null);
+    public void test_run_sendDirectMessage_storeFailed_senderTold() {
+        User sender = new User(SRC_NAME, null, null, null, null, null);
         User receiver = new User("barUser", null, null, null, null, null);
-        users.add(receiver);
+        when(mockedAsyncUserService.getUserByName("barUser")).thenReturn(CompletableFuture.completedFuture(receiver));
+        when(mockedMessageService.createMessage(any(edu.northeastern.ccs.im.models.Message.class))).thenReturn(false);
+        when(connection.sendMessage(any())).thenReturn(true);
+        Map<String, String> payload = new HashMap<>();
+        payload.put("msg_type", MessageType.TO_USER.toString());
+        payload.put("sender_name", SRC_NAME);
+        payload.put("recipient_name", "barUser");
+        payload.put("text", "sending");
+        Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
+        when(iteratorForIncomingMessage.hasNext()).thenReturn(true, false);
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeDirectMessage(SRC_NAME, "sending", payload));
+        when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
+        clientRunnable.setInitialized(true);
         clientRunnable.setUser(sender);
-        when(mockedUserService.getUsersByMap(isA(Map.class))).thenReturn(users);
-        when(mockedMessageService.createMessage(isA(Date.class), eq(sender), eq(receiver), eq("sending"))).thenReturn(true);
-        assertTrue(clientRunnable.storeMessage("barUser", "sending"));
+
+        clientRunnable.run();
+        clientRunnable.run();
+
+        verify(mockedMessageService).createMessage(argThat((edu.northeastern.ccs.im.models.Message stored) ->
+                stored != null && sender.equals(stored.getSender()) && receiver.equals(stored.getReceiver())
+                        && "sending".equals(stored.getMessageBody())));
+        verify(connection).sendMessage(argThat(msg -> msg.isAckMessage()
+                && "false".equals(msg.getMsgToInfo().get("stored"))));
     }
 
     /**
-     * Tests whether user is able to receive all message queues from logout time
+     * Tests whether user is able to receive the messages it has not acknowledged
      */
     @Test
     public void testMessageQueueing() {
         // Arrange
-        List<Date> logins = new ArrayList<>();
-        logins.add(new Date(0));
-
-        List<Date> logouts = new ArrayList<>();
-        logouts.add(new Date(10000));
-        User sender = new User("sender", null, null, null, logins, logouts);
-        User receiver = new User("srcName", null, null, null, logins, logouts);
-        Iterator<Message> iteratorForInitialize = getMockedIteratorForInitialize();
+        User sender = new User("sender", null, null, null, null, null);
+        User receiver = new User("srcName", null, null, null, null, null);
 
         Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
         when(iteratorForIncomingMessage.hasNext()).thenReturn(true).thenReturn(false);
         when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
         clientRunnable.setInitialized(true);
         clientRunnable.setUser(receiver);
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeGetQueueMessage(SRC_NAME));
 
-        Message msg = mock(Message.class);
-        when(msg.getName()).thenReturn(SRC_NAME).thenReturn(SRC_NAME);
-        when(msg.isBroadcastMessage()).thenReturn(false);
-        when(msg.isGetQueueMessage()).thenReturn(true);
-        when(iteratorForIncomingMessage.next()).thenReturn(msg);
-
-        clientRunnable.setUser(receiver);
-
-        edu.northeastern.ccs.im.models.Message messageBefore = new edu.northeastern.ccs.im.models.Message(new Date(2000),
-                sender, receiver, "Before logout message", false);
         edu.northeastern.ccs.im.models.Message message1 = new edu.northeastern.ccs.im.models.Message(new Date(15000),
                 sender, receiver, "After logout message", false);
         edu.northeastern.ccs.im.models.Message message2 = new edu.northeastern.ccs.im.models.Message(new Date(30000),
@@ -1062,70 +1556,93 @@ public class ClientRunnableTest {
                 sender, receiver, "Even later after logout message", false);
 
         List<edu.northeastern.ccs.im.models.Message> messageQueue = new ArrayList<>();
-        messageQueue.add(messageBefore);
         messageQueue.add(message1);
         messageQueue.add(message2);
         messageQueue.add(message3);
-        when(mockedMessageService.getMessagesByMap(isA(Map.class))).thenReturn(messageQueue);
+        when(mockedMessageService.getUndeliveredMessages(receiver, ServerConstants.QUEUE_PAGE_SIZE))
+                .thenReturn(messageQueue);
 
         // Act
         clientRunnable.run();
 
         //Two messages sent for "Getting queued messages..." and "All queued messages sent!" system messages.
-        //Three messages for queued messages since last logout. Total: 5 messages sent.
+        //Three messages for queued messages. Total: 5 messages sent.
         verify(connection, times(5)).sendMessage(any());
+        verify(connection).sendMessage(argThat(msg -> msg.getMsgToInfo() != null
+                && message2.getId().toHexString().equals(msg.getMsgToInfo().get(Message.MESSAGE_ID_KEY))));
+        verify(connection).sendMessage(argThat(msg -> "All queued messages sent!".equals(msg.getText())));
+        verify(mockedMessageService, never()).createMessage(any(), any(), any(), any());
     }
 
     /**
-     * Tests whether user is able to receive all message queues when it's his or her first time logging in
+     * Tests that a full queue tells the client there is more to get
      */
     @Test
-    public void testMessageQueueing_NoLogout() {
+    public void testMessageQueueing_fullPage() {
         // Arrange
-        List<Date> logins = new ArrayList<>();
-        logins.add(new Date(0));
-
-        List<Date> logouts = new ArrayList<>();
-        User sender = new User("sender", null, null, null, logins, logouts);
-        User receiver = new User("srcName", null, null, null, logins, null);
-        Iterator<Message> iteratorForInitialize = getMockedIteratorForInitialize();
+        User sender = new User("sender", null, null, null, null, null);
+        User receiver = new User("srcName", null, null, null, null, null);
 
         Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
         when(iteratorForIncomingMessage.hasNext()).thenReturn(true).thenReturn(false);
         when(connection.iterator()).thenReturn(iteratorForIncomingMessage);
         clientRunnable.setInitialized(true);
         clientRunnable.setUser(receiver);
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeGetQueueMessage(SRC_NAME));
 
-        Message msg = mock(Message.class);
-        when(msg.getName()).thenReturn(SRC_NAME).thenReturn(SRC_NAME);
-        when(msg.isBroadcastMessage()).thenReturn(false);
-        when(msg.isGetQueueMessage()).thenReturn(true);
-        when(iteratorForIncomingMessage.next()).thenReturn(msg);
+        List<edu.northeastern.ccs.im.models.Message> messageQueue = new ArrayList<>();
+        for (int i = 0; i < ServerConstants.QUEUE_PAGE_SIZE; i++) {
+            messageQueue.add(new edu.northeastern.ccs.im.models.Message(new Date(i), sender, receiver, "m" + i, false));
+        }
+        when(mockedMessageService.getUndeliveredMessages(receiver, ServerConstants.QUEUE_PAGE_SIZE))
+                .thenReturn(messageQueue);
 
+        // Act
+        clientRunnable.run();
+
+        verify(connection, times(ServerConstants.QUEUE_PAGE_SIZE + 2)).sendMessage(any());
+        verify(connection).sendMessage(argThat(msg -> msg.getText() != null
+                && msg.getText().startsWith("More queued messages")));
+    }
+
+    /**
+     * Tests that acknowledged messages are marked delivered
+     */
+    @Test
+    public void testAcknowledgeMessages() {
+        User receiver = new User("srcName", null, null, null, null, null);
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true).thenReturn(false);
+        when(connection.iterator()).thenReturn(iterator);
+        clientRunnable.setInitialized(true);
         clientRunnable.setUser(receiver);
+        ObjectId id1 = new ObjectId();
+        ObjectId id2 = new ObjectId();
+        when(iterator.next()).thenReturn(Message.makeAckMessage(SRC_NAME, id1.toHexString() + ", " + id2));
 
-        edu.northeastern.ccs.im.models.Message messageBefore = new edu.northeastern.ccs.im.models.Message(new Date(2000),
-                sender, receiver, "Some message", false);
-        edu.northeastern.ccs.im.models.Message message1 = new edu.northeastern.ccs.im.models.Message(new Date(15000),
-                sender, receiver, "After message", false);
-        edu.northeastern.ccs.im.models.Message message2 = new edu.northeastern.ccs.im.models.Message(new Date(30000),
-                sender, receiver, "Later message", false);
-        edu.northeastern.ccs.im.models.Message message3 = new edu.northeastern.ccs.im.models.Message(new Date(30000),
-                sender, receiver, "Even later message", false);
+        clientRunnable.run();
 
-        List<edu.northeastern.ccs.im.models.Message> messageQueue = new ArrayList<>();
-        messageQueue.add(messageBefore);
-        messageQueue.add(message1);
-        messageQueue.add(message2);
-        messageQueue.add(message3);
-        when(mockedMessageService.getMessagesByMap(isA(Map.class))).thenReturn(messageQueue);
+        verify(mockedMessageService).markDelivered(receiver, Arrays.asList(id1, id2));
+        verify(connection, never()).sendMessage(any());
+    }
+
+    /**
+     * Tests that an acknowledgement with a bad id marks nothing delivered
+     */
+    @Test
+    public void testAcknowledgeMessages_invalidId() {
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true).thenReturn(false);
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeAckMessage(SRC_NAME, new ObjectId() + ",nope"));
 
-        // Act
         clientRunnable.run();
 
-        //Two messages sent for "Getting queued messages..." and "All queued messages sent!" system messages.
-        //Four messages for queued messages since last logout. Total: 5 messages sent.
-        verify(connection, times(6)).sendMessage(any());
+        verify(mockedMessageService, never()).markDelivered(any(), any());
+        verify(connection).sendMessage(argThat(msg -> msg.getText() != null
+                && msg.getText().startsWith("Invalid message id")));
     }
 
     /**
@@ -1134,13 +1651,8 @@ public class ClientRunnableTest {
     @Test
     public void testMessageHistory() {
         // Arrange
-        List<Date> logins = new ArrayList<>();
-        logins.add(new Date(0));
-
-        List<Date> logouts = new ArrayList<>();
-        logouts.add(new Date(10000));
-        User sender = new User("sender", null, null, null, logins, logouts);
-        User receiver = new User("srcName", null, null, null, logins, logouts);
+        User sender = new User("sender", null, null, null, null, null);
+        User receiver = new User("srcName", null, null, null, null, null);
 
         Iterator<Message> iteratorForIncomingMessage = getMockedIterator();
         when(iteratorForIncomingMessage.hasNext()).thenReturn(true).thenReturn(false);
@@ -1148,36 +1660,56 @@ public class ClientRunnableTest {
         clientRunnable.setInitialized(true);
         clientRunnable.setUser(receiver);
 
-        Message msg = mock(Message.class);
-        when(msg.getName()).thenReturn(SRC_NAME).thenReturn(SRC_NAME);
-        when(msg.isBroadcastMessage()).thenReturn(false);
-        when(msg.isGetMessageHistory()).thenReturn(true);
-        when(iteratorForIncomingMessage.next()).thenReturn(msg);
-
-        clientRunnable.setUser(receiver);
-
-        edu.northeastern.ccs.im.models.Message messageBefore = new edu.northeastern.ccs.im.models.Message(new Date(2000),
-                sender, receiver, "Before logout message", false);
-        edu.northeastern.ccs.im.models.Message message1 = new edu.northeastern.ccs.im.models.Message(new Date(15000),
-                sender, receiver, "After logout message", false);
-        edu.northeastern.ccs.im.models.Message message2 = new edu.northeastern.ccs.im.models.Message(new Date(30000),
-                sender, receiver, "Later after logout message", false);
-        edu.northeastern.ccs.im.models.Message message3 = new edu.northeastern.ccs.im.models.Message(new Date(30000),
-                sender, receiver, "Even later after logout message", false);
+        Map<String, String> request = new HashMap<>();
+        request.put("limit", "2");
+        request.put("since", "1000");
+        request.put(Message.CURSOR_KEY, "abc");
+        when(iteratorForIncomingMessage.next()).thenReturn(Message.makeGetHistoryMessage(SRC_NAME, request));
 
+        edu.northeastern.ccs.im.models.Message message1 = new edu.northeastern.ccs.im.models.Message(new Date(30000),
+                sender, receiver, "Later message", false);
+        edu.northeastern.ccs.im.models.Message message2 = new edu.northeastern.ccs.im.models.Message(new Date(15000),
+                sender, receiver, "Earlier message", false);
         List<edu.northeastern.ccs.im.models.Message> history = new ArrayList<>();
-        history.add(messageBefore);
+        Group group = new Group("fooGroup", Collections.singletonList(sender));
+        message2.setGroup(group);
         history.add(message1);
         history.add(message2);
-        history.add(message3);
-        when(mockedMessageService.getMessagesByMap(isA(Map.class))).thenReturn(history);
+        List<ObjectId> groupIds = Collections.singletonList(group.getId());
+        when(mockedGroupService.getGroupIds(receiver)).thenReturn(groupIds);
+        when(mockedMessageService.getHistoryPage(receiver, groupIds, new Date(1000), null, "abc", 2))
+                .thenReturn(new HistoryPage(history, "next"));
 
         // Act
         clientRunnable.run();
 
-        //Two messages sent for system messages.
-        //Four messages for all messages. Total: 6 messages sent.
-        verify(connection, times(6)).sendMessage(any());
+        //One message for "Getting message history...", two for the page and one for the cursor of the next page.
+        verify(connection, times(4)).sendMessage(any());
+        verify(connection).sendMessage(argThat(msg -> msg.getMsgToInfo() != null
+                && "next".equals(msg.getMsgToInfo().get(Message.CURSOR_KEY))));
+        verify(connection).sendMessage(argThat(msg -> msg.isToGroup()
+                && "fooGroup".equals(msg.getMsgToInfo().get("group_name"))));
+        verify(mockedMessageService, never()).createMessage(any(), any(), any(), any());
+    }
+
+    /**
+     * Tests that a history request that cannot be read is answered without a database hit
+     */
+    @Test
+    public void testMessageHistory_invalidRequest() {
+        clientRunnable.setInitialized(true);
+        clientRunnable.setUser(new User("srcName", null, null, null, null, null));
+        Iterator<Message> iterator = getMockedIterator();
+        when(iterator.hasNext()).thenReturn(true).thenReturn(false);
+        when(connection.iterator()).thenReturn(iterator);
+        when(iterator.next()).thenReturn(Message.makeGetHistoryMessage(SRC_NAME,
+                Collections.singletonMap("limit", "many")));
+
+        clientRunnable.run();
+
+        verify(mockedMessageService, never()).getHistoryPage(any(), any(), any(), any(), any(), anyInt());
+        verify(connection).sendMessage(argThat(msg -> msg.getText() != null
+                && msg.getText().startsWith("Invalid history request")));
     }
 
     @Test
@@ -2,7 +2,7 @@ package edu.northeastern.ccs.im.server;
 
 import org.junit.Test;
 
-import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -20,11 +20,11 @@ public class ClientTimerTest {
     @Test
     public void testUpdateAfterInitialization() {
         ClientTimer ct = new ClientTimer();
-        GregorianCalendar now = new GregorianCalendar();
+        long now = System.currentTimeMillis();
 
         ct.updateAfterInitialization();
 
-        assertTrue(ct.getCalendar().getTimeInMillis() >= now.getTimeInMillis() + TERMINATE_AFTER_INACTIVE_INITIAL_IN_MS);
+        assertTrue(ct.getDeadline() >= now + TERMINATE_AFTER_INACTIVE_INITIAL_IN_MS);
     }
 
     /**
@@ -33,15 +33,15 @@ public class ClientTimerTest {
     @Test
     public void testUpdateAfterActivity() {
         ClientTimer ct = new ClientTimer();
-        GregorianCalendar now = new GregorianCalendar();
+        long now = System.currentTimeMillis();
 
         ct.updateAfterActivity();
 
-        assertTrue(ct.getCalendar().getTimeInMillis() >= now.getTimeInMillis() + TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS);
+        assertTrue(ct.getDeadline() >= now + TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS);
     }
 
     /**
-     * set a calendar and test when it is left behind
+     * set a deadline and test when it is left behind
      */
     @Test
     public void testIsBehind() {
@@ -49,9 +49,7 @@ public class ClientTimerTest {
         // should return false for a newly created ClientTimer
         assertFalse(ct.isBehind());
 
-        GregorianCalendar calendar = ct.getCalendar();
-        calendar.add(GregorianCalendar.HOUR, -5);
-        ct.setCalendar(calendar);
+        ct.setDeadline(ct.getDeadline() - TimeUnit.HOURS.toMillis(5));
         // should return true for a ClientTimer that is past 5 hours without activity
         assertTrue(ct.isBehind());
     }
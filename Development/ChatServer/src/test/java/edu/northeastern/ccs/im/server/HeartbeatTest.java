@@ -0,0 +1,67 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class HeartbeatTest {
+
+    /**
+     * nothing is due before the heartbeat is started, or when pings are turned off
+     */
+    @Test
+    public void test_isDue_notStartedOrOff_never() {
+        Heartbeat heartbeat = new Heartbeat(1000, 3);
+        assertFalse(heartbeat.isDue(Long.MAX_VALUE - 1));
+
+        Heartbeat off = new Heartbeat(0, 3);
+        off.start(0);
+        assertEquals(Long.MAX_VALUE, off.getNextPingAt());
+    }
+
+    /**
+     * pings are due an interval apart, and the answer to the last one is timed
+     */
+    @Test
+    public void test_pong_lastPing_recorded() {
+        Heartbeat heartbeat = new Heartbeat(1000, 3);
+        heartbeat.start(0);
+        assertFalse(heartbeat.isDue(999));
+        assertTrue(heartbeat.isDue(1000));
+
+        assertEquals(1, heartbeat.ping(1000, 0));
+        assertEquals(2000, heartbeat.getNextPingAt());
+        assertFalse(heartbeat.pong(7, 10));
+        assertTrue(heartbeat.pong(1, 5000000));
+        assertFalse(heartbeat.pong(1, 6000000));
+
+        assertEquals(1, heartbeat.getRoundTripTimes().getCount());
+        assertEquals(5000, heartbeat.getRoundTripTimes().getLastMicros());
+    }
+
+    /**
+     * unanswered pings add up until the client counts as gone, and a pong makes up for them
+     */
+    @Test
+    public void test_ping_unanswered_dead() {
+        Heartbeat heartbeat = new Heartbeat(1000, 2);
+        heartbeat.start(0);
+
+        heartbeat.ping(1000, 0);
+        assertEquals(0, heartbeat.getMissed());
+        long second = heartbeat.ping(2000, 0);
+        assertEquals(1, heartbeat.getMissed());
+        assertFalse(heartbeat.isDead());
+
+        heartbeat.pong(second, 100);
+        assertEquals(0, heartbeat.getMissed());
+
+        heartbeat.ping(3000, 0);
+        heartbeat.ping(4000, 0);
+        heartbeat.ping(5000, 0);
+        assertTrue(heartbeat.isDead());
+    }
+}
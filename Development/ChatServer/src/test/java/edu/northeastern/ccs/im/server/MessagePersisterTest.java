@@ -0,0 +1,210 @@
+package edu.northeastern.ccs.im.server;
+
+import com.mongodb.MongoException;
+import edu.northeastern.ccs.im.models.Message;
+import edu.northeastern.ccs.im.services.MessageService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class MessagePersisterTest {
+    private MessageService msgService;
+    private MessagePersister persister;
+    private ConcurrentHashMap<Message, Boolean> told;
+
+    @Before
+    public void setUp() {
+        msgService = mock(MessageService.class);
+        when(msgService.createMessages(anyList())).thenReturn(Collections.emptyList());
+        told = new ConcurrentHashMap<>();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (persister != null) {
+            persister.shutdown();
+        }
+    }
+
+    /**
+     * a persister that was not started turns every message away
+     */
+    @Test
+    public void test_submit_notStarted_rejected() {
+        persister = new MessagePersister(msgService, 4, 1, 4);
+
+        assertFalse(submit(message()));
+        assertEquals(1, persister.getRejected());
+    }
+
+    /**
+     * messages are stored together once the batch is full, without waiting out the delay
+     */
+    @Test
+    public void test_submit_batchFull_storedTogether() throws InterruptedException {
+        persister = new MessagePersister(msgService, 3, 60000, 16);
+        persister.start();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(submit(message()));
+        }
+
+        verify(msgService, timeout(2000)).createMessages(argThat(messages -> messages.size() == 3));
+        waitForTold(3);
+        assertEquals(1, persister.getBatches());
+        assertEquals(3, persister.getStored());
+    }
+
+    /**
+     * a batch that does not fill is stored once the delay is over
+     */
+    @Test
+    public void test_submit_delayOver_storedAlone() throws InterruptedException {
+        persister = new MessagePersister(msgService, 100, 10, 16);
+        persister.start();
+        Message msg = message();
+
+        submit(msg);
+
+        verify(msgService, timeout(2000)).createMessages(Collections.singletonList(msg));
+        waitForTold(1);
+        assertTrue(told.get(msg));
+    }
+
+    /**
+     * the senders of messages that were not stored are told so
+     */
+    @Test
+    public void test_flush_someLost_sendersTold() throws InterruptedException {
+        Message stored = message();
+        Message lost = message();
+        when(msgService.createMessages(anyList())).thenReturn(Collections.singletonList(lost));
+        persister = new MessagePersister(msgService, 2, 60000, 16);
+        persister.start();
+
+        submit(stored);
+        submit(lost);
+
+        waitForTold(2);
+        assertTrue(told.get(stored));
+        assertFalse(told.get(lost));
+        assertEquals(1, persister.getFailed());
+    }
+
+    /**
+     * a batch the database fails on as a whole is reported lost, and the persister goes on
+     */
+    @Test
+    public void test_flush_databaseDown_allLost() throws InterruptedException {
+        when(msgService.createMessages(anyList())).thenThrow(new MongoException("down"))
+                .thenReturn(Collections.emptyList());
+        persister = new MessagePersister(msgService, 1, 1, 16);
+        persister.start();
+        Message first = message();
+        Message second = message();
+
+        submit(first);
+        waitForTold(1);
+        submit(second);
+        waitForTold(2);
+
+        assertFalse(told.get(first));
+        assertTrue(told.get(second));
+    }
+
+    /**
+     * a batch that cannot even be built is reported lost, and the thread keeps storing the batches after it
+     */
+    @Test
+    public void test_flush_unexpectedFailure_persisterGoesOn() throws InterruptedException {
+        when(msgService.createMessages(anyList())).thenThrow(new IllegalStateException("bad message"))
+                .thenReturn(Collections.emptyList());
+        persister = new MessagePersister(msgService, 1, 1, 16);
+        persister.start();
+        Message first = message();
+        Message second = message();
+
+        submit(first);
+        waitForTold(1);
+        assertTrue(submit(second));
+        waitForTold(2);
+
+        assertFalse(told.get(first));
+        assertTrue(told.get(second));
+        assertEquals(1, persister.getFailed());
+        assertEquals(1, persister.getStored());
+    }
+
+    /**
+     * messages beyond the queue are turned away while the database is slow
+     */
+    @Test
+    public void test_submit_queueFull_rejected() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(msgService.createMessages(anyList())).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await(2, TimeUnit.SECONDS);
+            return Collections.emptyList();
+        });
+        persister = new MessagePersister(msgService, 1, 1, 1);
+        persister.start();
+
+        assertTrue(submit(message()));
+        assertTrue(writing.await(2, TimeUnit.SECONDS));
+        assertTrue(submit(message()));
+        assertFalse(submit(message()));
+        assertEquals(1, persister.getRejected());
+
+        release.countDown();
+        waitForTold(2);
+    }
+
+    /**
+     * messages still waiting when the persister is shut down are stored before it returns
+     */
+    @Test
+    public void test_shutdown_waitingStored() throws InterruptedException {
+        persister = new MessagePersister(msgService, 2, 60000, 16);
+        persister.start();
+        submit(message());
+
+        persister.shutdown();
+
+        assertEquals(1, told.size());
+        assertEquals(1, persister.getStored());
+        assertFalse(submit(message()));
+    }
+
+    private boolean submit(Message msg) {
+        return persister.submit(msg, isStored -> told.put(msg, isStored));
+    }
+
+    private static Message message() {
+        return new Message(new Date(), null, null, "hi", false);
+    }
+
+    private void waitForTold(int count) throws InterruptedException {
+        for (int i = 0; i < 200 && told.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, told.size());
+    }
+}
@@ -0,0 +1,110 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.Message;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class OutboundQueueTest {
+
+    private static Message chat(String text) {
+        Map<String, String> info = new HashMap<>();
+        info.put("text", text);
+        return Message.makeBroadcastMessage("alice", info);
+    }
+
+    /**
+     * the oldest message makes room for the new one
+     */
+    @Test
+    public void test_add_dropOldest_keepsNewest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+
+        assertTrue(queue.add(chat("1")));
+        assertTrue(queue.add(chat("2")));
+        assertTrue(queue.add(chat("3")));
+
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getPeakDepth());
+        assertEquals(1, queue.getDropped());
+        assertEquals("2", queue.remove().getText());
+        assertEquals("3", queue.remove().getText());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * chat gives way to system messages
+     */
+    @Test
+    public void test_add_dropNonSystem_keepsSystem() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_NON_SYSTEM);
+        queue.add(Message.makeSystemMessage("s1"));
+        queue.add(chat("1"));
+
+        assertTrue(queue.add(chat("2")));
+        assertTrue(queue.add(Message.makeSystemMessage("s2")));
+
+        assertEquals(2, queue.getDropped());
+        assertEquals("s1", queue.remove().getText());
+        assertEquals("s2", queue.remove().getText());
+    }
+
+    /**
+     * waiting notifications are folded into one, keyed system messages are left alone
+     */
+    @Test
+    public void test_add_coalesceSystem_foldsNotifications() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.COALESCE_SYSTEM);
+        queue.add(Message.makeSystemMessage("s1"));
+        queue.add(chat("1"));
+        queue.add(Message.makeReturnKeyMessage("bob", "key"));
+        queue.add(Message.makeSystemMessage("s2"));
+
+        assertTrue(queue.add(chat("2")));
+
+        assertEquals(4, queue.size());
+        assertEquals(1, queue.getDropped());
+        assertEquals("s1\ns2", queue.remove().getText());
+        assertEquals("1", queue.remove().getText());
+        assertEquals("key", queue.remove().getMsgToInfo().get("PUBLIC_KEY"));
+        assertEquals("2", queue.remove().getText());
+
+        // nothing left to fold, so the oldest goes
+        OutboundQueue full = new OutboundQueue(1, OutboundQueue.OverflowPolicy.COALESCE_SYSTEM);
+        full.add(chat("1"));
+        full.add(chat("2"));
+        assertEquals("2", full.remove().getText());
+    }
+
+    /**
+     * a full queue refuses the message and asks for the client to go
+     */
+    @Test
+    public void test_add_disconnect_overflowed() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+
+        assertTrue(queue.add(chat("1")));
+        assertFalse(queue.isOverflowed());
+        assertFalse(queue.add(chat("2")));
+
+        assertTrue(queue.isOverflowed());
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getDropped());
+    }
+
+    /**
+     * a policy is read whatever its case, and a name that is no policy falls back to dropping the oldest
+     */
+    @Test
+    public void test_parse_unknownName_dropOldest() {
+        assertEquals(OutboundQueue.OverflowPolicy.DISCONNECT, OutboundQueue.OverflowPolicy.parse("disconnect"));
+        assertEquals(OutboundQueue.OverflowPolicy.DROP_OLDEST, OutboundQueue.OverflowPolicy.parse("DROP_OLDETS"));
+        assertEquals(OutboundQueue.OverflowPolicy.DROP_OLDEST, OutboundQueue.OverflowPolicy.parse(null));
+    }
+}
@@ -1,20 +1,28 @@
 package edu.northeastern.ccs.im.server;
 
 import edu.northeastern.ccs.im.communications.Message;
+import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.User;
-import edu.northeastern.ccs.im.services.GroupService;
 import org.junit.Test;
 import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
@@ -123,6 +131,86 @@ public class PrattleTest {
         verify(mockChannel).accept();
     }
 
+    /**
+     * in reactor mode an accepted client is handed to the reactors
+     *
+     * @throws IOException
+     */
+    @Test
+    public void test_runLoop_reactorMode_registersClient() throws IOException {
+        Prattle.startServer();
+
+        ServerSocketChannel mockChannel = mock(ServerSocketChannel.class);
+        SocketChannel socket = mock(SocketChannel.class);
+        Selector selector = mock(Selector.class);
+        ReactorGroup reactors = mock(ReactorGroup.class);
+
+        when(selector.select(ServerConstants.DELAY_IN_MS)).thenReturn(1).thenAnswer((Answer<Integer>) invocationOnMock -> {
+            Prattle.stopServer();
+            return 0;
+        });
+        Set<SelectionKey> selectionKeys = new HashSet<>();
+        SelectionKey key = mock(SelectionKey.class);
+        selectionKeys.add(key);
+
+        when(selector.selectedKeys()).thenReturn(selectionKeys);
+        when(key.isAcceptable()).thenReturn(true);
+        when(key.channel()).thenReturn(mockChannel);
+        when(mockChannel.accept()).thenReturn(socket);
+        Prattle.setActive(new ConcurrentLinkedQueue<>());
+
+        Prattle.runLoop(selector, mockChannel, reactors);
+
+        // Assert
+        verify(reactors).register(eq(socket), any(ClientRunnable.class));
+        verify(socket, never()).register(any(), anyInt());
+    }
+
+    /**
+     * a connection over its address' cap is closed, and a saturated server stops accepting
+     *
+     * @throws IOException
+     */
+    @Test
+    public void test_runLoop_overCaps_rejectedAndDeferred() throws IOException {
+        Prattle.startServer();
+        AdmissionControl admission = new AdmissionControl(1, 1, 1);
+        admission.admit(InetAddress.getLoopbackAddress());
+        Prattle.setAdmissionControl(admission);
+
+        ServerSocketChannel mockChannel = mock(ServerSocketChannel.class);
+        SocketChannel socket = mock(SocketChannel.class);
+        Selector selector = mock(Selector.class);
+        ReactorGroup reactors = mock(ReactorGroup.class);
+        SelectionKey key = mock(SelectionKey.class);
+
+        when(selector.select(ServerConstants.DELAY_IN_MS)).thenReturn(1).thenAnswer((Answer<Integer>) invocationOnMock -> {
+            Prattle.stopServer();
+            return 0;
+        });
+        when(selector.selectedKeys()).thenReturn(new HashSet<>(Collections.singletonList(key)));
+        when(mockChannel.keyFor(selector)).thenReturn(key);
+        when(key.isValid()).thenReturn(true);
+        when(key.interestOps()).thenReturn(SelectionKey.OP_ACCEPT);
+        when(key.isAcceptable()).thenReturn(true);
+        when(key.channel()).thenReturn(mockChannel);
+        when(mockChannel.accept()).thenReturn(socket);
+        when(socket.getRemoteAddress()).thenReturn(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1));
+
+        try {
+            Prattle.runLoop(selector, mockChannel, reactors);
+        } finally {
+            Prattle.setAdmissionControl(new AdmissionControl(ServerConstants.MAX_CONNECTIONS,
+                    ServerConstants.MAX_CONNECTIONS_PER_ADDRESS, ServerConstants.MAX_PRE_LOGIN));
+        }
+
+        // Assert
+        verify(socket).close();
+        verify(reactors, never()).register(any(), any());
+        verify(key, atLeastOnce()).interestOps(0);
+        assertEquals(1, admission.getRejected());
+    }
+
     /**
      * test for isReady
      */
@@ -163,29 +251,94 @@ public class PrattleTest {
     @Test
     public void test_sendGroupMessage_enqueMessage() {
         // Arrange
+        User admin = new User("admin", null, null, null, null, null);
+        User member = new User("member", null, null, null, null, null);
+        User outsider = new User("outsider", null, null, null, null, null);
+        List<User> admins = new ArrayList<>();
+        admins.add(admin);
+        List<User> members = new ArrayList<>();
+        members.add(admin);
+        members.add(member);
+        Group group = new Group("group", admins);
+        group.setUsers(members);
+
         ConcurrentLinkedQueue<ClientRunnable> list = new ConcurrentLinkedQueue<>();
-        ClientRunnable runnable1 = mock(ClientRunnable.class);
-        ClientRunnable runnable2 = mock(ClientRunnable.class);
-        ClientRunnable runnable3 = mock(ClientRunnable.class);
-        GroupService groupService = mock(GroupService.class);
-        Prattle.setGroupService(groupService);
-        when(groupService.containsUser(any(), any())).thenReturn(false, true);
+        ClientRunnable adminRunnable = mock(ClientRunnable.class);
+        ClientRunnable memberRunnable = mock(ClientRunnable.class);
+        ClientRunnable outsiderRunnable = mock(ClientRunnable.class);
+        ClientRunnable loggedOutRunnable = mock(ClientRunnable.class);
         Message message = mock(Message.class);
-        when(runnable1.isInitialized()).thenReturn(false);
-        when(runnable2.isInitialized()).thenReturn(true);
-        when(runnable3.isInitialized()).thenReturn(true);
-        list.add(runnable1);
-        list.add(runnable2);
-        list.add(runnable3);
+        when(adminRunnable.isInitialized()).thenReturn(true);
+        when(memberRunnable.isInitialized()).thenReturn(true);
+        when(outsiderRunnable.isInitialized()).thenReturn(true);
+        when(loggedOutRunnable.isInitialized()).thenReturn(false);
+        when(adminRunnable.getUser()).thenReturn(admin);
+        when(memberRunnable.getUser()).thenReturn(member);
+        when(outsiderRunnable.getUser()).thenReturn(outsider);
+        list.add(adminRunnable);
+        list.add(memberRunnable);
+        list.add(outsiderRunnable);
+        list.add(loggedOutRunnable);
         Prattle.setActive(list);
 
         // Act
+        Prattle.sendToGroup(message, group);
         Prattle.sendToGroup(message, null);
 
         // Assert
-        verify(runnable1).isInitialized();
-        verify(runnable2).isInitialized();
-        verify(groupService, times(2)).containsUser(any(), any());
+        verify(adminRunnable, times(1)).enqueueMessage(message);
+        verify(memberRunnable, times(1)).enqueueMessage(message);
+        verify(outsiderRunnable, never()).enqueueMessage(message);
+        verify(loggedOutRunnable, never()).enqueueMessage(message);
+    }
+
+    /**
+     * every session of a user gets the message, and a removed session no longer does
+     */
+    @Test
+    public void test_sendToUser_multipleSessions_enqueMessage() {
+        // Arrange
+        User receiver = new User("receiver", null, null, null, null, null);
+        ClientRunnable phone = mock(ClientRunnable.class);
+        ClientRunnable laptop = mock(ClientRunnable.class);
+        Message message = mock(Message.class);
+        when(phone.getUser()).thenReturn(receiver);
+        when(laptop.getUser()).thenReturn(receiver);
+        Prattle.setActive(new ConcurrentLinkedQueue<>());
+        Prattle.registerSession(phone);
+        Prattle.registerSession(laptop);
+
+        // Act
+        Prattle.sendToUser(message, receiver);
+        Prattle.removeClient(phone);
+        Prattle.sendToAListOfPPL(Arrays.asList(receiver, receiver), message);
+
+        // Assert
+        verify(phone, times(1)).enqueueMessage(message);
+        verify(laptop, times(2)).enqueueMessage(message);
+    }
+
+    /**
+     * sessions that left a ping unanswered are skipped
+     */
+    @Test
+    public void test_sendToUser_unresponsive_skipped() {
+        User receiver = new User("receiver", null, null, null, null, null);
+        ClientRunnable gone = mock(ClientRunnable.class);
+        ClientRunnable online = mock(ClientRunnable.class);
+        Message message = mock(Message.class);
+        when(gone.getUser()).thenReturn(receiver);
+        when(online.getUser()).thenReturn(receiver);
+        when(gone.isInitialized()).thenReturn(true);
+        when(online.isInitialized()).thenReturn(true);
+        when(gone.isUnresponsive()).thenReturn(true);
+        Prattle.setActive(new ConcurrentLinkedQueue<>(Arrays.asList(gone, online)));
+
+        Prattle.sendToUser(message, receiver);
+        Prattle.broadcastMessage(message);
+
+        verify(gone, never()).enqueueMessage(message);
+        verify(online, times(2)).enqueueMessage(message);
     }
 
     @Test
@@ -0,0 +1,129 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.MessageType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class RateLimiterTest {
+    private RateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        Map<MessageType, String> limits = new EnumMap<>(MessageType.class);
+        limits.put(MessageType.GET_HISTORY, "1/2");
+        limits.put(MessageType.BROADCAST, "0");
+        limiter = new RateLimiter(limits);
+    }
+
+    /**
+     * each user has a budget of their own, and only the over-budget requests are counted
+     */
+    @Test
+    public void test_tryAcquire_perUser_throttledCounted() {
+        assertTrue(limiter.tryAcquire("alice", MessageType.GET_HISTORY, 0));
+        assertTrue(limiter.tryAcquire("alice", MessageType.GET_HISTORY, 0));
+        assertFalse(limiter.tryAcquire("alice", MessageType.GET_HISTORY, 0));
+        assertTrue(limiter.tryAcquire("bob", MessageType.GET_HISTORY, 0));
+
+        assertEquals(1, limiter.getThrottled(MessageType.GET_HISTORY));
+        assertEquals(1, limiter.getThrottled());
+    }
+
+    /**
+     * the buckets of a user are dropped once they have refilled, and not before
+     */
+    @Test
+    public void test_sweep_refilled_dropped() {
+        limiter.tryAcquire("alice", MessageType.GET_HISTORY, 0);
+        limiter.tryAcquire("alice", MessageType.GET_HISTORY, 0);
+        limiter.tryAcquire("bob", MessageType.GET_HISTORY, 0);
+        assertEquals(2, limiter.getUserCount());
+
+        limiter.sweep(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(2, limiter.getUserCount());
+        assertFalse(limiter.tryAcquire("alice", MessageType.GET_HISTORY, TimeUnit.MILLISECONDS.toNanos(500)));
+
+        limiter.sweep(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, limiter.getUserCount());
+    }
+
+    /**
+     * message types without a limit, or with a rate of 0, are never throttled
+     */
+    @Test
+    public void test_tryAcquire_unlimited_alwaysAllowed() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire("alice", MessageType.BROADCAST, 0));
+            assertTrue(limiter.tryAcquire("alice", MessageType.TO_USER, 0));
+            assertTrue(limiter.tryAcquire("alice", null, 0));
+        }
+        assertEquals(0, limiter.getThrottled());
+    }
+
+    /**
+     * the shared limiter limits history requests by default
+     */
+    @Test
+    public void test_shared_defaults_limitHistory() {
+        RateLimiter shared = RateLimiter.shared();
+        long now = System.nanoTime();
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (shared.tryAcquire("RateLimiterTest", MessageType.GET_HISTORY, now)) {
+                allowed++;
+            }
+        }
+        assertTrue(allowed < 100);
+    }
+
+    /**
+     * the shared limiter lets a client page through its history and its queue one page after another
+     */
+    @Test
+    public void test_shared_defaults_allowPaging() {
+        RateLimiter shared = RateLimiter.shared();
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(shared.tryAcquire("RateLimiterTest-paging", MessageType.GET_HISTORY, now));
+            assertTrue(shared.tryAcquire("RateLimiterTest-paging", MessageType.GET_QUEUE, now));
+        }
+        // Once the burst is used up, a page a second still goes through.
+        for (int i = 0; i < 20; i++) {
+            shared.tryAcquire("RateLimiterTest-paging", MessageType.GET_HISTORY, now);
+            shared.tryAcquire("RateLimiterTest-paging", MessageType.GET_QUEUE, now);
+        }
+        long later = now + TimeUnit.SECONDS.toNanos(1);
+        assertTrue(shared.tryAcquire("RateLimiterTest-paging", MessageType.GET_HISTORY, later));
+        assertTrue(shared.tryAcquire("RateLimiterTest-paging", MessageType.GET_QUEUE, later));
+    }
+
+    /**
+     * a client acknowledging more messages than it may send is never throttled, so what it received is
+     * not sent to it again
+     */
+    @Test
+    public void test_shared_defaults_acksNotLimited() {
+        RateLimiter shared = RateLimiter.shared();
+        long now = System.nanoTime();
+        int sent = 0;
+        for (int i = 0; i < 100; i++) {
+            if (shared.tryAcquire("RateLimiterTest-acks", MessageType.TO_USER, now)) {
+                sent++;
+            }
+        }
+        assertTrue(sent < 100);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(shared.tryAcquire("RateLimiterTest-acks", MessageType.ACK, now));
+        }
+    }
+}
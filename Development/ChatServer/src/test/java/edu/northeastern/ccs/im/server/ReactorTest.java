@@ -0,0 +1,174 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Reactor tests run over a real loopback connection, since readiness is what is being tested.
+ */
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class ReactorTest {
+    private ServerSocketChannel serverSocket;
+    private SocketChannel clientSide;
+    private SocketChannel serverSide;
+    private ExecutorService workers;
+    private Reactor reactor;
+
+    /**
+     * open a loopback connection and start a reactor
+     */
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress("localhost", 0));
+        clientSide = SocketChannel.open(serverSocket.getLocalAddress());
+        serverSide = serverSocket.accept();
+        serverSide.configureBlocking(false);
+
+        workers = Executors.newFixedThreadPool(2);
+        reactor = new Reactor(workers);
+        new Thread(reactor).start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reactor.shutdown();
+        workers.shutdownNow();
+        clientSide.close();
+        serverSide.close();
+        serverSocket.close();
+    }
+
+    /**
+     * an idle channel is not run, a readable one is
+     */
+    @Test
+    public void test_register_readable_runsClient() throws IOException {
+        ClientRunnable client = mock(ClientRunnable.class);
+
+        reactor.register(serverSide, client);
+        verify(client, after(300).never()).run();
+
+        clientSide.write(ByteBuffer.wrap("{}".getBytes()));
+
+        verify(client, timeout(2000).atLeastOnce()).run();
+    }
+
+    /**
+     * enqueueing a message asks for write interest, which gets the client run
+     */
+    @Test
+    public void test_wakeup_pendingOutbound_runsClient() {
+        ClientRunnable client = mock(ClientRunnable.class);
+        AtomicReference<Runnable> wakeup = new AtomicReference<>();
+        doAnswer(invocation -> {
+            wakeup.set(invocation.getArgument(0));
+            return null;
+        }).when(client).setWakeup(any());
+
+        reactor.register(serverSide, client);
+        verify(client, timeout(2000)).setWakeup(any());
+        wakeup.get().run();
+
+        verify(client, timeout(2000).atLeastOnce()).run();
+    }
+
+    /**
+     * a client left with messages it has already received is run again without new input
+     */
+    @Test
+    public void test_rearm_pendingInbound_runsAgain() {
+        ClientRunnable client = mock(ClientRunnable.class);
+        when(client.hasPendingInbound()).thenReturn(true).thenReturn(false);
+        AtomicReference<Runnable> wakeup = new AtomicReference<>();
+        doAnswer(invocation -> {
+            wakeup.set(invocation.getArgument(0));
+            return null;
+        }).when(client).setWakeup(any());
+
+        reactor.register(serverSide, client);
+        verify(client, timeout(2000)).setWakeup(any());
+        wakeup.get().run();
+
+        verify(client, after(500).times(2)).run();
+    }
+
+    /**
+     * a client waiting for another stage is not run again for bytes it leaves unread, and is run once the
+     * stage hands its work back
+     */
+    @Test
+    public void test_rearm_awaitingStage_notRunUntilWakeup() throws IOException {
+        ClientRunnable client = mock(ClientRunnable.class);
+        when(client.getNextDeadline()).thenReturn(Long.MAX_VALUE);
+        when(client.isAwaitingStage()).thenReturn(true);
+        AtomicReference<Runnable> wakeup = new AtomicReference<>();
+        doAnswer(invocation -> {
+            wakeup.set(invocation.getArgument(0));
+            return null;
+        }).when(client).setWakeup(any());
+
+        reactor.register(serverSide, client);
+        verify(client, timeout(2000)).setWakeup(any());
+        clientSide.write(ByteBuffer.wrap("{}".getBytes()));
+        verify(client, after(500).times(1)).run();
+
+        when(client.isAwaitingStage()).thenReturn(false);
+        wakeup.get().run();
+
+        verify(client, timeout(2000).atLeast(2)).run();
+    }
+
+    /**
+     * a silent client whose deadline has passed is run so that it can time out
+     */
+    @Test
+    public void test_sweep_deadlinePassed_runsClient() {
+        ClientRunnable client = mock(ClientRunnable.class);
+        when(client.getNextDeadline()).thenReturn(0L);
+
+        reactor.register(serverSide, client);
+
+        verify(client, timeout(3000).atLeastOnce()).run();
+    }
+
+    /**
+     * a silent client still in time is left alone
+     */
+    @Test
+    public void test_sweep_deadlineAhead_notRun() {
+        ClientRunnable client = mock(ClientRunnable.class);
+        when(client.getNextDeadline()).thenReturn(Long.MAX_VALUE);
+
+        reactor.register(serverSide, client);
+
+        verify(client, after(2500).never()).run();
+    }
+
+    /**
+     * registered channels are counted
+     */
+    @Test
+    public void test_size_afterRegister() {
+        ClientRunnable client = mock(ClientRunnable.class);
+
+        reactor.register(serverSide, client);
+        verify(client, timeout(2000)).setWakeup(any());
+
+        assertEquals(1, reactor.size());
+    }
+}
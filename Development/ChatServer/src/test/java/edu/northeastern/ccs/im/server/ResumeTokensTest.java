@@ -0,0 +1,120 @@
+package edu.northeastern.ccs.im.server;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class ResumeTokensTest {
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+
+    /**
+     * a token names the user it was issued for until it expires
+     */
+    @Test
+    public void test_verify_issuedToken_userId() {
+        ResumeTokens tokens = new ResumeTokens(SECRET, 60000);
+        ObjectId id = new ObjectId();
+
+        String token = tokens.issue(id);
+
+        assertEquals(id, tokens.verify(token));
+        assertEquals(id, new ResumeTokens(SECRET, 1).verify(token));
+        assertTrue(tokens.expiresAt(token) > System.currentTimeMillis());
+    }
+
+    /**
+     * forged, foreign, malformed and expired tokens are refused
+     */
+    @Test
+    public void test_verify_badTokens_null() {
+        ResumeTokens tokens = new ResumeTokens(SECRET, 60000);
+        String token = tokens.issue(new ObjectId());
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        bytes[0] ^= 1;
+
+        assertNull(tokens.verify(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes)));
+        assertNull(new ResumeTokens("another secret, just as long....".getBytes(), 60000).verify(token));
+        assertNull(tokens.verify("not a token!"));
+        assertNull(tokens.verify(token.substring(1)));
+        assertNull(tokens.verify(null));
+        assertNull(new ResumeTokens(SECRET, -1).verify(new ResumeTokens(SECRET, -1).issue(new ObjectId())));
+    }
+
+    /**
+     * a revoked token is refused, and is forgotten once it has expired
+     */
+    @Test
+    public void test_revoke_refusedUntilExpired() {
+        ResumeTokens tokens = new ResumeTokens(SECRET, 60000);
+        ResumeTokens expired = new ResumeTokens(SECRET, -1);
+        String token = tokens.issue(new ObjectId());
+
+        expired.revoke(expired.issue(new ObjectId()));
+        expired.revoke(token);
+        assertEquals(2, expired.revokedCount());
+        expired.sweep();
+        assertEquals(1, expired.revokedCount());
+
+        tokens.revoke(token);
+        tokens.revoke("not a token!");
+
+        assertNull(tokens.verify(token));
+        assertEquals(1, tokens.revokedCount());
+    }
+
+    /**
+     * a token is used up as it is checked, so it only gets in once
+     */
+    @Test
+    public void test_verify_usedUp_refused() {
+        ResumeTokens tokens = new ResumeTokens(SECRET, 60000);
+        ObjectId id = new ObjectId();
+        String token = tokens.issue(id);
+
+        assertEquals(id, tokens.verify(token));
+        assertNull(tokens.verify(token));
+    }
+
+    /**
+     * of the connections presenting the same token at the same time, only one gets in
+     */
+    @Test
+    public void test_verify_concurrentResumes_onlyOneAccepted() throws InterruptedException {
+        ResumeTokens tokens = new ResumeTokens(SECRET, 60000);
+        String token = tokens.issue(new ObjectId());
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (tokens.verify(token) != null) {
+                    accepted.incrementAndGet();
+                }
+            });
+        }
+
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(1, accepted.get());
+    }
+}
@@ -0,0 +1,56 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class RttHistogramTest {
+
+    /**
+     * an empty histogram reports zeros
+     */
+    @Test
+    public void test_empty_zeros() {
+        RttHistogram histogram = new RttHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getPercentileMicros(0.99));
+    }
+
+    /**
+     * percentiles fall within a factor of two of the times recorded, and never past the longest
+     */
+    @Test
+    public void test_record_percentilesWithinBucket() {
+        RttHistogram histogram = new RttHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(300));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(40));
+
+        long median = histogram.getPercentileMicros(0.5);
+        assertTrue(median >= 300 && median < 600);
+        assertEquals(40000, histogram.getPercentileMicros(1.0));
+        assertEquals(40000, histogram.getMaxMicros());
+        assertEquals((99 * 300 + 40000) / 100, histogram.getMeanMicros());
+        assertEquals(100, histogram.getCount());
+    }
+
+    /**
+     * times far too long for the buckets still count
+     */
+    @Test
+    public void test_record_huge_lastBucket() {
+        RttHistogram histogram = new RttHistogram();
+        histogram.record(TimeUnit.DAYS.toNanos(2));
+        histogram.record(-5);
+
+        assertEquals(TimeUnit.DAYS.toMicros(2), histogram.getPercentileMicros(1.0));
+        assertEquals(0, histogram.getPercentileMicros(0.5));
+    }
+}
@@ -0,0 +1,151 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.Message;
+import edu.northeastern.ccs.im.communications.NetworkConnection;
+import edu.northeastern.ccs.im.models.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of delivering a message to one of many connected clients over loopback, from the moment it
+ * is enqueued until the client has read all of it, with the clients run by the reactors or on threads
+ * of their own. Every delivery goes to the next client in turn, so all of them are kept busy in turn
+ * while the others sit idle.
+ * <p>
+ * The thread mode uses virtual threads when the benchmark is run on Java 21 or later. Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=edu.northeastern.ccs.im.server.ServerModeBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerModeBenchmark {
+
+    /**
+     * How the clients are run: {@link ServerConstants#REACTOR_MODE} or {@link ServerConstants#THREAD_MODE}.
+     */
+    @Param({"reactor", "thread"})
+    public String mode;
+
+    /**
+     * Number of connected clients.
+     */
+    @Param({"100", "1000"})
+    public int connections;
+
+    private ServerSocketChannel serverSocket;
+    private ReactorGroup reactors;
+    private ThreadPerConnection threads;
+    private ClientRunnable[] clients;
+
+    /**
+     * The client end of every connection, read by the benchmark.
+     */
+    private SocketChannel[] peers;
+
+    private Message message;
+
+    /**
+     * Room for one framed message, as read by a client.
+     */
+    private ByteBuffer received;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress("localhost", 0), connections);
+        if (ServerConstants.THREAD_MODE.equals(mode)) {
+            threads = new ThreadPerConnection();
+            threads.start();
+        } else {
+            reactors = new ReactorGroup(ServerConstants.REACTOR_THREADS,
+                    new Stage("io", ServerConstants.THREAD_POOL_SIZE, connections));
+            reactors.start();
+        }
+        clients = new ClientRunnable[connections];
+        peers = new SocketChannel[connections];
+        for (int i = 0; i < connections; i++) {
+            peers[i] = SocketChannel.open(serverSocket.getLocalAddress());
+            SocketChannel socket = serverSocket.accept();
+            NetworkConnection connection = new NetworkConnection(socket, false,
+                    NetworkConnection.MAX_FRAME_SIZE, threads != null);
+            clients[i] = new ClientRunnable(connection);
+            clients[i].setUser(new User("user" + i, null, null, null, null, null));
+            clients[i].setInitialized(true);
+            if (threads != null) {
+                threads.register(connection, clients[i]);
+            } else {
+                reactors.register(socket, clients[i]);
+            }
+        }
+
+        Map<String, String> payload = new HashMap<>();
+        payload.put("msg_type", "BCT");
+        payload.put("sender_name", "alice");
+        payload.put("text", "The quick brown fox jumps over the lazy dog, again and again, for everyone online.");
+        message = Message.makeBroadcastMessage("alice", payload);
+        // Replies are framed by a newline until a client has said otherwise.
+        received = ByteBuffer.allocateDirect(message.getEncoded().remaining() + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        if (threads != null) {
+            threads.shutdown();
+        } else {
+            reactors.shutdown();
+            // Let the reactors stop before the peers close, or they would hand the clients to stopped workers.
+            Thread.sleep(ServerConstants.REACTOR_SWEEP_INTERVAL);
+        }
+        for (SocketChannel peer : peers) {
+            peer.close();
+        }
+        serverSocket.close();
+    }
+
+    @Benchmark
+    public int deliver() throws IOException {
+        int client = next;
+        next = (next + 1) % connections;
+        clients[client].enqueueMessage(message);
+        received.clear();
+        while (received.hasRemaining()) {
+            if (peers[client].read(received) < 0) {
+                throw new IOException("Connection closed by the server");
+            }
+        }
+        return received.position();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ServerModeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,78 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.models.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class SessionRegistryTest {
+    private SessionRegistry registry;
+    private User alice;
+    private ClientRunnable phone;
+    private ClientRunnable laptop;
+
+    @Before
+    public void setUp() {
+        registry = new SessionRegistry();
+        alice = new User("alice", null, null, null, null, null);
+        phone = mock(ClientRunnable.class);
+        laptop = mock(ClientRunnable.class);
+    }
+
+    /**
+     * a user may have several sessions, found by id or by name
+     */
+    @Test
+    public void test_register_multipleSessions_foundByIdAndName() {
+        registry.register(phone, alice);
+        registry.register(laptop, alice);
+
+        User sameId = new User("renamed", null, null, null, null, null);
+        sameId.setId(alice.getId());
+        User sameName = new User("alice", null, null, null, null, null);
+        sameName.setId(null);
+
+        assertEquals(2, registry.sessionsOf(alice).size());
+        assertEquals(2, registry.sessionsOf(sameId).size());
+        assertEquals(2, registry.sessionsOf(sameName).size());
+        assertEquals(2, registry.size());
+    }
+
+    /**
+     * unregistering the last session forgets the user
+     */
+    @Test
+    public void test_unregister_lastSession_empty() {
+        registry.register(phone, alice);
+        registry.register(laptop, alice);
+
+        registry.unregister(phone);
+        assertEquals(1, registry.sessionsOf(alice).size());
+        assertTrue(registry.sessionsOf(alice).contains(laptop));
+
+        registry.unregister(laptop);
+        registry.unregister(laptop);
+        assertTrue(registry.sessionsOf(alice).isEmpty());
+        assertEquals(0, registry.size());
+    }
+
+    /**
+     * registering a client again moves it to its new user
+     */
+    @Test
+    public void test_register_sameClient_replacesUser() {
+        User bob = new User("bob", null, null, null, null, null);
+        registry.register(phone, alice);
+        registry.register(phone, bob);
+
+        assertTrue(registry.sessionsOf(alice).isEmpty());
+        assertEquals(1, registry.sessionsOf(bob).size());
+
+        registry.clear();
+        assertTrue(registry.sessionsOf(bob).isEmpty());
+    }
+}
@@ -0,0 +1,117 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class StageTest {
+    private Stage executor;
+
+    @Before
+    public void setUp() {
+        executor = new Stage("test", 1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * requests beyond the queue are turned away, and the rest are timed
+     */
+    @Test
+    public void test_execute_queueFull_rejected() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(() -> {
+            await(release);
+            done.countDown();
+        });
+        executor.execute(done::countDown);
+        assertEquals(1, executor.getQueueLength());
+
+        try {
+            executor.execute(done::countDown);
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.getRejected());
+        }
+
+        release.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(awaitCompleted(2));
+        assertTrue(executor.getMaxNanos() >= executor.getAverageNanos());
+        assertTrue(executor.getAverageNanos() > 0);
+    }
+
+    /**
+     * a failing request does not take its thread down
+     */
+    @Test
+    public void test_execute_failingTask_counted() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            throw new IllegalStateException("foo");
+        });
+        executor.execute(done::countDown);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(awaitCompleted(2));
+    }
+
+    /**
+     * the threads of a stage are named after it
+     */
+    @Test
+    public void test_execute_threadNamedAfterStage() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] threadName = new String[1];
+        executor.execute(() -> {
+            threadName[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("prattle-test-0", threadName[0]);
+        assertEquals("test", executor.getName());
+    }
+
+    /**
+     * the report holds the counts of the stage
+     */
+    @Test
+    public void test_report_afterTask_counts() throws InterruptedException {
+        executor.execute(() -> { });
+        assertTrue(awaitCompleted(1));
+
+        String report = executor.report();
+        assertTrue(report, report.startsWith("Stage test: 0 queued, 1 completed, 0 rejected, "));
+        assertTrue(report, report.endsWith(" ms max"));
+    }
+
+    private boolean awaitCompleted(long count) throws InterruptedException {
+        for (int i = 0; i < 200 && executor.getCompleted() < count; i++) {
+            Thread.sleep(10);
+        }
+        return executor.getCompleted() == count;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.communications.Message;
+import edu.northeastern.ccs.im.communications.NetworkConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Thread-per-connection tests run over a real loopback connection, since blocking reads are what is
+ * being tested.
+ */
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class ThreadPerConnectionTest {
+    private ServerSocketChannel serverSocket;
+    private SocketChannel clientSide;
+    private NetworkConnection connection;
+    private ThreadPerConnection threads;
+    private ClientRunnable client;
+    private AtomicReference<Runnable> wakeup;
+
+    /**
+     * open a loopback connection and a mocked client that hands out its wakeup
+     */
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress("localhost", 0));
+        clientSide = SocketChannel.open(serverSocket.getLocalAddress());
+        connection = new NetworkConnection(serverSocket.accept(), false, NetworkConnection.MAX_FRAME_SIZE, true);
+
+        threads = new ThreadPerConnection(null, 0);
+        client = mock(ClientRunnable.class);
+        when(client.getNextDeadline()).thenReturn(Long.MAX_VALUE);
+        wakeup = new AtomicReference<>();
+        doAnswer(invocation -> {
+            wakeup.set(invocation.getArgument(0));
+            return null;
+        }).when(client).setWakeup(any());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        threads.shutdown();
+        clientSide.close();
+        serverSocket.close();
+    }
+
+    /**
+     * a client is run once when it starts and then only once something is read
+     */
+    @Test
+    public void test_register_readable_runsClient() throws IOException {
+        threads.register(connection, client);
+        verify(client, after(300).times(1)).run();
+
+        clientSide.write(ByteBuffer.wrap("{}\n".getBytes()));
+
+        verify(client, timeout(2000).times(2)).run();
+        assertFalse(threads.isVirtual());
+        assertEquals(1, threads.size());
+    }
+
+    /**
+     * enqueueing a message wakes the client up
+     */
+    @Test
+    public void test_wakeup_runsClient() {
+        threads.register(connection, client);
+        verify(client, timeout(2000)).run();
+
+        wakeup.get().run();
+
+        verify(client, timeout(2000).times(2)).run();
+    }
+
+    /**
+     * a silent client is run again once its deadline comes
+     */
+    @Test
+    public void test_run_deadline_runsClient() {
+        when(client.getNextDeadline()).thenAnswer(invocation -> System.currentTimeMillis() + 100);
+
+        threads.register(connection, client);
+
+        verify(client, timeout(2000).atLeast(3)).run();
+    }
+
+    /**
+     * the threads of a client end once its connection is closed
+     */
+    @Test
+    public void test_run_connectionClosed_threadsEnd() throws InterruptedException {
+        threads.register(connection, client);
+        verify(client, timeout(2000)).run();
+
+        connection.close();
+        wakeup.get().run();
+
+        for (int i = 0; i < 20 && threads.size() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, threads.size());
+    }
+
+    /**
+     * a write the client holds up past the timeout is ended by closing the connection
+     */
+    @Test
+    public void test_closeStalled_blockedWrite_closesConnection() throws Exception {
+        threads.register(connection, client);
+        Map<String, String> payload = new HashMap<>();
+        payload.put("text", new String(new char[1024 * 1024]).replace('\0', 'x'));
+        Message large = Message.makeBroadcastMessage("alice", payload);
+        // The client side never reads, so the socket buffers fill up and a write blocks.
+        CompletableFuture<Boolean> sending = CompletableFuture.supplyAsync(() -> {
+            boolean sent = true;
+            while (sent) {
+                sent = connection.sendMessage(large);
+            }
+            return sent;
+        });
+        for (int i = 0; i < 50 && connection.getWriteStart() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(connection.getWriteStart() != 0);
+        Thread.sleep(10);
+
+        threads.closeStalled();
+
+        assertFalse(sending.get(2, TimeUnit.SECONDS));
+        assertFalse(connection.isOpen());
+        assertTrue(connection.isWriteFailed());
+    }
+
+    /**
+     * virtual threads blocked writing to clients that do not read leave the carrier threads free, so the
+     * other clients still get to run
+     */
+    @Test
+    public void test_blockedWrites_virtualThreads_carriersFree() throws Exception {
+        ThreadFactory virtualThreads = ThreadPerConnection.virtualThreadFactory("test-client-");
+        assumeTrue(virtualThreads != null);
+        Map<String, String> payload = new HashMap<>();
+        payload.put("text", new String(new char[1024 * 1024]).replace('\0', 'x'));
+        Message large = Message.makeBroadcastMessage("alice", payload);
+        // More stalled writers than there are carrier threads by default.
+        int stalled = Runtime.getRuntime().availableProcessors() + 1;
+        List<SocketChannel> slowReaders = new ArrayList<>();
+        List<NetworkConnection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < stalled; i++) {
+                slowReaders.add(SocketChannel.open(serverSocket.getLocalAddress()));
+                NetworkConnection slow = new NetworkConnection(serverSocket.accept(), false,
+                        NetworkConnection.MAX_FRAME_SIZE, true);
+                connections.add(slow);
+                virtualThreads.newThread(() -> {
+                    boolean sent = true;
+                    while (sent) {
+                        sent = slow.sendMessage(large);
+                    }
+                }).start();
+            }
+            for (NetworkConnection slow : connections) {
+                for (int i = 0; i < 50 && slow.getWriteStart() == 0; i++) {
+                    Thread.sleep(100);
+                }
+                assertTrue(slow.getWriteStart() != 0);
+            }
+
+            CountDownLatch ran = new CountDownLatch(1);
+            virtualThreads.newThread(ran::countDown).start();
+
+            assertTrue(ran.await(2, TimeUnit.SECONDS));
+        } finally {
+            connections.forEach(NetworkConnection::close);
+            for (SocketChannel reader : slowReaders) {
+                reader.close();
+            }
+        }
+    }
+}
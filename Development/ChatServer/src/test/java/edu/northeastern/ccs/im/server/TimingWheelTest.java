@@ -0,0 +1,121 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class TimingWheelTest {
+    private Map<String, Long> deadlines;
+    private TimingWheel<String> wheel;
+
+    @Before
+    public void setUp() {
+        deadlines = new HashMap<>();
+        wheel = new TimingWheel<>(100, 8, deadlines::get, 0);
+    }
+
+    /**
+     * items come off the wheel once their deadline has passed, and not before
+     */
+    @Test
+    public void test_expire_deadlinePassed_handedOut() {
+        deadlines.put("alice", 250L);
+        deadlines.put("bob", 450L);
+        wheel.schedule("alice");
+        wheel.schedule("bob");
+
+        assertTrue(wheel.expire(199).isEmpty());
+        assertTrue(wheel.expire(249).isEmpty());
+        assertEquals(Collections.singletonList("alice"), wheel.expire(300));
+        assertEquals(new HashSet<>(Arrays.asList("alice", "bob")), new HashSet<>(wheel.expire(500)));
+        assertEquals(2, wheel.size());
+    }
+
+    /**
+     * a deadline moved later is picked up when the item's old slot comes round
+     */
+    @Test
+    public void test_expire_deadlineMovedLater_filedAgain() {
+        deadlines.put("alice", 150L);
+        wheel.schedule("alice");
+        deadlines.put("alice", 650L);
+
+        assertTrue(wheel.expire(200).isEmpty());
+        assertTrue(wheel.expire(600).isEmpty());
+        assertEquals(Collections.singletonList("alice"), wheel.expire(700));
+    }
+
+    /**
+     * deadlines beyond one turn of the wheel wait for a later turn
+     */
+    @Test
+    public void test_expire_beyondOneTurn_waitsForItsTurn() {
+        deadlines.put("alice", 1250L);
+        wheel.schedule("alice");
+
+        for (long now = 100; now < 1300; now += 100) {
+            assertTrue(wheel.expire(now).isEmpty());
+        }
+        assertEquals(Collections.singletonList("alice"), wheel.expire(1300));
+    }
+
+    /**
+     * an item left on the wheel after expiring is handed out again, a cancelled one is not
+     */
+    @Test
+    public void test_expire_notCancelled_handedOutAgain() {
+        deadlines.put("alice", 50L);
+        deadlines.put("bob", 50L);
+        wheel.schedule("alice");
+        TimingWheel.Timeout<String> bob = wheel.schedule("bob");
+
+        assertEquals(2, wheel.expire(100).size());
+        wheel.cancel(bob);
+        wheel.cancel(bob);
+        assertTrue(bob.isCancelled());
+
+        assertEquals(Collections.singletonList("alice"), wheel.expire(200));
+        assertEquals(1, wheel.size());
+    }
+
+    /**
+     * a long gap between sweeps still finds every overdue item once
+     */
+    @Test
+    public void test_expire_longGap_findsEveryItem() {
+        for (int i = 0; i < 20; i++) {
+            deadlines.put("user" + i, 100L * i + 50);
+            wheel.schedule("user" + i);
+        }
+        deadlines.put("late", 100000L);
+        wheel.schedule("late");
+
+        List<String> expired = wheel.expire(5000);
+        assertEquals(20, expired.size());
+        assertTrue(wheel.expire(5050).isEmpty());
+    }
+
+    /**
+     * a deadline moved earlier is noticed once the item is rescheduled
+     */
+    @Test
+    public void test_reschedule_deadlineMovedEarlier_expiresSooner() {
+        deadlines.put("alice", 5000L);
+        TimingWheel.Timeout<String> alice = wheel.schedule("alice");
+        deadlines.put("alice", 150L);
+        wheel.reschedule(alice);
+
+        assertEquals(Collections.singletonList("alice"), wheel.expire(200));
+        assertEquals("alice", alice.getItem());
+    }
+}
@@ -0,0 +1,89 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("squid:S00100") // testing naming convention is different
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * a full bucket gives out its burst, then one token per interval
+     */
+    @Test
+    public void test_tryAcquire_burstThenRate() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+
+        assertFalse(bucket.tryAcquire(SECOND / 2 - 1));
+        assertTrue(bucket.tryAcquire(SECOND / 2));
+        assertFalse(bucket.tryAcquire(SECOND / 2));
+    }
+
+    /**
+     * a bucket left alone refills no further than its burst
+     */
+    @Test
+    public void test_tryAcquire_idle_refillsToBurst() {
+        TokenBucket bucket = new TokenBucket(1, 2, -5 * SECOND);
+
+        assertTrue(bucket.tryAcquire(100 * SECOND));
+        assertTrue(bucket.tryAcquire(100 * SECOND));
+        assertFalse(bucket.tryAcquire(100 * SECOND));
+    }
+
+    /**
+     * a bucket is full until a token is taken, and again once the token has refilled
+     */
+    @Test
+    public void test_isFull_afterRefill() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertTrue(bucket.isFull(0));
+
+        bucket.tryAcquire(0);
+
+        assertFalse(bucket.isFull(SECOND / 2 - 1));
+        assertTrue(bucket.isFull(SECOND / 2));
+    }
+
+    /**
+     * threads racing for the tokens never get more than the burst between them
+     */
+    @Test
+    public void test_tryAcquire_concurrent_noExtraTokens() throws Exception {
+        TokenBucket bucket = new TokenBucket(0.001, 100, 0);
+        AtomicInteger taken = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(0)) {
+                        taken.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        assertEquals(100, taken.get());
+    }
+}
@@ -0,0 +1,67 @@
+package edu.northeastern.ccs.im.services;
+
+import edu.northeastern.ccs.im.dao.Constants;
+import edu.northeastern.ccs.im.dao.ExecutorAsyncDao;
+import edu.northeastern.ccs.im.dao.UserDao;
+import edu.northeastern.ccs.im.models.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for AsyncUserService
+ */
+public class AsyncUserServiceTest {
+    /**
+     * AsyncUserService to test
+     */
+    AsyncUserService userService;
+    /**
+     * Mocked UserDao, run on the calling thread
+     */
+    UserDao userDao = mock(UserDao.class);
+
+    /**
+     * Initializes test service with mocked DAO
+     */
+    @Before
+    public void initialize() {
+        userService = new AsyncUserService(Runnable::run);
+        userService.setUserDao(new ExecutorAsyncDao<>(userDao, Runnable::run));
+    }
+
+    /**
+     * Tests looking a user up by name
+     */
+    @Test
+    public void testGetUserByName() throws InterruptedException, ExecutionException {
+        User alice = new User("alice", null, null, null, null, null);
+        when(userDao.get(anyMap())).thenReturn(Collections.emptyList());
+        when(userDao.get(argThat(map -> map != null && "alice".equals(map.get(Constants.USER_USER_NAME_KEY)))))
+                .thenReturn(Collections.singletonList(alice));
+
+        assertEquals(alice, userService.getUserByName("alice").get());
+        assertNull(userService.getUserByName("bob").get());
+    }
+
+    /**
+     * Tests updating and deleting users
+     */
+    @Test
+    public void testUpdateDelete() throws InterruptedException, ExecutionException {
+        User alice = new User("alice", null, null, null, null, null);
+        when(userDao.set(alice)).thenReturn(true);
+        when(userDao.delete(alice)).thenReturn(false);
+
+        assertTrue(userService.updateUser(alice).get());
+        assertFalse(userService.deleteUser(alice).get());
+    }
+}
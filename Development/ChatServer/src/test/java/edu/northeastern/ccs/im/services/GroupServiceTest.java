@@ -1,6 +1,7 @@
 package edu.northeastern.ccs.im.services;
 
 import edu.northeastern.ccs.im.dao.Constants;
+import edu.northeastern.ccs.im.dao.Dao;
 import edu.northeastern.ccs.im.dao.GroupDao;
 import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.User;
@@ -9,6 +10,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -145,4 +147,23 @@ public class GroupServiceTest {
         assertEquals("5399aba6e4b0ae375bfdca88",
                 groupService.getGroupByName("group").getId().toString());
     }
+
+    /**
+     * Tests that any Dao of groups can be injected, while group ids are looked up through the GroupDao
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetGroupIds() {
+        Dao<Group> plainDao = mock(Dao.class);
+        GroupDao idsDao = mock(GroupDao.class);
+        groupService.setGroupDao(plainDao);
+        groupService.setGroupIdsDao(idsDao);
+        User user = new User("alice", null, null, null, null, null);
+        List<ObjectId> ids = Collections.singletonList(new ObjectId());
+        when(idsDao.getGroupIds(user.getId())).thenReturn(ids);
+        when(plainDao.get(null)).thenReturn(Collections.emptyList());
+
+        assertEquals(ids, groupService.getGroupIds(user));
+        assertTrue(groupService.getAllGroups().isEmpty());
+    }
 }
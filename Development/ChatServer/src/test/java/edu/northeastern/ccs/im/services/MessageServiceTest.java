@@ -2,6 +2,7 @@ package edu.northeastern.ccs.im.services;
 
 import edu.northeastern.ccs.im.dao.Constants;
 import edu.northeastern.ccs.im.dao.MessageDao;
+import edu.northeastern.ccs.im.models.Group;
 import edu.northeastern.ccs.im.models.Message;
 import edu.northeastern.ccs.im.models.User;
 import org.bson.types.ObjectId;
@@ -11,9 +12,14 @@ import org.junit.Test;
 import java.util.*;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class MessageServiceTest {
@@ -130,4 +136,83 @@ public class MessageServiceTest {
         when(messageDao.set(isA(Message.class))).thenReturn(false);
         assertFalse(messageService.deleteMessage(msg));
     }
+
+    /**
+     * Tests getHistoryPage method in messageService
+     */
+    @Test
+    public void testGetHistoryPage() {
+        User user = new User("alice", null, null, null, null, null);
+        User user2 = new User("bob", null, null, null, null, null);
+        Message newer = new Message(new Date(2000), user, user2, "hello", false);
+        Message older = new Message(new Date(1000), user, user2, "goodbye", false);
+        Message oldest = new Message(new Date(500), user, user2, "hi", false);
+        List<ObjectId> groupIds = Collections.singletonList(new ObjectId());
+
+        when(messageDao.getReceivedPage(user2.getId(), groupIds, null, null, null, 3))
+                .thenReturn(new ArrayList<>(Arrays.asList(newer, older, oldest)));
+        HistoryPage page = messageService.getHistoryPage(user2, groupIds, null, null, null, 2);
+        assertEquals(Arrays.asList(newer, older), page.getMessages());
+        assertNotNull(page.getNextCursor());
+
+        Message after = HistoryPage.decodeCursor(page.getNextCursor());
+        assertEquals(older.getId(), after.getId());
+        assertEquals(older.getTimestampSent(), after.getTimestampSent());
+
+        when(messageDao.getReceivedPage(eq(user2.getId()), eq(groupIds), isNull(), isNull(), isA(Message.class),
+                eq(3)))
+                .thenReturn(Collections.singletonList(oldest));
+        page = messageService.getHistoryPage(user2, groupIds, null, null, page.getNextCursor(), 2);
+        assertEquals(Collections.singletonList(oldest), page.getMessages());
+        assertNull(page.getNextCursor());
+    }
+
+    /**
+     * Tests that a cursor not handed out by the service is turned down
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetHistoryPageBadCursor() {
+        messageService.getHistoryPage(new User("bob", null, null, null, null, null), Collections.emptyList(), null, null,
+                "bm90IGEgY3Vyc29y", 2);
+    }
+
+    /**
+     * Tests getUndeliveredMessages and markDelivered methods in messageService
+     */
+    @Test
+    public void testDelivery() {
+        User user = new User("alice", null, null, null, null, null);
+        User user2 = new User("bob", null, null, null, null, null);
+        Message msg = new Message(new Date(), user, user2, "hello", false);
+
+        when(messageDao.getUndelivered(user2.getId(), 10)).thenReturn(Collections.singletonList(msg));
+        assertEquals(Collections.singletonList(msg), messageService.getUndeliveredMessages(user2, 10));
+
+        when(messageDao.markDelivered(user2.getId(), Collections.singletonList(msg.getId()))).thenReturn(1L);
+        assertEquals(1, messageService.markDelivered(user2, Collections.singletonList(msg.getId())));
+        assertEquals(0, messageService.markDelivered(user2, Collections.emptyList()));
+        verify(messageDao, times(1)).markDelivered(any(), any());
+    }
+
+    /**
+     * Tests createGroupMessage method in messageService
+     */
+    @Test
+    public void testCreateGroupMessage() {
+        User alice = new User("alice", null, null, null, null, null);
+        User bob = new User("bob", null, null, null, null, null);
+        User carol = new User("carol", null, null, null, null, null);
+        Group group = new Group("friends", Arrays.asList(alice, bob));
+        group.addUser(carol);
+
+        when(messageDao.create(isA(Message.class))).thenReturn(true);
+        Message msg = messageService.createGroupMessage(new Date(), alice, group, "hello");
+        assertEquals(group, msg.getGroup());
+        assertNull(msg.getReceiver());
+        assertEquals(Arrays.asList(bob.getId(), carol.getId()), msg.getPendingIds());
+        verify(messageDao, times(1)).create(msg);
+
+        when(messageDao.create(isA(Message.class))).thenReturn(false);
+        assertNull(messageService.createGroupMessage(new Date(), alice, group, "hello"));
+    }
 }
@@ -4,6 +4,7 @@ package edu.northeastern.ccs.im.utils;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @SuppressWarnings("squid:S00100") // testing naming convention is different
@@ -23,4 +24,14 @@ public class PasswordHelperTest {
 
         assertTrue(hash.length() > 0);
     }
+
+    @Test
+    public void test_verifyPassword_rightAndWrong() {
+        byte[] salt = PasswordHelper.getSalt();
+        String hash = PasswordHelper.getPasswordHashString("foo", salt);
+        String saltString = PasswordHelper.convertByteToString(salt);
+
+        assertTrue(PasswordHelper.verifyPassword("foo", saltString, hash));
+        assertFalse(PasswordHelper.verifyPassword("bar", saltString, hash));
+    }
 }